@@ -7,6 +7,7 @@ import android.support.annotation.Nullable;
 import android.view.TextureView;
 
 import com.bigwen.opengl.R;
+import com.bigwen.opengl.gl.ve_gl.GlProgramCache;
 
 /**
  * Created by bigwen on 2020/9/6.
@@ -14,15 +15,18 @@ import com.bigwen.opengl.R;
 public class CameraActivity extends Activity {
 
     private TextureView mTextureView;
+    private PreviewProxy previewProxy;
+    private TextureView.SurfaceTextureListener surfaceTextureListener;
     private DisplayBridge displayBridge;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_camera);
+        GlProgramCache.getInstance().init(getApplicationContext());
         mTextureView = findViewById(R.id.texture_view);
-        final PreviewProxy previewProxy = new PreviewProxy();
-        previewProxy.doSetRendererView(mTextureView, new TextureView.SurfaceTextureListener() {
+        previewProxy = new PreviewProxy();
+        surfaceTextureListener = new TextureView.SurfaceTextureListener() {
             @Override
             public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
 
@@ -30,7 +34,7 @@ public class CameraActivity extends Activity {
 
             @Override
             public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
-                displayBridge.runGLThread(new Runnable() {
+                previewProxy.runPreviewThread(new Runnable() {
                     @Override
                     public void run() {
                         previewProxy.releasePreviewSurface();
@@ -40,7 +44,7 @@ public class CameraActivity extends Activity {
 
             @Override
             public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-                displayBridge.runGLThread(new Runnable() {
+                previewProxy.runPreviewThread(new Runnable() {
                     @Override
                     public void run() {
                         previewProxy.releasePreviewSurface();
@@ -53,7 +57,8 @@ public class CameraActivity extends Activity {
             public void onSurfaceTextureUpdated(SurfaceTexture surface) {
 
             }
-        });
+        };
+        previewProxy.doSetRendererView(mTextureView, surfaceTextureListener);
         displayBridge = new DisplayBridge(previewProxy);
         displayBridge.init();
         displayBridge.startCamera();
@@ -63,5 +68,7 @@ public class CameraActivity extends Activity {
     protected void onDestroy() {
         super.onDestroy();
         displayBridge.release();
+        //在预览线程释放EGL surface、context和drawer，然后退出预览线程
+        previewProxy.release(surfaceTextureListener);
     }
 }
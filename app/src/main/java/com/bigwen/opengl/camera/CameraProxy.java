@@ -22,6 +22,7 @@ public class CameraProxy {
     private int mDisplayRotation = 0;
     private int mImageRotation;
     private int mFrameRate = 15;
+    private PreviewBufferPool mPreviewBufferPool = null;
 
     public void createCamera() throws Exception {
         // 获取欲设置camera的索引号
@@ -97,7 +98,7 @@ public class CameraProxy {
 
         Camera.Parameters actualParm = mCamera.getParameters();
         mCameraWidth = actualParm.getPreviewSize().width;
-        mCameraWidth = actualParm.getPreviewSize().height;
+        mCameraHeight = actualParm.getPreviewSize().height;
         Log.e("Camera", "[WARNING] vcap: focus mode " + actualParm.getFocusMode());
 
         // 设置预览图像旋转方向
@@ -121,13 +122,10 @@ public class CameraProxy {
             throw new Exception(" mCameraSurfaceTexture is null");
         }
 
-        //sometime need add this method
-//        mCamera.setPreviewCallbackWithBuffer(new Camera.PreviewCallback() {
-//            @Override
-//            public void onPreviewFrame(byte[] data, Camera camera) {
-//
-//            }
-//        });
+        // NV21模式下用固定的缓冲区接收预览帧，每帧不分配内存
+        if (mPreviewBufferPool != null) {
+            mPreviewBufferPool.attach(mCamera, mCameraWidth, mCameraHeight);
+        }
 
         try {
             // 设置预览SurfaceTexture
@@ -147,6 +145,9 @@ public class CameraProxy {
         if (mCamera != null) {
             // 停止camera预览
             mCamera.stopPreview();
+            if (mPreviewBufferPool != null) {
+                mPreviewBufferPool.detach();
+            }
         }
         return 0;
     }
@@ -155,6 +156,10 @@ public class CameraProxy {
     public int releaseCamera() {
         // * release cam
         if (mCamera != null) {
+            // startCamera()失败时没有经过stopPreview()，缓冲区池要在release之前解除
+            if (mPreviewBufferPool != null) {
+                mPreviewBufferPool.detach();
+            }
             mCamera.release();
             mCamera = null;
         }
@@ -177,4 +182,18 @@ public class CameraProxy {
         }
         return mCameraHeight;
     }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    // 设置NV21预览回调的缓冲区池，为null时不接收预览回调，startCamera()之前调用
+    public void setPreviewBufferPool(PreviewBufferPool pool) {
+        mPreviewBufferPool = pool;
+    }
+
+    // 图像需要顺时针旋转的角度
+    public int getImageRotation() {
+        return mImageRotation;
+    }
 }
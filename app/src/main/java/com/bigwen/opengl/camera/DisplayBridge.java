@@ -4,16 +4,32 @@ import android.graphics.SurfaceTexture;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
 import android.view.TextureView;
 
-import com.bigwen.opengl.R;
-import com.bigwen.opengl.gl.GLUtil;
+import com.bigwen.opengl.gl.ve_gl.BeautyQualityController;
 import com.bigwen.opengl.gl.ve_gl.EglBase;
 import com.bigwen.opengl.gl.ve_gl.EglBase14;
+import com.bigwen.opengl.gl.ve_gl.EglContextBinder;
+import com.bigwen.opengl.gl.ve_gl.GlBeautyFilter;
+import com.bigwen.opengl.gl.ve_gl.GlFence;
+import com.bigwen.opengl.gl.ve_gl.GlFilter;
+import com.bigwen.opengl.gl.ve_gl.GlFilterChain;
+import com.bigwen.opengl.gl.ve_gl.GlGpuTimer;
+import com.bigwen.opengl.gl.ve_gl.GlNv21Uploader;
+import com.bigwen.opengl.gl.ve_gl.GlPixelReader;
 import com.bigwen.opengl.gl.ve_gl.GlRectDrawer;
+import com.bigwen.opengl.gl.ve_gl.GlRenderTargetPool;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
+import com.bigwen.opengl.gl.ve_gl.GlUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by bigwen on 2020/9/6.
@@ -21,6 +37,24 @@ import com.bigwen.opengl.gl.ve_gl.GlRectDrawer;
 public class DisplayBridge {
 
     private static final String TAG = "DisplayBridge";
+
+    // 采集方式：camera直接输出到OES纹理
+    public static final int CAPTURE_TEXTURE = 0;
+    // 采集方式：NV21预览回调，帧在CPU可见，在GPU上转换为RGB
+    public static final int CAPTURE_NV21 = 1;
+
+    private static class SnapshotRequest {
+        final int width;
+        final int height;
+        final GlPixelReader.Callback callback;
+
+        SnapshotRequest(int width, int height, GlPixelReader.Callback callback) {
+            this.width = width;
+            this.height = height;
+            this.callback = callback;
+        }
+    }
+
     private CameraProxy cameraProxy;
 
 
@@ -30,16 +64,52 @@ public class DisplayBridge {
 
     private EglBase mRootContext;
     private GlRectDrawer mRootDrawer;
+    private GlBeautyFilter mBeautyFilter;
+    // 根据帧耗时自动调节美颜档位，为null时使用固定档位
+    private volatile BeautyQualityController mQualityController;
+    private boolean mAutoBeautyQuality = true;
     private SurfaceTexture mCameraSurfaceTexture;
     private float[] mCameraSurfaceMatrix = new float[16];
     private int mOesTextureId;
-    private int mTextureId = 0;
-    private int mFrameBufferId = 0;
+    // 离屏渲染目标都从池中借用，重启camera或尺寸变化时可复用
+    private GlRenderTargetPool mTargetPool;
+    private GlRenderTargetPool.RenderTarget mOutputTarget;
+    // camera帧依次经过的滤镜，默认只有美颜，可在运行时增删
+    private volatile GlFilterChain mFilterChain;
+    // 各阶段耗时统计
+    private final FrameLatencyTracker mLatencyTracker = new FrameLatencyTracker();
+    // 滤镜链在GPU上的耗时，美颜档位按它调节
+    private GlGpuTimer mGpuTimer;
 
     private PreviewProxy mPreviewProxy;
+    // 背压策略，处理不过来时合并或丢弃积压的帧
+    private volatile FrameScheduler mFrameScheduler;
+    private FrameScheduler.Policy mFramePolicy = FrameScheduler.Policy.LATEST_WINS;
+    // NV21采集相关，只在display线程访问
+    private int mCaptureMode = CAPTURE_TEXTURE;
+    private PreviewBufferPool mPreviewBufferPool;
+    private GlNv21Uploader mNv21Uploader;
+    private final float[] mNv21Matrix = new float[16];
+    private volatile PreviewBufferPool.FrameListener mPreviewFrameListener;
+    private int mFrameQueueCapacity = FrameScheduler.DEFAULT_QUEUE_CAPACITY;
+    // display线程上一帧的context切换次数
+    private volatile int mContextSwitches = 0;
+    // 预览之外的输出，只在display线程访问
+    private final List<FrameOutput> mOutputs = new ArrayList<FrameOutput>();
+    private final List<GlFence> mOutputReadFences = new ArrayList<GlFence>();
+    // 编码器等视频输出，只在display线程访问
+    private final List<VideoSink> mVideoSinks = new ArrayList<VideoSink>();
+    // 读回CPU的截图和连续帧，回调在mReadbackExecutor中执行
+    private GlPixelReader mPixelReader;
+    private final ExecutorService mReadbackExecutor = Executors.newSingleThreadExecutor();
+    private final List<SnapshotRequest> mSnapshotRequests = new ArrayList<SnapshotRequest>();
+    private GlPixelReader.Callback mFrameReadCallback = null;
+    private final int[] mFrameReadSize = new int[2];
+    private FramePacer mFrameReadPacer = null;
 
     public DisplayBridge(PreviewProxy previewProxy) {
         this.mPreviewProxy = previewProxy;
+        this.mPreviewProxy.setLatencyTracker(mLatencyTracker);
     }
 
     public void init() {
@@ -54,63 +124,222 @@ public class DisplayBridge {
                 try {
                     mRootContext.createDummyPbufferSurface();
                     mRootContext.makeCurrent();
-                    mRootDrawer = new GlRectDrawer();
+                    mRootDrawer = new GlRectDrawer(mRootContext);
+                    mTargetPool = new GlRenderTargetPool(mRootContext.getGlStateCache(),
+                            GlRenderTargetPool.DEFAULT_BUDGET_BYTES);
+                    mGpuTimer = new GlGpuTimer(mRootContext.getGlStateCache().getGl(),
+                            GlGpuTimer.DEFAULT_SLOT_COUNT);
+                    mBeautyFilter = new GlBeautyFilter(mRootDrawer, mRootContext.getGlStateCache(), mTargetPool);
+                    mFilterChain = new GlFilterChain(mRootDrawer, mRootContext.getGlStateCache(), mTargetPool);
+                    mFilterChain.add(mBeautyFilter);
+                    mPixelReader = new GlPixelReader(mRootDrawer, mRootContext.getGlStateCache(), mTargetPool,
+                            mReadbackExecutor, GlPixelReader.DEFAULT_SLOT_COUNT);
                 }catch (Exception e) {
                     mRootContext.releaseSurface();
                     e.printStackTrace();
                 }
 
                 mIsEgl14 = EglBase14.isEGL14Supported();
-                mOesTextureId = GLUtil.generateTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+                mOesTextureId = GlUtil.generateTexture(mRootContext.getGlStateCache().getGl(),
+                        GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+                mRootContext.getGlStateCache().invalidate();
                 mCameraSurfaceTexture = new SurfaceTexture(mOesTextureId);
-                mCameraSurfaceTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+                mFrameScheduler = new FrameScheduler(displayHandler, new FrameScheduler.FrameConsumer() {
+                    @Override
+                    public boolean isReady() {
+                        return cameraProxy != null && mFilterChain != null;
+                    }
+
                     @Override
-                    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                    public void dropFrame() {
+                        // 只取出帧，不做绘制
                         mRootContext.makeCurrent();
-                        surfaceTexture.updateTexImage();
-                        long timestamp = surfaceTexture.getTimestamp();
-                        surfaceTexture.getTransformMatrix(mCameraSurfaceMatrix);
-
-                        int width = cameraProxy.getCameraWidth();
-                        int height = cameraProxy.getCameraHeight();
-
-                        if (mTextureId == 0) {
-                            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-                            mTextureId = GLUtil.generateTexture(GLES20.GL_TEXTURE_2D);
-                            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
-
-                            // 创建帧缓冲对象，绘制纹理到帧缓冲区并返回缓冲区索引
-                            mFrameBufferId = GLUtil.generateFrameBuffer(mTextureId);
-                        } else {
-                            // 绑定帧缓冲区
-                            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBufferId);
-                        }
-                        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-                        mRootDrawer.drawOes(mOesTextureId, mCameraSurfaceMatrix, width, height, 0, 0, width, height);
-                        // 解邦帧缓冲区
-                        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+                        mCameraSurfaceTexture.updateTexImage();
+                        mRootContext.getGlStateCache().invalidateTextures();
+                    }
 
-                        mPreviewProxy.drawToPreview(mTextureId, width, height, mCameraSurfaceMatrix, mRootContext, 0);
+                    @Override
+                    public void processFrame() {
+                        // NV21模式下画面来自预览回调，SurfaceTexture的帧只取出不绘制
+                        if (mCaptureMode == CAPTURE_NV21) {
+                            dropFrame();
+                            return;
+                        }
+                        drawFrame();
                     }
                 });
+                mFrameScheduler.setPolicy(mFramePolicy, mFrameQueueCapacity);
+                // 回调中只计数，由FrameScheduler决定处理哪些帧
+                mCameraSurfaceTexture.setOnFrameAvailableListener(mFrameScheduler);
             }
         });
     }
 
+    private void drawFrame() {
+        long frameStartNs = System.nanoTime();
+        mLatencyTracker.beginFrame();
+        mRootContext.makeCurrent();
+        GlStateCache glState = mRootContext.getGlStateCache();
+        mCameraSurfaceTexture.updateTexImage();
+        mLatencyTracker.mark(FrameLatencyTracker.Stage.UPDATE_TEX_IMAGE);
+        // updateTexImage()会重新绑定OES纹理
+        glState.invalidateTextures();
+        long timestamp = mCameraSurfaceTexture.getTimestamp();
+        mLatencyTracker.setCaptureTimestamp(timestamp);
+        mCameraSurfaceTexture.getTransformMatrix(mCameraSurfaceMatrix);
+
+        renderFrame(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mOesTextureId, timestamp, frameStartNs);
+    }
+
+    /**
+     * NV21模式下处理一帧：Y、VU两个平面直接上传为纹理，在GPU上转换为RGB后进入滤镜链。
+     * 上传时GL已复制数据，之后缓冲区交给CPU消费者或直接还给camera。
+     */
+    private void drawPreviewFrame(PreviewBufferPool.Frame frame) {
+        if (cameraProxy == null || mFilterChain == null) {
+            frame.release();
+            return;
+        }
+        long frameStartNs = System.nanoTime();
+        mLatencyTracker.beginFrame();
+        mRootContext.makeCurrent();
+        GlStateCache glState = mRootContext.getGlStateCache();
+        if (mNv21Uploader == null) {
+            mNv21Uploader = new GlNv21Uploader(glState);
+        }
+        int frameWidth = frame.getWidth();
+        int frameHeight = frame.getHeight();
+        mNv21Uploader.upload(frame.getBuffer(), frameWidth, frameHeight);
+        mLatencyTracker.mark(FrameLatencyTracker.Stage.UPDATE_TEX_IMAGE);
+        long timestamp = frame.getTimestampNs();
+        mLatencyTracker.setCaptureTimestamp(timestamp);
+        PreviewBufferPool.FrameListener listener = mPreviewFrameListener;
+        if (listener != null) {
+            listener.onPreviewFrame(frame);
+        } else {
+            frame.release();
+        }
+
+        // NV21第一行是图像顶部，纹理坐标需要上下翻转，再按camera方向旋转
+        Matrix.setIdentityM(mNv21Matrix, 0);
+        Matrix.translateM(mNv21Matrix, 0, 0.5f, 0.5f, 0);
+        Matrix.rotateM(mNv21Matrix, 0, cameraProxy.getImageRotation(), 0, 0, 1);
+        Matrix.scaleM(mNv21Matrix, 0, 1, -1, 1);
+        Matrix.translateM(mNv21Matrix, 0, -0.5f, -0.5f, 0);
+        // 滤镜链的输入已经是正向的
+        Matrix.setIdentityM(mCameraSurfaceMatrix, 0);
+
+        int width = cameraProxy.getCameraWidth();
+        int height = cameraProxy.getCameraHeight();
+        GlRenderTargetPool.RenderTarget rgbTarget = mTargetPool.acquire(width, height);
+        glState.bindFramebuffer(rgbTarget.getFramebufferId());
+        mRootDrawer.drawNv21(mNv21Uploader.getYTextureId(), mNv21Uploader.getUvTextureId(), mNv21Matrix,
+                frameWidth, frameHeight, 0, 0, width, height);
+        renderFrame(GLES20.GL_TEXTURE_2D, rgbTarget.getTextureId(), timestamp, frameStartNs);
+        rgbTarget.release();
+    }
+
+    // 滤镜链及之后的预览、输出、读回，两种采集方式共用
+    private void renderFrame(int textureTarget, int textureId, long timestamp, long frameStartNs) {
+        GlStateCache glState = mRootContext.getGlStateCache();
+        int width = cameraProxy.getCameraWidth();
+        int height = cameraProxy.getCameraHeight();
+
+        // 上一帧的输出归还给池，滤镜链的中间结果在池中的纹理之间交替绘制
+        if (mOutputTarget != null) {
+            mOutputTarget.release();
+        }
+        mGpuTimer.begin();
+        mOutputTarget = mFilterChain.render(textureTarget, textureId, mCameraSurfaceMatrix, width, height);
+        mGpuTimer.end();
+        mLatencyTracker.mark(FrameLatencyTracker.Stage.FILTER);
+        // 解邦帧缓冲区
+        glState.bindFramebuffer(0);
+        glState.endFrame();
+
+        // 只交给预览线程，不等待显示完成
+        mPreviewProxy.drawToPreview(mOutputTarget, mCameraSurfaceMatrix, mRootContext, 0);
+        drawToOutputs(timestamp);
+        for (VideoSink sink : mVideoSinks) {
+            sink.onFrame(mRootContext, mOutputTarget, mCameraSurfaceMatrix, timestamp);
+        }
+        readPixels(timestamp);
+        // root context一直绑定在display线程上，没有额外输出时为0，每个输出切换一次，最后切回root context一次
+        mContextSwitches = EglContextBinder.endFrame();
+
+        // 前一两帧的滤镜链已经在GPU上完成的，取出耗时，不等待
+        long gpuNs = mGpuTimer.poll();
+        if (mGpuTimer.isEnabled()) {
+            mLatencyTracker.record(FrameLatencyTracker.Stage.GPU, gpuNs);
+        }
+
+        // 决定下一帧的美颜档位。美颜的开销主要在GPU上，显示线程上的耗时只是提交命令的时间，
+        // 所以取它和滤镜链的GPU耗时中较大的一个
+        BeautyQualityController controller = mQualityController;
+        if (controller != null) {
+            long frameNs = Math.max(System.nanoTime() - frameStartNs, gpuNs);
+            GlBeautyFilter.Quality quality = controller.onFrame(frameNs);
+            if (quality != mBeautyFilter.getQuality()) {
+                Log.d(TAG, "beauty quality: " + controller);
+                mBeautyFilter.setQuality(quality);
+            }
+        }
+    }
+
+    // 同一帧滤镜结果绘制到所有输出，之后切回root context
+    private void drawToOutputs(long timestampNs) {
+        if (mOutputs.isEmpty()) {
+            return;
+        }
+        GlFence drawFence = GlFence.create(mRootContext.getGlStateCache().getGl());
+        for (FrameOutput output : mOutputs) {
+            try {
+                GlFence readFence = output.render(mRootContext, mOutputTarget, mCameraSurfaceMatrix,
+                        drawFence, timestampNs);
+                if (readFence != null) {
+                    mOutputReadFences.add(readFence);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        mRootContext.makeCurrent();
+        // 下一帧复用纹理之前，GPU要等待所有输出读取完成
+        for (GlFence readFence : mOutputReadFences) {
+            readFence.waitGpu();
+            readFence.release();
+        }
+        mOutputReadFences.clear();
+        drawFence.release();
+    }
+
+    // 发起本帧的读回，并交付一两帧之前已完成的结果
+    private void readPixels(long timestampNs) {
+        mPixelReader.poll();
+        if (!mSnapshotRequests.isEmpty()) {
+            SnapshotRequest request = mSnapshotRequests.get(0);
+            int width = request.width > 0 ? request.width : mOutputTarget.getWidth();
+            int height = request.height > 0 ? request.height : mOutputTarget.getHeight();
+            // 所有读回缓冲区都在使用中时留到下一帧
+            if (mPixelReader.read(mOutputTarget, width, height, timestampNs, request.callback)) {
+                mSnapshotRequests.remove(0);
+            }
+        }
+        if (mFrameReadCallback != null && mFrameReadPacer.accept(timestampNs)) {
+            int width = mFrameReadSize[0] > 0 ? mFrameReadSize[0] : mOutputTarget.getWidth();
+            int height = mFrameReadSize[1] > 0 ? mFrameReadSize[1] : mOutputTarget.getHeight();
+            mPixelReader.read(mOutputTarget, width, height, timestampNs, mFrameReadCallback);
+        }
+    }
+
     private void clearFbo() {
         // 绑定eglContext、eglDisplay、eglSurface
         mRootContext.makeCurrent();;
 
-        if (mTextureId != 0) {
-            int[] textures = new int[]{mTextureId};
-            GLES20.glDeleteTextures(1, textures, 0);
-            mTextureId = 0;
-        }
-
-        if (mFrameBufferId != 0) {
-            int[] frameBuffers = new int[]{mFrameBufferId};
-            GLES20.glDeleteFramebuffers(1, frameBuffers, 0);
-            mFrameBufferId = 0;
+        // 归还给池而不是删除，camera以相同尺寸重启时直接复用
+        if (mOutputTarget != null) {
+            mOutputTarget.release();
+            mOutputTarget = null;
         }
     }
 
@@ -123,8 +352,26 @@ public class DisplayBridge {
                 }
                 try {
                     cameraProxy.createCamera();
+                    if (mCaptureMode == CAPTURE_NV21) {
+                        if (mPreviewBufferPool == null) {
+                            mPreviewBufferPool = new PreviewBufferPool(PreviewBufferPool.DEFAULT_BUFFER_COUNT,
+                                    new PreviewBufferPool.FrameListener() {
+                                        @Override
+                                        public void onPreviewFrame(PreviewBufferPool.Frame frame) {
+                                            drawPreviewFrame(frame);
+                                        }
+                                    });
+                        }
+                        cameraProxy.setPreviewBufferPool(mPreviewBufferPool);
+                    } else {
+                        cameraProxy.setPreviewBufferPool(null);
+                    }
                     cameraProxy.startCamera(mCameraSurfaceTexture);
                     clearFbo();
+                    if (mAutoBeautyQuality) {
+                        mQualityController = new BeautyQualityController(cameraProxy.getFrameRate(),
+                                mBeautyFilter.getQuality(), GlBeautyFilter.Quality.OFF);
+                    }
                 } catch (Exception e) {
                     cameraProxy.releaseCamera();
                     e.printStackTrace();
@@ -133,19 +380,272 @@ public class DisplayBridge {
         });
     }
 
+    /**
+     * 停止camera并释放所有资源，之后不能再使用。已经投递的任务先执行完，然后在display线程释放，
+     * 最后退出display线程，之后投递的任务被丢弃。
+     */
     public void release() {
+        if (displayHandler == null) {
+            mReadbackExecutor.shutdown();
+            return;
+        }
+        displayHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseOnDisplayThread();
+                // 读回的回调都已投递，执行完后线程退出
+                mReadbackExecutor.shutdown();
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                    displayThread.quit();
+                }
+            }
+        });
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            displayThread.quitSafely();
+        }
+    }
+
+    // 依次停止camera，释放视频输出、其他输出、读回、滤镜链和渲染目标池，最后释放root context
+    private void releaseOnDisplayThread() {
         if (cameraProxy != null) {
-            displayHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    if (cameraProxy == null) return;
-                    cameraProxy.stopPreview();
-                    cameraProxy.releaseCamera();
+            cameraProxy.stopPreview();
+            cameraProxy.releaseCamera();
+            cameraProxy = null;
+        }
+        if (mCameraSurfaceTexture != null) {
+            mCameraSurfaceTexture.setOnFrameAvailableListener(null);
+            mCameraSurfaceTexture.release();
+            mCameraSurfaceTexture = null;
+        }
+        if (mRootContext == null) {
+            return;
+        }
+        try {
+            mRootContext.makeCurrent();
+            for (VideoSink sink : mVideoSinks) {
+                sink.release();
+            }
+            mVideoSinks.clear();
+            for (FrameOutput output : mOutputs) {
+                output.release();
+            }
+            mOutputs.clear();
+            mRootContext.makeCurrent();
+            mPreviewProxy.releaseFrames();
+
+            // 未完成的读回直接丢弃
+            if (mPixelReader != null) {
+                mPixelReader.release();
+                mPixelReader = null;
+            }
+            mSnapshotRequests.clear();
+            mFrameReadCallback = null;
+            clearFbo();
+            if (mFilterChain != null) {
+                mFilterChain.release();
+                mFilterChain = null;
+            }
+            if (mNv21Uploader != null) {
+                mNv21Uploader.release();
+                mNv21Uploader = null;
+            }
+            if (mGpuTimer != null) {
+                mGpuTimer.release();
+                mGpuTimer = null;
+            }
+            if (mOesTextureId != 0) {
+                mRootContext.getGlStateCache().getGl().deleteTextures(1, new int[] {mOesTextureId}, 0);
+                mOesTextureId = 0;
+            }
+            if (mTargetPool != null) {
+                mTargetPool.release();
+            }
+            if (mRootDrawer != null) {
+                mRootDrawer.release();
+                mRootDrawer = null;
+            }
+        } catch (RuntimeException e) {
+            // 创建pbuffer surface失败等情况，GL资源已经无法释放，仍然要释放context
+            e.printStackTrace();
+        }
+        mRootContext.release();
+        mRootContext = null;
+    }
+
+    // 固定美颜档位并关闭自动调节，在GL线程生效
+    public void setBeautyQuality(final GlBeautyFilter.Quality quality) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                mAutoBeautyQuality = false;
+                mQualityController = null;
+                if (mBeautyFilter != null) {
+                    mBeautyFilter.setQuality(quality);
                 }
-            });
+            }
+        });
+    }
+
+    // 按camera帧率自动调节美颜档位，下次startCamera()时生效
+    public void enableAutoBeautyQuality() {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                mAutoBeautyQuality = true;
+            }
+        });
+    }
+
+    // 当前的自动调节状态，包含档位和切换记录，未开启时返回null
+    public BeautyQualityController getBeautyQualityController() {
+        return mQualityController;
+    }
+
+    // 在滤镜链末尾添加滤镜，下一帧生效
+    public void addFilter(GlFilter filter) {
+        if (mFilterChain != null) {
+            mFilterChain.add(filter);
+        }
+    }
+
+    // 移除滤镜，下一帧在GL线程中释放
+    public void removeFilter(GlFilter filter) {
+        if (mFilterChain != null) {
+            mFilterChain.remove(filter);
         }
-        displayHandler.removeCallbacksAndMessages(null);
-        displayThread.quit();
+    }
+
+    /**
+     * 设置背压策略：LATEST_WINS只处理最新帧；BOUNDED_QUEUE处理每一帧，积压超过|queueCapacity|时丢弃最旧的帧
+     */
+    public void setFramePolicy(final FrameScheduler.Policy policy, final int queueCapacity) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                mFramePolicy = policy;
+                mFrameQueueCapacity = queueCapacity;
+                if (mFrameScheduler != null) {
+                    mFrameScheduler.setPolicy(policy, queueCapacity);
+                }
+            }
+        });
+    }
+
+    // 添加一个输出，从下一帧开始绘制，不需要重启camera
+    public void addOutput(final FrameOutput output) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!mOutputs.contains(output)) {
+                    mOutputs.add(output);
+                }
+            }
+        });
+    }
+
+    // 移除一个输出并释放其EGL资源，|output|的Surface由调用者释放
+    public void removeOutput(final FrameOutput output) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mOutputs.remove(output)) {
+                    output.release();
+                    mRootContext.makeCurrent();
+                }
+            }
+        });
+    }
+
+    // 设置采集方式CAPTURE_TEXTURE或CAPTURE_NV21，下次startCamera()时生效
+    public void setCaptureMode(final int captureMode) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                mCaptureMode = captureMode;
+            }
+        });
+    }
+
+    /**
+     * NV21模式下接收原始帧，在display线程回调，此时帧已上传到GPU。
+     * 处理完后调用frame.release()把缓冲区还给camera，持有太久会导致camera丢帧。
+     */
+    public void setPreviewFrameListener(PreviewBufferPool.FrameListener listener) {
+        mPreviewFrameListener = listener;
+    }
+
+    /**
+     * 读回下一帧滤镜结果，在GPU上缩放到|width|x|height|，为0时使用原尺寸。
+     * 结果延迟一两帧在后台线程回调，用完后调用Frame.release()。
+     */
+    public void requestSnapshot(final int width, final int height, final GlPixelReader.Callback callback) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshotRequests.add(new SnapshotRequest(width, height, callback));
+            }
+        });
+    }
+
+    /**
+     * 持续读回滤镜结果，帧率不超过|maxFps|，供分析、上传等CPU处理使用；|callback|为null时停止。
+     * 处理不过来时丢弃新帧，见GlPixelReader.getDroppedReads()。
+     */
+    public void setFrameReadCallback(final int width, final int height, final int maxFps,
+                                     final GlPixelReader.Callback callback) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                mFrameReadSize[0] = width;
+                mFrameReadSize[1] = height;
+                mFrameReadPacer = new FramePacer(maxFps);
+                mFrameReadCallback = callback;
+            }
+        });
+    }
+
+    // 添加一个视频输出，从下一帧开始接收带采集时间戳的滤镜结果
+    public void addVideoSink(final VideoSink sink) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!mVideoSinks.contains(sink)) {
+                    mVideoSinks.add(sink);
+                }
+            }
+        });
+    }
+
+    // 移除并释放一个视频输出
+    public void removeVideoSink(final VideoSink sink) {
+        runGLThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mVideoSinks.remove(sink)) {
+                    sink.release();
+                }
+            }
+        });
+    }
+
+    // display线程上一帧调用eglMakeCurrent()的次数，预览线程的见PreviewProxy.getContextSwitchesPerFrame()
+    public int getContextSwitchesPerFrame() {
+        return mContextSwitches;
+    }
+
+    // 处理和丢弃的帧数，未初始化时返回null
+    public FrameScheduler getFrameScheduler() {
+        return mFrameScheduler;
+    }
+
+    // 从采集到显示各阶段的耗时分布，可在任意线程读取
+    public FrameLatencyTracker getLatencyTracker() {
+        return mLatencyTracker;
+    }
+
+    // 各级滤镜的耗时，未初始化时返回null
+    public GlFilterChain getFilterChain() {
+        return mFilterChain;
     }
 
     public void runGLThread(Runnable runnable) {
@@ -0,0 +1,233 @@
+package com.bigwen.opengl.camera;
+
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import com.bigwen.opengl.gl.ve_gl.EglBase;
+import com.bigwen.opengl.gl.ve_gl.EglBase14;
+import com.bigwen.opengl.gl.ve_gl.GlFence;
+import com.bigwen.opengl.gl.ve_gl.GlRectDrawer;
+import com.bigwen.opengl.gl.ve_gl.GlRenderTargetPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把处理后的画面送入编码器的输入Surface（MediaCodec.createInputSurface()）
+ *
+ * 直接在GPU上绘制滤镜结果，不需要第二次滤镜绘制，也没有CPU拷贝；采集时间戳通过
+ * EglBase14.swapBuffers(timeStampNs)设置为显示时间，编码输出可以直接和音频对齐。
+ * 绘制在单独的编码线程进行：编码器处理不过来时swapBuffers()会阻塞，此时display线程直接丢弃新帧，
+ * 不会被拖慢。
+ */
+public class EncoderSink implements VideoSink {
+
+    // 编码线程同时只处理一帧，另一帧可能还在等待回收，所以2个就够用
+    private static final int FRAME_COUNT = 2;
+
+    // 交给编码线程的一帧，反复使用，不在每帧分配
+    private static class Frame {
+        GlRenderTargetPool.RenderTarget target;
+        // display线程绘制完成的fence
+        final GlFence fence = new GlFence();
+        // 编码线程读取完成的fence，|read|为false时没有绘制
+        final GlFence readFence = new GlFence();
+        boolean read;
+        final float[] texMatrix = new float[16];
+        long timestampNs;
+    }
+
+    private final Surface mInputSurface;
+    private final int mWidth;
+    private final int mHeight;
+    private final FramePacer mPacer;
+
+    private final HandlerThread mEncoderThread;
+    private final Handler mEncoderHandler;
+    // 以下只在编码线程访问
+    private EglBase mEglBase = null;
+    private GlRectDrawer mDrawer = null;
+    private final float[] mMatrix = new float[16];
+    private final int[] mViewport = new int[4];
+
+    private volatile EglBase.Context mSharedContext;
+    private final Object mFrameLock = new Object();
+    private boolean mBusy = false;
+    // 交给编码线程、还没开始处理的帧
+    private Frame mQueuedFrame = null;
+    private final List<Frame> mRetiredFrames = new ArrayList<Frame>(FRAME_COUNT);
+    // 空闲的帧，只在display线程访问
+    private final List<Frame> mFreeFrames = new ArrayList<Frame>(FRAME_COUNT);
+    private final Runnable mEncodeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Frame frame;
+            synchronized (mFrameLock) {
+                frame = mQueuedFrame;
+                mQueuedFrame = null;
+            }
+            encode(frame);
+        }
+    };
+
+    private final AtomicLong mEncodedFrames = new AtomicLong();
+    private final AtomicLong mPacedFrames = new AtomicLong();
+    private final AtomicLong mOverloadFrames = new AtomicLong();
+
+    /**
+     * @param inputSurface  编码器的输入Surface，由调用者创建和释放
+     * @param maxFps        最大帧率，不大于0时不限制
+     */
+    public EncoderSink(Surface inputSurface, int width, int height, int maxFps) {
+        mInputSurface = inputSurface;
+        mWidth = width;
+        mHeight = height;
+        mPacer = new FramePacer(maxFps);
+        mEncoderThread = new HandlerThread("encoder_thread");
+        mEncoderThread.start();
+        mEncoderHandler = new Handler(mEncoderThread.getLooper());
+        for (int i = 0; i < FRAME_COUNT; ++i) {
+            mFreeFrames.add(new Frame());
+        }
+    }
+
+    @Override
+    public void onFrame(EglBase rootContext, GlRenderTargetPool.RenderTarget target, float[] texMatrix,
+                        long timestampNs) {
+        recycleRetiredFrames();
+        if (!mPacer.accept(timestampNs)) {
+            mPacedFrames.incrementAndGet();
+            return;
+        }
+        synchronized (mFrameLock) {
+            if (mBusy || mFreeFrames.isEmpty()) {
+                // 编码线程还在处理上一帧
+                mOverloadFrames.incrementAndGet();
+                return;
+            }
+            mBusy = true;
+        }
+        mSharedContext = rootContext.getEglBaseContext();
+
+        final Frame frame = mFreeFrames.remove(mFreeFrames.size() - 1);
+        frame.target = target;
+        frame.fence.insert();
+        frame.read = false;
+        System.arraycopy(texMatrix, 0, frame.texMatrix, 0, 16);
+        frame.timestampNs = mPacer.normalize(timestampNs);
+        target.retain();
+        synchronized (mFrameLock) {
+            mQueuedFrame = frame;
+        }
+        mEncoderHandler.post(mEncodeRunnable);
+    }
+
+    // 编码的帧数
+    public long getEncodedFrames() {
+        return mEncodedFrames.get();
+    }
+
+    // 超过最大帧率被丢弃的帧数
+    public long getPacedFrames() {
+        return mPacedFrames.get();
+    }
+
+    // 编码器处理不过来被丢弃的帧数
+    public long getOverloadFrames() {
+        return mOverloadFrames.get();
+    }
+
+    // 在编码线程调用
+    private void encode(Frame frame) {
+        try {
+            if (mEglBase == null) {
+                mEglBase = EglBase.create(mSharedContext, EglBase.CONFIG_RECORDABLE);
+                mEglBase.createSurface(mInputSurface);
+                mDrawer = new GlRectDrawer(mEglBase);
+            }
+            mEglBase.makeCurrent();
+            frame.fence.waitGpu();
+            // 纹理在display线程的context里重新绘制过，重新绑定才能保证读到新内容
+            mEglBase.getGlStateCache().invalidateTextures();
+
+            GlRenderTargetPool.RenderTarget target = frame.target;
+            System.arraycopy(frame.texMatrix, 0, mMatrix, 0, 16);
+            FrameOutput.layout(target.getWidth(), target.getHeight(), mWidth, mHeight,
+                    FrameOutput.SCALE_FILL, mMatrix, mViewport);
+            mEglBase.getGlStateCache().getGl().clear(GLES20.GL_COLOR_BUFFER_BIT);
+            mDrawer.drawRgb(target.getTextureId(), mMatrix, target.getWidth(), target.getHeight(),
+                    mViewport[0], mViewport[1], mViewport[2], mViewport[3]);
+            mEglBase.getGlStateCache().endFrame();
+            frame.readFence.insert();
+            frame.read = true;
+
+            if (mEglBase instanceof EglBase14) {
+                ((EglBase14) mEglBase).swapBuffers(frame.timestampNs);
+            } else {
+                mEglBase.swapBuffers();
+            }
+            mEncodedFrames.incrementAndGet();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            synchronized (mFrameLock) {
+                mRetiredFrames.add(frame);
+                mBusy = false;
+            }
+        }
+    }
+
+    // 在display线程调用，sync对象和target都在display线程回收
+    private void recycleRetiredFrames() {
+        synchronized (mFrameLock) {
+            for (int i = 0; i < mRetiredFrames.size(); ++i) {
+                final Frame frame = mRetiredFrames.get(i);
+                if (frame.read) {
+                    frame.readFence.waitGpu();
+                    frame.readFence.release();
+                }
+                frame.fence.release();
+                frame.target.release();
+                frame.target = null;
+                mFreeFrames.add(frame);
+            }
+            mRetiredFrames.clear();
+        }
+    }
+
+    // 等待编码线程处理完最后一帧并释放EGL资源，不释放输入Surface
+    @Override
+    public void release() {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mEncoderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mEglBase != null) {
+                    mEglBase.makeCurrent();
+                    mDrawer.release();
+                    mDrawer = null;
+                    mEglBase.release();
+                    mEglBase = null;
+                }
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mEncoderThread.quit();
+        recycleRetiredFrames();
+    }
+
+    @Override
+    public String toString() {
+        return "encoded=" + getEncodedFrames() + " paced=" + getPacedFrames()
+                + " overload=" + getOverloadFrames();
+    }
+}
@@ -0,0 +1,134 @@
+package com.bigwen.opengl.camera;
+
+import android.opengl.GLES20;
+
+import com.bigwen.opengl.gl.ve_gl.EglBase;
+import com.bigwen.opengl.gl.ve_gl.GlRenderTargetPool;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 调试用的VideoSink，代替编码器把收到的帧写入文件，用来检查帧率、丢帧和时间戳
+ *
+ * 每帧依次写入：时间戳（long）、宽、高（int），然后是RGBA像素，小端序。
+ * 像素用glReadPixels()同步读回，写文件在后台线程进行；缓冲区用完时丢弃新帧，与EncoderSink的过载处理一致。
+ */
+public class FileVideoSink implements VideoSink {
+    private static final int BUFFER_COUNT = 3;
+    private static final int HEADER_SIZE = 16;
+
+    private final FileChannel mChannel;
+    private final FramePacer mPacer;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    private final ArrayBlockingQueue<ByteBuffer> mFreeBuffers =
+            new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT);
+    private int mAllocatedBuffers = 0;
+
+    private final AtomicLong mWrittenFrames = new AtomicLong();
+    private final AtomicLong mPacedFrames = new AtomicLong();
+    private final AtomicLong mOverloadFrames = new AtomicLong();
+
+    public FileVideoSink(File file, int maxFps) throws IOException {
+        mChannel = new FileOutputStream(file).getChannel();
+        mPacer = new FramePacer(maxFps);
+    }
+
+    @Override
+    public void onFrame(EglBase rootContext, GlRenderTargetPool.RenderTarget target, float[] texMatrix,
+                        long timestampNs) {
+        if (!mPacer.accept(timestampNs)) {
+            mPacedFrames.incrementAndGet();
+            return;
+        }
+        final int width = target.getWidth();
+        final int height = target.getHeight();
+        final ByteBuffer buffer = obtainBuffer(HEADER_SIZE + width * height * 4);
+        if (buffer == null) {
+            mOverloadFrames.incrementAndGet();
+            return;
+        }
+        buffer.putLong(mPacer.normalize(timestampNs)).putInt(width).putInt(height);
+
+        GlStateCache glState = rootContext.getGlStateCache();
+        glState.bindFramebuffer(target.getFramebufferId());
+        glState.getGl().readPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                buffer.position(HEADER_SIZE));
+        glState.bindFramebuffer(0);
+        buffer.position(0);
+
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (buffer.hasRemaining()) {
+                        mChannel.write(buffer);
+                    }
+                    mWrittenFrames.incrementAndGet();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    mFreeBuffers.offer(buffer);
+                }
+            }
+        });
+    }
+
+    // 复用空闲的缓冲区，尺寸变化时重新分配；都在使用中时返回null
+    private ByteBuffer obtainBuffer(int size) {
+        ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            if (mAllocatedBuffers == BUFFER_COUNT) {
+                return null;
+            }
+            mAllocatedBuffers++;
+        }
+        if (buffer == null || buffer.capacity() != size) {
+            buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public long getWrittenFrames() {
+        return mWrittenFrames.get();
+    }
+
+    public long getPacedFrames() {
+        return mPacedFrames.get();
+    }
+
+    public long getOverloadFrames() {
+        return mOverloadFrames.get();
+    }
+
+    // 等待已收到的帧写完后关闭文件
+    @Override
+    public void release() {
+        mWriter.shutdown();
+        try {
+            mWriter.awaitTermination(5, TimeUnit.SECONDS);
+            mChannel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "written=" + getWrittenFrames() + " paced=" + getPacedFrames()
+                + " overload=" + getOverloadFrames();
+    }
+}
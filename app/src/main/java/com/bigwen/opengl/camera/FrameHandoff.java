@@ -0,0 +1,146 @@
+package com.bigwen.opengl.camera;
+
+import com.bigwen.opengl.gl.ve_gl.GlApi;
+import com.bigwen.opengl.gl.ve_gl.GlFence;
+import com.bigwen.opengl.gl.ve_gl.GlRenderTargetPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * display线程和预览线程之间交接帧，PreviewProxy使用。帧对象固定|frameCount|个，反复使用，不在每帧分配：
+ * display线程offer()交出新帧，预览线程take()取出最新的一帧，用完后retire()，display线程下次offer()时回收。
+ * 不涉及EGL和线程，fence都通过构造时传入的GlApi调用，两个context属于同一个share group，共用一个GlApi，
+ * 可以用RecordingGlApi在JVM上测试。
+ */
+final class FrameHandoff {
+
+    // 交给预览线程显示的一帧
+    static final class Frame {
+        GlRenderTargetPool.RenderTarget target;
+        // display线程绘制完成的fence
+        final GlFence fence;
+        // 预览线程读取纹理完成的fence，|read|为false时没有绘制
+        final GlFence readFence;
+        boolean read;
+        final float[] texMatrix = new float[16];
+        int viewMode;
+        long captureTimestampNs;
+        long handoffNs;
+
+        Frame(GlApi gl) {
+            fence = new GlFence(gl);
+            readFence = new GlFence(gl);
+        }
+    }
+
+    private final Object mFrameLock = new Object();
+    private Frame mPendingFrame = null;
+    // 预览线程用完的帧，由display线程回收
+    private final List<Frame> mRetiredFrames;
+    // 空闲的帧，只在display线程访问
+    private final List<Frame> mFreeFrames;
+    private final AtomicLong mReplacedFrames = new AtomicLong();
+
+    FrameHandoff(GlApi gl, int frameCount) {
+        mRetiredFrames = new ArrayList<Frame>(frameCount);
+        mFreeFrames = new ArrayList<Frame>(frameCount);
+        for (int i = 0; i < frameCount; ++i) {
+            mFreeFrames.add(new Frame(gl));
+        }
+    }
+
+    /**
+     * 在display线程调用，在已提交的绘制命令后插入fence，持有|target|的引用直到预览线程用完。
+     * 返回true时需要投递显示任务；上一帧还没开始显示时被替换，显示任务已经投递过，返回false。
+     */
+    boolean offer(GlRenderTargetPool.RenderTarget target, float[] texMatrix, int viewMode,
+                  long captureTimestampNs) {
+        recycleRetiredFrames();
+        if (mFreeFrames.isEmpty()) {
+            // 帧数足够时不会发生，见PreviewProxy.FRAME_COUNT
+            mReplacedFrames.incrementAndGet();
+            return false;
+        }
+
+        Frame frame = mFreeFrames.remove(mFreeFrames.size() - 1);
+        frame.target = target;
+        frame.fence.insert();
+        frame.read = false;
+        System.arraycopy(texMatrix, 0, frame.texMatrix, 0, 16);
+        frame.viewMode = viewMode;
+        frame.captureTimestampNs = captureTimestampNs;
+        frame.handoffNs = System.nanoTime();
+        target.retain();
+
+        Frame replaced;
+        synchronized (mFrameLock) {
+            replaced = mPendingFrame;
+            mPendingFrame = frame;
+        }
+        if (replaced != null) {
+            // 上一帧还没开始显示，直接丢弃
+            mReplacedFrames.incrementAndGet();
+            recycleFrame(replaced);
+            return false;
+        }
+        return true;
+    }
+
+    // 在预览线程调用，取出最新的一帧，没有时返回null
+    Frame take() {
+        synchronized (mFrameLock) {
+            Frame frame = mPendingFrame;
+            mPendingFrame = null;
+            return frame;
+        }
+    }
+
+    // 在预览线程调用，帧交给display线程回收：sync对象要在有当前context的线程删除，target的复用要等待读取完成
+    void retire(Frame frame) {
+        synchronized (mFrameLock) {
+            mRetiredFrames.add(frame);
+        }
+    }
+
+    // 在display线程调用，丢弃还没显示的帧
+    void dropPending() {
+        Frame pending = take();
+        if (pending != null) {
+            recycleFrame(pending);
+        }
+    }
+
+    // 在display线程调用
+    void recycleRetiredFrames() {
+        synchronized (mFrameLock) {
+            for (int i = 0; i < mRetiredFrames.size(); ++i) {
+                recycleFrame(mRetiredFrames.get(i));
+            }
+            mRetiredFrames.clear();
+        }
+    }
+
+    // 被新帧替换、没有显示的帧数
+    long getReplacedFrames() {
+        return mReplacedFrames.get();
+    }
+
+    // 空闲的帧数，只在display线程调用
+    int getFreeFrameCount() {
+        return mFreeFrames.size();
+    }
+
+    // 在display线程调用，之后的绘制命令在GPU上等待预览线程读取完成，再归还target和帧
+    private void recycleFrame(Frame frame) {
+        if (frame.read) {
+            frame.readFence.waitGpu();
+            frame.readFence.release();
+        }
+        frame.fence.release();
+        frame.target.release();
+        frame.target = null;
+        mFreeFrames.add(frame);
+    }
+}
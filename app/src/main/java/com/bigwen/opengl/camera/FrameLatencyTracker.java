@@ -0,0 +1,104 @@
+package com.bigwen.opengl.camera;
+
+/**
+ * 相机管线各阶段的耗时统计，每个阶段一个{@link LatencyHistogram}
+ *
+ * 打点方法beginFrame()/setCaptureTimestamp()/mark()只能在显示线程调用，不分配内存；
+ * record()/recordEndToEnd()可以在任意线程调用（如预览线程），读取统计结果也可以在任意线程。
+ */
+public class FrameLatencyTracker {
+
+    public enum Stage {
+        // 采集时间戳（SurfaceTexture.getTimestamp()）到onFrameAvailable回调
+        QUEUE,
+        // updateTexImage()
+        UPDATE_TEX_IMAGE,
+        // 滤镜链绘制到帧缓冲区
+        FILTER,
+        // 滤镜链在GPU上的耗时，见GlGpuTimer，比其他阶段晚一两帧
+        GPU,
+        // 显示线程交出一帧到预览线程开始处理
+        PRESENT_WAIT,
+        // 预览线程中swapBuffers()之前的部分
+        PREVIEW_DRAW,
+        // 预览线程的swapBuffers()
+        SWAP_BUFFERS,
+        // 采集时间戳到预览线程swapBuffers()返回
+        END_TO_END,
+    }
+
+    // 采集时间戳与System.nanoTime()不是同一个时钟时，差值会超出这个范围，此时不统计
+    private static final long MAX_CAPTURE_LATENCY_NS = 1000000000L;
+
+    private final LatencyHistogram[] mHistograms;
+    private long mFrameStartNs;
+    private long mLastMarkNs;
+    private long mCaptureTimestampNs;
+
+    public FrameLatencyTracker() {
+        Stage[] stages = Stage.values();
+        mHistograms = new LatencyHistogram[stages.length];
+        for (int i = 0; i < stages.length; ++i) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    // onFrameAvailable回调开始时调用
+    public void beginFrame() {
+        mFrameStartNs = System.nanoTime();
+        mLastMarkNs = mFrameStartNs;
+        mCaptureTimestampNs = 0;
+    }
+
+    // updateTexImage()之后调用，|timestampNs|为SurfaceTexture.getTimestamp()
+    public void setCaptureTimestamp(long timestampNs) {
+        long queueNs = mFrameStartNs - timestampNs;
+        if (timestampNs > 0 && queueNs >= 0 && queueNs < MAX_CAPTURE_LATENCY_NS) {
+            mCaptureTimestampNs = timestampNs;
+            mHistograms[Stage.QUEUE.ordinal()].record(queueNs);
+        }
+    }
+
+    // 记录从上一次打点到现在的耗时，计入|stage|
+    public void mark(Stage stage) {
+        long now = System.nanoTime();
+        mHistograms[stage.ordinal()].record(now - mLastMarkNs);
+        mLastMarkNs = now;
+    }
+
+    // 当前帧的采集时间戳，无效时返回0，在显示线程调用
+    public long getCaptureTimestamp() {
+        return mCaptureTimestampNs;
+    }
+
+    // 直接记录一次耗时
+    public void record(Stage stage, long durationNs) {
+        mHistograms[stage.ordinal()].record(durationNs);
+    }
+
+    // 一帧显示完成后调用，|captureTimestampNs|为这一帧的getCaptureTimestamp()
+    public void recordEndToEnd(long captureTimestampNs) {
+        if (captureTimestampNs != 0) {
+            mHistograms[Stage.END_TO_END.ordinal()].record(System.nanoTime() - captureTimestampNs);
+        }
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            builder.append(stage).append(": ").append(getHistogram(stage)).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package com.bigwen.opengl.camera;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.view.Surface;
+
+import com.bigwen.opengl.gl.ve_gl.EglBase;
+import com.bigwen.opengl.gl.ve_gl.EglBase14;
+import com.bigwen.opengl.gl.ve_gl.GlFence;
+import com.bigwen.opengl.gl.ve_gl.GlRectDrawer;
+import com.bigwen.opengl.gl.ve_gl.GlRenderTargetPool;
+
+/**
+ * 处理后画面的一个输出，如录制用的编码器Surface、缩略图
+ *
+ * 所有输出共用同一帧滤镜结果，不会为每个输出重复美颜。每个输出有自己的尺寸、缩放方式和降帧倍数，
+ * 在display线程上用与root context共享的EGL context绘制，通过DisplayBridge.addOutput()/removeOutput()随时增删。
+ */
+public class FrameOutput {
+
+    // 与PreviewProxy的viewMode取值一致
+    // 保持比例完整显示，空白处填黑
+    public static final int SCALE_FIT = 0;
+    // 保持比例铺满，超出部分裁掉
+    public static final int SCALE_FILL = 1;
+    // 拉伸铺满，不保持比例
+    public static final int SCALE_STRETCH = 2;
+
+    private final Object mSurface;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mScaleMode;
+    private final int mFrameDivisor;
+    private final int[] mConfigAttributes;
+
+    private EglBase mEglBase = null;
+    private GlRectDrawer mDrawer = null;
+    private final float[] mMatrix = new float[16];
+    private final int[] mViewport = new int[4];
+    private long mFrameIndex = 0;
+    private volatile long mRenderedFrames = 0;
+
+    /**
+     * @param surface       Surface或SurfaceTexture，SurfaceTexture会被设置为|width|x|height|
+     * @param scaleMode     SCALE_FIT、SCALE_FILL或SCALE_STRETCH
+     * @param frameDivisor  每frameDivisor帧绘制一帧，1为每帧都绘制
+     * @param configAttributes  如EglBase.CONFIG_RECORDABLE、EglBase.CONFIG_RGBA
+     */
+    public FrameOutput(Object surface, int width, int height, int scaleMode, int frameDivisor,
+                       int[] configAttributes) {
+        if (!(surface instanceof Surface) && !(surface instanceof SurfaceTexture)) {
+            throw new IllegalArgumentException("Output must be either a Surface or SurfaceTexture");
+        }
+        if (width <= 0 || height <= 0 || frameDivisor < 1) {
+            throw new IllegalArgumentException("Invalid output: " + width + "x" + height + " /" + frameDivisor);
+        }
+        mSurface = surface;
+        mWidth = width;
+        mHeight = height;
+        mScaleMode = scaleMode;
+        mFrameDivisor = frameDivisor;
+        mConfigAttributes = configAttributes;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getRenderedFrames() {
+        return mRenderedFrames;
+    }
+
+    /**
+     * 在display线程调用。按降帧倍数跳过时返回null，否则把|target|绘制到输出Surface，
+     * 返回读取完成的fence，root context复用|target|之前要等待它。
+     * |drawFence|为root context绘制完成的fence。
+     */
+    GlFence render(EglBase rootContext, GlRenderTargetPool.RenderTarget target, float[] texMatrix,
+                   GlFence drawFence, long timestampNs) {
+        if (mFrameIndex++ % mFrameDivisor != 0) {
+            return null;
+        }
+        if (mEglBase == null) {
+            mEglBase = EglBase.create(rootContext.getEglBaseContext(), mConfigAttributes);
+            if (mSurface instanceof SurfaceTexture) {
+                ((SurfaceTexture) mSurface).setDefaultBufferSize(mWidth, mHeight);
+                mEglBase.createSurface((SurfaceTexture) mSurface);
+            } else {
+                mEglBase.createSurface((Surface) mSurface);
+            }
+            mDrawer = new GlRectDrawer(mEglBase);
+        }
+
+        mEglBase.makeCurrent();
+        drawFence.waitGpu();
+        // 纹理在根context里重新绘制过，重新绑定才能保证读到新内容
+        mEglBase.getGlStateCache().invalidateTextures();
+
+        System.arraycopy(texMatrix, 0, mMatrix, 0, 16);
+        layout(target.getWidth(), target.getHeight(), mWidth, mHeight, mScaleMode, mMatrix, mViewport);
+        mEglBase.getGlStateCache().getGl().clear(GLES20.GL_COLOR_BUFFER_BIT);
+        mDrawer.drawRgb(target.getTextureId(), mMatrix, target.getWidth(), target.getHeight(),
+                mViewport[0], mViewport[1], mViewport[2], mViewport[3]);
+        mEglBase.getGlStateCache().endFrame();
+        GlFence readFence = GlFence.create(mEglBase.getGlStateCache().getGl());
+
+        // 编码器需要采集时间戳作为显示时间
+        if (timestampNs != 0 && mEglBase instanceof EglBase14) {
+            ((EglBase14) mEglBase).swapBuffers(timestampNs);
+        } else {
+            mEglBase.swapBuffers();
+        }
+        mRenderedFrames++;
+        return readFence;
+    }
+
+    // 在display线程调用，释放EGL资源，不释放Surface本身
+    void release() {
+        if (mEglBase == null) {
+            return;
+        }
+        mEglBase.makeCurrent();
+        mDrawer.release();
+        mDrawer = null;
+        mEglBase.release();
+        mEglBase = null;
+    }
+
+    /**
+     * 计算把|frameWidth|x|frameHeight|的画面按|scaleMode|放进|viewWidth|x|viewHeight|时的视口，
+     * SCALE_FILL通过缩放纹理矩阵裁掉超出部分。
+     * @param texMatrix  输入输出，绘制时使用的纹理矩阵
+     * @param viewport   输出x、y、width、height
+     */
+    public static void layout(int frameWidth, int frameHeight, int viewWidth, int viewHeight,
+                              int scaleMode, float[] texMatrix, int[] viewport) {
+        int scaleWidth = viewWidth;
+        int scaleHeight = viewHeight;
+        if (scaleMode == SCALE_FIT) {
+            if (viewHeight * frameWidth <= viewWidth * frameHeight) {
+                scaleWidth = viewHeight * frameWidth / frameHeight;
+            } else {
+                scaleHeight = viewWidth * frameHeight / frameWidth;
+            }
+        } else if (scaleMode == SCALE_FILL) {
+            if (viewHeight * frameWidth <= viewWidth * frameHeight) {
+                scaleHeight = viewWidth * frameHeight / frameWidth;
+            } else {
+                scaleWidth = viewHeight * frameWidth / frameHeight;
+            }
+            float fWidthScale = (float) viewWidth / scaleWidth;
+            float fHeightScale = (float) viewHeight / scaleHeight;
+            Matrix.scaleM(texMatrix, 0, fWidthScale, fHeightScale, 1.0f);
+            Matrix.translateM(texMatrix, 0, (1.0f - fWidthScale) / 2.0f, (1.0f - fHeightScale) / 2.0f, 1.0f);
+
+            scaleWidth = viewWidth;
+            scaleHeight = viewHeight;
+        }
+        viewport[0] = (viewWidth - scaleWidth) / 2;
+        viewport[1] = (viewHeight - scaleHeight) / 2;
+        viewport[2] = scaleWidth;
+        viewport[3] = scaleHeight;
+    }
+}
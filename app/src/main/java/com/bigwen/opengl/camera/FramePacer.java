@@ -0,0 +1,57 @@
+package com.bigwen.opengl.camera;
+
+/**
+ * 视频输出的节流和时间戳处理
+ *
+ * accept()按采集时间戳把帧率限制在maxFps以内，按目标间隔累计而不是按上一帧计算，
+ * 30fps降到24fps时得到均匀的每5帧丢1帧，而不是降到15fps。
+ * normalize()保证时间戳严格递增，编码器和封装器会拒绝重复或倒退的时间戳。
+ */
+public class FramePacer {
+    private final long mIntervalNs;
+    // 允许提前到达的时间，吸收采集时间戳的抖动
+    private final long mToleranceNs;
+    private long mNextFrameNs = 0;
+    private long mLastTimestampNs = 0;
+
+    // |maxFps|不大于0时不限制帧率
+    public FramePacer(int maxFps) {
+        mIntervalNs = maxFps > 0 ? 1000000000L / maxFps : 0;
+        mToleranceNs = mIntervalNs / 4;
+    }
+
+    // 采集时间戳无效（0）时和normalize()一样使用System.nanoTime()，否则这些帧都会被当作第一帧放行
+    public boolean accept(long timestampNs) {
+        if (mIntervalNs == 0) {
+            return true;
+        }
+        if (timestampNs <= 0) {
+            timestampNs = System.nanoTime();
+        }
+        if (mNextFrameNs != 0 && timestampNs < mNextFrameNs - mToleranceNs) {
+            return false;
+        }
+        // 中断过一段时间（如暂停后恢复）时重新计时，避免连续放行积压的间隔
+        if (mNextFrameNs == 0 || timestampNs - mNextFrameNs > mIntervalNs) {
+            mNextFrameNs = timestampNs + mIntervalNs;
+        } else {
+            mNextFrameNs += mIntervalNs;
+        }
+        return true;
+    }
+
+    /**
+     * 返回严格递增的时间戳。采集时间戳无效（0）时使用System.nanoTime()，
+     * 与SurfaceTexture和AudioRecord的时间戳同为CLOCK_MONOTONIC，音视频可以直接对齐。
+     */
+    public long normalize(long timestampNs) {
+        if (timestampNs <= 0) {
+            timestampNs = System.nanoTime();
+        }
+        if (timestampNs <= mLastTimestampNs) {
+            timestampNs = mLastTimestampNs + 1;
+        }
+        mLastTimestampNs = timestampNs;
+        return timestampNs;
+    }
+}
@@ -0,0 +1,161 @@
+package com.bigwen.opengl.camera;
+
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * camera帧的背压策略
+ *
+ * onFrameAvailable()只累加待处理帧数，并且最多向GL线程投递一个处理任务，处理不过来时回调不会堆积。
+ * - LATEST_WINS：每次只处理最新的一帧，之前积压的帧直接丢弃
+ * - BOUNDED_QUEUE：逐帧处理，积压超过上限时丢弃最旧的帧，过载时端到端延迟不会无限增长
+ * 被丢弃的帧也要调用updateTexImage()取出，否则会占住BufferQueue。
+ */
+public class FrameScheduler implements SurfaceTexture.OnFrameAvailableListener {
+
+    public enum Policy {
+        LATEST_WINS,
+        BOUNDED_QUEUE,
+    }
+
+    public enum DropReason {
+        // LATEST_WINS下被更新的帧取代
+        COALESCED,
+        // BOUNDED_QUEUE下积压超过上限
+        QUEUE_OVERFLOW,
+        // 消费者还没准备好，如camera或GL环境未初始化
+        NOT_READY,
+    }
+
+    // 在GL线程调用
+    public interface FrameConsumer {
+        boolean isReady();
+
+        // 取出一帧但不处理，通常只调用updateTexImage()
+        void dropFrame();
+
+        // 取出并处理一帧
+        void processFrame();
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+    private final Handler mHandler;
+    private final FrameConsumer mConsumer;
+    private volatile Policy mPolicy = Policy.LATEST_WINS;
+    private volatile int mQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    private final AtomicInteger mPendingFrames = new AtomicInteger();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final AtomicLong mProcessedFrames = new AtomicLong();
+    private final AtomicLongArray mDroppedFrames = new AtomicLongArray(DropReason.values().length);
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    // |handler|为GL线程的Handler
+    public FrameScheduler(Handler handler, FrameConsumer consumer) {
+        mHandler = handler;
+        mConsumer = consumer;
+    }
+
+    // |queueCapacity|只对BOUNDED_QUEUE有效，至少为1
+    public void setPolicy(Policy policy, int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+        }
+        mQueueCapacity = queueCapacity;
+        mPolicy = policy;
+    }
+
+    public Policy getPolicy() {
+        return mPolicy;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        mPendingFrames.incrementAndGet();
+        scheduleDrain();
+    }
+
+    public int getPendingFrames() {
+        return mPendingFrames.get();
+    }
+
+    public long getProcessedFrames() {
+        return mProcessedFrames.get();
+    }
+
+    public long getDroppedFrames(DropReason reason) {
+        return mDroppedFrames.get(reason.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append(mPolicy).append(" processed=").append(getProcessedFrames());
+        for (DropReason reason : DropReason.values()) {
+            builder.append(' ').append(reason).append('=').append(getDroppedFrames(reason));
+        }
+        return builder.toString();
+    }
+
+    private void scheduleDrain() {
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mHandler.post(mDrainRunnable);
+        }
+    }
+
+    private void drain() {
+        // 先清除标记再读取帧数，之后到达的帧会重新投递任务
+        mDrainScheduled.set(false);
+        if (mPolicy == Policy.LATEST_WINS) {
+            int frames = mPendingFrames.getAndSet(0);
+            if (frames == 0) {
+                return;
+            }
+            for (int i = 1; i < frames; ++i) {
+                drop(DropReason.COALESCED);
+            }
+            processOrDrop();
+            return;
+        }
+
+        int capacity = mQueueCapacity;
+        while (mPendingFrames.get() > capacity) {
+            mPendingFrames.decrementAndGet();
+            drop(DropReason.QUEUE_OVERFLOW);
+        }
+        if (mPendingFrames.get() > 0) {
+            mPendingFrames.decrementAndGet();
+            processOrDrop();
+        }
+        // 每次只处理一帧，其余的留给下一个任务，避免长时间占用GL线程
+        if (mPendingFrames.get() > 0) {
+            scheduleDrain();
+        }
+    }
+
+    private void processOrDrop() {
+        if (!mConsumer.isReady()) {
+            drop(DropReason.NOT_READY);
+            return;
+        }
+        mConsumer.processFrame();
+        mProcessedFrames.incrementAndGet();
+    }
+
+    private void drop(DropReason reason) {
+        mConsumer.dropFrame();
+        mDroppedFrames.incrementAndGet(reason.ordinal());
+    }
+}
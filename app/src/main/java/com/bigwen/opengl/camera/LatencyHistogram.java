@@ -0,0 +1,122 @@
+package com.bigwen.opengl.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存、无锁的耗时直方图，单位纳秒
+ *
+ * 桶按对数-线性划分：每个2的幂区间再均分为16个桶，相对误差不超过1/16。record()只做原子加，
+ * 不加锁也不分配内存，可以在任意线程调用；读取的结果是近似快照。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 最大记录约2^40纳秒（约18分钟），更大的值计入最后一个桶
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong firstRecordNs = new AtomicLong();
+    private final AtomicLong lastRecordNs = new AtomicLong();
+
+    public void record(long valueNs) {
+        if (valueNs < 0) {
+            valueNs = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(valueNs));
+        sum.addAndGet(valueNs);
+        long currentMax = max.get();
+        while (valueNs > currentMax && !max.compareAndSet(currentMax, valueNs)) {
+            currentMax = max.get();
+        }
+        final long now = System.nanoTime();
+        firstRecordNs.compareAndSet(0, now);
+        lastRecordNs.set(now);
+        count.incrementAndGet();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    // |percentile|取值0~100，返回所在桶的上界，没有数据时返回0
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // 每秒记录的次数，按第一次和最后一次记录的时间计算
+    public double getThroughput() {
+        final long n = count.get();
+        final long elapsedNs = lastRecordNs.get() - firstRecordNs.get();
+        return n < 2 || elapsedNs <= 0 ? 0 : (n - 1) * 1e9 / elapsedNs;
+    }
+
+    // 与record()并发时可能丢失少量数据
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+        firstRecordNs.set(0);
+        lastRecordNs.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("p50=%.2fms p99=%.2fms max=%.2fms %.1f/s", getPercentile(50) / 1e6,
+                getPercentile(99) / 1e6, getMax() / 1e6, getThroughput());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // 桶内的最大值
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,118 @@
+package com.bigwen.opengl.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * NV21预览回调的缓冲区池
+ *
+ * 通过setPreviewCallbackWithBuffer()让camera把帧写入固定数量的byte[]，每帧没有内存分配。
+ * 收到的帧在Frame.release()后才交还给camera，所有缓冲区都未归还时camera会丢帧而不是分配新内存。
+ * 回调在打开camera的线程（display线程）执行。
+ */
+public class PreviewBufferPool implements Camera.PreviewCallback {
+
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    public interface FrameListener {
+        // 在display线程调用，处理完后调用frame.release()
+        void onPreviewFrame(Frame frame);
+    }
+
+    public class Frame {
+        private final byte[] mData;
+        private final ByteBuffer mBuffer;
+        private long mTimestampNs;
+
+        private Frame(byte[] data) {
+            mData = data;
+            mBuffer = ByteBuffer.wrap(data);
+        }
+
+        // NV21数据，Y平面之后是交错的VU平面
+        public byte[] getData() {
+            return mData;
+        }
+
+        // 包装getData()，供GL上传使用
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        // 收到回调时的System.nanoTime()，预览回调不提供采集时间戳
+        public long getTimestampNs() {
+            return mTimestampNs;
+        }
+
+        // 把缓冲区交还给camera，可在任意线程调用
+        public void release() {
+            Camera camera = mCamera;
+            if (camera != null) {
+                camera.addCallbackBuffer(mData);
+            }
+        }
+    }
+
+    private final int mBufferCount;
+    private final FrameListener mListener;
+    private final Map<byte[], Frame> mFrames = new IdentityHashMap<byte[], Frame>();
+    private volatile Camera mCamera = null;
+    private int mWidth = 0;
+    private int mHeight = 0;
+
+    public PreviewBufferPool(int bufferCount, FrameListener listener) {
+        mBufferCount = bufferCount;
+        mListener = listener;
+    }
+
+    // startPreview()之前调用。尺寸不变时复用已有的缓冲区
+    public void attach(Camera camera, int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            mFrames.clear();
+            int size = width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+            for (int i = 0; i < mBufferCount; ++i) {
+                byte[] data = new byte[size];
+                mFrames.put(data, new Frame(data));
+            }
+            mWidth = width;
+            mHeight = height;
+        }
+        mCamera = camera;
+        camera.setPreviewCallbackWithBuffer(this);
+        for (byte[] data : mFrames.keySet()) {
+            camera.addCallbackBuffer(data);
+        }
+    }
+
+    // 停止预览后调用，之后release()的缓冲区不再交还
+    public void detach() {
+        Camera camera = mCamera;
+        mCamera = null;
+        if (camera != null) {
+            camera.setPreviewCallbackWithBuffer(null);
+        }
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        Frame frame = mFrames.get(data);
+        if (frame == null) {
+            // 尺寸变化前留下的缓冲区
+            return;
+        }
+        frame.mTimestampNs = System.nanoTime();
+        mListener.onPreviewFrame(frame);
+    }
+}
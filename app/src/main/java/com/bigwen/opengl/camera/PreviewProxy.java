@@ -1,11 +1,18 @@
 package com.bigwen.opengl.camera;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.view.TextureView;
 
 import com.bigwen.opengl.gl.ve_gl.EglBase;
+import com.bigwen.opengl.gl.ve_gl.EglContextBinder;
 import com.bigwen.opengl.gl.ve_gl.GlRectDrawer;
+import com.bigwen.opengl.gl.ve_gl.GlRenderTargetPool;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
+import com.bigwen.opengl.gl.ve_gl.GlesApi;
+
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Created by bigwen on 2020/8/22.
@@ -18,8 +25,33 @@ public class PreviewProxy {
     private EglBase previewEglBase = null;
     private GlRectDrawer previewDrawer = null;
     private float[] mPreviewMatrix = new float[16];
+    private final int[] mViewport = new int[4];
     private int mViewWidth = 0;
     private int mViewHeight = 0;
+    private FrameLatencyTracker mLatencyTracker = null;
+
+    // 一帧最多同时处于三个位置：等待显示、正在显示、等待回收（回收在交出新帧之前），所以3个就够用
+    static final int FRAME_COUNT = 3;
+
+    // 预览线程，swapBuffers()等待vsync时不会阻塞display线程处理camera帧
+    private final HandlerThread mPreviewThread;
+    private final Handler mPreviewHandler;
+    private volatile EglBase mSharedContext;
+    private final FrameHandoff mHandoff = new FrameHandoff(GlesApi.getInstance(), FRAME_COUNT);
+    // 预览线程上一帧的context切换次数
+    private volatile int mContextSwitches = 0;
+    private final Runnable mPresentRunnable = new Runnable() {
+        @Override
+        public void run() {
+            present();
+        }
+    };
+
+    public PreviewProxy() {
+        mPreviewThread = new HandlerThread("preview_thread");
+        mPreviewThread.start();
+        mPreviewHandler = new Handler(mPreviewThread.getLooper());
+    }
 
     // 设置Texture.SurfaceTextureListener回调监听
     public void doSetRendererView(TextureView temp, TextureView.SurfaceTextureListener textureListener) {
@@ -27,7 +59,13 @@ public class PreviewProxy {
             if (mTextureView.getSurfaceTextureListener().equals(textureListener)) {
                 mTextureView.setSurfaceTextureListener(null);
             }
-            releasePreviewSurface();
+            // 在UI线程调用，EGL surface属于预览线程，要在预览线程销毁
+            runPreviewThread(new Runnable() {
+                @Override
+                public void run() {
+                    releasePreviewSurface();
+                }
+            });
         }
 
         mTextureView = temp;
@@ -36,10 +74,52 @@ public class PreviewProxy {
         }
     }
 
-    // 绘制图像数据到屏幕
-    public void drawToPreview(int textureId, int width, int height, float[] texMatrix, EglBase mDummyContext, int mViewMode) {
+    // 设置耗时统计，记录预览绘制和swapBuffers()的耗时
+    public void setLatencyTracker(FrameLatencyTracker tracker) {
+        mLatencyTracker = tracker;
+    }
+
+    // 在预览线程执行，预览相关的EGL操作（如releasePreviewSurface()）都要在这个线程中调用
+    public void runPreviewThread(Runnable runnable) {
+        mPreviewHandler.post(runnable);
+    }
+
+    /**
+     * 在display线程调用，root context为当前context。在已提交的绘制命令后插入fence，把帧交给预览线程显示后立即返回；
+     * 预览线程用完之前一直持有target的引用，只使用其纹理（帧缓冲区不能跨context共享）。
+     * 预览线程来不及显示时，未显示的帧被新帧替换。
+     */
+    public void drawToPreview(GlRenderTargetPool.RenderTarget target, float[] texMatrix, EglBase mDummyContext, int mViewMode) {
+        mSharedContext = mDummyContext;
+        long captureTimestampNs = mLatencyTracker != null ? mLatencyTracker.getCaptureTimestamp() : 0;
+        if (mHandoff.offer(target, texMatrix, mViewMode, captureTimestampNs)) {
+            mPreviewHandler.post(mPresentRunnable);
+        }
+    }
+
+    // 被新帧替换、没有显示的帧数
+    public long getReplacedFrames() {
+        return mHandoff.getReplacedFrames();
+    }
+
+    // 预览线程上一帧调用eglMakeCurrent()的次数，context保持绑定时为0
+    public int getContextSwitchesPerFrame() {
+        return mContextSwitches;
+    }
+
+    // 在预览线程显示最新的一帧
+    private void present() {
+        FrameHandoff.Frame frame = mHandoff.take();
+        if (frame == null) {
+            return;
+        }
+        long startNs = System.nanoTime();
+        if (mLatencyTracker != null) {
+            mLatencyTracker.record(FrameLatencyTracker.Stage.PRESENT_WAIT, startNs - frame.handoffNs);
+        }
+
         if (previewEglBase == null) {
-            previewEglBase = EglBase.create(mDummyContext.getEglBaseContext(), EglBase.CONFIG_RGBA);
+            previewEglBase = EglBase.create(mSharedContext.getEglBaseContext(), EglBase.CONFIG_RGBA);
         }
 
         if (mTextureView != null) {
@@ -47,63 +127,101 @@ public class PreviewProxy {
         }
 
         if (!previewEglBase.hasSurface()) {
+            mHandoff.retire(frame);
             return ;
         }
 
         if (previewDrawer == null) {
-            previewDrawer = new GlRectDrawer();
+            previewDrawer = new GlRectDrawer(previewEglBase);
         }
 
         try {
-            // 绑定eglContext、eglDisplay、eglSurface
+            // 绑定eglContext、eglDisplay、eglSurface；预览线程只用这一个context，绑定后一直保持，之后的调用直接返回
             previewEglBase.makeCurrent();
+            drawFrame(previewEglBase.getGlStateCache(), previewDrawer, frame, mViewWidth, mViewHeight,
+                    mPreviewMatrix, mViewport);
+            long swapStartNs = System.nanoTime();
+            // 交换渲染好的buffer 去显示
+            previewEglBase.swapBuffers();
+            if (mLatencyTracker != null) {
+                long now = System.nanoTime();
+                mLatencyTracker.record(FrameLatencyTracker.Stage.PREVIEW_DRAW, swapStartNs - startNs);
+                mLatencyTracker.record(FrameLatencyTracker.Stage.SWAP_BUFFERS, now - swapStartNs);
+                mLatencyTracker.recordEndToEnd(frame.captureTimestampNs);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            mContextSwitches = EglContextBinder.endFrame();
+            mHandoff.retire(frame);
+        }
+    }
 
-            // 作用是使图像正立显示
-            int scaleWidth = mViewWidth;
-            int scaleHeight = mViewHeight;
+    /**
+     * present()中的GL部分，预览context为当前context：等待display线程绘制完成，把|frame|按|viewMode|画到
+     * |viewWidth|x|viewHeight|的窗口，然后插入读取完成的fence。|matrix|、|viewport|是复用的临时数组。
+     * 不涉及EGL，测试中用RecordingGlApi调用。
+     */
+    static void drawFrame(GlStateCache glState, GlRectDrawer drawer, FrameHandoff.Frame frame,
+                          int viewWidth, int viewHeight, float[] matrix, int[] viewport) {
+        GlRenderTargetPool.RenderTarget target = frame.target;
+        int width = target.getWidth();
+        int height = target.getHeight();
+        // GPU等待display线程的绘制完成，CPU不阻塞
+        frame.fence.waitGpu();
+        // 纹理在display线程的context里重新绘制过，必须重新绑定才能保证读到新内容，不能被状态缓存跳过
+        glState.invalidateTextures();
 
-            System.arraycopy(texMatrix, 0, mPreviewMatrix, 0, 16);
-            if (mViewMode == 0) {
-                if (mViewHeight * width <= mViewWidth * height) {
-                    scaleWidth = mViewHeight * width / height;
-                } else {
-                    scaleHeight = mViewWidth * height / width;
-                }
-            } else if (mViewMode == 1) {
-                if (mViewHeight * width <= mViewWidth * height) {
-                    scaleHeight = mViewWidth * height / width;
-                } else {
-                    scaleWidth = mViewHeight * width / height;
-                }
-                float fWidthScale = (float)mViewWidth / scaleWidth;
-                float fHeightScale = (float)mViewHeight / scaleHeight;
-                Matrix.scaleM(mPreviewMatrix, 0, fWidthScale, fHeightScale, 1.0f);
-                Matrix.translateM(mPreviewMatrix, 0, (1.0f - fWidthScale) / 2.0f, (1.0f - fHeightScale) / 2.0f, 1.0f);
+        // 作用是使图像正立显示
+        System.arraycopy(frame.texMatrix, 0, matrix, 0, 16);
+        FrameOutput.layout(width, height, viewWidth, viewHeight, frame.viewMode, matrix, viewport);
 
-                scaleWidth = mViewWidth;
-                scaleHeight = mViewHeight;
-            }
+        glState.getGl().clear(GLES20.GL_COLOR_BUFFER_BIT);
 
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        // 绘制rgb格式图像
+        drawer.drawRgb(target.getTextureId(), matrix, width, height,
+                viewport[0], viewport[1], viewport[2], viewport[3]);
+        glState.endFrame();
+        // display线程复用这个纹理之前要等待读取完成
+        frame.readFence.insert();
+        frame.read = true;
+    }
 
-            // 绘制rgb格式图像
-            previewDrawer.drawRgb(textureId, mPreviewMatrix, width, height,
-                    (mViewWidth - scaleWidth) / 2,
-                    (mViewHeight - scaleHeight) / 2,
-                    scaleWidth, scaleHeight);
-            // 交换渲染好的buffer 去显示
-            previewEglBase.swapBuffers();
-            // 分离当前eglContext
-            previewEglBase.detachCurrent();
-        } catch (RuntimeException e) {
-            e.printStackTrace();
+    /**
+     * 在display线程调用，root context为当前context，display线程释放GL资源之前回收所有帧：
+     * 丢弃还没显示的帧，等预览线程用完正在显示的帧，然后归还target、删除sync对象。
+     */
+    public void releaseFrames() {
+        mHandoff.dropPending();
+        // 预览线程已经退出时post()返回false，正在显示的帧已经回收到mRetiredFrames
+        final CountDownLatch latch = new CountDownLatch(1);
+        boolean posted = mPreviewHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        if (posted) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
+        mHandoff.recycleRetiredFrames();
     }
 
-    public void release(TextureView.SurfaceTextureListener textureListener) {
-        releasePreviewSurface();
-        releaseDrawer();
-        releaseTexture(textureListener);
+    // 在预览线程中释放，之后退出预览线程
+    public void release(final TextureView.SurfaceTextureListener textureListener) {
+        mPreviewHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releasePreviewSurface();
+                releaseDrawer();
+                releaseTexture(textureListener);
+                mPreviewThread.quit();
+            }
+        });
     }
 
     private void releaseDrawer() {
@@ -122,7 +240,7 @@ public class PreviewProxy {
         }
     }
 
-    // 销毁用于屏幕显示的surface（预览）
+    // 销毁用于屏幕显示的surface（预览），在预览线程调用
     public void releasePreviewSurface() {
         if (previewEglBase == null) {
             return ;
@@ -0,0 +1,21 @@
+package com.bigwen.opengl.camera;
+
+import com.bigwen.opengl.gl.ve_gl.EglBase;
+import com.bigwen.opengl.gl.ve_gl.GlRenderTargetPool;
+
+/**
+ * 接收处理后画面的视频输出，如编码器，通过DisplayBridge.addVideoSink()添加
+ */
+public interface VideoSink {
+
+    /**
+     * 在display线程调用，root context为当前context，方法返回时root context仍要是当前context。
+     * |target|只在调用期间有效，异步使用时先retain()，再回到display线程release()。
+     * |timestampNs|为采集时间戳，与System.nanoTime()同一时钟，无效时为0。
+     */
+    void onFrame(EglBase rootContext, GlRenderTargetPool.RenderTarget target, float[] texMatrix,
+                 long timestampNs);
+
+    // 在display线程调用，之后不会再收到帧
+    void release();
+}
@@ -0,0 +1,333 @@
+package com.bigwen.opengl.gl;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.bigwen.opengl.gl.ve_gl.EglBase;
+import com.bigwen.opengl.gl.ve_gl.GlApi;
+import com.bigwen.opengl.gl.ve_gl.GlFence;
+import com.bigwen.opengl.gl.ve_gl.GlesApi;
+import com.bigwen.opengl.gl.ve_gl.GlUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步加载纹理，Bitmap解码和纹理上传都不在渲染线程进行，不会阻塞首帧和surface重建。
+ *
+ * 解码在工作线程池，上传在单独的loader线程：它有一个与渲染context共享的EglBase（pbuffer），
+ * 上传后插入GlFence。渲染线程每帧开始时调用publish()，让GPU等待fence后才把纹理交给TextureHandle，
+ * CPU不会阻塞；在此之前TextureHandle返回1x1的占位纹理。
+ *
+ * 在渲染线程创建（需要当前的EGLContext），publish()也在渲染线程调用。构造时只在渲染线程创建占位纹理，
+ * loader的context在loader线程异步创建，构造和release()都不等待loader线程。按需渲染（RENDERMODE_WHEN_DIRTY）时
+ * 通过Listener在纹理就绪后请求新的一帧，否则publish()没有机会执行。
+ * 纹理属于共享组，由loader线程删除。
+ */
+public class AsyncTextureLoader {
+
+    private static final String TAG = "AsyncTextureLoader";
+
+    /**
+     * 一张异步加载的纹理，在渲染线程读取。
+     */
+    public static class TextureHandle {
+        private final String mKey;
+        private final int mPlaceholderId;
+        //publish()之后才设置，只在渲染线程访问
+        private int mTextureId;
+        //以下由loader线程写入，经过mReadyQueue交给渲染线程
+        private int mUploadedId;
+        private int mWidth;
+        private int mHeight;
+        private GlFence mFence;
+        private volatile boolean mFailed;
+
+        TextureHandle(String key, int placeholderId) {
+            mKey = key;
+            mPlaceholderId = placeholderId;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        //加载完成前返回占位纹理，加载失败时一直是占位纹理
+        public int getTextureId() {
+            return mTextureId != 0 ? mTextureId : mPlaceholderId;
+        }
+
+        public boolean isReady() {
+            return mTextureId != 0;
+        }
+
+        public boolean isFailed() {
+            return mFailed;
+        }
+
+        //图片大小，isReady()之前为0
+        public int getWidth() {
+            return mTextureId != 0 ? mWidth : 0;
+        }
+
+        public int getHeight() {
+            return mTextureId != 0 ? mHeight : 0;
+        }
+    }
+
+    /**
+     * 纹理上传完成、下一次publish()就能交付时回调，在loader线程调用。
+     */
+    public interface Listener {
+        void onTextureReady(TextureHandle handle);
+    }
+
+    private final Context mContext;
+    private final ExecutorService mDecodeExecutor;
+    private final HandlerThread mLoaderThread;
+    private final Handler mLoaderHandler;
+    private final int mPlaceholderId;
+
+    //上传完成、等待publish()的纹理
+    private final ConcurrentLinkedQueue<TextureHandle> mReadyQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private volatile boolean mReleased;
+    private volatile Listener mListener;
+
+    //以下只在loader线程访问，创建loader的context失败时mEglBase为null
+    private EglBase mEglBase;
+    private GlApi mGl;
+    private final List<Integer> mTextureIds = new ArrayList<>();
+
+    /**
+     * @param sharedContext    渲染线程的context，GLSurfaceView可以用EglBase10.Context包装eglGetCurrentContext()
+     * @param decodeThreads    解码线程数
+     * @param placeholderColor 占位纹理的颜色，ARGB
+     */
+    public AsyncTextureLoader(Context context, final EglBase.Context sharedContext, int decodeThreads,
+                              final int placeholderColor) {
+        mContext = context.getApplicationContext();
+        final AtomicInteger threadCount = new AtomicInteger();
+        mDecodeExecutor = new ThreadPoolExecutor(decodeThreads, decodeThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "texture_decode_" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mLoaderThread = new HandlerThread("texture_loader");
+        mLoaderThread.start();
+        mLoaderHandler = new Handler(mLoaderThread.getLooper());
+
+        //占位纹理在渲染线程创建，当前context直接可用；loader的context之后在loader线程创建，
+        //失败时所有加载都失败，TextureHandle一直返回占位纹理
+        mPlaceholderId = createPlaceholder(GlesApi.getInstance(), placeholderColor);
+        mLoaderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mEglBase = EglBase.create(sharedContext, EglBase.CONFIG_PIXEL_BUFFER);
+                    mEglBase.createDummyPbufferSurface();
+                    mEglBase.makeCurrent();
+                    mGl = mEglBase.getGlStateCache().getGl();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "create loader context failed", e);
+                    if (mEglBase != null) {
+                        mEglBase.release();
+                        mEglBase = null;
+                    }
+                }
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public TextureHandle load(final int resId) {
+        return load("res:" + resId, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return BitmapFactory.decodeResource(mContext.getResources(), resId);
+            }
+        });
+    }
+
+    /**
+     * 在解码线程执行decoder，返回的Bitmap上传后会被recycle。
+     */
+    public TextureHandle load(String key, final Callable<Bitmap> decoder) {
+        if (mReleased) {
+            throw new IllegalStateException(TAG + " has been released");
+        }
+        final TextureHandle handle = new TextureHandle(key, mPlaceholderId);
+        mPendingCount.incrementAndGet();
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                try {
+                    bitmap = decoder.call();
+                } catch (Exception e) {
+                    Log.e(TAG, "decode " + handle.mKey + " failed", e);
+                }
+                if (bitmap == null) {
+                    fail(handle);
+                    return;
+                }
+                final Bitmap decoded = bitmap;
+                mLoaderHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        upload(handle, decoded);
+                    }
+                });
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * 在渲染线程每帧绘制前调用，把上传完成的纹理交给TextureHandle，返回本次交付的数量。
+     * GPU会等待上传完成后再执行之后的命令，CPU不阻塞。
+     */
+    public int publish() {
+        int published = 0;
+        TextureHandle handle;
+        while ((handle = mReadyQueue.poll()) != null) {
+            handle.mFence.waitGpu();
+            handle.mFence.release();
+            handle.mFence = null;
+            handle.mTextureId = handle.mUploadedId;
+            mPendingCount.decrementAndGet();
+            published++;
+        }
+        return published;
+    }
+
+    //还没有交付的加载数量，包括解码中、上传中和等待publish()的
+    public int getPendingCount() {
+        return mPendingCount.get();
+    }
+
+    public int getPlaceholderId() {
+        return mPlaceholderId;
+    }
+
+    /**
+     * 停止加载并删除所有纹理，包括已经交付的和占位纹理。渲染context已经销毁时也可以调用。
+     * 删除在loader线程异步执行，不等待完成。
+     * 不能和publish()同时执行：在渲染线程调用，或者在渲染线程暂停后（GLSurfaceView.onPause()之后）在其他线程调用。
+     */
+    public void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        mListener = null;
+        mDecodeExecutor.shutdownNow();
+        //还没交付的fence交给loader线程释放，渲染线程的context可能已经不在共享组里
+        final List<GlFence> fences = new ArrayList<>();
+        TextureHandle handle;
+        while ((handle = mReadyQueue.poll()) != null) {
+            fences.add(handle.mFence);
+            handle.mFence = null;
+        }
+        //在loader线程排在所有上传之后执行，之后退出loader线程
+        mLoaderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mEglBase != null) {
+                    for (GlFence fence : fences) {
+                        fence.release();
+                    }
+                    //占位纹理属于同一个共享组
+                    int[] ids = new int[mTextureIds.size() + 1];
+                    for (int i = 0; i < mTextureIds.size(); i++) {
+                        ids[i] = mTextureIds.get(i);
+                    }
+                    ids[ids.length - 1] = mPlaceholderId;
+                    mGl.deleteTextures(ids.length, ids, 0);
+                    mTextureIds.clear();
+                    mEglBase.release();
+                    mEglBase = null;
+                }
+                //loader的context创建失败时占位纹理随渲染context一起销毁
+                mLoaderThread.quit();
+            }
+        });
+    }
+
+    // 在渲染线程调用
+    private static int createPlaceholder(GlApi gl, int color) {
+        int textureId = GlUtil.generateTexture(gl, GLES20.GL_TEXTURE_2D);
+        ByteBuffer pixel = ByteBuffer.allocateDirect(4);
+        pixel.put((byte) Color.red(color)).put((byte) Color.green(color))
+                .put((byte) Color.blue(color)).put((byte) Color.alpha(color)).position(0);
+        gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, pixel);
+        GlUtil.checkNoGLES2Error(gl, TAG + " createPlaceholder");
+        return textureId;
+    }
+
+    // 在loader线程调用
+    private void upload(TextureHandle handle, Bitmap bitmap) {
+        if (mReleased) {
+            bitmap.recycle();
+            return;
+        }
+        if (mEglBase == null) {
+            //loader的context没有创建成功
+            bitmap.recycle();
+            fail(handle);
+            return;
+        }
+        boolean ready = false;
+        try {
+            int textureId = GlUtil.generateTexture(mGl, GLES20.GL_TEXTURE_2D);
+            mTextureIds.add(textureId);
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            GlUtil.checkNoGLES2Error(mGl, TAG + " upload " + handle.mKey);
+            handle.mUploadedId = textureId;
+            handle.mWidth = bitmap.getWidth();
+            handle.mHeight = bitmap.getHeight();
+            handle.mFence = GlFence.create(mGl);
+            mReadyQueue.add(handle);
+            ready = true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "upload " + handle.mKey + " failed", e);
+            fail(handle);
+        } finally {
+            bitmap.recycle();
+        }
+        Listener listener = mListener;
+        if (ready && listener != null) {
+            listener.onTextureReady(handle);
+        }
+    }
+
+    private void fail(TextureHandle handle) {
+        handle.mFailed = true;
+        mPendingCount.decrementAndGet();
+    }
+}
@@ -4,10 +4,10 @@ import android.content.Context;
 import android.opengl.GLES20;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import com.bigwen.opengl.gl.ve_gl.GlProgramCache;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -46,7 +46,15 @@ public class GLUtil {
     }
 
     public static int createAndLinkProgram(String vertexCode, String fragmentCode) {
-        int programHandle = GLES20.glCreateProgram();
+        //优先从program binary缓存恢复，避免重复编译
+        GlProgramCache programCache = GlProgramCache.getInstance();
+        String cacheKey = programCache.keyFor(vertexCode, fragmentCode);
+        int programHandle = programCache.loadProgram(cacheKey);
+        if (programHandle != 0) {
+            return programHandle;
+        }
+        long compileStart = System.nanoTime();
+        programHandle = GLES20.glCreateProgram();
         if (programHandle != 0) {
             //编译shader
             int verTexShaderHanlde = compileShader(GLES20.GL_VERTEX_SHADER, vertexCode);
@@ -55,6 +63,7 @@ public class GLUtil {
             GLES20.glAttachShader(programHandle, verTexShaderHanlde);
             GLES20.glAttachShader(programHandle, fragmentShaderHandle);
             //链接program
+            programCache.prepareForLink(programHandle);
             GLES20.glLinkProgram(programHandle);
 
             int[] status = new int[1];
@@ -67,6 +76,9 @@ public class GLUtil {
             }
             if (programHandle == 0) {
                 print("program link fail");
+            } else {
+                programCache.recordCompile(System.nanoTime() - compileStart);
+                programCache.storeProgram(cacheKey, programHandle);
             }
         }
         return programHandle;
@@ -77,14 +89,19 @@ public class GLUtil {
     }
 
     public static String readAsserts(Context context, String name) {
+        String result = readFromAssets(context, name);
+        print("readAsserts:\n" + result);
+        return result;
+    }
+
+    /**
+     * 直接读取assets文件，保留换行，不做缓存；renderer请使用{@link ShaderSourceLoader}
+     */
+    public static String readFromAssets(Context context, String fileName) {
         InputStream inputStream = null;
-        StringBuilder stringBuilder = new StringBuilder();
         try {
-            inputStream = context.getResources().getAssets().open(name);
-            byte[] buffer = new byte[1024];
-            while (inputStream.read(buffer) != -1) {
-                stringBuilder.append(new String(buffer));
-            }
+            inputStream = context.getResources().getAssets().open(fileName);
+            return ShaderSourceLoader.readFully(inputStream);
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -96,25 +113,6 @@ public class GLUtil {
                 }
             }
         }
-        String result = stringBuilder.toString();
-        print("readAsserts:\n" + result);
-        return result;
-    }
-
-    public static String readFromAssets(Context context, String fileName) {
-        try {
-            InputStreamReader inputReader = new InputStreamReader(context.getResources().getAssets().open(fileName));
-            BufferedReader bufReader = new BufferedReader(inputReader);
-            String line = "";
-            StringBuilder result = new StringBuilder();
-            while ((line = bufReader.readLine()) != null) {
-                result.append(line);
-            }
-            print("readFromAssets = " + result.toString());
-            return result.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
         return null;
     }
 
@@ -143,6 +141,10 @@ public class GLUtil {
         return buffer;
     }
 
+    /**
+     * 使用client端顶点数组，每次draw都会拷贝数据；调用前需确保GL_ARRAY_BUFFER绑定的是0。
+     * 静态几何请使用{@link com.bigwen.opengl.gl.ve_gl.GlMeshRegistry}
+     */
     public static void setAttribute(int locHandle, FloatBuffer floatBuffer, int pointSize) {
         floatBuffer.position(0);
         GLES20.glEnableVertexAttribArray(locHandle);
@@ -216,6 +218,8 @@ public class GLUtil {
         int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
 
         if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            // 不完整的帧缓冲区不会返回给调用方，在这里删除，否则会泄漏
+            GLES20.glDeleteFramebuffers(1, frameBufferArray, 0);
             return -1;
         }
 
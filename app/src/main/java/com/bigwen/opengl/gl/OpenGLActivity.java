@@ -5,22 +5,26 @@ import android.opengl.GLSurfaceView;
 import android.os.Bundle;
 
 import com.bigwen.opengl.R;
+import com.bigwen.opengl.gl.ve_gl.GlProgramCache;
 
 public class OpenGLActivity extends Activity {
 
     private GLSurfaceView surfaceView;
+    private TextureRender textureRender;
     private Activity mContext;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mContext = this;
+        GlProgramCache.getInstance().init(getApplicationContext());
         setContentView(R.layout.activity_opengl);
         surfaceView = findViewById(R.id.gl_surface_view);
         //设置opengl es版
         surfaceView.setEGLContextClientVersion(2);
         //设置renderer
-        surfaceView.setRenderer(new TextureRender(this));
+        textureRender = new TextureRender(this, surfaceView);
+        surfaceView.setRenderer(textureRender);
         //设置渲染模式
         surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
     }
@@ -36,4 +40,11 @@ public class OpenGLActivity extends Activity {
         super.onPause();
         surfaceView.onPause();
     }
-}
\ No newline at end of file
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        //onPause()之后渲染线程已暂停，不会再调用onDrawFrame()
+        textureRender.release();
+    }
+}
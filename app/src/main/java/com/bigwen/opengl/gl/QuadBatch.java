@@ -0,0 +1,329 @@
+package com.bigwen.opengl.gl;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import com.bigwen.opengl.gl.atlas.AtlasRegion;
+import com.bigwen.opengl.gl.ve_gl.GlApi;
+import com.bigwen.opengl.gl.ve_gl.GlShader;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
+import com.bigwen.opengl.gl.ve_gl.GlUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * 批量绘制纹理四边形（精灵、贴纸、文字等叠加层），使用texture_vertex.glsl/texture_fragment.glsl。
+ *
+ * TextureRender每个四边形一次glDrawElements，这里在begin()和end()之间收集所有四边形，
+ * 写入一个交错的动态顶点buffer(x, y, s, t)，按层、混合模式、纹理排序后，
+ * 相同纹理和混合模式的连续四边形合并成一次glDrawElements。
+ *
+ * 坐标单位是像素，原点在左上角，与begin()传入的宽高对应；纹理坐标原点也在左上角，与GLUtils上传的Bitmap一致。
+ * 绘制顺序只由layer决定：layer小的先画，同一layer内的四边形会被重排，重叠时需要用不同的layer区分。
+ *
+ * 只能在创建它的GL线程使用，EGLContext重建后需要重新创建。
+ */
+public class QuadBatch {
+
+    //不混合，直接覆盖
+    public static final int BLEND_NONE = 0;
+    //普通alpha混合，颜色未预乘alpha
+    public static final int BLEND_ALPHA = 1;
+    //颜色已预乘alpha，GLUtils.texImage2D()上传的Bitmap就是这种
+    public static final int BLEND_PREMULTIPLIED = 2;
+    //叠加，用于光效、粒子
+    public static final int BLEND_ADDITIVE = 3;
+
+    public static final int MAX_LAYER = 0x7FFF;
+    //索引是short，4 * 16384个顶点刚好在范围内
+    public static final int MAX_QUADS = 16384;
+
+    private static final String TAG = "QuadBatch";
+
+    //每个顶点：位置(x, y) + 纹理坐标(s, t)
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int FLOATS_PER_QUAD = FLOATS_PER_VERTEX * 4;
+    private static final int INDICES_PER_QUAD = 6;
+
+    //排序key，从高位到低位：layer(15位) | 混合模式(4位) | 纹理id(24位) | 提交顺序(20位)
+    //提交顺序放在最低位，同一纹理和混合模式的四边形保持提交时的先后
+    private static final int ORDER_BITS = 20;
+    private static final int TEXTURE_BITS = 24;
+    private static final int BLEND_BITS = 4;
+    private static final long ORDER_MASK = (1L << ORDER_BITS) - 1;
+    private static final long STATE_MASK = (1L << (TEXTURE_BITS + BLEND_BITS)) - 1;
+    private static final int MAX_TEXTURE_ID = (1 << TEXTURE_BITS) - 1;
+
+    private final GlStateCache mGlState;
+    private final GlApi mGl;
+    private final GlShader mShader;
+    private final int mPositionLoc;
+    private final int mTexCoordLoc;
+    private final int mMaxQuads;
+
+    //按提交顺序保存的顶点数据和排序key
+    private final float[] mQuadData;
+    private final long[] mKeys;
+    //排序后的顶点数据，每次flush整体上传
+    private final FloatBuffer mVertices;
+
+    private int mVertexBufferId;
+    private int mIndexBufferId;
+
+    private boolean mDrawing;
+    private float mScaleX;
+    private float mScaleY;
+    private int mQuadCount;
+
+    //当前帧的统计，end()时转为上一帧
+    private int mFrameDrawCalls;
+    private int mFrameQuads;
+    private int mFrameFlushes;
+    private int mLastFrameDrawCalls;
+    private int mLastFrameQuads;
+    private int mLastFrameFlushes;
+
+    public QuadBatch(Context context, GlStateCache glState, int maxQuads) {
+        this(ShaderSourceLoader.getInstance(context), glState, maxQuads);
+    }
+
+    //着色器源码从|loader|读取，测试中不需要Context
+    QuadBatch(ShaderSourceLoader loader, GlStateCache glState, int maxQuads) {
+        if (maxQuads <= 0 || maxQuads > MAX_QUADS) {
+            throw new IllegalArgumentException("maxQuads must be in [1, " + MAX_QUADS + "]: " + maxQuads);
+        }
+        mGlState = glState;
+        mGl = glState.getGl();
+        mMaxQuads = maxQuads;
+        mQuadData = new float[maxQuads * FLOATS_PER_QUAD];
+        mKeys = new long[maxQuads];
+        mVertices = ByteBuffer.allocateDirect(mQuadData.length * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        String vertexCode = loader.load("texture_vertex.glsl");
+        String fragmentCode = loader.load("texture_fragment.glsl");
+        mShader = new GlShader(mGl, vertexCode, fragmentCode);
+        mPositionLoc = mShader.getAttribLocation("aPosition");
+        mTexCoordLoc = mShader.getAttribLocation("aTexCoordinate");
+        mShader.useProgram(mGlState);
+        mGl.uniform1i(mShader.getUniformLocation("uTexture"), 0);
+
+        int[] buffers = new int[2];
+        mGl.genBuffers(2, buffers, 0);
+        mVertexBufferId = buffers[0];
+        mIndexBufferId = buffers[1];
+        //索引固定不变，只上传一次：每个四边形两个三角形(0, 1, 2)和(2, 1, 3)
+        ShortBuffer indices = ByteBuffer.allocateDirect(maxQuads * INDICES_PER_QUAD * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int i = 0; i < maxQuads; i++) {
+            short first = (short) (i * 4);
+            indices.put(first).put((short) (first + 1)).put((short) (first + 2))
+                    .put((short) (first + 2)).put((short) (first + 1)).put((short) (first + 3));
+        }
+        indices.position(0);
+        mGlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        mGl.bufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.capacity() * 2, indices,
+                GLES20.GL_STATIC_DRAW);
+        GlUtil.checkNoGLES2Error(mGl, TAG + " create");
+    }
+
+    public int getMaxQuads() {
+        return mMaxQuads;
+    }
+
+    /**
+     * 开始收集一帧的四边形，width/height是目标surface的像素大小，同时设置viewport。
+     */
+    public void begin(int width, int height) {
+        if (mDrawing) {
+            throw new IllegalStateException("begin() called twice without end()");
+        }
+        if (mVertexBufferId == 0) {
+            throw new IllegalStateException("QuadBatch has been released");
+        }
+        mDrawing = true;
+        mScaleX = 2f / width;
+        mScaleY = 2f / height;
+        mGlState.viewport(0, 0, width, height);
+    }
+
+    //绘制整张纹理
+    public void add(int textureId, int blendMode, int layer, float x, float y, float width, float height) {
+        add(textureId, blendMode, layer, x, y, width, height, 0f, 0f, 1f, 1f);
+    }
+
+    //绘制图集中的一张图片
+    public void add(AtlasRegion region, int blendMode, int layer, float x, float y, float width, float height) {
+        add(region.getTextureId(), blendMode, layer, x, y, width, height,
+                region.getU0(), region.getV0(), region.getU1(), region.getV1());
+    }
+
+    /**
+     * 添加一个四边形，(x, y)是左上角，(s0, t0)-(s1, t1)是纹理中对应的区域。
+     * 超出maxQuads时先把已收集的绘制掉。
+     */
+    public void add(int textureId, int blendMode, int layer, float x, float y, float width, float height,
+                    float s0, float t0, float s1, float t1) {
+        if (!mDrawing) {
+            throw new IllegalStateException("add() called outside begin()/end()");
+        }
+        if (textureId <= 0 || textureId > MAX_TEXTURE_ID) {
+            throw new IllegalArgumentException("Unsupported texture id: " + textureId);
+        }
+        if (blendMode < BLEND_NONE || blendMode > BLEND_ADDITIVE) {
+            throw new IllegalArgumentException("Unknown blend mode: " + blendMode);
+        }
+        if (layer < 0 || layer > MAX_LAYER) {
+            throw new IllegalArgumentException("layer must be in [0, " + MAX_LAYER + "]: " + layer);
+        }
+        if (mQuadCount == mMaxQuads) {
+            flush();
+        }
+        float left = x * mScaleX - 1f;
+        float right = (x + width) * mScaleX - 1f;
+        float top = 1f - y * mScaleY;
+        float bottom = 1f - (y + height) * mScaleY;
+        //顶点顺序：左上、左下、右上、右下
+        int i = mQuadCount * FLOATS_PER_QUAD;
+        float[] data = mQuadData;
+        data[i] = left;
+        data[i + 1] = top;
+        data[i + 2] = s0;
+        data[i + 3] = t0;
+        data[i + 4] = left;
+        data[i + 5] = bottom;
+        data[i + 6] = s0;
+        data[i + 7] = t1;
+        data[i + 8] = right;
+        data[i + 9] = top;
+        data[i + 10] = s1;
+        data[i + 11] = t0;
+        data[i + 12] = right;
+        data[i + 13] = bottom;
+        data[i + 14] = s1;
+        data[i + 15] = t1;
+        mKeys[mQuadCount] = ((long) layer << (ORDER_BITS + TEXTURE_BITS + BLEND_BITS))
+                | ((long) blendMode << (ORDER_BITS + TEXTURE_BITS))
+                | ((long) textureId << ORDER_BITS)
+                | mQuadCount;
+        mQuadCount++;
+    }
+
+    //绘制剩下的四边形，结束这一帧的统计
+    public void end() {
+        if (!mDrawing) {
+            throw new IllegalStateException("end() called without begin()");
+        }
+        flush();
+        mDrawing = false;
+        mLastFrameDrawCalls = mFrameDrawCalls;
+        mLastFrameQuads = mFrameQuads;
+        mLastFrameFlushes = mFrameFlushes;
+        mFrameDrawCalls = 0;
+        mFrameQuads = 0;
+        mFrameFlushes = 0;
+    }
+
+    //上一帧的glDrawElements次数
+    public int getLastFrameDrawCalls() {
+        return mLastFrameDrawCalls;
+    }
+
+    public int getLastFrameQuads() {
+        return mLastFrameQuads;
+    }
+
+    public int getLastFrameVertices() {
+        return mLastFrameQuads * 4;
+    }
+
+    //上一帧顶点buffer的上传次数，大于1说明maxQuads不够
+    public int getLastFrameFlushes() {
+        return mLastFrameFlushes;
+    }
+
+    public void release() {
+        if (mVertexBufferId != 0) {
+            mGl.deleteBuffers(2, new int[]{mVertexBufferId, mIndexBufferId}, 0);
+            mVertexBufferId = 0;
+            mIndexBufferId = 0;
+        }
+        mShader.release();
+        //删除的id可能被复用，缓存的绑定不再可信
+        mGlState.invalidate();
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "{drawCalls=" + mLastFrameDrawCalls + " quads=" + mLastFrameQuads
+                + " vertices=" + getLastFrameVertices() + " flushes=" + mLastFrameFlushes + "}";
+    }
+
+    private void flush() {
+        if (mQuadCount == 0) {
+            return;
+        }
+        Arrays.sort(mKeys, 0, mQuadCount);
+        mVertices.clear();
+        for (int i = 0; i < mQuadCount; i++) {
+            int quad = (int) (mKeys[i] & ORDER_MASK);
+            mVertices.put(mQuadData, quad * FLOATS_PER_QUAD, FLOATS_PER_QUAD);
+        }
+        mVertices.flip();
+
+        mShader.useProgram(mGlState);
+        //每次用新的存储上传（orphan），不用等GPU读完上一批
+        mGlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferId);
+        mGl.bufferData(GLES20.GL_ARRAY_BUFFER, mVertices.limit() * 4, mVertices, GLES20.GL_STREAM_DRAW);
+        mGlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferId);
+        mGlState.enableVertexAttribArray(mPositionLoc);
+        mGl.vertexAttribPointer(mPositionLoc, 2, GLES20.GL_FLOAT, false, FLOATS_PER_VERTEX * 4, 0);
+        mGlState.enableVertexAttribArray(mTexCoordLoc);
+        mGl.vertexAttribPointer(mTexCoordLoc, 2, GLES20.GL_FLOAT, false, FLOATS_PER_VERTEX * 4, 2 * 4);
+        mGlState.activeTexture(0);
+
+        //纹理和混合模式相同的连续四边形一次画完，layer不同也可以合并，顺序不变
+        int runStart = 0;
+        long runState = (mKeys[0] >>> ORDER_BITS) & STATE_MASK;
+        for (int i = 1; i <= mQuadCount; i++) {
+            long state = i < mQuadCount ? (mKeys[i] >>> ORDER_BITS) & STATE_MASK : -1;
+            if (state != runState) {
+                drawRun(runState, runStart, i - runStart);
+                runStart = i;
+                runState = state;
+            }
+        }
+        GlUtil.checkNoGLES2Error(mGl, TAG + " flush");
+
+        mFrameQuads += mQuadCount;
+        mFrameFlushes++;
+        mQuadCount = 0;
+    }
+
+    private void drawRun(long state, int firstQuad, int quadCount) {
+        int blendMode = (int) (state >>> TEXTURE_BITS);
+        int textureId = (int) (state & MAX_TEXTURE_ID);
+        switch (blendMode) {
+            case BLEND_ALPHA:
+                mGlState.enableBlend(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+                break;
+            case BLEND_PREMULTIPLIED:
+                mGlState.enableBlend(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+                break;
+            case BLEND_ADDITIVE:
+                mGlState.enableBlend(GLES20.GL_ONE, GLES20.GL_ONE);
+                break;
+            default:
+                mGlState.disableBlend();
+                break;
+        }
+        mGlState.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        mGl.drawElements(GLES20.GL_TRIANGLES, quadCount * INDICES_PER_QUAD, GLES20.GL_UNSIGNED_SHORT,
+                firstQuad * INDICES_PER_QUAD * 2);
+        mFrameDrawCalls++;
+    }
+}
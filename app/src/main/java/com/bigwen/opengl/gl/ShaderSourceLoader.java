@@ -0,0 +1,264 @@
+package com.bigwen.opengl.gl;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 从assets读取glsl源码并做预处理：展开 #include "xxx.glsl"，按variant注入 #define。
+ * 原始源码和预处理结果都按文件名+variant缓存，surface重建时不再有IO和字符串拼接。
+ * 源码通过SourceReader读取，预处理不依赖Context，可以在JVM上测试。
+ */
+public class ShaderSourceLoader {
+
+    /**
+     * 按文件名读取原始源码。minSdk 16用不了java.util.function.Function，所以单独定义
+     */
+    public interface SourceReader {
+        String read(String name) throws IOException;
+    }
+
+    private static final String TAG = "ShaderSourceLoader";
+    private static final String INCLUDE = "#include";
+
+    private static volatile ShaderSourceLoader sInstance;
+
+    public static ShaderSourceLoader getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (ShaderSourceLoader.class) {
+                if (sInstance == null) {
+                    sInstance = new ShaderSourceLoader(new AssetReader(context.getApplicationContext()));
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private final SourceReader mReader;
+    // 文件名 -> 原始源码
+    private final Map<String, String> mRawSources = new ConcurrentHashMap<>();
+    // 文件名 -> (variant -> 预处理后的源码)
+    private final ConcurrentHashMap<String, Map<Variant, String>> mProcessedSources = new ConcurrentHashMap<>();
+
+    ShaderSourceLoader(SourceReader reader) {
+        mReader = reader;
+    }
+
+    public String load(String name) {
+        return load(name, Variant.DEFAULT);
+    }
+
+    /**
+     * @param name    assets下的文件名
+     * @param variant 需要注入的宏定义，相同的variant请复用同一个对象
+     * @return 预处理后的glsl，读取失败时返回null
+     */
+    public String load(String name, Variant variant) {
+        Map<Variant, String> variants = mProcessedSources.get(name);
+        if (variants == null) {
+            variants = new ConcurrentHashMap<>();
+            Map<Variant, String> old = mProcessedSources.putIfAbsent(name, variants);
+            if (old != null) {
+                variants = old;
+            }
+        }
+        String source = variants.get(variant);
+        if (source == null) {
+            try {
+                source = preprocess(name, variant);
+            } catch (IOException e) {
+                Log.e(TAG, "load " + name + " fail", e);
+                return null;
+            }
+            variants.put(variant, source);
+        }
+        return source;
+    }
+
+    public void clear() {
+        mRawSources.clear();
+        mProcessedSources.clear();
+    }
+
+    // 展开#include并注入宏定义，不缓存结果，出错时抛出IOException
+    String preprocess(String name, Variant variant) throws IOException {
+        StringBuilder out = new StringBuilder();
+        expandIncludes(name, out, new ArrayDeque<String>());
+        return injectDefines(out.toString(), variant);
+    }
+
+    private void expandIncludes(String name, StringBuilder out, Deque<String> stack) throws IOException {
+        if (stack.contains(name)) {
+            throw new IOException("recursive #include " + name + " from " + stack);
+        }
+        stack.push(name);
+        String source = readRaw(name);
+        int start = 0;
+        int length = source.length();
+        while (start < length) {
+            int end = source.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            String line = source.substring(start, end);
+            String trimmed = line.trim();
+            if (trimmed.startsWith(INCLUDE)) {
+                int open = trimmed.indexOf('"');
+                int close = trimmed.lastIndexOf('"');
+                if (open < 0 || close <= open) {
+                    throw new IOException("bad #include in " + name + ": " + line);
+                }
+                expandIncludes(trimmed.substring(open + 1, close), out, stack);
+            } else {
+                out.append(line).append('\n');
+            }
+            start = end + 1;
+        }
+        stack.pop();
+    }
+
+    /**
+     * #version 和 #extension 必须在其他代码前面，宏定义放在最后一个之后。它们前面和之间可以有空行和注释，
+     * 查找时跳过；没有#version时放在最前面
+     */
+    static String injectDefines(String source, Variant variant) {
+        if (variant.mDefineBlock.isEmpty()) {
+            return source;
+        }
+        int insertAt = 0;
+        int start = 0;
+        int length = source.length();
+        boolean inComment = false;
+        while (start < length) {
+            int end = source.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            String trimmed = source.substring(start, end).trim();
+            start = Math.min(end + 1, length);
+            if (inComment) {
+                inComment = !trimmed.contains("*/");
+            } else if (trimmed.startsWith("#version") || trimmed.startsWith("#extension")) {
+                insertAt = start;
+            } else if (trimmed.startsWith("/*")) {
+                inComment = trimmed.indexOf("*/", 2) < 0;
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("//")) {
+                break;
+            }
+        }
+        // 最后一行是#version且没有换行时补一个
+        String separator = insertAt > 0 && source.charAt(insertAt - 1) != '\n' ? "\n" : "";
+        return source.substring(0, insertAt) + separator + variant.mDefineBlock + source.substring(insertAt);
+    }
+
+    private String readRaw(String name) throws IOException {
+        String source = mRawSources.get(name);
+        if (source == null) {
+            source = mReader.read(name);
+            mRawSources.put(name, source);
+        }
+        return source;
+    }
+
+    // 从assets读取
+    private static final class AssetReader implements SourceReader {
+        private final Context mContext;
+
+        AssetReader(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public String read(String name) throws IOException {
+            InputStream inputStream = mContext.getAssets().open(name);
+            try {
+                return readFully(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    /**
+     * 读取整个流，按实际读到的字节数拼接并保留换行
+     */
+    public static String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(inputStream.available(), 1024));
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * 一组宏定义，构造时生成缓存key和注入的文本
+     */
+    public static final class Variant {
+
+        public static final Variant DEFAULT = new Builder().build();
+
+        private final String mKey;
+        private final String mDefineBlock;
+
+        private Variant(Map<String, String> defines) {
+            StringBuilder key = new StringBuilder();
+            StringBuilder block = new StringBuilder();
+            for (Map.Entry<String, String> entry : defines.entrySet()) {
+                key.append(entry.getKey()).append('=').append(entry.getValue()).append(';');
+                block.append("#define ").append(entry.getKey());
+                if (!entry.getValue().isEmpty()) {
+                    block.append(' ').append(entry.getValue());
+                }
+                block.append('\n');
+            }
+            mKey = key.toString();
+            mDefineBlock = block.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Variant && mKey.equals(((Variant) o).mKey));
+        }
+
+        @Override
+        public int hashCode() {
+            return mKey.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Variant{" + mKey + "}";
+        }
+
+        public static final class Builder {
+            private final Map<String, String> mDefines = new LinkedHashMap<>();
+
+            public Builder define(String name) {
+                return define(name, "");
+            }
+
+            public Builder define(String name, String value) {
+                mDefines.put(name, value);
+                return this;
+            }
+
+            public Builder define(String name, int value) {
+                return define(name, String.valueOf(value));
+            }
+
+            public Variant build() {
+                return new Variant(mDefines);
+            }
+        }
+    }
+}
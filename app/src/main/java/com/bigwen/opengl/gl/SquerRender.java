@@ -5,9 +5,10 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 
 import com.bigwen.opengl.gl.GLUtil;
-
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.bigwen.opengl.gl.ve_gl.GlMesh;
+import com.bigwen.opengl.gl.ve_gl.GlMeshRegistry;
+import com.bigwen.opengl.gl.ve_gl.GlProgramReflection;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -19,9 +20,15 @@ public class SquerRender implements GLSurfaceView.Renderer {
 
     private Context mContext;
     private int programHandle;
-    private FloatBuffer vertexBuffer;
-    private ShortBuffer indexBuffer;
-    private short[] indexArray = new short[]{0, 1, 2, 0, 2, 3};
+    private int aPositionLoc;
+    private final GlStateCache glState = new GlStateCache();
+    private final GlMeshRegistry meshRegistry = new GlMeshRegistry(glState);
+    private final GlMesh squareMesh = meshRegistry.getMesh("SquerRender.square", new float[]{
+            -1f, 1f, 0.0f,
+            -1f, -1f, 0.0f,
+            1f, -1f, 0.0f,
+            1f, 1f, 0.0f
+    }, 3, new short[]{0, 1, 2, 0, 2, 3});
 
     public SquerRender(Context mContext) {
         this.mContext = mContext;
@@ -29,28 +36,24 @@ public class SquerRender implements GLSurfaceView.Renderer {
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        String vertexCode = GLUtil.readFromAssets(mContext, "triangle_vertex.glsl");
-        String fragmentCode = GLUtil.readFromAssets(mContext, "triangle_fragment.glsl");
+        String vertexCode = ShaderSourceLoader.getInstance(mContext).load("triangle_vertex.glsl");
+        String fragmentCode = ShaderSourceLoader.getInstance(mContext).load("triangle_fragment.glsl");
         programHandle = GLUtil.createAndLinkProgram(vertexCode, fragmentCode);
-        vertexBuffer = GLUtil.createBuffer(new float[]{
-                -1f, 1f, 0.0f,
-                -1f, -1f, 0.0f,
-                1f, -1f, 0.0f,
-                1f, 1f, 0.0f
-        });
-        indexBuffer = GLUtil.createBuffer(indexArray);
+        aPositionLoc = new GlProgramReflection(programHandle).getAttribLocation("aPosition");
+        //新的EGLContext，之前上传的buffer已经失效
+        meshRegistry.onContextLost();
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
-        GLES20.glViewport(0, 0, width, height);
+        glState.getGl().viewport(0, 0, width, height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        GLES20.glUseProgram(programHandle);
-        int uPosition = GLES20.glGetAttribLocation(programHandle, "aPosition");
-        GLUtil.setAttribute(uPosition, vertexBuffer, 3);
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexArray.length, GLES20.GL_UNSIGNED_SHORT, indexBuffer);
+        glState.getGl().useProgram(programHandle);
+        squareMesh.bind();
+        squareMesh.setVertexAttrib(aPositionLoc, 3, 0);
+        squareMesh.draw(GLES20.GL_TRIANGLES);
     }
 }
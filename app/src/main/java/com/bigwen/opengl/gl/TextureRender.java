@@ -1,19 +1,21 @@
 package com.bigwen.opengl.gl;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Color;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
 
 import com.bigwen.opengl.R;
 import com.bigwen.opengl.gl.GLUtil;
+import com.bigwen.opengl.gl.ve_gl.EglBase10;
+import com.bigwen.opengl.gl.ve_gl.GlMesh;
+import com.bigwen.opengl.gl.ve_gl.GlMeshRegistry;
+import com.bigwen.opengl.gl.ve_gl.GlProgramReflection;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
 
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-
+import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
 import javax.microedition.khronos.opengles.GL10;
 
 /**
@@ -22,70 +24,93 @@ import javax.microedition.khronos.opengles.GL10;
 public class TextureRender implements GLSurfaceView.Renderer {
 
     private Context mContext;
+    private GLSurfaceView surfaceView;
     private int programHandle;
+    private int aPositionLoc;
+    private int aTexCoordinateLoc;
+    private int uTextureLoc;
 
-    private FloatBuffer vertexBuffer = GLUtil.createBuffer(new float[]{
-            -1f, 1f, 0.0f,
-            -1f, -1f, 0.0f,
-            1f, -1f, 0.0f,
-            1f, 1f, 0.0f
-    });
-
-    private short[] vertexIndexArray = new short[]{0, 1, 2, 0, 2, 3};
-    private ShortBuffer indexBuffer = GLUtil.createBuffer(vertexIndexArray);
-
+    //每个顶点：位置(x, y, z) + 纹理坐标(s, t)
     //纹理坐标的原点是左上角，右下角是（1，1），将整张图片绘制的纹理顶点数据代码如下：
-    private FloatBuffer texBuffer = GLUtil.createBuffer(
-            new float[]{
-                    0.0f, 0.0f,
-                    0.0f, 1.0f,
-                    1.0f, 1.0f,
-                    1.0f, 0.0f});
-
-    private int textureId;
-
-    public TextureRender(Context mContext) {
+    private static final float[] QUAD_VERTICES = new float[]{
+            -1f, 1f, 0.0f, 0.0f, 0.0f,
+            -1f, -1f, 0.0f, 0.0f, 1.0f,
+            1f, -1f, 0.0f, 1.0f, 1.0f,
+            1f, 1f, 0.0f, 1.0f, 0.0f
+    };
+    private static final short[] QUAD_INDICES = new short[]{0, 1, 2, 0, 2, 3};
+
+    //顶点和索引只上传一次到GPU，context重建后自动重新上传
+    private final GlStateCache glState = new GlStateCache();
+    private final GlMeshRegistry meshRegistry = new GlMeshRegistry(glState);
+    private final GlMesh quadMesh = meshRegistry.getMesh("TextureRender.quad", QUAD_VERTICES, 5, QUAD_INDICES);
+
+    //图片在后台解码和上传，加载完成前绘制灰色占位纹理
+    private AsyncTextureLoader textureLoader;
+    private AsyncTextureLoader.TextureHandle texture;
+
+    //surfaceView使用RENDERMODE_WHEN_DIRTY，纹理加载完成后由这里请求重绘
+    public TextureRender(Context mContext, GLSurfaceView surfaceView) {
         this.mContext = mContext;
+        this.surfaceView = surfaceView;
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        String vertexCode = GLUtil.readFromAssets(mContext, "texture_vertex.glsl");
-        String fragmentCode = GLUtil.readFromAssets(mContext, "texture_fragment.glsl");
+        //新的EGLContext，之前上传的buffer已经失效
+        meshRegistry.onContextLost();
+        String vertexCode = ShaderSourceLoader.getInstance(mContext).load("texture_vertex.glsl");
+        String fragmentCode = ShaderSourceLoader.getInstance(mContext).load("texture_fragment.glsl");
         programHandle = GLUtil.createAndLinkProgram(vertexCode, fragmentCode);
+        GlProgramReflection reflection = new GlProgramReflection(programHandle);
+        aPositionLoc = reflection.getAttribLocation("aPosition");
+        aTexCoordinateLoc = reflection.getAttribLocation("aTexCoordinate");
+        uTextureLoc = reflection.getUniformLocation("uTexture");
+
+        //loader的context与旧的EGLContext共享，需要重新创建
+        if (textureLoader != null) {
+            textureLoader.release();
+        }
+        EGLContext eglContext = ((EGL10) EGLContext.getEGL()).eglGetCurrentContext();
+        textureLoader = new AsyncTextureLoader(mContext, new EglBase10.Context(eglContext), 1, Color.GRAY);
+        //按需渲染，上传完成后要再画一帧才会publish()
+        textureLoader.setListener(new AsyncTextureLoader.Listener() {
+            @Override
+            public void onTextureReady(AsyncTextureLoader.TextureHandle handle) {
+                surfaceView.requestRender();
+            }
+        });
+        texture = textureLoader.load(R.drawable.bitmap);
+    }
 
-        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.bitmap);
-
-        textureId = GLUtil.createTexture();
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+    //GLSurfaceView.onPause()之后在UI线程调用，释放后台加载的线程、EGLContext和纹理
+    public void release() {
+        if (textureLoader != null) {
+            textureLoader.release();
+            textureLoader = null;
+        }
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
-        GLES20.glViewport(0, 0, width, height);
+        glState.getGl().viewport(0, 0, width, height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        GLES20.glUseProgram(programHandle);
-        //设置顶点数据
-        vertexBuffer.position(0);
-        int aPosition = GLES20.glGetAttribLocation(programHandle, "aPosition");
-        GLES20.glEnableVertexAttribArray(aPosition);
-        GLES20.glVertexAttribPointer(aPosition, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-
-        //设置纹理顶点数据
-        texBuffer.position(0);
-        int texCoordinateLoc = GLES20.glGetAttribLocation(programHandle, "aTexCoordinate");
-        GLES20.glEnableVertexAttribArray(texCoordinateLoc);
-        GLES20.glVertexAttribPointer(texCoordinateLoc, 2, GLES20.GL_FLOAT, false, 0, texBuffer);
+        textureLoader.publish();
+        glState.getGl().useProgram(programHandle);
+        //设置顶点数据和纹理顶点数据
+        quadMesh.bind();
+        quadMesh.setVertexAttrib(aPositionLoc, 3, 0);
+        quadMesh.setVertexAttrib(aTexCoordinateLoc, 2, 3);
 
         //设置纹理
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-        GLES20.glUniform1i(texCoordinateLoc, 0);
+        glState.getGl().activeTexture(GLES20.GL_TEXTURE0);
+        glState.getGl().bindTexture(GLES20.GL_TEXTURE_2D, texture.getTextureId());
+        glState.getGl().uniform1i(uTextureLoc, 0);
 
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, vertexIndexArray.length, GLES20.GL_UNSIGNED_SHORT, indexBuffer);
+        quadMesh.draw(GLES20.GL_TRIANGLES);
 
     }
 }
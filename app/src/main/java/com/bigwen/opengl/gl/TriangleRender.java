@@ -5,8 +5,10 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 
 import com.bigwen.opengl.gl.GLUtil;
-
-import java.nio.FloatBuffer;
+import com.bigwen.opengl.gl.ve_gl.GlMesh;
+import com.bigwen.opengl.gl.ve_gl.GlMeshRegistry;
+import com.bigwen.opengl.gl.ve_gl.GlProgramReflection;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -18,7 +20,14 @@ public class TriangleRender implements GLSurfaceView.Renderer {
 
     private Context mContext;
     private int programHandle;
-    private FloatBuffer vertexBuffer;
+    private int aPositionLoc;
+    private final GlStateCache glState = new GlStateCache();
+    private final GlMeshRegistry meshRegistry = new GlMeshRegistry(glState);
+    private final GlMesh triangleMesh = meshRegistry.getMesh("TriangleRender.triangle", new float[]{
+            -0.5f, 0.5f, 0.0f,
+            -0.5f, -0.5f, 0.0f,
+            0.5f, -0.5f, 0.0f
+    }, 3, null);
 
     public TriangleRender(Context mContext) {
         this.mContext = mContext;
@@ -26,26 +35,24 @@ public class TriangleRender implements GLSurfaceView.Renderer {
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        String vertexCode = GLUtil.readFromAssets(mContext, "triangle_vertex.glsl");
-        String fragmentCode = GLUtil.readFromAssets(mContext, "triangle_fragment.glsl");
+        String vertexCode = ShaderSourceLoader.getInstance(mContext).load("triangle_vertex.glsl");
+        String fragmentCode = ShaderSourceLoader.getInstance(mContext).load("triangle_fragment.glsl");
         programHandle = GLUtil.createAndLinkProgram(vertexCode, fragmentCode);
-        vertexBuffer = GLUtil.createBuffer(new float[]{
-                -0.5f, 0.5f, 0.0f,
-                -0.5f, -0.5f, 0.0f,
-                0.5f, -0.5f, 0.0f
-        });
+        aPositionLoc = new GlProgramReflection(programHandle).getAttribLocation("aPosition");
+        //新的EGLContext，之前上传的buffer已经失效
+        meshRegistry.onContextLost();
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
-        GLES20.glViewport(0, 0, width, height);
+        glState.getGl().viewport(0, 0, width, height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        GLES20.glUseProgram(programHandle);
-        int uPosition = GLES20.glGetAttribLocation(programHandle, "aPosition");
-        GLUtil.setAttribute(uPosition, vertexBuffer, 3);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 3);
+        glState.getGl().useProgram(programHandle);
+        triangleMesh.bind();
+        triangleMesh.setVertexAttrib(aPositionLoc, 3, 0);
+        triangleMesh.draw(GLES20.GL_TRIANGLES);
     }
 }
@@ -0,0 +1,268 @@
+package com.bigwen.opengl.gl.atlas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 图集一页内的矩形分配，MaxRects算法，Best Short Side Fit。
+ *
+ * 维护一组互相可以重叠的最大空闲矩形，插入时选择短边剩余最少的位置（相同时比较长边，再比较y、x），
+ * 然后把与新矩形相交的空闲矩形切成最多4个，并去掉被其他空闲矩形包含的。
+ * 释放时用整页减去仍在使用的矩形重新计算空闲列表，全部释放后恢复成一整块。已分配的矩形不会移动，
+ * 多次插入、释放后空闲区域仍会变碎，见getFragmentation()，碎片多时由调用方重新排布（TextureAtlas的compact）。
+ *
+ * 纯Java实现，不依赖GL和Android，相同的操作序列总是得到相同的结果。非线程安全。
+ */
+public class AtlasPacker {
+
+    /**
+     * 分配到的位置，x/y/width/height是内容区域，不含padding。
+     */
+    public static final class Slot {
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+
+        Slot(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public String toString() {
+            return "Slot{" + x + "," + y + " " + width + "x" + height + "}";
+        }
+    }
+
+    //空闲矩形，可变，只在packer内部使用
+    private static final class Area {
+        int x;
+        int y;
+        int width;
+        int height;
+
+        Area(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        boolean contains(Area other) {
+            return other.x >= x && other.y >= y
+                    && other.x + other.width <= x + width
+                    && other.y + other.height <= y + height;
+        }
+
+        boolean intersects(int ox, int oy, int ow, int oh) {
+            return ox < x + width && ox + ow > x && oy < y + height && oy + oh > y;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mPadding;
+    private final List<Area> mFreeAreas = new ArrayList<>();
+    //已分配的矩形，按插入顺序，释放时重新计算空闲列表
+    private final List<Slot> mSlots = new ArrayList<>();
+    //free()之后空闲列表过期，下次用到时再重新计算，连续释放多个只计算一次
+    private boolean mFreeAreasDirty;
+    private long mUsedArea;
+
+    /**
+     * padding是每个矩形右侧和下方留出的像素，避免线性采样时混入相邻图片，
+     * 同时空出左上边缘，第一个矩形放在(padding, padding)。
+     */
+    public AtlasPacker(int width, int height, int padding) {
+        if (width <= 0 || height <= 0 || padding < 0) {
+            throw new IllegalArgumentException("Invalid packer size " + width + "x" + height + ", padding " + padding);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPadding = padding;
+        reset();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getPadding() {
+        return mPadding;
+    }
+
+    //清空所有分配
+    public void reset() {
+        mSlots.clear();
+        resetFreeAreas();
+        mUsedArea = 0;
+    }
+
+    private void resetFreeAreas() {
+        mFreeAreas.clear();
+        mFreeAreas.add(new Area(mPadding, mPadding, mWidth - mPadding, mHeight - mPadding));
+        mFreeAreasDirty = false;
+    }
+
+    //width x height的内容能否放进一页空的packer
+    public boolean fitsEmpty(int width, int height) {
+        return width > 0 && height > 0
+                && width + 2 * mPadding <= mWidth && height + 2 * mPadding <= mHeight;
+    }
+
+    /**
+     * 分配width x height的区域，放不下返回null。
+     */
+    public Slot insert(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        updateFreeAreas();
+        int w = width + mPadding;
+        int h = height + mPadding;
+        Area best = null;
+        int bestShortSide = Integer.MAX_VALUE;
+        int bestLongSide = Integer.MAX_VALUE;
+        for (int i = 0; i < mFreeAreas.size(); i++) {
+            Area area = mFreeAreas.get(i);
+            if (area.width < w || area.height < h) {
+                continue;
+            }
+            int leftoverX = area.width - w;
+            int leftoverY = area.height - h;
+            int shortSide = Math.min(leftoverX, leftoverY);
+            int longSide = Math.max(leftoverX, leftoverY);
+            if (best == null || shortSide < bestShortSide
+                    || (shortSide == bestShortSide && (longSide < bestLongSide
+                    || (longSide == bestLongSide && (area.y < best.y || (area.y == best.y && area.x < best.x)))))) {
+                best = area;
+                bestShortSide = shortSide;
+                bestLongSide = longSide;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        int x = best.x;
+        int y = best.y;
+        pruneFreeAreas(splitFreeAreas(x, y, w, h));
+        mUsedArea += (long) w * h;
+        Slot slot = new Slot(x, y, width, height);
+        mSlots.add(slot);
+        return slot;
+    }
+
+    /**
+     * 释放insert()返回的区域。传入的slot必须来自这个packer，且没有释放过。
+     *
+     * 空闲矩形之间互相重叠，只把释放的区域加回去、与相邻的合并，得不到完整的最大空闲矩形
+     * （全部释放后仍是碎的）。所以空闲列表在下次用到时从整页重新计算，见updateFreeAreas()。
+     */
+    public void free(Slot slot) {
+        if (!mSlots.remove(slot)) {
+            throw new IllegalArgumentException(slot + " is not allocated in this packer");
+        }
+        mUsedArea -= (long) (slot.width + mPadding) * (slot.height + mPadding);
+        mFreeAreasDirty = true;
+    }
+
+    //从整页开始，按插入顺序切掉剩下的每个矩形，结果与只插入过这些矩形时相同
+    private void updateFreeAreas() {
+        if (!mFreeAreasDirty) {
+            return;
+        }
+        resetFreeAreas();
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot live = mSlots.get(i);
+            pruneFreeAreas(splitFreeAreas(live.x, live.y, live.width + mPadding, live.height + mPadding));
+        }
+    }
+
+    public int getSlotCount() {
+        return mSlots.size();
+    }
+
+    //已分配的面积，包含padding
+    public long getUsedArea() {
+        return mUsedArea;
+    }
+
+    public long getFreeArea() {
+        return (long) (mWidth - mPadding) * (mHeight - mPadding) - mUsedArea;
+    }
+
+    //最大的一块连续空闲矩形的面积
+    public long getLargestFreeArea() {
+        updateFreeAreas();
+        long largest = 0;
+        for (int i = 0; i < mFreeAreas.size(); i++) {
+            Area area = mFreeAreas.get(i);
+            largest = Math.max(largest, (long) area.width * area.height);
+        }
+        return largest;
+    }
+
+    /**
+     * 碎片程度，0到1：1 - 最大空闲矩形 / 总空闲面积。
+     * 0表示所有空闲空间连成一块，越接近1说明空闲空间越分散，能放下的矩形越小。
+     */
+    public float getFragmentation() {
+        long free = getFreeArea();
+        if (free <= 0) {
+            return 0f;
+        }
+        return 1f - (float) Math.min(getLargestFreeArea(), free) / free;
+    }
+
+    //把与(x, y, w, h)相交的空闲矩形切开，保留不相交的部分，切出的矩形加在列表末尾，返回它们的数量
+    private int splitFreeAreas(int x, int y, int w, int h) {
+        int count = mFreeAreas.size();
+        for (int i = 0; i < count; ) {
+            Area area = mFreeAreas.get(i);
+            if (!area.intersects(x, y, w, h)) {
+                i++;
+                continue;
+            }
+            if (x > area.x) {
+                mFreeAreas.add(new Area(area.x, area.y, x - area.x, area.height));
+            }
+            if (x + w < area.x + area.width) {
+                mFreeAreas.add(new Area(x + w, area.y, area.x + area.width - x - w, area.height));
+            }
+            if (y > area.y) {
+                mFreeAreas.add(new Area(area.x, area.y, area.width, y - area.y));
+            }
+            if (y + h < area.y + area.height) {
+                mFreeAreas.add(new Area(area.x, y + h, area.width, area.y + area.height - y - h));
+            }
+            mFreeAreas.remove(i);
+            count--;
+        }
+        return mFreeAreas.size() - count;
+    }
+
+    /**
+     * 去掉末尾added个新切出的矩形中被其他空闲矩形包含的，完全相同的只保留前一个。
+     * 新矩形都在被切开的旧矩形内部，旧矩形之间已经互不包含，所以不会有旧矩形被新矩形包含，只需要检查新的。
+     */
+    private void pruneFreeAreas(int added) {
+        for (int i = mFreeAreas.size() - added; i < mFreeAreas.size(); i++) {
+            Area a = mFreeAreas.get(i);
+            for (int j = 0; j < mFreeAreas.size(); j++) {
+                Area b = mFreeAreas.get(j);
+                if (j != i && b.contains(a) && (j < i || !a.contains(b))) {
+                    mFreeAreas.remove(i);
+                    i--;
+                    break;
+                }
+            }
+        }
+    }
+}
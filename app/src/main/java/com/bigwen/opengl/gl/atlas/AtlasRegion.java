@@ -0,0 +1,61 @@
+package com.bigwen.opengl.gl.atlas;
+
+/**
+ * 图集中的一张图片。compact之后所在的纹理和位置会变，每次绘制时重新读取，不要缓存纹理id和纹理坐标。
+ * 纹理坐标原点在左上角，与GLUtils上传的Bitmap一致。
+ */
+public class AtlasRegion {
+
+    private final String mKey;
+    TextureAtlas.Page mPage;
+    AtlasPacker.Slot mSlot;
+    boolean mRemoved;
+
+    AtlasRegion(String key, TextureAtlas.Page page, AtlasPacker.Slot slot) {
+        mKey = key;
+        mPage = page;
+        mSlot = slot;
+    }
+
+    public String getKey() {
+        return mKey;
+    }
+
+    //remove()或图集释放后为false
+    public boolean isValid() {
+        return !mRemoved;
+    }
+
+    public int getTextureId() {
+        return mRemoved ? 0 : mPage.mTextureId;
+    }
+
+    public int getWidth() {
+        return mSlot.width;
+    }
+
+    public int getHeight() {
+        return mSlot.height;
+    }
+
+    public float getU0() {
+        return (float) mSlot.x / mPage.mSize;
+    }
+
+    public float getV0() {
+        return (float) mSlot.y / mPage.mSize;
+    }
+
+    public float getU1() {
+        return (float) (mSlot.x + mSlot.width) / mPage.mSize;
+    }
+
+    public float getV1() {
+        return (float) (mSlot.y + mSlot.height) / mPage.mSize;
+    }
+
+    @Override
+    public String toString() {
+        return "AtlasRegion{" + mKey + " texture=" + getTextureId() + " " + mSlot + "}";
+    }
+}
@@ -0,0 +1,339 @@
+package com.bigwen.opengl.gl.atlas;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import com.bigwen.opengl.gl.ve_gl.GlApi;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
+import com.bigwen.opengl.gl.ve_gl.GlUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把很多小图片放进少数几张大纹理（页），代替每张图片一个纹理，减少纹理切换和每个纹理的内存开销，
+ * 配合QuadBatch同一页的图片可以一次画完。
+ *
+ * 页内用AtlasPacker分配位置。add()时所有页都放不下，先重新排布碎片多的页（compact），还不行再新建一页，
+ * 页数到上限返回null，调用方可以remove()不再使用的图片后重试，或者单独创建纹理。
+ * compact在GPU上完成：旧纹理挂到framebuffer上，用glCopyTexSubImage2D拷贝到新纹理，不需要保留Bitmap。
+ *
+ * 只能在GL线程使用。add()和compact()会绑定默认framebuffer(0)，不要在离屏渲染的中间调用。
+ * EGLContext重建后纹理都已失效，调用onContextLost()清空后重新add()。
+ */
+public class TextureAtlas {
+
+    private static final String TAG = "TextureAtlas";
+
+    //空闲面积够，但碎片超过这个比例导致放不下时，重新排布这一页
+    private static final float COMPACT_FRAGMENTATION = 0.3f;
+
+    //compact时先放大的，高度优先，相同时按key排序保证结果确定
+    private static final Comparator<AtlasRegion> LARGEST_FIRST = new Comparator<AtlasRegion>() {
+        @Override
+        public int compare(AtlasRegion a, AtlasRegion b) {
+            if (a.mSlot.height != b.mSlot.height) {
+                return b.mSlot.height - a.mSlot.height;
+            }
+            if (a.mSlot.width != b.mSlot.width) {
+                return b.mSlot.width - a.mSlot.width;
+            }
+            return a.getKey().compareTo(b.getKey());
+        }
+    };
+
+    static final class Page {
+        final int mSize;
+        int mTextureId;
+        AtlasPacker mPacker;
+        final List<AtlasRegion> mRegions = new ArrayList<>();
+        //上次compact之后有没有remove过，没有的话重新排布也腾不出空间
+        boolean mFreed;
+
+        Page(int size, int textureId, AtlasPacker packer) {
+            mSize = size;
+            mTextureId = textureId;
+            mPacker = packer;
+        }
+    }
+
+    private final GlStateCache mGlState;
+    private final GlApi mGl;
+    private final int mPageSize;
+    private final int mMaxPages;
+    private final int mPadding;
+
+    private final List<Page> mPages = new ArrayList<>();
+    private final Map<String, AtlasRegion> mRegions = new LinkedHashMap<>();
+    //compact时读取旧纹理用
+    private int mFramebufferId;
+    private int mCompactCount;
+
+    /**
+     * @param pageSize 每页的宽高，不能超过GL_MAX_TEXTURE_SIZE
+     * @param padding  图片之间的间隔像素，线性采样时至少为1
+     */
+    public TextureAtlas(GlStateCache glState, int pageSize, int maxPages, int padding) {
+        if (pageSize <= 0 || maxPages <= 0 || padding < 0) {
+            throw new IllegalArgumentException("Invalid atlas: pageSize " + pageSize
+                    + ", maxPages " + maxPages + ", padding " + padding);
+        }
+        mGlState = glState;
+        mGl = glState.getGl();
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+        mPadding = padding;
+    }
+
+    /**
+     * 上传bitmap到图集，key已存在时直接返回已有的区域。bitmap必须是ARGB_8888，上传后可以recycle。
+     * 所有页都放不下时返回null。
+     */
+    public AtlasRegion add(String key, Bitmap bitmap) {
+        AtlasRegion region = mRegions.get(key);
+        if (region != null) {
+            return region;
+        }
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            throw new IllegalArgumentException(key + ": only ARGB_8888 bitmaps are supported, got " + bitmap.getConfig());
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (!new AtlasPacker(mPageSize, mPageSize, mPadding).fitsEmpty(width, height)) {
+            throw new IllegalArgumentException(key + ": " + width + "x" + height + " does not fit in a page of " + mPageSize);
+        }
+        region = allocate(key, width, height);
+        if (region == null) {
+            Log.w(TAG, "add " + key + ": atlas is full, " + this);
+            return null;
+        }
+        mGlState.bindTexture(GLES20.GL_TEXTURE_2D, region.mPage.mTextureId);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, region.mSlot.x, region.mSlot.y, bitmap);
+        GlUtil.checkNoGLES2Error(mGl, TAG + " add " + key);
+        return region;
+    }
+
+    public AtlasRegion get(String key) {
+        return mRegions.get(key);
+    }
+
+    /**
+     * 移除图片，空间留给之后的add()。页空了且不是唯一的一页时释放这页纹理。
+     */
+    public boolean remove(String key) {
+        AtlasRegion region = mRegions.remove(key);
+        if (region == null) {
+            return false;
+        }
+        Page page = region.mPage;
+        page.mPacker.free(region.mSlot);
+        page.mRegions.remove(region);
+        page.mFreed = true;
+        region.mRemoved = true;
+        if (page.mRegions.isEmpty() && mPages.size() > 1) {
+            mPages.remove(page);
+            deleteTexture(page.mTextureId);
+        }
+        return true;
+    }
+
+    /**
+     * 重新排布碎片超过阈值的页，返回排布了几页。可以在空闲时调用，也会在add()放不下时自动进行。
+     */
+    public int compact() {
+        int compacted = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            if (page.mFreed && page.mPacker.getFragmentation() > COMPACT_FRAGMENTATION && compact(page)) {
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    public int getRegionCount() {
+        return mRegions.size();
+    }
+
+    public int getCompactCount() {
+        return mCompactCount;
+    }
+
+    //所有页中碎片最多的
+    public float getFragmentation() {
+        float fragmentation = 0f;
+        for (int i = 0; i < mPages.size(); i++) {
+            fragmentation = Math.max(fragmentation, mPages.get(i).mPacker.getFragmentation());
+        }
+        return fragmentation;
+    }
+
+    //已使用的面积占所有页面积的比例
+    public float getOccupancy() {
+        if (mPages.isEmpty()) {
+            return 0f;
+        }
+        long used = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            used += mPages.get(i).mPacker.getUsedArea();
+        }
+        return (float) used / ((long) mPageSize * mPageSize * mPages.size());
+    }
+
+    /**
+     * EGLContext已经销毁，纹理随之失效，只清空记录，不调用GL。
+     */
+    public void onContextLost() {
+        invalidateRegions();
+        mPages.clear();
+        mFramebufferId = 0;
+    }
+
+    public void release() {
+        for (int i = 0; i < mPages.size(); i++) {
+            mGl.deleteTextures(1, new int[]{mPages.get(i).mTextureId}, 0);
+        }
+        if (mFramebufferId != 0) {
+            mGl.deleteFramebuffers(1, new int[]{mFramebufferId}, 0);
+        }
+        onContextLost();
+        //删除的id可能被复用，缓存的绑定不再可信
+        mGlState.invalidate();
+    }
+
+    @Override
+    public String toString() {
+        return TAG + "{pages=" + mPages.size() + "/" + mMaxPages + " regions=" + mRegions.size()
+                + " occupancy=" + getOccupancy() + " fragmentation=" + getFragmentation()
+                + " compactions=" + mCompactCount + "}";
+    }
+
+    private AtlasRegion allocate(String key, int width, int height) {
+        for (int i = 0; i < mPages.size(); i++) {
+            AtlasRegion region = insert(mPages.get(i), key, width, height);
+            if (region != null) {
+                return region;
+            }
+        }
+        //空闲面积够但太分散的页，重新排布后再试
+        long needed = (long) (width + mPadding) * (height + mPadding);
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            if (page.mFreed && page.mPacker.getFreeArea() >= needed
+                    && page.mPacker.getFragmentation() > COMPACT_FRAGMENTATION && compact(page)) {
+                AtlasRegion region = insert(page, key, width, height);
+                if (region != null) {
+                    return region;
+                }
+            }
+        }
+        if (mPages.size() < mMaxPages) {
+            return insert(createPage(), key, width, height);
+        }
+        return null;
+    }
+
+    private AtlasRegion insert(Page page, String key, int width, int height) {
+        AtlasPacker.Slot slot = page.mPacker.insert(width, height);
+        if (slot == null) {
+            return null;
+        }
+        AtlasRegion region = new AtlasRegion(key, page, slot);
+        page.mRegions.add(region);
+        mRegions.put(key, region);
+        return region;
+    }
+
+    private Page createPage() {
+        Page page = new Page(mPageSize, createPageTexture(), new AtlasPacker(mPageSize, mPageSize, mPadding));
+        mPages.add(page);
+        return page;
+    }
+
+    private int createPageTexture() {
+        int textureId = GlUtil.generateTexture(mGl, GLES20.GL_TEXTURE_2D);
+        //用全0初始化，padding里是透明像素，线性采样到边缘时不会混入未定义的内容
+        ByteBuffer transparent = ByteBuffer.allocateDirect(mPageSize * mPageSize * 4);
+        mGl.texImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mPageSize, mPageSize, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, transparent);
+        //generateTexture()没有经过mGlState绑定纹理
+        mGlState.invalidateTextures();
+        GlUtil.checkNoGLES2Error(mGl, TAG + " createPageTexture");
+        return textureId;
+    }
+
+    //把页内的图片从大到小重新放进一张新纹理，放不下时保持原样返回false
+    private boolean compact(Page page) {
+        List<AtlasRegion> regions = new ArrayList<>(page.mRegions);
+        Collections.sort(regions, LARGEST_FIRST);
+        AtlasPacker packer = new AtlasPacker(mPageSize, mPageSize, mPadding);
+        AtlasPacker.Slot[] slots = new AtlasPacker.Slot[regions.size()];
+        for (int i = 0; i < slots.length; i++) {
+            AtlasRegion region = regions.get(i);
+            slots[i] = packer.insert(region.mSlot.width, region.mSlot.height);
+            if (slots[i] == null) {
+                return false;
+            }
+        }
+
+        int textureId = createPageTexture();
+        if (mFramebufferId == 0) {
+            int[] framebuffers = new int[1];
+            mGl.genFramebuffers(1, framebuffers, 0);
+            mFramebufferId = framebuffers[0];
+        }
+        mGlState.bindFramebuffer(mFramebufferId);
+        mGl.framebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, page.mTextureId, 0);
+        int status = mGl.checkFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "compact: framebuffer incomplete " + status);
+            mGlState.bindFramebuffer(0);
+            deleteTexture(textureId);
+            return false;
+        }
+        mGlState.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        for (int i = 0; i < slots.length; i++) {
+            AtlasPacker.Slot from = regions.get(i).mSlot;
+            mGl.copyTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, slots[i].x, slots[i].y, from.x, from.y,
+                    from.width, from.height);
+            regions.get(i).mSlot = slots[i];
+        }
+        mGl.framebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, 0, 0);
+        mGlState.bindFramebuffer(0);
+        deleteTexture(page.mTextureId);
+        page.mTextureId = textureId;
+        page.mPacker = packer;
+        page.mFreed = false;
+        mCompactCount++;
+        GlUtil.checkNoGLES2Error(mGl, TAG + " compact");
+        return true;
+    }
+
+    private void deleteTexture(int textureId) {
+        mGl.deleteTextures(1, new int[]{textureId}, 0);
+        //id可能被复用，缓存的纹理绑定不再可信
+        mGlState.invalidateTextures();
+    }
+
+    private void invalidateRegions() {
+        Iterator<AtlasRegion> iterator = mRegions.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().mRemoved = true;
+            iterator.remove();
+        }
+    }
+}
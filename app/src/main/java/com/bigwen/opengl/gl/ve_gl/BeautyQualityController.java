@@ -0,0 +1,176 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the {@link GlBeautyFilter.Quality} that holds a target frame rate. Report the time spent on
+ * every frame with onFrame(); the controller keeps an exponentially weighted average and
+ *
+ *   - steps one level down as soon as the average exceeds the frame budget,
+ *   - steps one level up once the average has stayed below UPGRADE_RATIO of the budget for
+ *     |upgradeFrames| frames in a row.
+ *
+ * After every change the average is reset and no further change is made for COOL_DOWN_FRAMES
+ * frames, so a level is never judged on frames rendered at the previous one. A level that had to
+ * be left right after an upgrade doubles the time needed for the next upgrade, which stops the
+ * controller from oscillating between two levels. Holding a level for twice that time, longer than
+ * any upgrade takes, halves it again, so a single spike does not slow down upgrades for the rest of
+ * the session.
+ * Thread safe, getters may be called from any thread.
+ */
+public class BeautyQualityController {
+    // A level change, as reported by getHistory().
+    public static class Transition {
+        public final long timeMs;
+        public final long frameNumber;
+        public final GlBeautyFilter.Quality from;
+        public final GlBeautyFilter.Quality to;
+        // Smoothed frame time that caused the change.
+        public final long averageFrameTimeNs;
+
+        Transition(long timeMs, long frameNumber, GlBeautyFilter.Quality from,
+                   GlBeautyFilter.Quality to, long averageFrameTimeNs) {
+            this.timeMs = timeMs;
+            this.frameNumber = frameNumber;
+            this.from = from;
+            this.to = to;
+            this.averageFrameTimeNs = averageFrameTimeNs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d %s -> %s (%.1fms)", frameNumber, from, to,
+                    averageFrameTimeNs / 1e6);
+        }
+    }
+
+    // Weight of the newest frame in the moving average.
+    private static final double SMOOTHING = 0.1;
+    private static final double UPGRADE_RATIO = 0.6;
+    private static final int COOL_DOWN_FRAMES = 30;
+    private static final int MIN_UPGRADE_FRAMES = 90;
+    private static final int MAX_UPGRADE_FRAMES = 16 * MIN_UPGRADE_FRAMES;
+    private static final int HISTORY_SIZE = 32;
+
+    private final long frameBudgetNs;
+    private final GlBeautyFilter.Quality lowestQuality;
+
+    private GlBeautyFilter.Quality quality;
+    private long frameNumber;
+    private double averageFrameTimeNs = -1;
+    private int framesSinceChange;
+    private int framesUnderUpgradeThreshold;
+    private int upgradeFrames = MIN_UPGRADE_FRAMES;
+    // Frames since the last change or the last halving of |upgradeFrames|.
+    private int stableFrames;
+    private boolean lastChangeWasUpgrade;
+
+    // Ring buffer of the last HISTORY_SIZE transitions, |historyCount| of them valid.
+    private final Transition[] history = new Transition[HISTORY_SIZE];
+    private int historyHead;
+    private int historyCount;
+
+    /**
+     * Hold |targetFps|, starting at |initialQuality| and never going below |lowestQuality|, e.g.
+     * MULTI_PASS to keep the filter on at all times.
+     */
+    public BeautyQualityController(float targetFps, GlBeautyFilter.Quality initialQuality,
+                                   GlBeautyFilter.Quality lowestQuality) {
+        if (targetFps <= 0) {
+            throw new IllegalArgumentException("Invalid target frame rate: " + targetFps);
+        }
+        if (initialQuality.ordinal() > lowestQuality.ordinal()) {
+            throw new IllegalArgumentException(
+                    "Initial quality " + initialQuality + " is below " + lowestQuality);
+        }
+        this.frameBudgetNs = (long) (1e9 / targetFps);
+        this.lowestQuality = lowestQuality;
+        this.quality = initialQuality;
+    }
+
+    /**
+     * Report the time spent on one frame and return the quality to render the next one with. The
+     * filter is GPU bound, so |frameTimeNs| has to include the GPU time; the CPU time spent issuing
+     * the draw calls alone stays low while the GPU falls behind.
+     */
+    public synchronized GlBeautyFilter.Quality onFrame(long frameTimeNs) {
+        frameNumber++;
+        framesSinceChange++;
+        if (++stableFrames >= 2 * upgradeFrames) {
+            upgradeFrames = Math.max(upgradeFrames / 2, MIN_UPGRADE_FRAMES);
+            stableFrames = 0;
+        }
+        averageFrameTimeNs = averageFrameTimeNs < 0
+                ? frameTimeNs
+                : averageFrameTimeNs + (frameTimeNs - averageFrameTimeNs) * SMOOTHING;
+        if (framesSinceChange < COOL_DOWN_FRAMES) {
+            return quality;
+        }
+
+        if (averageFrameTimeNs > frameBudgetNs) {
+            if (quality != lowestQuality) {
+                if (lastChangeWasUpgrade && framesSinceChange < upgradeFrames) {
+                    upgradeFrames = Math.min(upgradeFrames * 2, MAX_UPGRADE_FRAMES);
+                }
+                changeQuality(quality.lower(), false);
+            }
+            framesUnderUpgradeThreshold = 0;
+        } else if (averageFrameTimeNs < frameBudgetNs * UPGRADE_RATIO) {
+            if (++framesUnderUpgradeThreshold >= upgradeFrames
+                    && quality != GlBeautyFilter.Quality.FULL) {
+                changeQuality(quality.higher(), true);
+            }
+        } else {
+            framesUnderUpgradeThreshold = 0;
+        }
+        return quality;
+    }
+
+    public synchronized GlBeautyFilter.Quality getQuality() {
+        return quality;
+    }
+
+    // Smoothed frame time in nanoseconds, -1 before the first frame after a change.
+    public synchronized long getAverageFrameTimeNs() {
+        return (long) averageFrameTimeNs;
+    }
+
+    public long getFrameBudgetNs() {
+        return frameBudgetNs;
+    }
+
+    // Frames below the upgrade threshold needed for the next upgrade.
+    synchronized int getUpgradeFrames() {
+        return upgradeFrames;
+    }
+
+    // The recorded transitions, oldest first.
+    public synchronized List<Transition> getHistory() {
+        final List<Transition> transitions = new ArrayList<Transition>(historyCount);
+        for (int i = 0; i < historyCount; ++i) {
+            transitions.add(history[(historyHead - historyCount + i + HISTORY_SIZE) % HISTORY_SIZE]);
+        }
+        return transitions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("quality=%s avg=%.1fms budget=%.1fms transitions=%d", quality,
+                averageFrameTimeNs / 1e6, frameBudgetNs / 1e6, historyCount);
+    }
+
+    private void changeQuality(GlBeautyFilter.Quality newQuality, boolean upgrade) {
+        history[historyHead] = new Transition(System.currentTimeMillis(), frameNumber, quality,
+                newQuality, (long) averageFrameTimeNs);
+        historyHead = (historyHead + 1) % HISTORY_SIZE;
+        historyCount = Math.min(historyCount + 1, HISTORY_SIZE);
+
+        quality = newQuality;
+        lastChangeWasUpgrade = upgrade;
+        averageFrameTimeNs = -1;
+        framesSinceChange = 0;
+        framesUnderUpgradeThreshold = 0;
+        stableFrames = 0;
+    }
+}
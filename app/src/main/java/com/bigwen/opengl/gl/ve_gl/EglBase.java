@@ -23,11 +23,8 @@ public abstract class EglBase {
     // EGL wrapper for an actual EGLContext.
     public static class Context {}
 
-    // According to the documentation, EGL can be used from multiple threads at the same time if each
-    // thread has its own EGLContext, but in practice it deadlocks on some devices when doing this.
-    // Therefore, synchronize on this global lock before calling dangerous EGL functions that might
-    // deadlock. See https://bugs.chromium.org/p/webrtc/issues/detail?id=5702 for more info.
-    public static final Object lock = new Object();
+    // EGL calls are serialized per EGLDisplay, or on a single global lock on devices that deadlock
+    // otherwise. See EglLock.
 
     // These constants are taken from EGL14.EGL_OPENGL_ES2_BIT and EGL14.EGL_CONTEXT_CLIENT_VERSION.
     // https://android.googlesource.com/platform/frameworks/base/+/master/opengl/java/android/opengl/EGL14.java
@@ -80,6 +77,14 @@ public abstract class EglBase {
     };
     // clang-format on
 
+    // Shadow of the GL state of this context, shared by all drawers rendering with it.
+    private final GlStateCache glStateCache = new GlStateCache();
+    // Static geometry uploaded into this context, shared by all drawers rendering with it.
+    private final GlMeshRegistry meshRegistry = new GlMeshRegistry(glStateCache);
+    // Incremented whenever the EGLSurface is released, so that EglContextBinder does not mistake a
+    // binding to the old surface for a binding to a new one.
+    private volatile int surfaceGeneration;
+
     // Create a new context with the specified config attributes, sharing data with sharedContext.
     // |sharedContext| can be null.
     public static EglBase create(Context sharedContext, int[] configAttributes) {
@@ -119,10 +124,28 @@ public abstract class EglBase {
 
     public abstract void release();
 
+    // Make this context current on the calling thread. Cheap when it already is, see
+    // EglContextBinder.
     public abstract void makeCurrent();
 
     // Detach the current EGL context, so that it can be made current on another thread.
     public abstract void detachCurrent();
 
     public abstract void swapBuffers();
+
+    public GlStateCache getGlStateCache() {
+        return glStateCache;
+    }
+
+    public GlMeshRegistry getMeshRegistry() {
+        return meshRegistry;
+    }
+
+    int getSurfaceGeneration() {
+        return surfaceGeneration;
+    }
+
+    void onSurfaceReleased() {
+        surfaceGeneration++;
+    }
 }
@@ -35,6 +35,8 @@ public final class EglBase10 extends EglBase {
     private EGLConfig eglConfig;
     private EGLDisplay eglDisplay;
     private EGLSurface eglSurface = EGL10.EGL_NO_SURFACE;
+    // Lock of |eglDisplay|, or the global lock in EglLock.Mode.GLOBAL.
+    private final EglLock eglLock;
 
     // EGL wrapper for an actual EGLContext.
     public static class Context extends EglBase.Context {
@@ -49,8 +51,9 @@ public final class EglBase10 extends EglBase {
     public EglBase10(Context sharedContext, int[] configAttributes) {
         this.egl = (EGL10) EGLContext.getEGL();
         eglDisplay = getEglDisplay();
+        eglLock = EglLock.forDisplay(eglDisplay);
         eglConfig = getEglConfig(eglDisplay, configAttributes);
-        eglContext = createEglContext(sharedContext, eglDisplay, eglConfig);
+        eglContext = createEglContext(sharedContext, eglDisplay, eglConfig, eglLock);
     }
 
     @Override
@@ -195,6 +198,7 @@ public final class EglBase10 extends EglBase {
         if (eglSurface != EGL10.EGL_NO_SURFACE) {
             egl.eglDestroySurface(eglDisplay, eglSurface);
             eglSurface = EGL10.EGL_NO_SURFACE;
+            onSurfaceReleased();
         }
     }
 
@@ -210,7 +214,12 @@ public final class EglBase10 extends EglBase {
         checkIsNotReleased();
         releaseSurface();
         detachCurrent();
-        egl.eglDestroyContext(eglDisplay, eglContext);
+        eglLock.lock();
+        try {
+            egl.eglDestroyContext(eglDisplay, eglContext);
+        } finally {
+            eglLock.unlock();
+        }
         egl.eglTerminate(eglDisplay);
         eglContext = EGL10.EGL_NO_CONTEXT;
         eglDisplay = EGL10.EGL_NO_DISPLAY;
@@ -223,30 +232,36 @@ public final class EglBase10 extends EglBase {
         if (eglSurface == EGL10.EGL_NO_SURFACE) {
             throw new RuntimeException("No EGLSurface - can't make current");
         }
-        synchronized (EglBase.lock) {
-            EGLContext oldContext = egl.eglGetCurrentContext();
-            EGLSurface oldSurface = egl.eglGetCurrentSurface(EGL10.EGL_DRAW);
-            if (oldContext == eglContext && oldSurface == eglSurface) {
-                return ;
-            }
-
+        // The thread-local binding replaces querying eglGetCurrentContext()/eglGetCurrentSurface().
+        if (EglContextBinder.isBound(this)) {
+            return;
+        }
+        eglLock.lockThreadCall();
+        try {
             if (!egl.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
                 throw new RuntimeException(
                         "eglMakeCurrent failed: 0x" + Integer.toHexString(egl.eglGetError()));
             }
+        } finally {
+            eglLock.unlockThreadCall();
         }
+        EglContextBinder.onBound(this);
     }
 
     // Detach the current EGL context, so that it can be made current on another thread.
     @Override
     public void detachCurrent() {
-        synchronized (EglBase.lock) {
+        eglLock.lockThreadCall();
+        try {
             if (!egl.eglMakeCurrent(
                     eglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT)) {
                 throw new RuntimeException(
                         "eglDetachCurrent failed: 0x" + Integer.toHexString(egl.eglGetError()));
             }
+        } finally {
+            eglLock.unlockThreadCall();
         }
+        EglContextBinder.onDetached();
     }
 
     @Override
@@ -255,8 +270,11 @@ public final class EglBase10 extends EglBase {
         if (eglSurface == EGL10.EGL_NO_SURFACE) {
             throw new RuntimeException("No EGLSurface - can't swap buffers");
         }
-        synchronized (EglBase.lock) {
+        eglLock.lockThreadCall();
+        try {
             egl.eglSwapBuffers(eglDisplay, eglSurface);
+        } finally {
+            eglLock.unlockThreadCall();
         }
     }
 
@@ -295,7 +313,7 @@ public final class EglBase10 extends EglBase {
 
     // Return an EGLConfig, or die trying.
     private EGLContext createEglContext(
-            Context sharedContext, EGLDisplay eglDisplay, EGLConfig eglConfig) {
+            Context sharedContext, EGLDisplay eglDisplay, EGLConfig eglConfig, EglLock eglLock) {
         if (sharedContext != null && sharedContext.eglContext == EGL10.EGL_NO_CONTEXT) {
             throw new RuntimeException("Invalid sharedContext");
         }
@@ -303,8 +321,11 @@ public final class EglBase10 extends EglBase {
         EGLContext rootContext =
                 sharedContext == null ? EGL10.EGL_NO_CONTEXT : sharedContext.eglContext;
         final EGLContext eglContext;
-        synchronized (EglBase.lock) {
+        eglLock.lock();
+        try {
             eglContext = egl.eglCreateContext(eglDisplay, eglConfig, rootContext, contextAttributes);
+        } finally {
+            eglLock.unlock();
         }
         if (eglContext == EGL10.EGL_NO_CONTEXT) {
             throw new RuntimeException(
@@ -35,6 +35,8 @@ public final class EglBase14 extends EglBase {
     private EGLConfig eglConfig;
     private EGLDisplay eglDisplay;
     private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+    // Lock of |eglDisplay|, or the global lock in EglLock.Mode.GLOBAL.
+    private final EglLock eglLock;
 
     // EGL 1.4 is supported from API 17. But EGLExt that is used for setting presentation
     // time stamp on a surface is supported from 18 so we require 18.
@@ -56,8 +58,9 @@ public final class EglBase14 extends EglBase {
     // |sharedContext| may be null.
     public EglBase14(Context sharedContext, int[] configAttributes) {
         eglDisplay = getEglDisplay();
+        eglLock = EglLock.forDisplay(eglDisplay);
         eglConfig = getEglConfig(eglDisplay, configAttributes);
-        eglContext = createEglContext(sharedContext, eglDisplay, eglConfig);
+        eglContext = createEglContext(sharedContext, eglDisplay, eglConfig, eglLock);
     }
 
     // Create EGLSurface from the Android Surface.
@@ -139,6 +142,7 @@ public final class EglBase14 extends EglBase {
         if (eglSurface != EGL14.EGL_NO_SURFACE) {
             EGL14.eglDestroySurface(eglDisplay, eglSurface);
             eglSurface = EGL14.EGL_NO_SURFACE;
+            onSurfaceReleased();
         }
     }
 
@@ -154,7 +158,12 @@ public final class EglBase14 extends EglBase {
         checkIsNotReleased();
         releaseSurface();
         detachCurrent();
-        EGL14.eglDestroyContext(eglDisplay, eglContext);
+        eglLock.lock();
+        try {
+            EGL14.eglDestroyContext(eglDisplay, eglContext);
+        } finally {
+            eglLock.unlock();
+        }
         EGL14.eglReleaseThread();
         EGL14.eglTerminate(eglDisplay);
         eglContext = EGL14.EGL_NO_CONTEXT;
@@ -170,30 +179,36 @@ public final class EglBase14 extends EglBase {
             throw new RuntimeException("No EGLSurface - can't make current");
         }
 
-        synchronized (EglBase.lock) {
-            EGLContext oldContext = EGL14.eglGetCurrentContext();
-            EGLSurface oldSurface = EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW);
-            if (oldContext == eglContext && oldSurface == eglSurface) {
-                return ;
-            }
-
+        // The thread-local binding replaces querying eglGetCurrentContext()/eglGetCurrentSurface().
+        if (EglContextBinder.isBound(this)) {
+            return;
+        }
+        eglLock.lockThreadCall();
+        try {
             if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
                 throw new RuntimeException(
                         "eglMakeCurrent failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
             }
+        } finally {
+            eglLock.unlockThreadCall();
         }
+        EglContextBinder.onBound(this);
     }
 
     // Detach the current EGL context, so that it can be made current on another thread.
     @Override
     public void detachCurrent() {
-        synchronized (EglBase.lock) {
+        eglLock.lockThreadCall();
+        try {
             if (!EGL14.eglMakeCurrent(
                     eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT)) {
                 throw new RuntimeException(
                         "eglDetachCurrent failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
             }
+        } finally {
+            eglLock.unlockThreadCall();
         }
+        EglContextBinder.onDetached();
     }
 
     @Override
@@ -202,8 +217,11 @@ public final class EglBase14 extends EglBase {
         if (eglSurface == EGL14.EGL_NO_SURFACE) {
             throw new RuntimeException("No EGLSurface - can't swap buffers");
         }
-        synchronized (EglBase.lock) {
+        eglLock.lockThreadCall();
+        try {
             EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+        } finally {
+            eglLock.unlockThreadCall();
         }
     }
 
@@ -212,11 +230,14 @@ public final class EglBase14 extends EglBase {
         if (eglSurface == EGL14.EGL_NO_SURFACE) {
             throw new RuntimeException("No EGLSurface - can't swap buffers");
         }
-        synchronized (EglBase.lock) {
+        eglLock.lockThreadCall();
+        try {
             // See
             // https://android.googlesource.com/platform/frameworks/native/+/tools_r22.2/opengl/specs/EGL_ANDROID_presentation_time.txt
             EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, timeStampNs);
             EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+        } finally {
+            eglLock.unlockThreadCall();
         }
     }
 
@@ -256,7 +277,7 @@ public final class EglBase14 extends EglBase {
 
     // Return an EGLConfig, or die trying.
     private static EGLContext createEglContext(
-            Context sharedContext, EGLDisplay eglDisplay, EGLConfig eglConfig) {
+            Context sharedContext, EGLDisplay eglDisplay, EGLConfig eglConfig, EglLock eglLock) {
         if (sharedContext != null && sharedContext.egl14Context == EGL14.EGL_NO_CONTEXT) {
             throw new RuntimeException("Invalid sharedContext");
         }
@@ -264,8 +285,11 @@ public final class EglBase14 extends EglBase {
         EGLContext rootContext =
                 sharedContext == null ? EGL14.EGL_NO_CONTEXT : sharedContext.egl14Context;
         final EGLContext eglContext;
-        synchronized (EglBase.lock) {
+        eglLock.lock();
+        try {
             eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, rootContext, contextAttributes, 0);
+        } finally {
+            eglLock.unlock();
         }
         if (eglContext == EGL14.EGL_NO_CONTEXT) {
             throw new RuntimeException(
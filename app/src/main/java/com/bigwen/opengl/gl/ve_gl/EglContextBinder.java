@@ -0,0 +1,85 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks which EglBase is current on each thread, so that EglBase.makeCurrent() can return without
+ * locking or querying EGL when the context is already bound. A thread that owns a single context
+ * should keep it bound and never call detachCurrent() between frames.
+ *
+ * The tracking relies on every bind and detach going through EglBase; code that calls
+ * eglMakeCurrent() directly must call EglBase.detachCurrent() afterwards.
+ */
+public final class EglContextBinder {
+    private static class Binding {
+        EglBase eglBase;
+        // Surface generation of |eglBase| when it was bound.
+        int surfaceGeneration;
+        int frameSwitches;
+    }
+
+    private static final ThreadLocal<Binding> binding = new ThreadLocal<Binding>() {
+        @Override
+        protected Binding initialValue() {
+            return new Binding();
+        }
+    };
+    private static final AtomicLong totalSwitches = new AtomicLong();
+
+    private EglContextBinder() {}
+
+    // Make |eglBase| current on the calling thread, unless it already is.
+    public static void bind(EglBase eglBase) {
+        eglBase.makeCurrent();
+    }
+
+    // Detach whatever context is current on the calling thread.
+    public static void unbind() {
+        final EglBase current = binding.get().eglBase;
+        if (current != null) {
+            current.detachCurrent();
+        }
+    }
+
+    // The EglBase bound on the calling thread, or null.
+    public static EglBase getCurrent() {
+        return binding.get().eglBase;
+    }
+
+    /**
+     * Return the number of eglMakeCurrent() calls on the calling thread since the previous call,
+     * i.e. the context switches of the frame that just ended. Call once per frame.
+     */
+    public static int endFrame() {
+        final Binding current = binding.get();
+        final int switches = current.frameSwitches;
+        current.frameSwitches = 0;
+        return switches;
+    }
+
+    // eglMakeCurrent() calls on all threads since the process started.
+    public static long getTotalSwitches() {
+        return totalSwitches.get();
+    }
+
+    // Called by EglBase before calling eglMakeCurrent().
+    static boolean isBound(EglBase eglBase) {
+        final Binding current = binding.get();
+        return current.eglBase == eglBase
+                && current.surfaceGeneration == eglBase.getSurfaceGeneration();
+    }
+
+    // Called by EglBase after eglMakeCurrent() succeeded.
+    static void onBound(EglBase eglBase) {
+        final Binding current = binding.get();
+        current.eglBase = eglBase;
+        current.surfaceGeneration = eglBase.getSurfaceGeneration();
+        current.frameSwitches++;
+        totalSwitches.incrementAndGet();
+    }
+
+    // Called by EglBase after the calling thread released its current context.
+    static void onDetached() {
+        binding.get().eglBase = null;
+    }
+}
@@ -0,0 +1,145 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes EGL calls of the contexts created on one EGLDisplay.
+ *
+ * In PER_DISPLAY mode, the default, only calls that change display-wide state, such as context
+ * creation, take the lock of the display. Calls that only affect the calling thread's current
+ * context (eglMakeCurrent(), eglSwapBuffers()) are not locked at all, as the EGL spec allows.
+ *
+ * According to the documentation, EGL can be used from multiple threads at the same time if each
+ * thread has its own EGLContext, but in practice it deadlocks on some devices when doing this.
+ * GLOBAL mode keeps the old workaround for such devices: every call of every context is serialized
+ * on a single process-wide lock. See https://bugs.chromium.org/p/webrtc/issues/detail?id=5702 for
+ * more info.
+ *
+ * The mode is read when an EglBase is created, set it before creating any.
+ */
+public final class EglLock {
+    public enum Mode {
+        PER_DISPLAY,
+        GLOBAL,
+    }
+
+    private static volatile Mode mode = Mode.PER_DISPLAY;
+    private static final EglLock globalLock = new EglLock("global", true);
+    // Keyed by EGLDisplay, whose equals() compares the native handle.
+    private static final Map<Object, EglLock> displayLocks = new HashMap<Object, EglLock>();
+
+    private final String name;
+    // Whether per-thread calls such as eglMakeCurrent() are serialized too.
+    private final boolean lockThreadCalls;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong contendedAcquisitions = new AtomicLong();
+    private final AtomicLong totalWaitNs = new AtomicLong();
+    private final AtomicLong maxWaitNs = new AtomicLong();
+
+    private EglLock(String name, boolean lockThreadCalls) {
+        this.name = name;
+        this.lockThreadCalls = lockThreadCalls;
+    }
+
+    public static void setMode(Mode newMode) {
+        mode = newMode;
+    }
+
+    public static Mode getMode() {
+        return mode;
+    }
+
+    // The lock to be used by a context created on |eglDisplay| now.
+    static EglLock forDisplay(Object eglDisplay) {
+        if (mode == Mode.GLOBAL) {
+            return globalLock;
+        }
+        synchronized (displayLocks) {
+            EglLock displayLock = displayLocks.get(eglDisplay);
+            if (displayLock == null) {
+                displayLock = new EglLock("display " + eglDisplay, false);
+                displayLocks.put(eglDisplay, displayLock);
+            }
+            return displayLock;
+        }
+    }
+
+    // All locks in use so far, for reading their wait times.
+    public static List<EglLock> getLocks() {
+        final List<EglLock> locks = new ArrayList<EglLock>();
+        locks.add(globalLock);
+        synchronized (displayLocks) {
+            locks.addAll(displayLocks.values());
+        }
+        return locks;
+    }
+
+    // Lock around calls that change display-wide state.
+    void lock() {
+        if (lock.tryLock()) {
+            acquisitions.incrementAndGet();
+            return;
+        }
+        final long startNs = System.nanoTime();
+        lock.lock();
+        final long waitNs = System.nanoTime() - startNs;
+        acquisitions.incrementAndGet();
+        contendedAcquisitions.incrementAndGet();
+        totalWaitNs.addAndGet(waitNs);
+        long currentMax = maxWaitNs.get();
+        while (waitNs > currentMax && !maxWaitNs.compareAndSet(currentMax, waitNs)) {
+            currentMax = maxWaitNs.get();
+        }
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    // Lock around calls that only affect the calling thread. Does nothing in PER_DISPLAY mode.
+    void lockThreadCall() {
+        if (lockThreadCalls) {
+            lock();
+        }
+    }
+
+    void unlockThreadCall() {
+        if (lockThreadCalls) {
+            unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    // Acquisitions that had to wait for another thread.
+    public long getContendedAcquisitions() {
+        return contendedAcquisitions.get();
+    }
+
+    public long getTotalWaitNs() {
+        return totalWaitNs.get();
+    }
+
+    public long getMaxWaitNs() {
+        return maxWaitNs.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": acquisitions=" + getAcquisitions() + " contended="
+                + getContendedAcquisitions() + " wait=" + getTotalWaitNs() / 1000 + "us max="
+                + getMaxWaitNs() / 1000 + "us";
+    }
+}
@@ -0,0 +1,178 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES 2.0 calls made by the drawers, so that they can run against something other than
+ * the driver, plus the ES 3.0 sync objects and timer queries of {@link GlFence} and
+ * {@link GlGpuTimer}. Methods mirror the GLES20/GLES30 ones without the gl prefix and take the same
+ * arguments. {@link GlesApi} forwards to GLES20/GLES30 and is the default everywhere;
+ * {@link RecordingGlApi} counts the calls and can run without a device.
+ *
+ * EGL is not covered: contexts, surfaces, SurfaceTexture and the threads that own them still need
+ * a device, so code using them keeps its GL work in methods that take a GlApi or GlStateCache.
+ *
+ * Reach the backend of a context through {@link GlStateCache#getGl()}, so that every object
+ * sharing the state cache also shares the backend.
+ */
+public interface GlApi {
+    // State.
+    void useProgram(int program);
+
+    void activeTexture(int texture);
+
+    void bindTexture(int target, int texture);
+
+    void bindFramebuffer(int target, int framebuffer);
+
+    void bindBuffer(int target, int buffer);
+
+    void viewport(int x, int y, int width, int height);
+
+    void enableVertexAttribArray(int index);
+
+    void disableVertexAttribArray(int index);
+
+    // Vertex data from the bound GL_ARRAY_BUFFER, |offset| in bytes.
+    void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                             int offset);
+
+    // Client side vertex data, copied on every draw.
+    void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                             Buffer data);
+
+    void uniform1i(int location, int x);
+
+    void uniform1f(int location, float x);
+
+    void uniform2f(int location, float x, float y);
+
+    void uniform4f(int location, float x, float y, float z, float w);
+
+    void uniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void texParameterf(int target, int pname, float param);
+
+    void pixelStorei(int pname, int param);
+
+    void enable(int cap);
+
+    void disable(int cap);
+
+    void blendFunc(int sfactor, int dfactor);
+
+    // Drawing.
+    void clear(int mask);
+
+    void drawArrays(int mode, int first, int count);
+
+    // Indices from the bound GL_ELEMENT_ARRAY_BUFFER, |offset| in bytes.
+    void drawElements(int mode, int count, int type, int offset);
+
+    // Uploads.
+    void texImage2D(int target, int level, int internalformat, int width, int height, int border,
+                    int format, int type, Buffer pixels);
+
+    void texSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height,
+                       int format, int type, Buffer pixels);
+
+    void bufferData(int target, int size, Buffer data, int usage);
+
+    // Copy from the bound read framebuffer into the bound texture.
+    void copyTexSubImage2D(int target, int level, int xoffset, int yoffset, int x, int y,
+                           int width, int height);
+
+    // Objects.
+    void genTextures(int n, int[] textures, int offset);
+
+    void deleteTextures(int n, int[] textures, int offset);
+
+    void genBuffers(int n, int[] buffers, int offset);
+
+    void deleteBuffers(int n, int[] buffers, int offset);
+
+    void genFramebuffers(int n, int[] framebuffers, int offset);
+
+    void deleteFramebuffers(int n, int[] framebuffers, int offset);
+
+    void framebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+
+    int checkFramebufferStatus(int target);
+
+    // Shaders and programs.
+    int createShader(int type);
+
+    void shaderSource(int shader, String source);
+
+    void compileShader(int shader);
+
+    void getShaderiv(int shader, int pname, int[] params, int offset);
+
+    String getShaderInfoLog(int shader);
+
+    void deleteShader(int shader);
+
+    int createProgram();
+
+    void attachShader(int program, int shader);
+
+    void linkProgram(int program);
+
+    void getProgramiv(int program, int pname, int[] params, int offset);
+
+    String getProgramInfoLog(int program);
+
+    void deleteProgram(int program);
+
+    void getActiveAttrib(int program, int index, int bufsize, int[] length, int lengthOffset,
+                         int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name,
+                         int nameOffset);
+
+    void getActiveUniform(int program, int index, int bufsize, int[] length, int lengthOffset,
+                          int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name,
+                          int nameOffset);
+
+    int getAttribLocation(int program, String name);
+
+    int getUniformLocation(int program, String name);
+
+    // Readback and synchronization.
+    void readPixels(int x, int y, int width, int height, int format, int type, Buffer pixels);
+
+    void finish();
+
+    void flush();
+
+    int getError();
+
+    // Queries.
+    String getString(int name);
+
+    void getIntegerv(int pname, int[] params, int offset);
+
+    /**
+     * Whether the context is ES 3.0 or later on API 18+, i.e. whether the calls below exist. Not a
+     * GL call; answered from a cache, so it can be asked every frame.
+     */
+    boolean isEs3();
+
+    // ES 3.0 sync objects.
+    long fenceSync(int condition, int flags);
+
+    int clientWaitSync(long sync, int flags, long timeout);
+
+    void waitSync(long sync, int flags, long timeout);
+
+    void deleteSync(long sync);
+
+    // ES 3.0 queries.
+    void genQueries(int n, int[] ids, int offset);
+
+    void deleteQueries(int n, int[] ids, int offset);
+
+    void beginQuery(int target, int id);
+
+    void endQuery(int target);
+
+    void getQueryObjectuiv(int id, int pname, int[] params, int offset);
+}
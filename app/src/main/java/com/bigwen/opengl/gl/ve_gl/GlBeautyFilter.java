@@ -0,0 +1,435 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Beauty filter for camera frames, with a ladder of quality levels trading fidelity for GPU
+ * time. BeautyQualityController can pick the level from measured frame times.
+ *
+ * At MULTI_PASS the low-pass of the single-pass shader is replaced by a separable Gaussian
+ * computed on a downsampled copy of the frame:
+ *
+ *   1. draw the camera frame into a 1/|downsample| sized texture,
+ *   2. blur it horizontally, then vertically, between two such textures,
+ *   3. draw the full resolution output, mixing the blurred green channel with the center tap and
+ *      applying the same tone mapping as the single-pass shader.
+ *
+ * This needs about 20 texture fetches per low resolution pixel and 2 per output pixel instead of
+ * 25 per output pixel. BeautyReference in the unit tests is the CPU model of both versions and
+ * holds the accepted error against the single-pass output. All methods must be called on the
+ * thread that owns the EGLContext; release() frees the intermediate textures.
+ *
+ * Frames are either OES textures from a SurfaceTexture or GL_TEXTURE_2D, e.g. NV21 frames uploaded
+ * by GlNv21Uploader; every level has a shader for both. As a {@link GlFilter} it keeps the size.
+ */
+public class GlBeautyFilter implements GlFilter {
+    // From the best looking and most expensive level to the cheapest.
+    public enum Quality {
+        // The original 25-tap shader, see GlRectDrawer.drawOes().
+        FULL,
+        // Single pass with the 12 inner taps only.
+        REDUCED_TAPS,
+        // REDUCED_TAPS evaluated in mediump.
+        LOW_PRECISION,
+        // Downsampled separable blur, see above.
+        MULTI_PASS,
+        // Plain copy of the camera frame.
+        OFF;
+
+        public Quality lower() {
+            return this == OFF ? OFF : values()[ordinal() + 1];
+        }
+
+        public Quality higher() {
+            return this == FULL ? FULL : values()[ordinal() - 1];
+        }
+    }
+
+    public static final int DEFAULT_DOWNSAMPLE = 4;
+
+    // Tap offsets (in units of singleStepOffset, i.e. 2 pixels) and weights of the single-pass
+    // shader, excluding the center tap. The center tap is heavy (22/62) and the ring is well
+    // approximated by a Gaussian, which MULTI_PASS computes separably.
+    static final float[][] TAPS = {
+            {0, -10, 1}, {0, 10, 1}, {-10, 0, 1}, {10, 0, 1},
+            {5, -8, 1}, {5, 8, 1}, {-5, 8, 1}, {-5, -8, 1},
+            {8, -5, 1}, {8, 5, 1}, {-8, 5, 1}, {-8, -5, 1},
+            {0, -6, 2}, {0, 6, 2}, {6, 0, 2}, {-6, 0, 2},
+            {-4, -4, 2}, {-4, 4, 2}, {4, -4, 2}, {4, 4, 2},
+            {-2, -2, 3}, {-2, 2, 3}, {2, -2, 3}, {2, 2, 3},
+    };
+    static final float CENTER_TAP_WEIGHT = 22.0f;
+    static final float TOTAL_TAP_WEIGHT = 62.0f;
+    // Share of the center tap in the low-passed value.
+    static final float CENTER_WEIGHT = CENTER_TAP_WEIGHT / TOTAL_TAP_WEIGHT;
+    // Standard deviation, in full resolution pixels, of a Gaussian with the same per-axis variance
+    // as the ring taps.
+    static final float RING_SIGMA_PIXELS = computeRingSigmaPixels();
+
+    private static final float[] IDENTITY_MATRIX = new float[] {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1,
+    };
+
+    // clang-format off
+    // First taps of TAPS dropped by REDUCED_TAPS, the 12 outermost ones.
+    private static final int REDUCED_TAPS_SKIPPED = 12;
+    private static final String REDUCED_TAPS_FRAGMENT_SHADER_STRING =
+            createSinglePassShader(REDUCED_TAPS_SKIPPED);
+    private static final String LOW_PRECISION_FRAGMENT_SHADER_STRING =
+            REDUCED_TAPS_FRAGMENT_SHADER_STRING.replace("highp", "mediump");
+
+    // The blurred texture is upright, so it is read with the untransformed coordinate.
+    private static final String COMBINE_FRAGMENT_SHADER_STRING =
+                    "#extension GL_OES_EGL_image_external : require\n" +
+                    "varying highp vec2 interp_tc;\n" +
+                    "varying highp vec2 raw_tc;\n" +
+                    "uniform samplerExternalOES oes_tex;\n" +
+                    "uniform sampler2D blur_tex;\n" +
+                    GlRectDrawer.BEAUTY_DECLARATIONS +
+                    "\n" +
+                    "void main(){\n" +
+                    "    highp vec3 centralColor = texture2D(oes_tex, interp_tc).rgb;\n" +
+                    "    highp float blurred = texture2D(blur_tex, raw_tc).g;\n" +
+                    "    highp float sampleColor = mix(blurred, centralColor.g, "
+                            + formatFloat(CENTER_WEIGHT) + ");\n" +
+                    "\n" +
+                    GlRectDrawer.BEAUTY_TONE_MAPPING;
+
+    // The shaders above for GL_TEXTURE_2D input. FULL on OES input uses GlRectDrawer's own shader,
+    // which has the same taps.
+    private static final String FULL_RGB_FRAGMENT_SHADER_STRING =
+            toRgbShader(createSinglePassShader(0));
+    private static final String REDUCED_TAPS_RGB_FRAGMENT_SHADER_STRING =
+            toRgbShader(REDUCED_TAPS_FRAGMENT_SHADER_STRING);
+    private static final String LOW_PRECISION_RGB_FRAGMENT_SHADER_STRING =
+            toRgbShader(LOW_PRECISION_FRAGMENT_SHADER_STRING);
+    private static final String COMBINE_RGB_FRAGMENT_SHADER_STRING =
+            toRgbShader(COMBINE_FRAGMENT_SHADER_STRING);
+    // clang-format on
+
+    // Blur shaders by downsample factor and direction. GlRectDrawer caches programs by the identity
+    // of the source, so every factor must map to one String instance.
+    private static final Map<Integer, String[]> BLUR_SHADERS = new HashMap<Integer, String[]>();
+
+    private final GlRectDrawer drawer;
+    private final GlStateCache glState;
+    private Quality quality = Quality.MULTI_PASS;
+    private int downsample = DEFAULT_DOWNSAMPLE;
+
+    private final GlRenderTargetPool targetPool;
+    // Ping-pong targets at the low resolution, borrowed from |targetPool| while in MULTI_PASS.
+    private final GlRenderTargetPool.RenderTarget[] lowTargets =
+            new GlRenderTargetPool.RenderTarget[2];
+
+    // Draw through |drawer|, which also holds the beauty levels. |glState| must be the state cache
+    // the drawer uses, and |targetPool| must belong to the same context.
+    public GlBeautyFilter(GlRectDrawer drawer, GlStateCache glState,
+                          GlRenderTargetPool targetPool) {
+        this.drawer = drawer;
+        this.glState = glState;
+        this.targetPool = targetPool;
+    }
+
+    public Quality getQuality() {
+        return quality;
+    }
+
+    // Takes effect on the next frame. Leaving MULTI_PASS returns the intermediate targets to the
+    // pool, which keeps them within its budget in case the controller comes back shortly.
+    public void setQuality(Quality quality) {
+        this.quality = quality;
+    }
+
+    public int getDownsample() {
+        return downsample;
+    }
+
+    // Takes effect on the next frame; the intermediate textures are reallocated if needed.
+    public void setDownsample(int downsample) {
+        if (downsample < 1) {
+            throw new IllegalArgumentException("Invalid downsample factor: " + downsample);
+        }
+        this.downsample = downsample;
+    }
+
+    @Override
+    public String getName() {
+        return "beauty(" + quality + ")";
+    }
+
+    @Override
+    public boolean acceptsInput(int textureTarget) {
+        return textureTarget == GLES11Ext.GL_TEXTURE_EXTERNAL_OES
+                || textureTarget == GLES20.GL_TEXTURE_2D;
+    }
+
+    @Override
+    public void getOutputSize(int inputWidth, int inputHeight, int[] outputSize) {
+        outputSize[0] = inputWidth;
+        outputSize[1] = inputHeight;
+    }
+
+    // |drawer| must be the drawer given at construction, which holds the beauty levels.
+    @Override
+    public void draw(GlRectDrawer drawer, int textureTarget, int textureId, float[] texMatrix,
+                     int inputWidth, int inputHeight, int framebufferId, int outputWidth,
+                     int outputHeight) {
+        if (drawer != this.drawer) {
+            throw new IllegalArgumentException(getName() + " must draw through its own drawer");
+        }
+        drawFrame(textureTarget, textureId, texMatrix, outputWidth, outputHeight, framebufferId);
+    }
+
+    /**
+     * Draw the filtered OES frame into |framebufferId| (0 for the current EGLSurface), covering a
+     * |frameWidth| x |frameHeight| viewport. The framebuffer stays bound on return.
+     */
+    public void drawOes(int oesTextureId, float[] texMatrix, int frameWidth, int frameHeight,
+                        int framebufferId) {
+        drawFrame(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, oesTextureId, texMatrix, frameWidth,
+                frameHeight, framebufferId);
+    }
+
+    // Same as drawOes() for a GL_TEXTURE_2D frame.
+    public void drawRgb(int textureId, float[] texMatrix, int frameWidth, int frameHeight,
+                        int framebufferId) {
+        drawFrame(GLES20.GL_TEXTURE_2D, textureId, texMatrix, frameWidth, frameHeight,
+                framebufferId);
+    }
+
+    private void drawFrame(int textureTarget, int textureId, float[] texMatrix, int frameWidth,
+                           int frameHeight, int framebufferId) {
+        if (!acceptsInput(textureTarget)) {
+            throw new IllegalArgumentException("Unsupported texture target: " + textureTarget);
+        }
+        final boolean oes = textureTarget == GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
+        if (quality != Quality.MULTI_PASS) {
+            releaseLowResolutionTargets();
+        }
+        switch (quality) {
+            case FULL:
+                if (oes) {
+                    glState.bindFramebuffer(framebufferId);
+                    drawer.drawOes(textureId, texMatrix, frameWidth, frameHeight, 0, 0,
+                            frameWidth, frameHeight);
+                } else {
+                    drawSinglePass(FULL_RGB_FRAGMENT_SHADER_STRING, textureTarget, textureId,
+                            texMatrix, frameWidth, frameHeight, framebufferId);
+                }
+                return;
+            case REDUCED_TAPS:
+                drawSinglePass(oes ? REDUCED_TAPS_FRAGMENT_SHADER_STRING
+                                   : REDUCED_TAPS_RGB_FRAGMENT_SHADER_STRING,
+                        textureTarget, textureId, texMatrix, frameWidth, frameHeight,
+                        framebufferId);
+                return;
+            case LOW_PRECISION:
+                drawSinglePass(oes ? LOW_PRECISION_FRAGMENT_SHADER_STRING
+                                   : LOW_PRECISION_RGB_FRAGMENT_SHADER_STRING,
+                        textureTarget, textureId, texMatrix, frameWidth, frameHeight,
+                        framebufferId);
+                return;
+            case OFF:
+                drawSinglePass(oes ? GlShaderFilter.COPY_OES_FRAGMENT_SHADER_STRING
+                                   : GlShaderFilter.COPY_RGB_FRAGMENT_SHADER_STRING,
+                        textureTarget, textureId, texMatrix, frameWidth, frameHeight,
+                        framebufferId);
+                return;
+            default:
+                break;
+        }
+        ensureLowResolutionTargets(Math.max(1, frameWidth / downsample),
+                Math.max(1, frameHeight / downsample));
+        final String[] blurShaders = getBlurShaders(downsample);
+        final int lowWidth = lowTargets[0].getWidth();
+        final int lowHeight = lowTargets[0].getHeight();
+
+        glState.bindFramebuffer(lowTargets[0].getFramebufferId());
+        drawer.drawTextures(oes ? GlShaderFilter.COPY_OES_FRAGMENT_SHADER_STRING
+                                : GlShaderFilter.COPY_RGB_FRAGMENT_SHADER_STRING,
+                textureTarget, textureId, 0, 0, texMatrix, lowWidth, lowHeight, 0, 0, lowWidth,
+                lowHeight);
+        glState.bindFramebuffer(lowTargets[1].getFramebufferId());
+        drawer.drawTextures(blurShaders[0], GLES20.GL_TEXTURE_2D, lowTargets[0].getTextureId(), 0,
+                0, IDENTITY_MATRIX, lowWidth, lowHeight, 0, 0, lowWidth, lowHeight);
+        glState.bindFramebuffer(lowTargets[0].getFramebufferId());
+        drawer.drawTextures(blurShaders[1], GLES20.GL_TEXTURE_2D, lowTargets[1].getTextureId(), 0,
+                0, IDENTITY_MATRIX, lowWidth, lowHeight, 0, 0, lowWidth, lowHeight);
+
+        glState.bindFramebuffer(framebufferId);
+        drawer.drawTextures(oes ? COMBINE_FRAGMENT_SHADER_STRING
+                                : COMBINE_RGB_FRAGMENT_SHADER_STRING,
+                textureTarget, textureId, GLES20.GL_TEXTURE_2D, lowTargets[0].getTextureId(),
+                texMatrix, frameWidth, frameHeight, 0, 0, frameWidth, frameHeight);
+    }
+
+    private void drawSinglePass(String fragmentShader, int textureTarget, int textureId,
+                                float[] texMatrix, int frameWidth, int frameHeight,
+                                int framebufferId) {
+        glState.bindFramebuffer(framebufferId);
+        drawer.drawTextures(fragmentShader, textureTarget, textureId, 0, 0, texMatrix, frameWidth,
+                frameHeight, 0, 0, frameWidth, frameHeight);
+    }
+
+    // Return the intermediate targets to the pool. The programs belong to the drawer.
+    @Override
+    public void release() {
+        releaseLowResolutionTargets();
+    }
+
+    private void ensureLowResolutionTargets(int width, int height) {
+        if (lowTargets[0] != null && lowTargets[0].getWidth() == width
+                && lowTargets[0].getHeight() == height) {
+            return;
+        }
+        releaseLowResolutionTargets();
+        for (int i = 0; i < 2; ++i) {
+            lowTargets[i] = targetPool.acquire(width, height);
+        }
+    }
+
+    private void releaseLowResolutionTargets() {
+        for (int i = 0; i < 2; ++i) {
+            if (lowTargets[i] != null) {
+                lowTargets[i].release();
+                lowTargets[i] = null;
+            }
+        }
+    }
+
+    private static synchronized String[] getBlurShaders(int downsample) {
+        String[] shaders = BLUR_SHADERS.get(downsample);
+        if (shaders == null) {
+            shaders = new String[] {
+                    createBlurShader(downsample, "vec2(1.0, 0.0)"),
+                    createBlurShader(downsample, "vec2(0.0, 1.0)"),
+            };
+            BLUR_SHADERS.put(downsample, shaders);
+        }
+        return shaders;
+    }
+
+    /**
+     * The single-pass beauty shader with the first |skippedTaps| entries of TAPS
+     * left out. The center keeps its weight, so the kernel narrows as outer taps are dropped.
+     */
+    private static String createSinglePassShader(int skippedTaps) {
+        final StringBuilder builder = new StringBuilder()
+                .append("#extension GL_OES_EGL_image_external : require\n")
+                .append("varying highp vec2 interp_tc;\n")
+                .append("uniform samplerExternalOES oes_tex;\n")
+                .append("uniform highp vec2 singleStepOffset;\n")
+                .append(GlRectDrawer.BEAUTY_DECLARATIONS)
+                .append("\n")
+                .append("void main(){\n")
+                .append("    highp vec3 centralColor = texture2D(oes_tex, interp_tc).rgb;\n")
+                .append("    highp float sampleColor = centralColor.g * ")
+                .append(formatFloat(CENTER_TAP_WEIGHT)).append(";\n");
+        float totalWeight = CENTER_TAP_WEIGHT;
+        for (int i = skippedTaps; i < TAPS.length; ++i) {
+            final float[] tap = TAPS[i];
+            builder.append("    sampleColor += texture2D(oes_tex, interp_tc + singleStepOffset * vec2(")
+                    .append(formatFloat(tap[0])).append(", ").append(formatFloat(tap[1]))
+                    .append(")).g * ").append(formatFloat(tap[2])).append(";\n");
+            totalWeight += tap[2];
+        }
+        return builder
+                .append("    sampleColor = sampleColor / ").append(formatFloat(totalWeight))
+                .append(";\n")
+                .append("\n")
+                .append(GlRectDrawer.BEAUTY_TONE_MAPPING)
+                .toString();
+    }
+
+    /**
+     * 1D Gaussian along |direction| on the green channel, matching the ring of the single-pass
+     * kernel at 1/|downsample| resolution. Pairs of neighbouring taps are merged into one bilinear
+     * fetch placed between them, which halves the number of fetches.
+     */
+    private static String createBlurShader(int downsample, String direction) {
+        final float sigma = RING_SIGMA_PIXELS / downsample;
+        final int radius = kernelRadius(sigma);
+        final float[] kernel = gaussianKernel(sigma, radius);
+
+        final StringBuilder builder = new StringBuilder()
+                .append("precision mediump float;\n")
+                .append("varying highp vec2 interp_tc;\n")
+                .append("\n")
+                .append("uniform sampler2D rgb_tex;\n")
+                // Two texels, as uploaded by GlRectDrawer for the low resolution frame size.
+                .append("uniform highp vec2 singleStepOffset;\n")
+                .append("\n")
+                .append("void main() {\n")
+                .append("  highp vec2 texel = singleStepOffset * 0.5 * ").append(direction)
+                .append(";\n")
+                .append("  float sum = texture2D(rgb_tex, interp_tc).g * ")
+                .append(formatFloat(kernel[radius])).append(";\n");
+        for (int i = 1; i <= radius; i += 2) {
+            final float weightA = kernel[radius + i];
+            final float weightB = i + 1 <= radius ? kernel[radius + i + 1] : 0.0f;
+            final float weight = weightA + weightB;
+            final float offset = (i * weightA + (i + 1) * weightB) / weight;
+            for (String sign : new String[] {"+", "-"}) {
+                builder.append("  sum += texture2D(rgb_tex, interp_tc ").append(sign)
+                        .append(" texel * ").append(formatFloat(offset)).append(").g * ")
+                        .append(formatFloat(weight)).append(";\n");
+            }
+        }
+        return builder
+                .append("  gl_FragColor = vec4(sum, sum, sum, 1.0);\n")
+                .append("}\n")
+                .toString();
+    }
+
+    /**
+     * Normalized 1D Gaussian weights for offsets -radius..radius.
+     */
+    static float[] gaussianKernel(float sigma, int radius) {
+        final float[] kernel = new float[2 * radius + 1];
+        float sum = 0;
+        for (int i = -radius; i <= radius; ++i) {
+            final float w = (float) Math.exp(-(i * i) / (2.0 * sigma * sigma));
+            kernel[i + radius] = w;
+            sum += w;
+        }
+        for (int i = 0; i < kernel.length; ++i) {
+            kernel[i] /= sum;
+        }
+        return kernel;
+    }
+
+    // Kernel radius used for |sigma|, covering 2.5 standard deviations.
+    static int kernelRadius(float sigma) {
+        return Math.max(1, (int) Math.ceil(2.5f * sigma));
+    }
+
+    private static float computeRingSigmaPixels() {
+        float weight = 0;
+        float variance = 0;
+        for (float[] tap : TAPS) {
+            weight += tap[2];
+            variance += tap[2] * (tap[0] * tap[0] + tap[1] * tap[1]);
+        }
+        // Per-axis variance in steps^2, one step is 2 pixels.
+        return (float) Math.sqrt(variance / weight / 2.0f) * 2.0f;
+    }
+
+    // |oesShader| reading GL_TEXTURE_2D input from |rgb_tex| instead, see GlShaderFilter.
+    private static String toRgbShader(String oesShader) {
+        return oesShader.replace("#extension GL_OES_EGL_image_external : require\n", "")
+                .replace("samplerExternalOES oes_tex", "sampler2D rgb_tex")
+                .replace("oes_tex", "rgb_tex");
+    }
+
+    private static String formatFloat(float value) {
+        return String.format(Locale.US, "%.6f", value);
+    }
+}
@@ -0,0 +1,84 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES30;
+
+/**
+ * Hands rendering results from one context to another context of the same share group. create()
+ * inserts a fence after the commands issued so far; waitGpu() makes the GPU of the consuming
+ * context wait for it, so neither CPU thread blocks. Without ES 3.0 sync objects create() falls back
+ * to glFinish() and waitGpu() does nothing.
+ *
+ * All calls go through the {@link GlApi} given at construction, GlesApi by default.
+ */
+public class GlFence {
+    private final GlApi gl;
+    // 0 when the fence is already signaled or has been released.
+    private long sync;
+
+    // An empty fence that counts as signaled. insert() fills it, so that one object can be reused
+    // every frame.
+    public GlFence() {
+        this(GlesApi.getInstance());
+    }
+
+    public GlFence(GlApi gl) {
+        this.gl = gl;
+    }
+
+    // Whether sync objects are available to the current context, see GlApi.isEs3().
+    public static boolean isSupported() {
+        return GlesApi.getInstance().isEs3();
+    }
+
+    // Fence the commands issued so far on the current context. Flushes them, so the fence is
+    // guaranteed to signal.
+    public static GlFence create() {
+        return create(GlesApi.getInstance());
+    }
+
+    public static GlFence create(GlApi gl) {
+        final GlFence fence = new GlFence(gl);
+        fence.insert();
+        return fence;
+    }
+
+    // Release the sync object held so far and fence the commands issued since on the current
+    // context in its place.
+    public void insert() {
+        release();
+        if (!gl.isEs3()) {
+            gl.finish();
+            return;
+        }
+        sync = gl.fenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        gl.flush();
+        GlUtil.checkNoGLES2Error(gl, "glFenceSync");
+    }
+
+    // Make the current context wait for the fence on the GPU before executing later commands.
+    public void waitGpu() {
+        if (sync != 0) {
+            gl.waitSync(sync, 0, GLES30.GL_TIMEOUT_IGNORED);
+        }
+    }
+
+    /**
+     * Block the calling thread until the fence signals or |timeoutNs| passes. Returns false on
+     * timeout. A context of the share group must be current.
+     */
+    public boolean waitCpu(long timeoutNs) {
+        if (sync == 0) {
+            return true;
+        }
+        final int result = gl.clientWaitSync(sync, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, timeoutNs);
+        return result == GLES30.GL_ALREADY_SIGNALED || result == GLES30.GL_CONDITION_SATISFIED;
+    }
+
+    // Delete the sync object. A context of the share group must be current.
+    public void release() {
+        if (sync != 0) {
+            gl.deleteSync(sync);
+            sync = 0;
+        }
+    }
+}
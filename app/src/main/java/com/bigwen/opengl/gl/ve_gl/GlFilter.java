@@ -0,0 +1,30 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+/**
+ * One stage of a {@link GlFilterChain}. A stage declares which texture targets it can read and how
+ * large its output is for a given input; the chain allocates the output and calls draw() with the
+ * output framebuffer bound. All methods except getName() are called on the GL thread of the chain.
+ */
+public interface GlFilter {
+    // Name used in cost reports.
+    String getName();
+
+    // Whether draw() can read a texture bound to |textureTarget|, i.e. GL_TEXTURE_EXTERNAL_OES or
+    // GL_TEXTURE_2D.
+    boolean acceptsInput(int textureTarget);
+
+    // Store the output size for a |inputWidth| x |inputHeight| input in |outputSize|[0] and [1].
+    void getOutputSize(int inputWidth, int inputHeight, int[] outputSize);
+
+    /**
+     * Draw the input texture into |framebufferId|, covering the whole |outputWidth| x
+     * |outputHeight| target. |texMatrix| is the texture transform of the input; |drawer| belongs to
+     * the context of the chain and may be used for the draw.
+     */
+    void draw(GlRectDrawer drawer, int textureTarget, int textureId, float[] texMatrix,
+              int inputWidth, int inputHeight, int framebufferId, int outputWidth,
+              int outputHeight);
+
+    // Free the GL resources of the stage. Called on the GL thread once the stage is removed.
+    void release();
+}
@@ -0,0 +1,259 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered list of {@link GlFilter} stages drawn one after the other. Every stage renders into a
+ * target borrowed from a {@link GlRenderTargetPool}; the target of the previous stage goes back to
+ * the pool as soon as it has been read, so consecutive stages ping-pong between two pooled targets.
+ *
+ * Stages may be added or removed from any thread. The change is queued and applied at the start
+ * of the next render() on the GL thread, where removed stages are also released, so the EGLContext
+ * is never torn down. render() and release() must be called on the GL thread.
+ */
+public class GlFilterChain {
+    // Cost of one stage, as reported by getStageCosts().
+    public static class StageCost {
+        public final String name;
+        public final long lastNs;
+        public final long averageNs;
+        public final long frames;
+
+        StageCost(String name, long lastNs, long averageNs, long frames) {
+            this.name = name;
+            this.lastNs = lastNs;
+            this.averageNs = averageNs;
+            this.frames = frames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: last=%.2fms avg=%.2fms", name, lastNs / 1e6, averageNs / 1e6);
+        }
+    }
+
+    private static final float[] IDENTITY_MATRIX = new float[] {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1,
+    };
+    // Weight of the newest frame in the average cost.
+    private static final double COST_SMOOTHING = 0.1;
+
+    private static class Stage {
+        final GlFilter filter;
+        long lastNs;
+        double averageNs = -1;
+        long frames;
+
+        Stage(GlFilter filter) {
+            this.filter = filter;
+        }
+    }
+
+    private final GlRectDrawer drawer;
+    private final GlStateCache glState;
+    private final GlRenderTargetPool targetPool;
+    // Turns OES input into a 2D texture when a stage cannot read OES, or no stage ran.
+    private final Stage copyStage = new Stage(GlShaderFilter.createCopyFilter());
+    private final int[] outputSize = new int[2];
+    // Input of the next stage during render(), GL thread only. |input| is the pooled target
+    // holding it, null while the input is still the caller's texture.
+    private GlRenderTargetPool.RenderTarget input;
+    private int inputTarget;
+    private int inputTexture;
+    private float[] inputMatrix;
+    private int inputWidth;
+    private int inputHeight;
+
+    // Changed on the GL thread only, under |this|.
+    private final List<Stage> stages = new ArrayList<Stage>();
+    // Stages as requested by add()/remove(), picked up by the next render(). Guarded by |this|.
+    private List<GlFilter> pendingFilters;
+    private final List<GlFilter> filters = new ArrayList<GlFilter>();
+    private volatile boolean profiling;
+
+    public GlFilterChain(GlRectDrawer drawer, GlStateCache glState,
+                         GlRenderTargetPool targetPool) {
+        this.drawer = drawer;
+        this.glState = glState;
+        this.targetPool = targetPool;
+    }
+
+    public synchronized void add(GlFilter filter) {
+        add(filters.size(), filter);
+    }
+
+    public synchronized void add(int index, GlFilter filter) {
+        if (filters.contains(filter)) {
+            throw new IllegalArgumentException(filter.getName() + " is already in the chain");
+        }
+        filters.add(index, filter);
+        pendingFilters = new ArrayList<GlFilter>(filters);
+    }
+
+    // The stage is released on the GL thread by the next render() or release().
+    public synchronized void remove(GlFilter filter) {
+        if (filters.remove(filter)) {
+            pendingFilters = new ArrayList<GlFilter>(filters);
+        }
+    }
+
+    public synchronized List<GlFilter> getFilters() {
+        return new ArrayList<GlFilter>(filters);
+    }
+
+    /**
+     * When enabled every stage ends with glFinish(), so that its cost includes the GPU time of its
+     * draws rather than just the time to submit them. This serializes CPU and GPU; only enable it
+     * while measuring.
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    /**
+     * Run the stages on |textureId|, a GL_TEXTURE_EXTERNAL_OES or GL_TEXTURE_2D texture of
+     * |width| x |height| transformed by |texMatrix|. Returns the output of the last stage with one
+     * reference held by the caller, who must release() it. The output is upright, i.e. meant to be
+     * sampled with the identity matrix.
+     *
+     * OES input is copied into a 2D texture before the first stage that cannot read OES. Stages that
+     * cannot read the input they would get, e.g. OES-only filters after such a copy or on 2D input,
+     * are skipped.
+     */
+    public GlRenderTargetPool.RenderTarget render(int textureTarget, int textureId,
+                                                  float[] texMatrix, int width, int height) {
+        applyPendingChanges();
+
+        input = null;
+        inputTarget = textureTarget;
+        inputTexture = textureId;
+        inputMatrix = texMatrix;
+        inputWidth = width;
+        inputHeight = height;
+        // Indexed loops keep the per-frame path free of Iterator allocations.
+        for (int i = 0; i < stages.size(); i++) {
+            final Stage stage = stages.get(i);
+            if (!stage.filter.acceptsInput(inputTarget) && inputTarget != GLES20.GL_TEXTURE_2D) {
+                runStage(copyStage);
+            }
+            if (stage.filter.acceptsInput(inputTarget)) {
+                runStage(stage);
+            }
+        }
+        if (input == null) {
+            runStage(copyStage);
+        }
+        final GlRenderTargetPool.RenderTarget output = input;
+        input = null;
+        inputMatrix = null;
+        return output;
+    }
+
+    // Draw the current input through |stage| into a pooled target, which becomes the new input.
+    private void runStage(Stage stage) {
+        stage.filter.getOutputSize(inputWidth, inputHeight, outputSize);
+        final GlRenderTargetPool.RenderTarget output =
+                targetPool.acquire(outputSize[0], outputSize[1]);
+
+        final long startNs = System.nanoTime();
+        glState.bindFramebuffer(output.getFramebufferId());
+        stage.filter.draw(drawer, inputTarget, inputTexture, inputMatrix, inputWidth,
+                inputHeight, output.getFramebufferId(), output.getWidth(), output.getHeight());
+        if (profiling) {
+            glState.getGl().finish();
+        }
+        recordCost(stage, System.nanoTime() - startNs);
+
+        if (input != null) {
+            input.release();
+        }
+        input = output;
+        inputTarget = GLES20.GL_TEXTURE_2D;
+        inputTexture = output.getTextureId();
+        inputMatrix = IDENTITY_MATRIX;
+        inputWidth = output.getWidth();
+        inputHeight = output.getHeight();
+    }
+
+    // Cost of the stages in chain order, plus the implicit copy stage if it ran.
+    public synchronized List<StageCost> getStageCosts() {
+        final List<StageCost> costs = new ArrayList<StageCost>();
+        if (copyStage.frames > 0) {
+            costs.add(toCost(copyStage));
+        }
+        for (Stage stage : stages) {
+            costs.add(toCost(stage));
+        }
+        return costs;
+    }
+
+    // Release all stages. The chain must not be used afterwards.
+    public void release() {
+        final List<Stage> released;
+        synchronized (this) {
+            released = new ArrayList<Stage>(stages);
+            stages.clear();
+            filters.clear();
+            pendingFilters = null;
+        }
+        for (Stage stage : released) {
+            stage.filter.release();
+        }
+        copyStage.filter.release();
+    }
+
+    // Called every frame; allocates only when add() or remove() queued a change.
+    private void applyPendingChanges() {
+        final List<Stage> removed;
+        synchronized (this) {
+            if (pendingFilters == null) {
+                return;
+            }
+            removed = new ArrayList<Stage>();
+            final List<Stage> updated = new ArrayList<Stage>(pendingFilters.size());
+            for (GlFilter filter : pendingFilters) {
+                updated.add(findStage(filter));
+            }
+            for (Stage stage : stages) {
+                if (!pendingFilters.contains(stage.filter)) {
+                    removed.add(stage);
+                }
+            }
+            stages.clear();
+            stages.addAll(updated);
+            pendingFilters = null;
+        }
+        for (Stage stage : removed) {
+            stage.filter.release();
+        }
+    }
+
+    // The existing stage of |filter|, keeping its cost history, or a new one.
+    private Stage findStage(GlFilter filter) {
+        for (Stage stage : stages) {
+            if (stage.filter == filter) {
+                return stage;
+            }
+        }
+        return new Stage(filter);
+    }
+
+    private synchronized void recordCost(Stage stage, long costNs) {
+        stage.lastNs = costNs;
+        stage.averageNs = stage.averageNs < 0
+                ? costNs
+                : stage.averageNs + (costNs - stage.averageNs) * COST_SMOOTHING;
+        stage.frames++;
+    }
+
+    private static StageCost toCost(Stage stage) {
+        return new StageCost(stage.filter.getName(), stage.lastNs, (long) stage.averageNs,
+                stage.frames);
+    }
+}
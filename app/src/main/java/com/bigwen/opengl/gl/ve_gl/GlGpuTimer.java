@@ -0,0 +1,189 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the GPU time of a bracket of commands without blocking the CPU. begin() and end()
+ * bracket the commands of one frame on the current context; poll(), called once per frame on the
+ * same thread, picks up the brackets that have finished and returns the GPU time, one or two frames
+ * late.
+ *
+ * With GL_EXT_disjoint_timer_query on an ES 3.0 context each bracket is a GL_TIME_ELAPSED_EXT query,
+ * which is exact. Otherwise end() fences the bracket and poll() tests the fence with a zero timeout.
+ * A fence only tells whether the GPU was done by the time of the poll, so a bracket that finished
+ * before the next poll reads as 0 and one that is still running reads as the time since it was
+ * submitted: a lower bound, which still exceeds the frame interval exactly when the GPU falls behind.
+ * Without ES 3.0 sync objects nothing is measured and poll() returns 0; GlFence.create() then calls
+ * glFinish(), which already puts the GPU time on the CPU. All calls go through the given GlApi.
+ */
+public class GlGpuTimer {
+    public static final int DEFAULT_SLOT_COUNT = 3;
+
+    // GL_EXT_disjoint_timer_query, not in GLES30.
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    private static class Slot {
+        int queryId;
+        GlFence fence;
+        // CPU time of end().
+        long submitNs;
+        // CPU time of the last poll that found the fence unsignaled, 0 if none did.
+        long lastBusyNs;
+    }
+
+    private final GlApi gl;
+    private final boolean timerQuery;
+    private final boolean enabled;
+    // Submitted slots in the order they were submitted; the GPU finishes them in this order.
+    private final List<Slot> pendingSlots = new ArrayList<Slot>();
+    private final List<Slot> freeSlots = new ArrayList<Slot>();
+    private final int[] params = new int[1];
+    private Slot activeSlot;
+    // Lower bound of the completion time of the last finished fence bracket.
+    private long lastDoneNs;
+    private long gpuTimeNs;
+
+    // Must be called on the thread of the context that runs the measured commands.
+    public GlGpuTimer(GlApi gl, int slotCount) {
+        this.gl = gl;
+        this.enabled = gl.isEs3();
+        this.timerQuery = enabled && hasTimerQuery(gl);
+        if (!enabled) {
+            return;
+        }
+        final int[] queryIds = new int[slotCount];
+        if (timerQuery) {
+            gl.genQueries(slotCount, queryIds, 0);
+            GlUtil.checkNoGLES2Error(gl, "glGenQueries");
+        }
+        for (int queryId : queryIds) {
+            final Slot slot = new Slot();
+            slot.queryId = queryId;
+            slot.fence = new GlFence(gl);
+            freeSlots.add(slot);
+        }
+    }
+
+    private static boolean hasTimerQuery(GlApi gl) {
+        final String extensions = gl.getString(GLES20.GL_EXTENSIONS);
+        return extensions != null && extensions.contains("GL_EXT_disjoint_timer_query");
+    }
+
+    // Start a bracket. Skipped while all slots are pending, i.e. the GPU is several frames behind.
+    public void begin() {
+        if (activeSlot != null || freeSlots.isEmpty()) {
+            return;
+        }
+        activeSlot = freeSlots.remove(freeSlots.size() - 1);
+        if (timerQuery) {
+            gl.beginQuery(GL_TIME_ELAPSED_EXT, activeSlot.queryId);
+        }
+    }
+
+    public void end() {
+        if (activeSlot == null) {
+            return;
+        }
+        if (timerQuery) {
+            gl.endQuery(GL_TIME_ELAPSED_EXT);
+        } else {
+            activeSlot.fence.insert();
+        }
+        activeSlot.submitNs = System.nanoTime();
+        activeSlot.lastBusyNs = 0;
+        pendingSlots.add(activeSlot);
+        activeSlot = null;
+    }
+
+    /**
+     * Collect the finished brackets and return the GPU time of the latest one in nanoseconds. With
+     * fences, the time the oldest unfinished bracket has been running is returned instead when it
+     * is longer.
+     */
+    public long poll() {
+        final long now = System.nanoTime();
+        long queryTimeNs = -1;
+        while (!pendingSlots.isEmpty()) {
+            final Slot slot = pendingSlots.get(0);
+            if (timerQuery) {
+                if (!isQueryAvailable(slot.queryId)) {
+                    break;
+                }
+                queryTimeNs = getQueryResultNs(slot.queryId);
+            } else {
+                // A bracket starts on the GPU once it has been submitted and the one before is done.
+                final long startNs = Math.max(slot.submitNs, lastDoneNs);
+                if (!slot.fence.waitCpu(0)) {
+                    slot.lastBusyNs = now;
+                    gpuTimeNs = Math.max(gpuTimeNs, now - startNs);
+                    break;
+                }
+                gpuTimeNs = slot.lastBusyNs == 0 ? 0 : slot.lastBusyNs - startNs;
+                lastDoneNs = Math.max(slot.lastBusyNs, slot.submitNs);
+            }
+            pendingSlots.remove(0);
+            freeSlots.add(slot);
+        }
+        // Results of queries that ran across a disjoint operation, e.g. a GPU frequency change, are
+        // meaningless. Reading the flag clears it.
+        if (timerQuery && !isDisjoint() && queryTimeNs >= 0) {
+            gpuTimeNs = queryTimeNs;
+        }
+        return gpuTimeNs;
+    }
+
+    // The value returned by the last poll().
+    public long getGpuTimeNs() {
+        return gpuTimeNs;
+    }
+
+    // Whether brackets are measured at all, see the class comment.
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void release() {
+        if (activeSlot != null) {
+            if (timerQuery) {
+                gl.endQuery(GL_TIME_ELAPSED_EXT);
+            }
+            freeSlots.add(activeSlot);
+            activeSlot = null;
+        }
+        freeSlots.addAll(pendingSlots);
+        pendingSlots.clear();
+        for (Slot slot : freeSlots) {
+            if (timerQuery) {
+                deleteQuery(slot.queryId);
+            }
+            slot.fence.release();
+        }
+        freeSlots.clear();
+    }
+
+    private boolean isQueryAvailable(int queryId) {
+        gl.getQueryObjectuiv(queryId, GLES30.GL_QUERY_RESULT_AVAILABLE, params, 0);
+        return params[0] != 0;
+    }
+
+    // The 32 bit result covers up to 4 seconds, far more than a frame.
+    private long getQueryResultNs(int queryId) {
+        gl.getQueryObjectuiv(queryId, GLES30.GL_QUERY_RESULT, params, 0);
+        return params[0] & 0xFFFFFFFFL;
+    }
+
+    private boolean isDisjoint() {
+        gl.getIntegerv(GL_GPU_DISJOINT_EXT, params, 0);
+        return params[0] != 0;
+    }
+
+    private void deleteQuery(int queryId) {
+        params[0] = queryId;
+        gl.deleteQueries(1, params, 0);
+    }
+}
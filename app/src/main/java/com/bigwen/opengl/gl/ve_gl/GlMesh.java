@@ -0,0 +1,116 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Immutable geometry living in GL buffer objects: interleaved float vertices and optional short
+ * indices. The CPU copy is kept so the buffers can be uploaded again after the context is lost.
+ * Obtain instances from {@link GlMeshRegistry}.
+ */
+public class GlMesh {
+    private final String name;
+    private final float[] vertices;
+    private final short[] indices;
+    private final int floatsPerVertex;
+    private final GlStateCache glState;
+    private final GlApi gl;
+
+    // 0 while not uploaded to the current context.
+    private int vertexBufferId;
+    private int indexBufferId;
+
+    GlMesh(String name, float[] vertices, int floatsPerVertex, short[] indices,
+            GlStateCache glState) {
+        if (vertices.length % floatsPerVertex != 0) {
+            throw new IllegalArgumentException(name + ": vertex data is not a multiple of "
+                    + floatsPerVertex + " floats");
+        }
+        this.name = name;
+        this.vertices = vertices.clone();
+        this.indices = indices == null ? null : indices.clone();
+        this.floatsPerVertex = floatsPerVertex;
+        this.glState = glState;
+        this.gl = glState.getGl();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getVertexCount() {
+        return vertices.length / floatsPerVertex;
+    }
+
+    public int getIndexCount() {
+        return indices == null ? 0 : indices.length;
+    }
+
+    // Bind the buffers of this mesh, uploading them first if needed.
+    public void bind() {
+        if (vertexBufferId == 0) {
+            upload();
+        }
+        glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+        if (indexBufferId != 0) {
+            glState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+        }
+    }
+
+    /**
+     * Point attribute |location| at |size| floats starting |offset| floats into each vertex. The
+     * mesh must be bound.
+     */
+    public void setVertexAttrib(int location, int size, int offset) {
+        glState.enableVertexAttribArray(location);
+        gl.vertexAttribPointer(location, size, GLES20.GL_FLOAT, false,
+                floatsPerVertex * 4, offset * 4);
+    }
+
+    // Draw the whole mesh. The mesh must be bound.
+    public void draw(int mode) {
+        if (indices != null) {
+            gl.drawElements(mode, indices.length, GLES20.GL_UNSIGNED_SHORT, 0);
+        } else {
+            gl.drawArrays(mode, 0, getVertexCount());
+        }
+    }
+
+    void onContextLost() {
+        vertexBufferId = 0;
+        indexBufferId = 0;
+    }
+
+    void release() {
+        if (vertexBufferId != 0) {
+            final int[] buffers = new int[] {vertexBufferId, indexBufferId};
+            gl.deleteBuffers(indexBufferId != 0 ? 2 : 1, buffers, 0);
+            // The ids may be reused, so the cached bindings must not match them any more.
+            glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            glState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+        onContextLost();
+    }
+
+    private void upload() {
+        final int[] buffers = new int[2];
+        gl.genBuffers(indices != null ? 2 : 1, buffers, 0);
+        vertexBufferId = buffers[0];
+        glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+        gl.bufferData(GLES20.GL_ARRAY_BUFFER, vertices.length * 4,
+                GlUtil.createFloatBuffer(vertices), GLES20.GL_STATIC_DRAW);
+        if (indices != null) {
+            indexBufferId = buffers[1];
+            final ShortBuffer indexData = ByteBuffer.allocateDirect(indices.length * 2)
+                    .order(ByteOrder.nativeOrder()).asShortBuffer();
+            indexData.put(indices).position(0);
+            glState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+            gl.bufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.length * 2, indexData,
+                    GLES20.GL_STATIC_DRAW);
+        }
+        GlUtil.checkNoGLES2Error(gl, "GlMesh.upload " + name);
+    }
+}
@@ -0,0 +1,48 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named static meshes of one EGLContext. The first request for a name uploads the geometry into
+ * buffer objects, later requests return the same {@link GlMesh}, so every drawer of the context
+ * shares one copy on the GPU. After a context loss call onContextLost(); the meshes stay valid and
+ * are uploaded again on their next bind().
+ */
+public class GlMeshRegistry {
+    private final GlStateCache glState;
+    private final Map<String, GlMesh> meshes = new HashMap<String, GlMesh>();
+
+    public GlMeshRegistry(GlStateCache glState) {
+        this.glState = glState;
+    }
+
+    /**
+     * Return the mesh registered under |name|, creating it from the given data on the first call.
+     * |indices| may be null for non-indexed geometry. Later calls ignore the data arguments.
+     */
+    public GlMesh getMesh(String name, float[] vertices, int floatsPerVertex, short[] indices) {
+        GlMesh mesh = meshes.get(name);
+        if (mesh == null) {
+            mesh = new GlMesh(name, vertices, floatsPerVertex, indices, glState);
+            meshes.put(name, mesh);
+        }
+        return mesh;
+    }
+
+    // The context is gone together with its buffers; forget the ids without deleting them.
+    public void onContextLost() {
+        for (GlMesh mesh : meshes.values()) {
+            mesh.onContextLost();
+        }
+        glState.invalidate();
+    }
+
+    // Delete all buffers. The context must be current.
+    public void release() {
+        for (GlMesh mesh : meshes.values()) {
+            mesh.release();
+        }
+        meshes.clear();
+    }
+}
@@ -0,0 +1,80 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Uploads NV21 frames as two textures without repacking them on the CPU: the Y plane as a
+ * LUMINANCE texture and the interleaved VU plane as a half size LUMINANCE_ALPHA texture, drawn with
+ * GlRectDrawer.drawNv21(). Textures are reallocated only when the frame size changes, later
+ * uploads use glTexSubImage2D(). Must be used on the GL thread.
+ */
+public class GlNv21Uploader {
+    private final GlStateCache glState;
+    private final GlApi gl;
+    private final int yTextureId;
+    private final int uvTextureId;
+    private int width;
+    private int height;
+
+    public GlNv21Uploader(GlStateCache glState) {
+        this.glState = glState;
+        this.gl = glState.getGl();
+        yTextureId = GlUtil.generateTexture(gl, GLES20.GL_TEXTURE_2D);
+        uvTextureId = GlUtil.generateTexture(gl, GLES20.GL_TEXTURE_2D);
+        glState.invalidateTextures();
+    }
+
+    /**
+     * Upload a |width| x |height| NV21 frame held by |frame| from position 0. The position of
+     * |frame| is changed. GL copies the pixels before returning, so the buffer may be reused
+     * afterwards.
+     */
+    public void upload(ByteBuffer frame, int width, int height) {
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        // Rows of the planes are tightly packed.
+        gl.pixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        glState.activeTexture(0);
+
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, yTextureId);
+        frame.position(0);
+        if (width != this.width || height != this.height) {
+            gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, width, height, 0,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, frame);
+        } else {
+            gl.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, frame);
+        }
+
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, uvTextureId);
+        frame.position(width * height);
+        if (width != this.width || height != this.height) {
+            gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE_ALPHA, chromaWidth,
+                    chromaHeight, 0, GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, frame);
+        } else {
+            gl.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, chromaWidth, chromaHeight,
+                    GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, frame);
+        }
+        gl.pixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        GlUtil.checkNoGLES2Error(gl, "GlNv21Uploader.upload");
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getYTextureId() {
+        return yTextureId;
+    }
+
+    public int getUvTextureId() {
+        return uvTextureId;
+    }
+
+    public void release() {
+        gl.deleteTextures(2, new int[] {yTextureId, uvTextureId}, 0);
+        glState.invalidateTextures();
+        width = 0;
+        height = 0;
+    }
+}
@@ -0,0 +1,273 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads render targets back to the CPU without stalling the GPU pipeline. read() only issues
+ * glReadPixels() into one of a ring of pixel pack buffers and fences it; poll(), called once per
+ * frame, copies finished reads into pooled direct buffers and hands them to the callback on
+ * |callbackExecutor|. Results arrive one or two frames late, a read still pending after
+ * MAX_LATENCY_FRAMES frames is waited for.
+ *
+ * Without ES 3.0 pixel pack buffers read() falls back to a synchronous glReadPixels().
+ *
+ * Pixels are RGBA, bottom row first. Must be used on the thread of the context that renders the
+ * targets.
+ */
+public class GlPixelReader {
+    public static final int DEFAULT_SLOT_COUNT = 3;
+    private static final int MAX_LATENCY_FRAMES = 2;
+    // Free pixel buffers kept for reuse.
+    private static final int MAX_FREE_BUFFERS = 4;
+
+    private static final float[] IDENTITY_MATRIX = new float[] {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1,
+    };
+
+    // Called on |callbackExecutor|.
+    public interface Callback {
+        void onFrameRead(Frame frame);
+    }
+
+    public class Frame {
+        private final ByteBuffer pixels;
+        private final int width;
+        private final int height;
+        private final long timestampNs;
+
+        private Frame(ByteBuffer pixels, int width, int height, long timestampNs) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.timestampNs = timestampNs;
+        }
+
+        // Valid until release().
+        public ByteBuffer getPixels() {
+            return pixels;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+
+        // Return the pixel buffer for reuse. May be called on any thread.
+        public void release() {
+            recycleBuffer(pixels);
+        }
+    }
+
+    private static class Slot {
+        int bufferId;
+        int bufferSize;
+        GlFence fence;
+        int width;
+        int height;
+        long timestampNs;
+        Callback callback;
+        int age;
+    }
+
+    private final GlRectDrawer drawer;
+    private final GlStateCache glState;
+    private final GlRenderTargetPool targetPool;
+    private final Executor callbackExecutor;
+    private final boolean async;
+    // Pending slots in the order they were read.
+    private final List<Slot> pendingSlots = new ArrayList<Slot>();
+    private final List<Slot> freeSlots = new ArrayList<Slot>();
+    private final List<ByteBuffer> freeBuffers = new ArrayList<ByteBuffer>();
+    private long droppedReads;
+
+    public GlPixelReader(GlRectDrawer drawer, GlStateCache glState, GlRenderTargetPool targetPool,
+                         Executor callbackExecutor, int slotCount) {
+        this.drawer = drawer;
+        this.glState = glState;
+        this.targetPool = targetPool;
+        this.callbackExecutor = callbackExecutor;
+        this.async = glState.getGl().isEs3();
+        if (async) {
+            final int[] bufferIds = new int[slotCount];
+            GLES20.glGenBuffers(slotCount, bufferIds, 0);
+            for (int bufferId : bufferIds) {
+                final Slot slot = new Slot();
+                slot.bufferId = bufferId;
+                freeSlots.add(slot);
+            }
+        }
+    }
+
+    // Whether reads go through pixel pack buffers.
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Read |source| scaled to |width| x |height| on the GPU. Returns false and drops the read when
+     * all pack buffers are still pending.
+     */
+    public boolean read(GlRenderTargetPool.RenderTarget source, int width, int height,
+                        long timestampNs, Callback callback) {
+        if (async && freeSlots.isEmpty()) {
+            droppedReads++;
+            return false;
+        }
+        GlRenderTargetPool.RenderTarget scaled = null;
+        GlRenderTargetPool.RenderTarget target = source;
+        if (width != source.getWidth() || height != source.getHeight()) {
+            scaled = targetPool.acquire(width, height);
+            glState.bindFramebuffer(scaled.getFramebufferId());
+            drawer.drawRgb(source.getTextureId(), IDENTITY_MATRIX, source.getWidth(),
+                    source.getHeight(), 0, 0, width, height);
+            target = scaled;
+        }
+        glState.bindFramebuffer(target.getFramebufferId());
+        if (async) {
+            readAsync(freeSlots.remove(freeSlots.size() - 1), width, height, timestampNs, callback);
+        } else {
+            final ByteBuffer pixels = obtainBuffer(width * height * 4);
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                    pixels);
+            deliver(callback, new Frame(pixels, width, height, timestampNs));
+        }
+        glState.bindFramebuffer(0);
+        if (scaled != null) {
+            scaled.release();
+        }
+        return true;
+    }
+
+    // Deliver the reads that have finished. Call once per frame.
+    public void poll() {
+        while (!pendingSlots.isEmpty()) {
+            final Slot slot = pendingSlots.get(0);
+            final boolean overdue = ++slot.age > MAX_LATENCY_FRAMES;
+            if (!slot.fence.waitCpu(overdue ? Long.MAX_VALUE : 0)) {
+                // Later reads finish after this one.
+                break;
+            }
+            pendingSlots.remove(0);
+            final ByteBuffer pixels = obtainBuffer(slot.width * slot.height * 4);
+            copyFromPackBuffer(slot, pixels);
+            slot.fence.release();
+            slot.fence = null;
+            deliver(slot.callback, new Frame(pixels, slot.width, slot.height, slot.timestampNs));
+            slot.callback = null;
+            freeSlots.add(slot);
+        }
+    }
+
+    // Reads dropped because all pack buffers were pending or the executor rejected the callback.
+    public long getDroppedReads() {
+        return droppedReads;
+    }
+
+    // Pending reads are discarded. Must be called on the GL thread, before |callbackExecutor| is
+    // shut down.
+    public void release() {
+        for (Slot slot : pendingSlots) {
+            slot.fence.release();
+            freeSlots.add(slot);
+        }
+        pendingSlots.clear();
+        for (Slot slot : freeSlots) {
+            GLES20.glDeleteBuffers(1, new int[] {slot.bufferId}, 0);
+        }
+        freeSlots.clear();
+        synchronized (freeBuffers) {
+            freeBuffers.clear();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void readAsync(Slot slot, int width, int height, long timestampNs, Callback callback) {
+        final int size = width * height * 4;
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.bufferId);
+        if (slot.bufferSize != size) {
+            GLES20.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+            slot.bufferSize = size;
+        }
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        GlUtil.checkNoGLES2Error("GlPixelReader.read");
+        slot.fence = GlFence.create(glState.getGl());
+        slot.width = width;
+        slot.height = height;
+        slot.timestampNs = timestampNs;
+        slot.callback = callback;
+        slot.age = 0;
+        pendingSlots.add(slot);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void copyFromPackBuffer(Slot slot, ByteBuffer pixels) {
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.bufferId);
+        final ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_PACK_BUFFER, 0, pixels.capacity(), GLES30.GL_MAP_READ_BIT);
+        if (mapped != null) {
+            pixels.put(mapped);
+            pixels.rewind();
+        }
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        GlUtil.checkNoGLES2Error("GlPixelReader.poll");
+    }
+
+    // A read that finishes while |callbackExecutor| is shutting down is dropped.
+    private void deliver(final Callback callback, final Frame frame) {
+        try {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFrameRead(frame);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedReads++;
+            frame.release();
+        }
+    }
+
+    private ByteBuffer obtainBuffer(int size) {
+        synchronized (freeBuffers) {
+            for (int i = 0; i < freeBuffers.size(); ++i) {
+                if (freeBuffers.get(i).capacity() == size) {
+                    final ByteBuffer buffer = freeBuffers.remove(i);
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+        }
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    private void recycleBuffer(ByteBuffer buffer) {
+        synchronized (freeBuffers) {
+            if (freeBuffers.size() == MAX_FREE_BUFFERS) {
+                freeBuffers.remove(0);
+            }
+            freeBuffers.add(buffer);
+        }
+    }
+}
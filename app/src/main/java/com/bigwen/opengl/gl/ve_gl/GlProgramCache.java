@@ -0,0 +1,269 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of linked program binaries. Programs are keyed by a hash of the vertex source,
+ * the fragment source and the driver identity, so a driver or OS update never feeds a stale binary
+ * to the driver. Binaries are only used when the current context supports glProgramBinary (GLES 3.0
+ * and API 18); otherwise every lookup is a miss and the caller compiles from source as before.
+ */
+public class GlProgramCache {
+    private static final String TAG = "GlProgramCache";
+    private static final String CACHE_DIR_NAME = "gl_programs";
+    private static final int FILE_MAGIC = 0x474c5042; // "GLPB"
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final GlProgramCache INSTANCE = new GlProgramCache();
+
+    public static GlProgramCache getInstance() {
+        return INSTANCE;
+    }
+
+    private volatile File cacheDir;
+    // Lazily resolved from the first context that asks, guarded by |this|.
+    private String driverIdentity;
+    private Boolean binarySupported;
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+    private final AtomicLong compileTimeNs = new AtomicLong();
+    private final AtomicLong loadTimeNs = new AtomicLong();
+
+    private GlProgramCache() {}
+
+    // Point the cache at app-private storage. Without a directory the cache only counts compiles.
+    public void init(Context context) {
+        File base = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? context.getCodeCacheDir() : context.getCacheDir();
+        setCacheDir(new File(base, CACHE_DIR_NAME));
+    }
+
+    public void setCacheDir(File dir) {
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Unable to create program cache dir " + dir);
+            dir = null;
+        }
+        cacheDir = dir;
+    }
+
+    // Must be called with the context current, the key depends on the driver identity.
+    public String keyFor(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexSource.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(getDriverIdentity().getBytes(UTF_8));
+            byte[] hash = digest.digest();
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Return a linked program restored from the binary stored under |key|, or 0 when there is none
+     * or the driver rejected it. Rejected binaries are deleted so they are rebuilt on the next link.
+     */
+    public int loadProgram(String key) {
+        final File file = fileFor(key);
+        if (file == null || !isBinarySupported() || !file.isFile()) {
+            missCount.incrementAndGet();
+            return 0;
+        }
+        final long start = System.nanoTime();
+        int program = 0;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readInt() != FILE_MAGIC) {
+                    throw new IOException("Bad magic");
+                }
+                final int format = in.readInt();
+                final int length = in.readInt();
+                // A corrupt length would otherwise throw NegativeArraySizeException or
+                // OutOfMemoryError instead of dropping the file.
+                if (length <= 0 || length > file.length()) {
+                    throw new IOException("Bad binary length " + length);
+                }
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+                binary.put(bytes).position(0);
+
+                program = GLES20.glCreateProgram();
+                GLES30.glProgramBinary(program, format, binary, length);
+                int[] linkStatus = new int[] {GLES20.GL_FALSE};
+                GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+                if (linkStatus[0] != GLES20.GL_TRUE) {
+                    throw new IOException("Binary rejected: " + GLES20.glGetProgramInfoLog(program));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to restore program " + key + ": " + e.getMessage());
+            if (program != 0) {
+                GLES20.glDeleteProgram(program);
+                program = 0;
+            }
+            // Clear any error raised by glProgramBinary so it does not leak into the caller.
+            GLES20.glGetError();
+            file.delete();
+            rejectedCount.incrementAndGet();
+            missCount.incrementAndGet();
+            return 0;
+        }
+        loadTimeNs.addAndGet(System.nanoTime() - start);
+        hitCount.incrementAndGet();
+        return program;
+    }
+
+    // Ask the driver to keep the binary of |program| retrievable. Call before glLinkProgram().
+    public void prepareForLink(int program) {
+        if (cacheDir != null && isBinarySupported()) {
+            GLES30.glProgramParameteri(
+                    program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+    }
+
+    // Store the binary of a program that has just been compiled and linked from source.
+    public void storeProgram(String key, int program) {
+        final File file = fileFor(key);
+        if (file == null || !isBinarySupported()) {
+            return;
+        }
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || length[0] <= 0) {
+            Log.w(TAG, "glGetProgramBinary failed for " + key);
+            return;
+        }
+        final byte[] bytes = new byte[length[0]];
+        binary.position(0);
+        binary.get(bytes);
+
+        // Write to a temporary file first, so a crash never leaves a truncated binary behind.
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+            try {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(format[0]);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to store program " + key + ": " + e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    // Account the time spent compiling and linking a program from source.
+    public void recordCompile(long durationNs) {
+        compileTimeNs.addAndGet(durationNs);
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getCompileTimeNs() {
+        return compileTimeNs.get();
+    }
+
+    public long getLoadTimeNs() {
+        return loadTimeNs.get();
+    }
+
+    public void resetStats() {
+        hitCount.set(0);
+        missCount.set(0);
+        rejectedCount.set(0);
+        compileTimeNs.set(0);
+        loadTimeNs.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "GlProgramCache{hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", rejected=" + getRejectedCount()
+                + ", compileMs=" + getCompileTimeNs() / 1000000f
+                + ", loadMs=" + getLoadTimeNs() / 1000000f + "}";
+    }
+
+    private File fileFor(String key) {
+        final File dir = cacheDir;
+        return dir == null ? null : new File(dir, key + ".bin");
+    }
+
+    private synchronized String getDriverIdentity() {
+        if (driverIdentity == null) {
+            driverIdentity = GLES20.glGetString(GLES20.GL_VENDOR) + "|"
+                    + GLES20.glGetString(GLES20.GL_RENDERER) + "|"
+                    + GLES20.glGetString(GLES20.GL_VERSION) + "|" + Build.FINGERPRINT;
+        }
+        return driverIdentity;
+    }
+
+    private synchronized boolean isBinarySupported() {
+        if (binarySupported == null) {
+            final String version = GLES20.glGetString(GLES20.GL_VERSION);
+            boolean supported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+                    && version != null && version.startsWith("OpenGL ES 3");
+            if (supported) {
+                int[] formats = new int[1];
+                GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+                supported = formats[0] > 0;
+            }
+            Log.d(TAG, "Program binaries supported: " + supported + " (" + version + ")");
+            binarySupported = supported;
+        }
+        return binarySupported;
+    }
+}
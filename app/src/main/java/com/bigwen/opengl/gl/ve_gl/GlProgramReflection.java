@@ -0,0 +1,101 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of the active attributes and uniforms of a linked program, enumerated once with
+ * glGetActiveAttrib()/glGetActiveUniform(). Resolve the locations you need when the program is
+ * created and keep the returned ints; the draw path should never look up a location by name.
+ */
+public class GlProgramReflection {
+    // Location, GL type and array size of an active variable.
+    public static class Variable {
+        public final String name;
+        public final int location;
+        public final int type;
+        public final int size;
+
+        Variable(String name, int location, int type, int size) {
+            this.name = name;
+            this.location = location;
+            this.type = type;
+            this.size = size;
+        }
+
+        public boolean isSampler() {
+            return type == GLES20.GL_SAMPLER_2D || type == GLES20.GL_SAMPLER_CUBE
+                    || type == GLES11Ext.GL_SAMPLER_EXTERNAL_OES;
+        }
+    }
+
+    private final Map<String, Variable> attributes;
+    private final Map<String, Variable> uniforms;
+
+    public GlProgramReflection(int program) {
+        this(GlesApi.getInstance(), program);
+    }
+
+    public GlProgramReflection(GlApi gl, int program) {
+        attributes = enumerate(gl, program, true);
+        uniforms = enumerate(gl, program, false);
+        GlUtil.checkNoGLES2Error(gl, "GlProgramReflection");
+    }
+
+    // Return the location of attribute |name|, or -1 if it is not active in the program.
+    public int getAttribLocation(String name) {
+        Variable variable = attributes.get(name);
+        return variable == null ? -1 : variable.location;
+    }
+
+    // Return the location of uniform |name|, or -1 if it is not active in the program.
+    public int getUniformLocation(String name) {
+        Variable variable = uniforms.get(name);
+        return variable == null ? -1 : variable.location;
+    }
+
+    public Map<String, Variable> getAttributes() {
+        return attributes;
+    }
+
+    public Map<String, Variable> getUniforms() {
+        return uniforms;
+    }
+
+    private static Map<String, Variable> enumerate(GlApi gl, int program, boolean attributes) {
+        final int[] values = new int[1];
+        gl.getProgramiv(program,
+                attributes ? GLES20.GL_ACTIVE_ATTRIBUTES : GLES20.GL_ACTIVE_UNIFORMS, values, 0);
+        final int count = values[0];
+        gl.getProgramiv(program, attributes ? GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH
+                : GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH, values, 0);
+        final byte[] nameBytes = new byte[Math.max(values[0], 1)];
+        final int[] length = new int[1];
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+
+        final Map<String, Variable> variables = new HashMap<String, Variable>();
+        for (int i = 0; i < count; ++i) {
+            if (attributes) {
+                gl.getActiveAttrib(program, i, nameBytes.length, length, 0, size, 0, type, 0,
+                        nameBytes, 0);
+            } else {
+                gl.getActiveUniform(program, i, nameBytes.length, length, 0, size, 0, type, 0,
+                        nameBytes, 0);
+            }
+            String name = new String(nameBytes, 0, length[0]);
+            final int location = attributes ? gl.getAttribLocation(program, name)
+                                            : gl.getUniformLocation(program, name);
+            // Uniform arrays are reported as "name[0]", register them under the plain name too.
+            if (name.endsWith("[0]")) {
+                name = name.substring(0, name.length() - 3);
+            }
+            variables.put(name, new Variable(name, location, type[0], size[0]));
+        }
+        return Collections.unmodifiableMap(variables);
+    }
+}
@@ -14,14 +14,15 @@ package com.bigwen.opengl.gl.ve_gl;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 
-import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Map;
 
 /**
  * Helper class to draw an opaque quad on the target viewport location. Rotation, mirror, and
  * cropping is specified using a 4x4 texture coordinate transform matrix. The frame input can either
- * be an OES texture or YUV textures in I420 format. The GL state must be preserved between draw
+ * be an OES texture, a RGB texture, YUV textures in I420 format or Y and VU textures in NV21 format. The GL state must be preserved between draw
  * calls, this is intentional to maximize performance. The function release() must be called
  * manually to free the resources held by this object.
  */
@@ -30,6 +31,8 @@ public class GlRectDrawer {
     // Simple vertex shader, used for both YUV and OES.
     private static final String VERTEX_SHADER_STRING =
             "varying vec2 interp_tc;\n"
+                    // Untransformed texture coordinate, for inputs that are already upright.
+                    + "varying vec2 raw_tc;\n"
                     + "attribute vec4 in_pos;\n"
                     + "attribute vec4 in_tc;\n"
                     + "\n"
@@ -38,6 +41,7 @@ public class GlRectDrawer {
                     + "void main() {\n"
                     + "    gl_Position = in_pos;\n"
                     + "    interp_tc = (texMatrix * in_tc).xy;\n"
+                    + "    raw_tc = in_tc.xy;\n"
                     + "}\n";
 
     private static final String YUV_FRAGMENT_SHADER_STRING =
@@ -58,6 +62,25 @@ public class GlRectDrawer {
                     + "                      y + 2.01723 * u - 1.08563, 1);\n"
                     + "}\n";
 
+    // Semi-planar NV21: |y_tex| is a LUMINANCE texture of the Y plane, |uv_tex| a half size
+    // LUMINANCE_ALPHA texture of the interleaved VU plane, so V lands in .r and U in .a.
+    private static final String NV21_FRAGMENT_SHADER_STRING =
+            "precision mediump float;\n"
+                    + "varying vec2 interp_tc;\n"
+                    + "\n"
+                    + "uniform sampler2D y_tex;\n"
+                    + "uniform sampler2D uv_tex;\n"
+                    + "\n"
+                    + "void main() {\n"
+                    + "  float y = texture2D(y_tex, interp_tc).r * 1.16438;\n"
+                    + "  vec4 vu = texture2D(uv_tex, interp_tc);\n"
+                    + "  float u = vu.a;\n"
+                    + "  float v = vu.r;\n"
+                    + "  gl_FragColor = vec4(y + 1.59603 * v - 0.874202, "
+                    + "                      y - 0.391762 * u - 0.812968 * v + 0.531668, "
+                    + "                      y + 2.01723 * u - 1.08563, 1);\n"
+                    + "}\n";
+
     private static final String RGB_FRAGMENT_SHADER_STRING =
             "precision mediump float;\n"
                     + "varying vec2 interp_tc;\n"
@@ -79,11 +102,8 @@ public class GlRectDrawer {
                     + "  gl_FragColor = texture2D(oes_tex, interp_tc);\n"
                     + "}\n";
 
-    private static final String OES_FRAGMENT_SHADER_STRING_WITH_BEAUTIFUL =
-                    "#extension GL_OES_EGL_image_external : require\n" +
-                    "varying highp vec2 interp_tc;\n" +//textureCoordinate 纹理坐标
-                    "uniform samplerExternalOES oes_tex;\n" +//inputImageTexture 输入纹理
-                    "uniform highp vec2 singleStepOffset;\n" +
+    // Uniforms and helpers of the beauty tone mapping, shared with GlBeautyFilter.
+    static final String BEAUTY_DECLARATIONS =
                     "uniform highp vec4 params;\n" +
                     "uniform highp float brightness;\n" +
                     "const highp vec3 W = vec3(0.299, 0.587, 0.114);\n" +
@@ -91,14 +111,53 @@ public class GlRectDrawer {
                     "        1.1102, -0.0598, -0.061,\n" +
                     "        -0.0774, 1.0826, -0.1186,\n" +
                     "        -0.0228, -0.0228, 1.1772);\n" +
-                    "highp vec2 blurCoordinates[24];\n" +
                     "highp float hardLight(highp float color) {\n" +
                     "    if (color <= 0.5)\n" +
                     "        color = color * color * 2.0;\n" +
                     "    else\n" +
                     "        color = 1.0 - ((1.0 - color)*(1.0 - color) * 2.0);\n" +
                     "    return color;\n" +
-                    "}\n" +
+                    "}\n";
+
+    // Tail of main() of the beauty shaders: turns |centralColor| and its low-passed green channel
+    // |sampleColor| into gl_FragColor. Shared with GlBeautyFilter.
+    static final String BEAUTY_TONE_MAPPING =
+                    "    highp float highPass = centralColor.g - sampleColor + 0.5;\n" +
+                    "\n" +
+                    "    for (int i = 0; i < 5; i++) {\n" +
+                    "        highPass = hardLight(highPass);\n" +
+                    "    }\n" +
+                    "    highp float lumance = dot(centralColor, W);\n" +
+                    "\n" +
+                    "    highp float alpha = pow(lumance, params.r);\n" +
+                    "\n" +
+                    "    highp vec3 smoothColor = centralColor + (centralColor-vec3(highPass))*alpha*0.1;\n" +
+                    "\n" +
+                    "    smoothColor.r = clamp(pow(smoothColor.r, params.g), 0.0, 1.0);\n" +
+                    "    smoothColor.g = clamp(pow(smoothColor.g, params.g), 0.0, 1.0);\n" +
+                    "    smoothColor.b = clamp(pow(smoothColor.b, params.g), 0.0, 1.0);\n" +
+                    "\n" +
+                    "    highp vec3 lvse = vec3(1.0)-(vec3(1.0)-smoothColor)*(vec3(1.0)-centralColor);\n" +
+                    "    highp vec3 bianliang = max(smoothColor, centralColor);\n" +
+                    "    highp vec3 rouguang = 2.0*centralColor*smoothColor + centralColor*centralColor - 2.0*centralColor*centralColor*smoothColor;\n" +
+                    "\n" +
+                    "    gl_FragColor = vec4(mix(centralColor, lvse, alpha), 1.0);\n" +
+                    "    gl_FragColor.rgb = mix(gl_FragColor.rgb, bianliang, alpha);\n" +
+                    "    gl_FragColor.rgb = mix(gl_FragColor.rgb, rouguang, params.b);\n" +
+                    "\n" +
+                    "    highp vec3 satcolor = gl_FragColor.rgb * saturateMatrix;\n" +
+                    "    gl_FragColor.rgb = mix(gl_FragColor.rgb, satcolor, params.a);\n" +
+                    "    gl_FragColor.rgb = vec3(gl_FragColor.rgb + vec3(brightness));\n" +
+                    "}";
+
+    // Single-pass beauty shader: low-passes the green channel with 24 taps around the center.
+    private static final String OES_FRAGMENT_SHADER_STRING_WITH_BEAUTIFUL =
+                    "#extension GL_OES_EGL_image_external : require\n" +
+                    "varying highp vec2 interp_tc;\n" +//textureCoordinate 纹理坐标
+                    "uniform samplerExternalOES oes_tex;\n" +//inputImageTexture 输入纹理
+                    "uniform highp vec2 singleStepOffset;\n" +
+                    BEAUTY_DECLARATIONS +
+                    "highp vec2 blurCoordinates[24];\n" +
                     "\n" +
                     "void main(){\n" +
                     "    highp vec3 centralColor = texture2D(oes_tex, interp_tc).rgb;\n" +
@@ -155,76 +214,108 @@ public class GlRectDrawer {
                     "\n" +
                     "    sampleColor = sampleColor / 62.0;\n" +
                     "\n" +
-                    "    highp float highPass = centralColor.g - sampleColor + 0.5;\n" +
-                    "\n" +
-                    "    for (int i = 0; i < 5; i++) {\n" +
-                    "        highPass = hardLight(highPass);\n" +
-                    "    }\n" +
-                    "    highp float lumance = dot(centralColor, W);\n" +
-                    "\n" +
-                    "    highp float alpha = pow(lumance, params.r);\n" +
-                    "\n" +
-                    "    highp vec3 smoothColor = centralColor + (centralColor-vec3(highPass))*alpha*0.1;\n" +
-                    "\n" +
-                    "    smoothColor.r = clamp(pow(smoothColor.r, params.g), 0.0, 1.0);\n" +
-                    "    smoothColor.g = clamp(pow(smoothColor.g, params.g), 0.0, 1.0);\n" +
-                    "    smoothColor.b = clamp(pow(smoothColor.b, params.g), 0.0, 1.0);\n" +
-                    "\n" +
-                    "    highp vec3 lvse = vec3(1.0)-(vec3(1.0)-smoothColor)*(vec3(1.0)-centralColor);\n" +
-                    "    highp vec3 bianliang = max(smoothColor, centralColor);\n" +
-                    "    highp vec3 rouguang = 2.0*centralColor*smoothColor + centralColor*centralColor - 2.0*centralColor*centralColor*smoothColor;\n" +
-                    "\n" +
-                    "    gl_FragColor = vec4(mix(centralColor, lvse, alpha), 1.0);\n" +
-                    "    gl_FragColor.rgb = mix(gl_FragColor.rgb, bianliang, alpha);\n" +
-                    "    gl_FragColor.rgb = mix(gl_FragColor.rgb, rouguang, params.b);\n" +
-                    "\n" +
-                    "    highp vec3 satcolor = gl_FragColor.rgb * saturateMatrix;\n" +
-                    "    gl_FragColor.rgb = mix(gl_FragColor.rgb, satcolor, params.a);\n" +
-                    "    gl_FragColor.rgb = vec3(gl_FragColor.rgb + vec3(brightness));\n" +
-                    "}";
+                    BEAUTY_TONE_MAPPING;
     // clang-format on
 
-    // Vertex coordinates in Normalized Device Coordinates, i.e. (-1, -1) is bottom-left and (1, 1) is
-    // top-right.
-    private static final FloatBuffer FULL_RECTANGLE_BUF = GlUtil.createFloatBuffer(new float[]{
-            -1.0f, -1.0f, // Bottom left.
-            1.0f, -1.0f, // Bottom right.
-            -1.0f, 1.0f, // Top left.
-            1.0f, 1.0f, // Top right.
-    });
-
-    // Texture coordinates - (0, 0) is bottom-left and (1, 1) is top-right.
-    private static final FloatBuffer FULL_RECTANGLE_TEX_BUF = GlUtil.createFloatBuffer(new float[]{
-            0.0f, 0.0f, // Bottom left.
-            1.0f, 0.0f, // Bottom right.
-            0.0f, 1.0f, // Top left.
-            1.0f, 1.0f // Top right.
-    });
+    private static final String FULL_RECTANGLE_MESH = "GlRectDrawer.fullRectangle";
+    private static final int FULL_RECTANGLE_FLOATS_PER_VERTEX = 4;
+    // Interleaved vertex and texture coordinates. Vertex coordinates are in Normalized Device
+    // Coordinates, i.e. (-1, -1) is bottom-left and (1, 1) is top-right. Texture coordinates -
+    // (0, 0) is bottom-left and (1, 1) is top-right.
+    private static final float[] FULL_RECTANGLE = new float[] {
+            -1.0f, -1.0f, 0.0f, 0.0f, // Bottom left.
+            1.0f, -1.0f, 1.0f, 0.0f, // Bottom right.
+            -1.0f, 1.0f, 0.0f, 1.0f, // Top left.
+            1.0f, 1.0f, 1.0f, 1.0f, // Top right.
+    };
+
+    // Texture unit of each sampler uniform. Samplers not listed here read from unit 0.
+    private static final Map<String, Integer> SAMPLER_UNITS = new HashMap<String, Integer>();
+    static {
+        SAMPLER_UNITS.put("y_tex", 0);
+        SAMPLER_UNITS.put("u_tex", 1);
+        SAMPLER_UNITS.put("v_tex", 2);
+        SAMPLER_UNITS.put("uv_tex", 1);
+        SAMPLER_UNITS.put("blur_tex", 1);
+    }
 
     private static class Shader {
         public final GlShader glShader;
         public final int texMatrixLocation;
         public final int posLocation;
         public final int tcLocation;
-        public int tex0Location;
-        public int tex1Location;
-        public int tex2Location;
-
-        public Shader(String fragmentShader) {
-            this.glShader = new GlShader(VERTEX_SHADER_STRING, fragmentShader);
+        // Beauty uniforms, -1 when the fragment shader does not declare them.
+        public final int paramsLocation;
+        public final int brightnessLocation;
+        public final int singleStepOffsetLocation;
+
+        // Values last uploaded to the uniforms of this program. NaN forces the first upload.
+        public final float[] uploadedTexMatrix = new float[16];
+        public final float[] uploadedParams = new float[4];
+        public float uploadedBrightness = Float.NaN;
+        public float uploadedTexelWidth = Float.NaN;
+        public float uploadedTexelHeight = Float.NaN;
+
+        public Shader(String fragmentShader, GlStateCache glState) {
+            this.glShader = new GlShader(glState.getGl(), VERTEX_SHADER_STRING, fragmentShader);
+            final GlProgramReflection reflection = glShader.getReflection();
             this.texMatrixLocation = glShader.getUniformLocation("texMatrix");
             this.posLocation = glShader.getAttribLocation("in_pos");
             this.tcLocation = glShader.getAttribLocation("in_tc");
-
-            GLES20.glEnableVertexAttribArray(this.posLocation);
-            GLES20.glEnableVertexAttribArray(this.tcLocation);
-
-            tex0Location = tex1Location = tex2Location = 0;
+            this.paramsLocation = reflection.getUniformLocation("params");
+            this.brightnessLocation = reflection.getUniformLocation("brightness");
+            this.singleStepOffsetLocation = reflection.getUniformLocation("singleStepOffset");
+            Arrays.fill(uploadedTexMatrix, Float.NaN);
+            Arrays.fill(uploadedParams, Float.NaN);
+
+            // Sampler bindings are program state, so they only need to be set once.
+            glShader.useProgram(glState);
+            for (GlProgramReflection.Variable uniform : reflection.getUniforms().values()) {
+                if (uniform.isSampler()) {
+                    final Integer unit = SAMPLER_UNITS.get(uniform.name);
+                    glState.getGl().uniform1i(uniform.location, unit == null ? 0 : unit);
+                }
+            }
         }
     }
 
-    // The keys are one of the fragments shaders above.
+    // The keys are one of the fragments shaders above, or those passed to drawTextures().
     private final Map<String, Shader> shaders = new IdentityHashMap<String, Shader>();
+    private final GlStateCache glState;
+    private final GlApi gl;
+    private final GlMesh fullRectangle;
+    // Registry created by this drawer, released with it. Null when the registry is shared.
+    private final GlMeshRegistry ownedMeshRegistry;
+
+    // Draw with a private state cache and meshes. Only safe if nothing else changes the GL state
+    // in between.
+    public GlRectDrawer() {
+        this(new GlStateCache());
+    }
+
+    // Draw with the state cache and meshes of |eglBase|, shared with the other drawers of that
+    // context.
+    public GlRectDrawer(EglBase eglBase) {
+        this(eglBase.getGlStateCache(), eglBase.getMeshRegistry());
+    }
+
+    public GlRectDrawer(GlStateCache glState) {
+        this(glState, new GlMeshRegistry(glState), true);
+    }
+
+    public GlRectDrawer(GlStateCache glState, GlMeshRegistry meshRegistry) {
+        this(glState, meshRegistry, false);
+    }
+
+    private GlRectDrawer(GlStateCache glState, GlMeshRegistry meshRegistry, boolean ownsRegistry) {
+        this.glState = glState;
+        this.gl = glState.getGl();
+        this.ownedMeshRegistry = ownsRegistry ? meshRegistry : null;
+        this.fullRectangle = meshRegistry.getMesh(FULL_RECTANGLE_MESH, FULL_RECTANGLE,
+                FULL_RECTANGLE_FLOATS_PER_VERTEX, null);
+        setParams(beautyLevel, toneLevel);
+        setBrightLevel(brightLevel);
+    }
 
     /**
      * Draw an OES texture frame with specified texture transformation matrix. Required resources are
@@ -232,28 +323,27 @@ public class GlRectDrawer {
      */
     public void drawOes(int oesTextureId, float[] texMatrix, int frameWidth, int frameHeight,
                         int viewportX, int viewportY, int viewportWidth, int viewportHeight) {
-        prepareShader(OES_FRAGMENT_SHADER_STRING_WITH_BEAUTIFUL, texMatrix);
-        setTexelSize(frameWidth, frameHeight);
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        // updateTexImage() may be called from another thread in another EGL context, so we need to
-        // bind/unbind the texture in each draw call so that GLES understads it's a new texture.
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, oesTextureId);
+        prepareShader(OES_FRAGMENT_SHADER_STRING_WITH_BEAUTIFUL, texMatrix, frameWidth, frameHeight);
+        glState.activeTexture(0);
+        // updateTexImage() may be called from another thread in another EGL context. In that case
+        // the caller must invalidate the texture bindings of |glState| so that the texture is
+        // re-bound and GLES understands it's a new texture.
+        glState.bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, oesTextureId);
         drawRectangle(viewportX, viewportY, viewportWidth, viewportHeight);
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
     }
 
     /**
      * Draw a RGB(A) texture frame with specified texture transformation matrix. Required resources
-     * are allocated at the first call to this function.
+     * are allocated at the first call to this function. If |textureId| was rendered to in another
+     * EGL context, call glState.invalidateTextures() first: GLES only guarantees the new content
+     * is visible after the texture is bound again, and the cache would skip an unchanged binding.
      */
     public void drawRgb(int textureId, float[] texMatrix, int frameWidth, int frameHeight,
                         int viewportX, int viewportY, int viewportWidth, int viewportHeight) {
-        prepareShader(RGB_FRAGMENT_SHADER_STRING, texMatrix);
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        prepareShader(RGB_FRAGMENT_SHADER_STRING, texMatrix, frameWidth, frameHeight);
+        glState.activeTexture(0);
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
         drawRectangle(viewportX, viewportY, viewportWidth, viewportHeight);
-        // Unbind the texture as a precaution.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
     /**
@@ -262,124 +352,144 @@ public class GlRectDrawer {
      */
     public void drawYuv(int[] yuvTextures, float[] texMatrix, int frameWidth, int frameHeight,
                         int viewportX, int viewportY, int viewportWidth, int viewportHeight) {
-        prepareShader(YUV_FRAGMENT_SHADER_STRING, texMatrix);
+        prepareShader(YUV_FRAGMENT_SHADER_STRING, texMatrix, frameWidth, frameHeight);
         // Bind the textures.
         for (int i = 0; i < 3; ++i) {
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, yuvTextures[i]);
+            glState.activeTexture(i);
+            glState.bindTexture(GLES20.GL_TEXTURE_2D, yuvTextures[i]);
         }
         drawRectangle(viewportX, viewportY, viewportWidth, viewportHeight);
-        // Unbind the textures as a precaution..
-        for (int i = 0; i < 3; ++i) {
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Draw a NV21 frame from a Y plane texture and an interleaved VU plane texture, see
+     * GlNv21Uploader.
+     */
+    public void drawNv21(int yTextureId, int uvTextureId, float[] texMatrix, int frameWidth,
+                         int frameHeight, int viewportX, int viewportY, int viewportWidth,
+                         int viewportHeight) {
+        prepareShader(NV21_FRAGMENT_SHADER_STRING, texMatrix, frameWidth, frameHeight);
+        glState.activeTexture(0);
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, yTextureId);
+        glState.activeTexture(1);
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, uvTextureId);
+        drawRectangle(viewportX, viewportY, viewportWidth, viewportHeight);
+    }
+
+    /**
+     * Draw with a caller supplied fragment shader, which uses the same vertex shader and uniforms
+     * as the built-in ones. |textureId0| is bound to unit 0 and |textureId1|, if not 0, to unit 1.
+     * Programs are cached by the identity of |fragmentShader|, so pass the same String instance on
+     * every call.
+     */
+    public void drawTextures(String fragmentShader, int target0, int textureId0, int target1,
+                             int textureId1, float[] texMatrix, int frameWidth, int frameHeight,
+                             int viewportX, int viewportY, int viewportWidth, int viewportHeight) {
+        prepareShader(fragmentShader, texMatrix, frameWidth, frameHeight);
+        glState.activeTexture(0);
+        glState.bindTexture(target0, textureId0);
+        if (textureId1 != 0) {
+            glState.activeTexture(1);
+            glState.bindTexture(target1, textureId1);
         }
+        drawRectangle(viewportX, viewportY, viewportWidth, viewportHeight);
+    }
+
+    /**
+     * Compile |fragmentShader| if needed and make its program current, so that uniforms the drawer
+     * does not know about can be set before drawTextures(). Keyed like drawTextures().
+     */
+    public GlShader useShader(String fragmentShader) {
+        final Shader shader = getShader(fragmentShader);
+        shader.glShader.useProgram(glState);
+        return shader.glShader;
     }
 
     private void drawRectangle(int x, int y, int width, int height) {
         // Draw quad.
-        GLES20.glViewport(x, y, width, height);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        glState.viewport(x, y, width, height);
+        fullRectangle.draw(GLES20.GL_TRIANGLE_STRIP);
     }
 
 
-    private float toneLevel;
-    private float beautyLevel;
-    private float brightLevel;
-
-    private int paramsLocation;
-    private int brightnessLocation;
-    private int singleStepOffsetLocation;
+    private float toneLevel = 0.47f;
+    private float beautyLevel = 0.42f;
+    private float brightLevel = 0.34f;
+    // Beauty uniform values derived from the levels above, uploaded when they differ from what the
+    // program last received.
+    private final float[] params = new float[4];
+    private float brightness;
+
+    private void prepareShader(String fragmentShader, float[] texMatrix, int frameWidth,
+                               int frameHeight) {
+        final Shader shader = getShader(fragmentShader);
+        shader.glShader.useProgram(glState);
+        fullRectangle.bind();
+        fullRectangle.setVertexAttrib(shader.posLocation, 2, 0);
+        fullRectangle.setVertexAttrib(shader.tcLocation, 2, 2);
+        // Copy the texture transformation matrix over.
+        if (!Arrays.equals(shader.uploadedTexMatrix, texMatrix)) {
+            System.arraycopy(texMatrix, 0, shader.uploadedTexMatrix, 0, 16);
+            gl.uniformMatrix4fv(shader.texMatrixLocation, 1, false, texMatrix, 0);
+        }
+        uploadBeautyUniforms(shader, frameWidth, frameHeight);
+    }
 
-    private void prepareShader(String fragmentShader, float[] texMatrix) {
-        final Shader shader;
-        if (shaders.containsKey(fragmentShader)) {
-            shader = shaders.get(fragmentShader);
-        } else {
+    private Shader getShader(String fragmentShader) {
+        Shader shader = shaders.get(fragmentShader);
+        if (shader == null) {
             // Lazy allocation.
-            shader = new Shader(fragmentShader);
+            shader = new Shader(fragmentShader, glState);
             shaders.put(fragmentShader, shader);
-            shader.glShader.useProgram();
-            if (fragmentShader == YUV_FRAGMENT_SHADER_STRING) {
-                shader.tex0Location = shader.glShader.getUniformLocation("y_tex");
-                shader.tex1Location = shader.glShader.getUniformLocation("u_tex");
-                shader.tex2Location = shader.glShader.getUniformLocation("v_tex");
-            } else if (fragmentShader == RGB_FRAGMENT_SHADER_STRING) {
-                shader.tex0Location = shader.glShader.getUniformLocation("rgb_tex");
-            } else if (fragmentShader == OES_FRAGMENT_SHADER_STRING) {
-                shader.tex0Location = shader.glShader.getUniformLocation("oes_tex");
-            } else if (fragmentShader == OES_FRAGMENT_SHADER_STRING_WITH_BEAUTIFUL) {
-                shader.tex0Location = shader.glShader.getUniformLocation("oes_tex");
-                paramsLocation = shader.glShader.getUniformLocation("params");
-                brightnessLocation = shader.glShader.getUniformLocation("brightness");
-                singleStepOffsetLocation = shader.glShader.getUniformLocation("singleStepOffset");
-
-                toneLevel = 0.47f;
-                beautyLevel = 0.42f;
-                brightLevel = 0.34f;
-
-                setParams(beautyLevel, toneLevel);
-                setBrightLevel(brightLevel);;
-            } else {
-                throw new IllegalStateException("Unknown fragment shader: " + fragmentShader);
-            }
-            GlUtil.checkNoGLES2Error("Initialize fragment shader uniform values.");
+            GlUtil.checkNoGLES2Error(gl, "Initialize fragment shader uniform values.");
         }
-        shader.glShader.useProgram();
-        // Copy the texture transformation matrix over.
+        return shader;
+    }
 
-        if (shader.tex0Location != 0) {
-            GLES20.glUniform1i(shader.tex0Location, 0);
+    // Each beauty uniform is optional, e.g. the blur passes of GlBeautyFilter only declare
+    // singleStepOffset.
+    private void uploadBeautyUniforms(Shader shader, int frameWidth, int frameHeight) {
+        if (shader.paramsLocation != -1 && !Arrays.equals(shader.uploadedParams, params)) {
+            System.arraycopy(params, 0, shader.uploadedParams, 0, 4);
+            gl.uniform4f(shader.paramsLocation, params[0], params[1], params[2], params[3]);
         }
-
-        if (shader.tex1Location != 0) {
-            GLES20.glUniform1i(shader.tex1Location, 1);
+        if (shader.brightnessLocation != -1 && shader.uploadedBrightness != brightness) {
+            shader.uploadedBrightness = brightness;
+            gl.uniform1f(shader.brightnessLocation, brightness);
         }
-
-        if (shader.tex2Location != 0) {
-            GLES20.glUniform1i(shader.tex1Location, 2);
+        if (shader.singleStepOffsetLocation != -1) {
+            final float texelWidth = 2.0f / frameWidth;
+            final float texelHeight = 2.0f / frameHeight;
+            if (shader.uploadedTexelWidth != texelWidth
+                    || shader.uploadedTexelHeight != texelHeight) {
+                shader.uploadedTexelWidth = texelWidth;
+                shader.uploadedTexelHeight = texelHeight;
+                gl.uniform2f(shader.singleStepOffsetLocation, texelWidth, texelHeight);
+            }
         }
-
-        GLES20.glEnableVertexAttribArray(shader.posLocation);
-        GLES20.glEnableVertexAttribArray(shader.tcLocation);
-        GLES20.glVertexAttribPointer(shader.posLocation, 2, GLES20.GL_FLOAT, false, 0, FULL_RECTANGLE_BUF);
-        GLES20.glVertexAttribPointer(shader.tcLocation, 2, GLES20.GL_FLOAT, false, 0, FULL_RECTANGLE_TEX_BUF);
-        GLES20.glUniformMatrix4fv(shader.texMatrixLocation, 1, false, texMatrix, 0);
     }
 
+    // The level setters only update local state; the uniforms follow on the next drawOes().
     public void setBeautyLevel(float beautyLevel) {
         this.beautyLevel = beautyLevel;
         setParams(beautyLevel, toneLevel);
     }
 
+    public void setToneLevel(float toneLevel) {
+        this.toneLevel = toneLevel;
+        setParams(beautyLevel, toneLevel);
+    }
+
     public void setBrightLevel(float brightLevel) {
         this.brightLevel = brightLevel;
-        setFloat(brightnessLocation, 0.6f * (-0.5f + brightLevel));
+        brightness = 0.6f * (-0.5f + brightLevel);
     }
 
     public void setParams(float beauty, float tone) {
-        float[] vector = new float[4];
-        vector[0] = 1.0f - 0.6f * beauty;
-        vector[1] = 1.0f - 0.3f * beauty;
-        vector[2] = 0.1f + 0.3f * tone;
-        vector[3] = 0.1f + 0.3f * tone;
-        setFloatVec4(paramsLocation, vector);
-    }
-
-    private void setTexelSize(final float w, final float h) {
-        setFloatVec2(singleStepOffsetLocation, new float[]{2.0f / w, 2.0f / h});
-    }
-
-    protected void setFloat(final int location, final float floatValue) {
-        GLES20.glUniform1f(location, floatValue);
-    }
-
-    protected void setFloatVec4(final int location, final float[] arrayValue) {
-        GLES20.glUniform4fv(location, 1, FloatBuffer.wrap(arrayValue));
-    }
-
-    protected void setFloatVec2(final int location, final float[] arrayValue) {
-        GLES20.glUniform2fv(location, 1, FloatBuffer.wrap(arrayValue));
+        params[0] = 1.0f - 0.6f * beauty;
+        params[1] = 1.0f - 0.3f * beauty;
+        params[2] = 0.1f + 0.3f * tone;
+        params[3] = 0.1f + 0.3f * tone;
     }
 
     /**
@@ -390,5 +500,10 @@ public class GlRectDrawer {
             shader.glShader.release();
         }
         shaders.clear();
+        if (ownedMeshRegistry != null) {
+            ownedMeshRegistry.release();
+        }
+        // Deleted ids may be handed out again, so the cached bindings are no longer meaningful.
+        glState.invalidate();
     }
 }
@@ -0,0 +1,241 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of texture backed framebuffers of one EGLContext, keyed by size and format. Targets are
+ * reference counted: acquire() returns a target holding one reference, retain()/release() on the
+ * target add and drop references, and a target whose count drops to zero goes back to the pool
+ * instead of being deleted. Idle targets are reused by the next acquire() with the same key and
+ * evicted least recently used first once the pool holds more than its byte budget.
+ *
+ * Reference counting is thread safe, but GL objects are only created and deleted on the thread
+ * that created the pool; evictions triggered elsewhere are deferred to the next call on that
+ * thread. Textures are shared with the whole share group, framebuffers are not, so other contexts
+ * may only sample getTextureId().
+ */
+public class GlRenderTargetPool {
+    public static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+
+    public class RenderTarget {
+        private final int width;
+        private final int height;
+        private final int format;
+        private final int textureId;
+        private final int framebufferId;
+        private int refCount = 1;
+
+        private RenderTarget(int width, int height, int format, int textureId,
+                             int framebufferId) {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.textureId = textureId;
+            this.framebufferId = framebufferId;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getFormat() {
+            return format;
+        }
+
+        public int getTextureId() {
+            return textureId;
+        }
+
+        public int getFramebufferId() {
+            return framebufferId;
+        }
+
+        public void retain() {
+            synchronized (GlRenderTargetPool.this) {
+                if (refCount <= 0) {
+                    throw new IllegalStateException("retain() on a released render target");
+                }
+                refCount++;
+            }
+        }
+
+        // Drop one reference; the last one returns the target to the pool.
+        public void release() {
+            synchronized (GlRenderTargetPool.this) {
+                if (refCount <= 0) {
+                    throw new IllegalStateException("Render target released too many times");
+                }
+                if (--refCount == 0) {
+                    onIdle(this);
+                }
+            }
+        }
+
+        private long getSizeInBytes() {
+            return (long) width * height * bytesPerPixel(format);
+        }
+
+        private boolean matches(int width, int height, int format) {
+            return this.width == width && this.height == height && this.format == format;
+        }
+    }
+
+    private final GlStateCache glState;
+    private final Thread glThread;
+    private long budgetBytes;
+
+    // Idle targets, least recently released first.
+    private final List<RenderTarget> idleTargets = new ArrayList<RenderTarget>();
+    private long allocatedBytes;
+    private int targetCount;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    // Must be called on the thread owning the EGLContext. |glState| is invalidated whenever the
+    // pool creates or deletes GL objects.
+    public GlRenderTargetPool(GlStateCache glState, long budgetBytes) {
+        this.glState = glState;
+        this.glThread = Thread.currentThread();
+        this.budgetBytes = budgetBytes;
+    }
+
+    public RenderTarget acquire(int width, int height) {
+        return acquire(width, height, GLES20.GL_RGBA);
+    }
+
+    /**
+     * Return a |width| x |height| target of |format| (GL_RGBA, GL_RGB, GL_LUMINANCE or
+     * GL_LUMINANCE_ALPHA, unsigned bytes) holding one reference. The content is undefined.
+     */
+    public synchronized RenderTarget acquire(int width, int height, int format) {
+        checkIsOnGlThread();
+        for (int i = idleTargets.size() - 1; i >= 0; --i) {
+            final RenderTarget target = idleTargets.get(i);
+            if (target.matches(width, height, format)) {
+                idleTargets.remove(i);
+                target.refCount = 1;
+                hitCount++;
+                return target;
+            }
+        }
+        missCount++;
+        final RenderTarget target = allocate(width, height, format);
+        trimToBudget();
+        return target;
+    }
+
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        if (Thread.currentThread() == glThread) {
+            trimToBudget();
+        }
+    }
+
+    // Delete all idle targets.
+    public synchronized void trim() {
+        checkIsOnGlThread();
+        while (!idleTargets.isEmpty()) {
+            delete(idleTargets.remove(0));
+        }
+    }
+
+    /**
+     * Delete the idle targets. Targets still referenced are deleted when their last reference is
+     * released, as long as that happens on the GL thread.
+     */
+    public synchronized void release() {
+        trim();
+        budgetBytes = 0;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized int getTargetCount() {
+        return targetCount;
+    }
+
+    public synchronized int getIdleCount() {
+        return idleTargets.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("targets=%d idle=%d allocated=%dKB budget=%dKB hits=%d misses=%d "
+                        + "evictions=%d", targetCount, idleTargets.size(), allocatedBytes / 1024,
+                budgetBytes / 1024, hitCount, missCount, evictionCount);
+    }
+
+    private void onIdle(RenderTarget target) {
+        idleTargets.add(target);
+        if (Thread.currentThread() == glThread) {
+            trimToBudget();
+        }
+    }
+
+    private void trimToBudget() {
+        while (allocatedBytes > budgetBytes && !idleTargets.isEmpty()) {
+            delete(idleTargets.remove(0));
+            evictionCount++;
+        }
+    }
+
+    private RenderTarget allocate(int width, int height, int format) {
+        final GlApi gl = glState.getGl();
+        final int textureId = GlUtil.generateTexture(gl, GLES20.GL_TEXTURE_2D);
+        gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format,
+                GLES20.GL_UNSIGNED_BYTE, null);
+        final int framebufferId = GlUtil.generateFrameBuffer(gl, textureId);
+        // The helpers above bind the new objects behind the back of the cache.
+        glState.invalidate();
+        if (framebufferId == -1) {
+            gl.deleteTextures(1, new int[] {textureId}, 0);
+            throw new RuntimeException("Incomplete framebuffer for " + width + "x" + height
+                    + " format 0x" + Integer.toHexString(format));
+        }
+        final RenderTarget target =
+                new RenderTarget(width, height, format, textureId, framebufferId);
+        allocatedBytes += target.getSizeInBytes();
+        targetCount++;
+        return target;
+    }
+
+    private void delete(RenderTarget target) {
+        final GlApi gl = glState.getGl();
+        gl.deleteFramebuffers(1, new int[] {target.framebufferId}, 0);
+        gl.deleteTextures(1, new int[] {target.textureId}, 0);
+        allocatedBytes -= target.getSizeInBytes();
+        targetCount--;
+        // The ids may be reused, so the cached bindings must not match them any more.
+        glState.invalidate();
+    }
+
+    private void checkIsOnGlThread() {
+        if (Thread.currentThread() != glThread) {
+            throw new IllegalStateException("Render target pool used off its GL thread");
+        }
+    }
+
+    private static int bytesPerPixel(int format) {
+        switch (format) {
+            case GLES20.GL_LUMINANCE:
+            case GLES20.GL_ALPHA:
+                return 1;
+            case GLES20.GL_LUMINANCE_ALPHA:
+                return 2;
+            case GLES20.GL_RGB:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+}
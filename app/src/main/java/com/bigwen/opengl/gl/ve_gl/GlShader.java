@@ -9,46 +9,70 @@ import java.nio.FloatBuffer;
 public class GlShader {
     private static final String TAG = "GlShader";
 
-    private static int compileShader(int shaderType, String source) {
-        final int shader = GLES20.glCreateShader(shaderType);
+    private static int compileShader(GlApi gl, int shaderType, String source) {
+        final int shader = gl.createShader(shaderType);
         if (shader == 0) {
-            throw new RuntimeException("glCreateShader() failed. GLES20 error: " + GLES20.glGetError());
+            throw new RuntimeException("glCreateShader() failed. GLES20 error: " + gl.getError());
         }
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
+        gl.shaderSource(shader, source);
+        gl.compileShader(shader);
         int[] compileStatus = new int[] {
                 GLES20.GL_FALSE
         };
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+        gl.getShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
         if (compileStatus[0] != GLES20.GL_TRUE) {
             Log.e(TAG, "Could not compile shader " + shaderType + ":" +
-                    GLES20.glGetShaderInfoLog(shader));
-            throw new RuntimeException(GLES20.glGetShaderInfoLog(shader));
+                    gl.getShaderInfoLog(shader));
+            throw new RuntimeException(gl.getShaderInfoLog(shader));
         }
-        GlUtil.checkNoGLES2Error("compileShader");
+        GlUtil.checkNoGLES2Error(gl, "compileShader");
         return shader;
     }
 
+    private final GlApi gl;
     private int program;
+    private GlProgramReflection reflection;
 
     public GlShader(String vertexSource, String fragmentSource) {
-        final int vertexShader = compileShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        final int fragmentShader = compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        program = GLES20.glCreateProgram();
+        this(GlesApi.getInstance(), vertexSource, fragmentSource);
+    }
+
+    public GlShader(GlApi gl, String vertexSource, String fragmentSource) {
+        this.gl = gl;
+        // The binary cache talks to the driver directly, so other backends always compile.
+        final GlProgramCache programCache =
+                gl instanceof GlesApi ? GlProgramCache.getInstance() : null;
+        final String cacheKey =
+                programCache != null ? programCache.keyFor(vertexSource, fragmentSource) : null;
+        if (programCache != null) {
+            program = programCache.loadProgram(cacheKey);
+            if (program != 0) {
+                GlUtil.checkNoGLES2Error(gl, "Restoring GlShader");
+                reflection = new GlProgramReflection(gl, program);
+                return;
+            }
+        }
+        final long compileStartNs = System.nanoTime();
+        final int vertexShader = compileShader(gl, GLES20.GL_VERTEX_SHADER, vertexSource);
+        final int fragmentShader = compileShader(gl, GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        program = gl.createProgram();
         if (program == 0) {
-            throw new RuntimeException("glCreateProgram() failed. GLES20 error: " + GLES20.glGetError());
+            throw new RuntimeException("glCreateProgram() failed. GLES20 error: " + gl.getError());
         }
-        GLES20.glAttachShader(program, vertexShader);
-        GLES20.glAttachShader(program, fragmentShader);
-        GLES20.glLinkProgram(program);
+        gl.attachShader(program, vertexShader);
+        gl.attachShader(program, fragmentShader);
+        if (programCache != null) {
+            programCache.prepareForLink(program);
+        }
+        gl.linkProgram(program);
         int[] linkStatus = new int[] {
                 GLES20.GL_FALSE
         };
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        gl.getProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
         if (linkStatus[0] != GLES20.GL_TRUE) {
             Log.e(TAG, "Could not link program: " +
-                    GLES20.glGetProgramInfoLog(program));
-            throw new RuntimeException(GLES20.glGetProgramInfoLog(program));
+                    gl.getProgramInfoLog(program));
+            throw new RuntimeException(gl.getProgramInfoLog(program));
         }
         // According to the documentation of glLinkProgram():
         // "After the link operation, applications are free to modify attached shader objects, compile
@@ -57,16 +81,34 @@ public class GlShader {
         // part of the program object."
         // But in practice, detaching shaders from the program seems to break some devices. Deleting the
         // shaders are fine however - it will delete them when they are no longer attached to a program.
-        GLES20.glDeleteShader(vertexShader);
-        GLES20.glDeleteShader(fragmentShader);
-        GlUtil.checkNoGLES2Error("Creating GlShader");
+        gl.deleteShader(vertexShader);
+        gl.deleteShader(fragmentShader);
+        GlUtil.checkNoGLES2Error(gl, "Creating GlShader");
+        if (programCache != null) {
+            programCache.recordCompile(System.nanoTime() - compileStartNs);
+            programCache.storeProgram(cacheKey, program);
+        }
+        reflection = new GlProgramReflection(gl, program);
+    }
+
+    // The backend this program was created with, for setting uniforms on it.
+    public GlApi getGl() {
+        return gl;
+    }
+
+    // Active attributes and uniforms of the program, enumerated once after link.
+    public GlProgramReflection getReflection() {
+        if (program == -1) {
+            throw new RuntimeException("The program has been released");
+        }
+        return reflection;
     }
 
     public int getAttribLocation(String label) {
         if (program == -1) {
             throw new RuntimeException("The program has been released");
         }
-        int location = GLES20.glGetAttribLocation(program, label);
+        int location = reflection.getAttribLocation(label);
         if (location < 0) {
             throw new RuntimeException("Could not locate '" + label + "' in program");
         }
@@ -82,16 +124,16 @@ public class GlShader {
             throw new RuntimeException("The program has been released");
         }
         int location = getAttribLocation(label);
-        GLES20.glEnableVertexAttribArray(location);
-        GLES20.glVertexAttribPointer(location, dimension, GLES20.GL_FLOAT, false, 0, buffer);
-        GlUtil.checkNoGLES2Error("setVertexAttribArray");
+        gl.enableVertexAttribArray(location);
+        gl.vertexAttribPointer(location, dimension, GLES20.GL_FLOAT, false, 0, buffer);
+        GlUtil.checkNoGLES2Error(gl, "setVertexAttribArray");
     }
 
     public int getUniformLocation(String label) {
         if (program == -1) {
             throw new RuntimeException("The program has been released");
         }
-        int location = GLES20.glGetUniformLocation(program, label);
+        int location = reflection.getUniformLocation(label);
         if (location < 0) {
             throw new RuntimeException("Could not locate uniform '" + label + "' in program");
         }
@@ -102,15 +144,25 @@ public class GlShader {
         if (program == -1) {
             throw new RuntimeException("The program has been released");
         }
-        GLES20.glUseProgram(program);
-        GlUtil.checkNoGLES2Error("glUseProgram");
+        gl.useProgram(program);
+        GlUtil.checkNoGLES2Error(gl, "glUseProgram");
+    }
+
+    // Same as useProgram(), but skips the call when |glState| says the program is already in use.
+    public void useProgram(GlStateCache glState) {
+        if (program == -1) {
+            throw new RuntimeException("The program has been released");
+        }
+        if (glState.useProgram(program)) {
+            GlUtil.checkNoGLES2Error(gl, "glUseProgram");
+        }
     }
 
     public void release() {
         Log.d(TAG, "Deleting shader.");
         // Delete program, automatically detaching any shaders from it.
         if (program != -1) {
-            GLES20.glDeleteProgram(program);
+            gl.deleteProgram(program);
             program = -1;
         }
     }
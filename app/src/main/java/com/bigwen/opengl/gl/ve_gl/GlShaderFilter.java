@@ -0,0 +1,91 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+/**
+ * Single draw {@link GlFilter} defined by fragment shaders for 2D and/or OES input. The shaders use
+ * the vertex shader and uniforms of {@link GlRectDrawer}: |interp_tc|, |texMatrix| and
+ * |singleStepOffset| (two texels of the input). Sample 2D input from |rgb_tex| and OES input from
+ * |oes_tex|. Override setUniforms() to upload extra uniforms. The output has the input size.
+ */
+public class GlShaderFilter implements GlFilter {
+    // clang-format off
+    public static final String COPY_OES_FRAGMENT_SHADER_STRING =
+            "#extension GL_OES_EGL_image_external : require\n"
+                    + "precision mediump float;\n"
+                    + "varying vec2 interp_tc;\n"
+                    + "\n"
+                    + "uniform samplerExternalOES oes_tex;\n"
+                    + "\n"
+                    + "void main() {\n"
+                    + "  gl_FragColor = texture2D(oes_tex, interp_tc);\n"
+                    + "}\n";
+
+    public static final String COPY_RGB_FRAGMENT_SHADER_STRING =
+            "precision mediump float;\n"
+                    + "varying vec2 interp_tc;\n"
+                    + "\n"
+                    + "uniform sampler2D rgb_tex;\n"
+                    + "\n"
+                    + "void main() {\n"
+                    + "  gl_FragColor = texture2D(rgb_tex, interp_tc);\n"
+                    + "}\n";
+    // clang-format on
+
+    private final String name;
+    private final String rgbFragmentShader;
+    private final String oesFragmentShader;
+
+    // Plain copy, used by the chain to turn OES frames into 2D textures.
+    public static GlShaderFilter createCopyFilter() {
+        return new GlShaderFilter(
+                "copy", COPY_RGB_FRAGMENT_SHADER_STRING, COPY_OES_FRAGMENT_SHADER_STRING);
+    }
+
+    // Either shader may be null if that input is not supported. Programs are cached by the
+    // identity of the shader strings, so use constants.
+    public GlShaderFilter(String name, String rgbFragmentShader, String oesFragmentShader) {
+        if (rgbFragmentShader == null && oesFragmentShader == null) {
+            throw new IllegalArgumentException(name + ": no fragment shader");
+        }
+        this.name = name;
+        this.rgbFragmentShader = rgbFragmentShader;
+        this.oesFragmentShader = oesFragmentShader;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean acceptsInput(int textureTarget) {
+        return (textureTarget == GLES20.GL_TEXTURE_2D ? rgbFragmentShader : oesFragmentShader)
+                != null;
+    }
+
+    @Override
+    public void getOutputSize(int inputWidth, int inputHeight, int[] outputSize) {
+        outputSize[0] = inputWidth;
+        outputSize[1] = inputHeight;
+    }
+
+    @Override
+    public void draw(GlRectDrawer drawer, int textureTarget, int textureId, float[] texMatrix,
+                     int inputWidth, int inputHeight, int framebufferId, int outputWidth,
+                     int outputHeight) {
+        final String fragmentShader = textureTarget == GLES11Ext.GL_TEXTURE_EXTERNAL_OES
+                ? oesFragmentShader : rgbFragmentShader;
+        setUniforms(drawer.useShader(fragmentShader));
+        drawer.drawTextures(fragmentShader, textureTarget, textureId, 0, 0, texMatrix, inputWidth,
+                inputHeight, 0, 0, outputWidth, outputHeight);
+    }
+
+    // Upload the uniforms specific to this filter; |shader| is the current program.
+    protected void setUniforms(GlShader shader) {}
+
+    // The programs belong to the drawer.
+    @Override
+    public void release() {}
+}
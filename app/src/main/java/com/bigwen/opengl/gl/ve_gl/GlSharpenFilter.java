@@ -0,0 +1,51 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+/**
+ * Unsharp mask over the four direct neighbours of each pixel, for 2D input.
+ */
+public class GlSharpenFilter extends GlShaderFilter {
+    // clang-format off
+    private static final String FRAGMENT_SHADER_STRING =
+            "precision mediump float;\n"
+                    + "varying vec2 interp_tc;\n"
+                    + "\n"
+                    + "uniform sampler2D rgb_tex;\n"
+                    + "uniform highp vec2 singleStepOffset;\n"
+                    + "uniform float strength;\n"
+                    + "\n"
+                    + "void main() {\n"
+                    + "  highp vec2 texel = singleStepOffset * 0.5;\n"
+                    + "  vec4 color = texture2D(rgb_tex, interp_tc);\n"
+                    + "  vec3 blur = texture2D(rgb_tex, interp_tc + vec2(texel.x, 0.0)).rgb;\n"
+                    + "  blur += texture2D(rgb_tex, interp_tc - vec2(texel.x, 0.0)).rgb;\n"
+                    + "  blur += texture2D(rgb_tex, interp_tc + vec2(0.0, texel.y)).rgb;\n"
+                    + "  blur += texture2D(rgb_tex, interp_tc - vec2(0.0, texel.y)).rgb;\n"
+                    + "  color.rgb += (color.rgb - blur * 0.25) * strength;\n"
+                    + "  gl_FragColor = color;\n"
+                    + "}\n";
+    // clang-format on
+
+    private volatile float strength;
+    // Location of |strength| in |locationShader|, resolved again if the drawer recreated it.
+    private GlShader locationShader;
+    private int strengthLocation = -1;
+
+    public GlSharpenFilter(float strength) {
+        super("sharpen", FRAGMENT_SHADER_STRING, null);
+        this.strength = strength;
+    }
+
+    // May be called from any thread, applies from the next frame.
+    public void setStrength(float strength) {
+        this.strength = strength;
+    }
+
+    @Override
+    protected void setUniforms(GlShader shader) {
+        if (shader != locationShader) {
+            locationShader = shader;
+            strengthLocation = shader.getReflection().getUniformLocation("strength");
+        }
+        shader.getGl().uniform1f(strengthLocation, strength);
+    }
+}
@@ -0,0 +1,251 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.util.Arrays;
+
+/**
+ * Shadow copy of the GL state touched by the drawers of one EGLContext. Each wrapper skips the GL
+ * call when the requested state is already set and returns whether the call was issued. Bindings
+ * are per context (not per share group), so keep one instance per EGLContext and call
+ * invalidate() after any code that changes GL state without going through this class.
+ *
+ * The cache also carries the {@link GlApi} of its context, see getGl().
+ */
+public class GlStateCache {
+    private static final int UNKNOWN = -1;
+    // Texture units tracked individually; binds on higher units are always issued.
+    private static final int MAX_TRACKED_UNITS = 8;
+    private static final int TARGET_2D = 0;
+    private static final int TARGET_OES = 1;
+
+    private final GlApi gl;
+    private int program;
+    private int activeUnit;
+    private int framebuffer;
+    private int arrayBuffer;
+    private int elementArrayBuffer;
+    private final int[] boundTextures = new int[MAX_TRACKED_UNITS * 2];
+    private final int[] viewport = new int[4];
+    private int blendEnabled;
+    private int blendSrcFactor;
+    private int blendDstFactor;
+    // Bit i of |knownAttribs| is set once the enabled state of attrib array i is known, and the
+    // same bit of |enabledAttribs| holds that state.
+    private int knownAttribs;
+    private int enabledAttribs;
+
+    private int frameIssued;
+    private int frameSkipped;
+    private int lastFrameIssued;
+    private int lastFrameSkipped;
+    private long totalIssued;
+    private long totalSkipped;
+
+    public GlStateCache() {
+        this(GlesApi.getInstance());
+    }
+
+    // Issue the calls through |gl| instead of GLES20.
+    public GlStateCache(GlApi gl) {
+        this.gl = gl;
+        invalidate();
+    }
+
+    // The GL backend of this context. Code sharing the cache should make its own calls through it.
+    public GlApi getGl() {
+        return gl;
+    }
+
+    // Forget all cached state, the next call to each wrapper is issued to GL.
+    public void invalidate() {
+        program = UNKNOWN;
+        activeUnit = UNKNOWN;
+        framebuffer = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        Arrays.fill(boundTextures, UNKNOWN);
+        Arrays.fill(viewport, UNKNOWN);
+        blendEnabled = UNKNOWN;
+        blendSrcFactor = UNKNOWN;
+        blendDstFactor = UNKNOWN;
+        knownAttribs = 0;
+    }
+
+    // Forget the texture bindings only, e.g. after SurfaceTexture.updateTexImage().
+    public void invalidateTextures() {
+        activeUnit = UNKNOWN;
+        Arrays.fill(boundTextures, UNKNOWN);
+    }
+
+    public boolean useProgram(int program) {
+        if (this.program == program) {
+            return skipped();
+        }
+        gl.useProgram(program);
+        this.program = program;
+        return issued();
+    }
+
+    // |unit| is the zero based texture unit index, not GL_TEXTURE0 + index.
+    public boolean activeTexture(int unit) {
+        if (activeUnit == unit) {
+            return skipped();
+        }
+        gl.activeTexture(GLES20.GL_TEXTURE0 + unit);
+        activeUnit = unit;
+        return issued();
+    }
+
+    // Bind |textureId| to |target| on the active texture unit.
+    public boolean bindTexture(int target, int textureId) {
+        final int slot = textureSlot(target);
+        if (slot >= 0 && boundTextures[slot] == textureId) {
+            return skipped();
+        }
+        gl.bindTexture(target, textureId);
+        if (slot >= 0) {
+            boundTextures[slot] = textureId;
+        }
+        return issued();
+    }
+
+    public boolean bindFramebuffer(int framebufferId) {
+        if (framebuffer == framebufferId) {
+            return skipped();
+        }
+        gl.bindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+        framebuffer = framebufferId;
+        return issued();
+    }
+
+    // |target| is GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+    public boolean bindBuffer(int target, int bufferId) {
+        final boolean elements = target == GLES20.GL_ELEMENT_ARRAY_BUFFER;
+        if ((elements ? elementArrayBuffer : arrayBuffer) == bufferId) {
+            return skipped();
+        }
+        gl.bindBuffer(target, bufferId);
+        if (elements) {
+            elementArrayBuffer = bufferId;
+        } else {
+            arrayBuffer = bufferId;
+        }
+        return issued();
+    }
+
+    public boolean viewport(int x, int y, int width, int height) {
+        if (viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height) {
+            return skipped();
+        }
+        gl.viewport(x, y, width, height);
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+        return issued();
+    }
+
+    // Enable GL_BLEND with the given factors. Up to two calls, returns whether any was issued.
+    public boolean enableBlend(int srcFactor, int dstFactor) {
+        boolean issued = false;
+        if (blendEnabled != 1) {
+            gl.enable(GLES20.GL_BLEND);
+            blendEnabled = 1;
+            issued = issued();
+        } else {
+            skipped();
+        }
+        if (blendSrcFactor != srcFactor || blendDstFactor != dstFactor) {
+            gl.blendFunc(srcFactor, dstFactor);
+            blendSrcFactor = srcFactor;
+            blendDstFactor = dstFactor;
+            issued = issued();
+        } else {
+            skipped();
+        }
+        return issued;
+    }
+
+    // The blend factors are kept, they still apply the next time blending is enabled.
+    public boolean disableBlend() {
+        if (blendEnabled == 0) {
+            return skipped();
+        }
+        gl.disable(GLES20.GL_BLEND);
+        blendEnabled = 0;
+        return issued();
+    }
+
+    public boolean enableVertexAttribArray(int location) {
+        final int bit = 1 << location;
+        if ((knownAttribs & enabledAttribs & bit) != 0) {
+            return skipped();
+        }
+        gl.enableVertexAttribArray(location);
+        knownAttribs |= bit;
+        enabledAttribs |= bit;
+        return issued();
+    }
+
+    public boolean disableVertexAttribArray(int location) {
+        final int bit = 1 << location;
+        if ((knownAttribs & bit) != 0 && (enabledAttribs & bit) == 0) {
+            return skipped();
+        }
+        gl.disableVertexAttribArray(location);
+        knownAttribs |= bit;
+        enabledAttribs &= ~bit;
+        return issued();
+    }
+
+    // Close the counters of the current frame, see getLastFrameIssued()/getLastFrameSkipped().
+    public void endFrame() {
+        lastFrameIssued = frameIssued;
+        lastFrameSkipped = frameSkipped;
+        frameIssued = 0;
+        frameSkipped = 0;
+    }
+
+    public int getLastFrameIssued() {
+        return lastFrameIssued;
+    }
+
+    public int getLastFrameSkipped() {
+        return lastFrameSkipped;
+    }
+
+    public long getTotalIssued() {
+        return totalIssued;
+    }
+
+    public long getTotalSkipped() {
+        return totalSkipped;
+    }
+
+    private int textureSlot(int target) {
+        if (activeUnit == UNKNOWN || activeUnit >= MAX_TRACKED_UNITS) {
+            return -1;
+        }
+        if (target == GLES20.GL_TEXTURE_2D) {
+            return activeUnit * 2 + TARGET_2D;
+        }
+        if (target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES) {
+            return activeUnit * 2 + TARGET_OES;
+        }
+        return -1;
+    }
+
+    private boolean issued() {
+        frameIssued++;
+        totalIssued++;
+        return true;
+    }
+
+    private boolean skipped() {
+        frameSkipped++;
+        totalSkipped++;
+        return false;
+    }
+}
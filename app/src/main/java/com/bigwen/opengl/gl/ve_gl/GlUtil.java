@@ -14,7 +14,11 @@ public class GlUtil {
 
     // Assert that no OpenGL ES 2.0 error has been raised.
     public static void checkNoGLES2Error(String msg) {
-        int error = GLES20.glGetError();
+        checkNoGLES2Error(GlesApi.getInstance(), msg);
+    }
+
+    public static void checkNoGLES2Error(GlApi gl, String msg) {
+        int error = gl.getError();
         if (error != GLES20.GL_NO_ERROR) {
             throw new RuntimeException(msg + ": GLES20 error: " + error);
         }
@@ -34,35 +38,45 @@ public class GlUtil {
      * Generate texture with standard parameters.
      */
     public static int generateTexture(int target) {
+        return generateTexture(GlesApi.getInstance(), target);
+    }
+
+    public static int generateTexture(GlApi gl, int target) {
         final int textureArray[] = new int[1];
-        GLES20.glGenTextures(1, textureArray, 0);
+        gl.genTextures(1, textureArray, 0);
         final int textureId = textureArray[0];
-        GLES20.glBindTexture(target, textureId);
-        GLES20.glTexParameterf(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameterf(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameterf(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameterf(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        checkNoGLES2Error("generateTexture");
+        gl.bindTexture(target, textureId);
+        gl.texParameterf(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        gl.texParameterf(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        gl.texParameterf(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        gl.texParameterf(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        checkNoGLES2Error(gl, "generateTexture");
         return textureId;
     }
 
     public static int generateFrameBuffer(int textureId) {
+        return generateFrameBuffer(GlesApi.getInstance(), textureId);
+    }
+
+    public static int generateFrameBuffer(GlApi gl, int textureId) {
         final int[] frameBufferArray = new int[1];
-        GLES20.glGenFramebuffers(1, frameBufferArray, 0);
-        checkNoGLES2Error("generateFrameBuffer");
+        gl.genFramebuffers(1, frameBufferArray, 0);
+        checkNoGLES2Error(gl, "generateFrameBuffer");
         final int frameBufferId = frameBufferArray[0];
         // 绑定帧缓冲区
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBufferId);
+        gl.bindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBufferId);
         // 将2D纹理附着到帧缓冲对象
-        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, textureId, 0);
+        gl.framebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, textureId, 0);
         // 检查帧缓冲区是否完整
-        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        int status = gl.checkFramebufferStatus(GLES20.GL_FRAMEBUFFER);
 
         if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            // 不完整的帧缓冲区不会返回给调用方，在这里删除，否则会泄漏
+            gl.deleteFramebuffers(1, frameBufferArray, 0);
             return -1;
         }
 
-        checkNoGLES2Error("generateFrameBuffer");
+        checkNoGLES2Error(gl, "generateFrameBuffer");
         return frameBufferId;
     }
 }
\ No newline at end of file
@@ -0,0 +1,879 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link GlApi} that counts every call per frame, split into draw calls, state changes, uploads,
+ * error checks, sync object calls and everything else. A per frame budget can be set for each category; the call
+ * that goes over it throws IllegalStateException, so a change that adds GL calls to the hot path
+ * fails with a stack trace pointing at the new call. Frames are delimited by endFrame().
+ *
+ * With a |delegate| the calls are forwarded to it after being counted, e.g. to check budgets on a
+ * device. Without one nothing is drawn and the backend runs on a plain JVM: object ids are handed
+ * out from a counter, shaders always compile and link, and the active attributes and uniforms of a
+ * program are the ones declared in its sources, so that drawers can be created and driven in
+ * tests. The fake context is ES 3.0 unless setEs3(false) is called; its fences are always signaled
+ * and its queries always available with a result of 0. Not thread safe, use it on one thread like
+ * a GL context.
+ */
+public class RecordingGlApi implements GlApi {
+    public enum Category {
+        DRAW,
+        STATE,
+        UPLOAD,
+        ERROR_CHECK,
+        SYNC,
+        OTHER,
+    }
+
+    private static final int UNLIMITED = -1;
+    private static final int CATEGORY_COUNT = Category.values().length;
+
+    // "attribute vec4 in_pos;", "uniform highp vec2 offsets[4];".
+    private static final Pattern DECLARATION = Pattern.compile(
+            "^\\s*(attribute|uniform)\\s+(?:(?:lowp|mediump|highp)\\s+)?(\\w+)\\s+(\\w+)"
+                    + "\\s*(?:\\[\\s*(\\d+)\\s*\\])?\\s*;");
+    private static final Map<String, Integer> TYPES = new HashMap<String, Integer>();
+    static {
+        TYPES.put("float", GLES20.GL_FLOAT);
+        TYPES.put("vec2", GLES20.GL_FLOAT_VEC2);
+        TYPES.put("vec3", GLES20.GL_FLOAT_VEC3);
+        TYPES.put("vec4", GLES20.GL_FLOAT_VEC4);
+        TYPES.put("mat2", GLES20.GL_FLOAT_MAT2);
+        TYPES.put("mat3", GLES20.GL_FLOAT_MAT3);
+        TYPES.put("mat4", GLES20.GL_FLOAT_MAT4);
+        TYPES.put("int", GLES20.GL_INT);
+        TYPES.put("bool", GLES20.GL_BOOL);
+        TYPES.put("sampler2D", GLES20.GL_SAMPLER_2D);
+        TYPES.put("samplerCube", GLES20.GL_SAMPLER_CUBE);
+        TYPES.put("samplerExternalOES", GLES11Ext.GL_SAMPLER_EXTERNAL_OES);
+    }
+
+    // Active variable of a fake program, |name| as GL reports it.
+    private static class Variable {
+        final String name;
+        final int type;
+        final int size;
+
+        Variable(String name, int type, int size) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+        }
+    }
+
+    private static class Program {
+        final List<Integer> shaders = new ArrayList<Integer>();
+        final List<Variable> attributes = new ArrayList<Variable>();
+        final List<Variable> uniforms = new ArrayList<Variable>();
+    }
+
+    private final GlApi delegate;
+
+    private final int[] budgets = new int[CATEGORY_COUNT];
+    private final int[] frameCounts = new int[CATEGORY_COUNT];
+    private final int[] lastFrameCounts = new int[CATEGORY_COUNT];
+    private final long[] totalCounts = new long[CATEGORY_COUNT];
+    private List<String> frameCalls = new ArrayList<String>();
+    private List<String> lastFrameCalls = new ArrayList<String>();
+    private int frameCount;
+
+    // Fake objects, only used without a delegate.
+    private int nextId = 1;
+    private final Map<Integer, String> shaderSources = new HashMap<Integer, String>();
+    private final Map<Integer, Program> programs = new HashMap<Integer, Program>();
+    // Live sync objects, a plain array so that fencing a frame does not box.
+    private long[] syncs = new long[8];
+    private int syncCount;
+    private boolean es3 = true;
+
+    // Record without forwarding, for tests on the JVM.
+    public RecordingGlApi() {
+        this(null);
+    }
+
+    public RecordingGlApi(GlApi delegate) {
+        this.delegate = delegate;
+        Arrays.fill(budgets, UNLIMITED);
+    }
+
+    /**
+     * Allow at most |maxCalls| calls of |category| per frame, or any number if |maxCalls| is
+     * negative.
+     */
+    public void setFrameBudget(Category category, int maxCalls) {
+        budgets[category.ordinal()] = maxCalls < 0 ? UNLIMITED : maxCalls;
+    }
+
+    // Close the counters of the current frame, see getLastFrameCount()/getLastFrameCalls().
+    public void endFrame() {
+        System.arraycopy(frameCounts, 0, lastFrameCounts, 0, CATEGORY_COUNT);
+        Arrays.fill(frameCounts, 0);
+        final List<String> calls = lastFrameCalls;
+        lastFrameCalls = frameCalls;
+        frameCalls = calls;
+        frameCalls.clear();
+        frameCount++;
+    }
+
+    // Calls of |category| since the last endFrame().
+    public int getFrameCount(Category category) {
+        return frameCounts[category.ordinal()];
+    }
+
+    public int getLastFrameCount(Category category) {
+        return lastFrameCounts[category.ordinal()];
+    }
+
+    public long getTotalCount(Category category) {
+        return totalCounts[category.ordinal()];
+    }
+
+    // Names of the calls of the last closed frame in issue order, e.g. "glDrawArrays".
+    public List<String> getLastFrameCalls() {
+        return Collections.unmodifiableList(lastFrameCalls);
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    // Whether the fake context offers the ES 3.0 calls, see isEs3(). Ignored with a delegate.
+    public void setEs3(boolean es3) {
+        this.es3 = es3;
+    }
+
+    // Sync objects created and not deleted yet, to catch leaks. Always 0 with a delegate.
+    public int getLiveSyncCount() {
+        return syncCount;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("RecordingGlApi{frames=").append(frameCount);
+        for (Category category : Category.values()) {
+            builder.append(' ').append(category).append('=')
+                    .append(lastFrameCounts[category.ordinal()]);
+        }
+        return builder.append('}').toString();
+    }
+
+    @Override
+    public void useProgram(int program) {
+        record(Category.STATE, "glUseProgram");
+        if (delegate != null) {
+            delegate.useProgram(program);
+        }
+    }
+
+    @Override
+    public void activeTexture(int texture) {
+        record(Category.STATE, "glActiveTexture");
+        if (delegate != null) {
+            delegate.activeTexture(texture);
+        }
+    }
+
+    @Override
+    public void bindTexture(int target, int texture) {
+        record(Category.STATE, "glBindTexture");
+        if (delegate != null) {
+            delegate.bindTexture(target, texture);
+        }
+    }
+
+    @Override
+    public void bindFramebuffer(int target, int framebuffer) {
+        record(Category.STATE, "glBindFramebuffer");
+        if (delegate != null) {
+            delegate.bindFramebuffer(target, framebuffer);
+        }
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer) {
+        record(Category.STATE, "glBindBuffer");
+        if (delegate != null) {
+            delegate.bindBuffer(target, buffer);
+        }
+    }
+
+    @Override
+    public void viewport(int x, int y, int width, int height) {
+        record(Category.STATE, "glViewport");
+        if (delegate != null) {
+            delegate.viewport(x, y, width, height);
+        }
+    }
+
+    @Override
+    public void enableVertexAttribArray(int index) {
+        record(Category.STATE, "glEnableVertexAttribArray");
+        if (delegate != null) {
+            delegate.enableVertexAttribArray(index);
+        }
+    }
+
+    @Override
+    public void disableVertexAttribArray(int index) {
+        record(Category.STATE, "glDisableVertexAttribArray");
+        if (delegate != null) {
+            delegate.disableVertexAttribArray(index);
+        }
+    }
+
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                                    int offset) {
+        record(Category.STATE, "glVertexAttribPointer");
+        if (delegate != null) {
+            delegate.vertexAttribPointer(index, size, type, normalized, stride, offset);
+        }
+    }
+
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                                    Buffer data) {
+        record(Category.STATE, "glVertexAttribPointer");
+        if (delegate != null) {
+            delegate.vertexAttribPointer(index, size, type, normalized, stride, data);
+        }
+    }
+
+    @Override
+    public void uniform1i(int location, int x) {
+        record(Category.STATE, "glUniform1i");
+        if (delegate != null) {
+            delegate.uniform1i(location, x);
+        }
+    }
+
+    @Override
+    public void uniform1f(int location, float x) {
+        record(Category.STATE, "glUniform1f");
+        if (delegate != null) {
+            delegate.uniform1f(location, x);
+        }
+    }
+
+    @Override
+    public void uniform2f(int location, float x, float y) {
+        record(Category.STATE, "glUniform2f");
+        if (delegate != null) {
+            delegate.uniform2f(location, x, y);
+        }
+    }
+
+    @Override
+    public void uniform4f(int location, float x, float y, float z, float w) {
+        record(Category.STATE, "glUniform4f");
+        if (delegate != null) {
+            delegate.uniform4f(location, x, y, z, w);
+        }
+    }
+
+    @Override
+    public void uniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                 int offset) {
+        record(Category.STATE, "glUniformMatrix4fv");
+        if (delegate != null) {
+            delegate.uniformMatrix4fv(location, count, transpose, value, offset);
+        }
+    }
+
+    @Override
+    public void texParameterf(int target, int pname, float param) {
+        record(Category.STATE, "glTexParameterf");
+        if (delegate != null) {
+            delegate.texParameterf(target, pname, param);
+        }
+    }
+
+    @Override
+    public void pixelStorei(int pname, int param) {
+        record(Category.STATE, "glPixelStorei");
+        if (delegate != null) {
+            delegate.pixelStorei(pname, param);
+        }
+    }
+
+    @Override
+    public void enable(int cap) {
+        record(Category.STATE, "glEnable");
+        if (delegate != null) {
+            delegate.enable(cap);
+        }
+    }
+
+    @Override
+    public void disable(int cap) {
+        record(Category.STATE, "glDisable");
+        if (delegate != null) {
+            delegate.disable(cap);
+        }
+    }
+
+    @Override
+    public void blendFunc(int sfactor, int dfactor) {
+        record(Category.STATE, "glBlendFunc");
+        if (delegate != null) {
+            delegate.blendFunc(sfactor, dfactor);
+        }
+    }
+
+    @Override
+    public void clear(int mask) {
+        record(Category.DRAW, "glClear");
+        if (delegate != null) {
+            delegate.clear(mask);
+        }
+    }
+
+    @Override
+    public void drawArrays(int mode, int first, int count) {
+        record(Category.DRAW, "glDrawArrays");
+        if (delegate != null) {
+            delegate.drawArrays(mode, first, count);
+        }
+    }
+
+    @Override
+    public void drawElements(int mode, int count, int type, int offset) {
+        record(Category.DRAW, "glDrawElements");
+        if (delegate != null) {
+            delegate.drawElements(mode, count, type, offset);
+        }
+    }
+
+    @Override
+    public void texImage2D(int target, int level, int internalformat, int width, int height,
+                           int border, int format, int type, Buffer pixels) {
+        record(Category.UPLOAD, "glTexImage2D");
+        if (delegate != null) {
+            delegate.texImage2D(target, level, internalformat, width, height, border, format, type,
+                    pixels);
+        }
+    }
+
+    @Override
+    public void texSubImage2D(int target, int level, int xoffset, int yoffset, int width,
+                              int height, int format, int type, Buffer pixels) {
+        record(Category.UPLOAD, "glTexSubImage2D");
+        if (delegate != null) {
+            delegate.texSubImage2D(target, level, xoffset, yoffset, width, height, format, type,
+                    pixels);
+        }
+    }
+
+    @Override
+    public void bufferData(int target, int size, Buffer data, int usage) {
+        record(Category.UPLOAD, "glBufferData");
+        if (delegate != null) {
+            delegate.bufferData(target, size, data, usage);
+        }
+    }
+
+    @Override
+    public void copyTexSubImage2D(int target, int level, int xoffset, int yoffset, int x, int y,
+                                  int width, int height) {
+        record(Category.UPLOAD, "glCopyTexSubImage2D");
+        if (delegate != null) {
+            delegate.copyTexSubImage2D(target, level, xoffset, yoffset, x, y, width, height);
+        }
+    }
+
+    @Override
+    public void genTextures(int n, int[] textures, int offset) {
+        record(Category.OTHER, "glGenTextures");
+        if (delegate != null) {
+            delegate.genTextures(n, textures, offset);
+        } else {
+            generateIds(n, textures, offset);
+        }
+    }
+
+    @Override
+    public void deleteTextures(int n, int[] textures, int offset) {
+        record(Category.OTHER, "glDeleteTextures");
+        if (delegate != null) {
+            delegate.deleteTextures(n, textures, offset);
+        }
+    }
+
+    @Override
+    public void genBuffers(int n, int[] buffers, int offset) {
+        record(Category.OTHER, "glGenBuffers");
+        if (delegate != null) {
+            delegate.genBuffers(n, buffers, offset);
+        } else {
+            generateIds(n, buffers, offset);
+        }
+    }
+
+    @Override
+    public void deleteBuffers(int n, int[] buffers, int offset) {
+        record(Category.OTHER, "glDeleteBuffers");
+        if (delegate != null) {
+            delegate.deleteBuffers(n, buffers, offset);
+        }
+    }
+
+    @Override
+    public void genFramebuffers(int n, int[] framebuffers, int offset) {
+        record(Category.OTHER, "glGenFramebuffers");
+        if (delegate != null) {
+            delegate.genFramebuffers(n, framebuffers, offset);
+        } else {
+            generateIds(n, framebuffers, offset);
+        }
+    }
+
+    @Override
+    public void deleteFramebuffers(int n, int[] framebuffers, int offset) {
+        record(Category.OTHER, "glDeleteFramebuffers");
+        if (delegate != null) {
+            delegate.deleteFramebuffers(n, framebuffers, offset);
+        }
+    }
+
+    @Override
+    public void framebufferTexture2D(int target, int attachment, int textarget, int texture,
+                                     int level) {
+        record(Category.OTHER, "glFramebufferTexture2D");
+        if (delegate != null) {
+            delegate.framebufferTexture2D(target, attachment, textarget, texture, level);
+        }
+    }
+
+    @Override
+    public int checkFramebufferStatus(int target) {
+        record(Category.OTHER, "glCheckFramebufferStatus");
+        return delegate != null ? delegate.checkFramebufferStatus(target)
+                                : GLES20.GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public int createShader(int type) {
+        record(Category.OTHER, "glCreateShader");
+        if (delegate != null) {
+            return delegate.createShader(type);
+        }
+        final int shader = nextId++;
+        shaderSources.put(shader, "");
+        return shader;
+    }
+
+    @Override
+    public void shaderSource(int shader, String source) {
+        record(Category.OTHER, "glShaderSource");
+        if (delegate != null) {
+            delegate.shaderSource(shader, source);
+        } else {
+            shaderSources.put(shader, source);
+        }
+    }
+
+    @Override
+    public void compileShader(int shader) {
+        record(Category.OTHER, "glCompileShader");
+        if (delegate != null) {
+            delegate.compileShader(shader);
+        }
+    }
+
+    @Override
+    public void getShaderiv(int shader, int pname, int[] params, int offset) {
+        record(Category.OTHER, "glGetShaderiv");
+        if (delegate != null) {
+            delegate.getShaderiv(shader, pname, params, offset);
+        } else {
+            params[offset] = pname == GLES20.GL_COMPILE_STATUS ? GLES20.GL_TRUE : 0;
+        }
+    }
+
+    @Override
+    public String getShaderInfoLog(int shader) {
+        record(Category.OTHER, "glGetShaderInfoLog");
+        return delegate != null ? delegate.getShaderInfoLog(shader) : "";
+    }
+
+    @Override
+    public void deleteShader(int shader) {
+        record(Category.OTHER, "glDeleteShader");
+        if (delegate != null) {
+            delegate.deleteShader(shader);
+        } else {
+            shaderSources.remove(shader);
+        }
+    }
+
+    @Override
+    public int createProgram() {
+        record(Category.OTHER, "glCreateProgram");
+        if (delegate != null) {
+            return delegate.createProgram();
+        }
+        final int program = nextId++;
+        programs.put(program, new Program());
+        return program;
+    }
+
+    @Override
+    public void attachShader(int program, int shader) {
+        record(Category.OTHER, "glAttachShader");
+        if (delegate != null) {
+            delegate.attachShader(program, shader);
+        } else {
+            getProgram(program).shaders.add(shader);
+        }
+    }
+
+    @Override
+    public void linkProgram(int program) {
+        record(Category.OTHER, "glLinkProgram");
+        if (delegate != null) {
+            delegate.linkProgram(program);
+        } else {
+            link(getProgram(program));
+        }
+    }
+
+    @Override
+    public void getProgramiv(int program, int pname, int[] params, int offset) {
+        record(Category.OTHER, "glGetProgramiv");
+        if (delegate != null) {
+            delegate.getProgramiv(program, pname, params, offset);
+            return;
+        }
+        final Program fake = getProgram(program);
+        switch (pname) {
+            case GLES20.GL_LINK_STATUS:
+                params[offset] = GLES20.GL_TRUE;
+                break;
+            case GLES20.GL_ACTIVE_ATTRIBUTES:
+                params[offset] = fake.attributes.size();
+                break;
+            case GLES20.GL_ACTIVE_UNIFORMS:
+                params[offset] = fake.uniforms.size();
+                break;
+            case GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH:
+                params[offset] = maxNameLength(fake.attributes);
+                break;
+            case GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH:
+                params[offset] = maxNameLength(fake.uniforms);
+                break;
+            default:
+                params[offset] = 0;
+        }
+    }
+
+    @Override
+    public String getProgramInfoLog(int program) {
+        record(Category.OTHER, "glGetProgramInfoLog");
+        return delegate != null ? delegate.getProgramInfoLog(program) : "";
+    }
+
+    @Override
+    public void deleteProgram(int program) {
+        record(Category.OTHER, "glDeleteProgram");
+        if (delegate != null) {
+            delegate.deleteProgram(program);
+        } else {
+            programs.remove(program);
+        }
+    }
+
+    @Override
+    public void getActiveAttrib(int program, int index, int bufsize, int[] length,
+                                int lengthOffset, int[] size, int sizeOffset, int[] type,
+                                int typeOffset, byte[] name, int nameOffset) {
+        record(Category.OTHER, "glGetActiveAttrib");
+        if (delegate != null) {
+            delegate.getActiveAttrib(program, index, bufsize, length, lengthOffset, size,
+                    sizeOffset, type, typeOffset, name, nameOffset);
+        } else {
+            describe(getProgram(program).attributes.get(index), bufsize, length, lengthOffset,
+                    size, sizeOffset, type, typeOffset, name, nameOffset);
+        }
+    }
+
+    @Override
+    public void getActiveUniform(int program, int index, int bufsize, int[] length,
+                                 int lengthOffset, int[] size, int sizeOffset, int[] type,
+                                 int typeOffset, byte[] name, int nameOffset) {
+        record(Category.OTHER, "glGetActiveUniform");
+        if (delegate != null) {
+            delegate.getActiveUniform(program, index, bufsize, length, lengthOffset, size,
+                    sizeOffset, type, typeOffset, name, nameOffset);
+        } else {
+            describe(getProgram(program).uniforms.get(index), bufsize, length, lengthOffset,
+                    size, sizeOffset, type, typeOffset, name, nameOffset);
+        }
+    }
+
+    @Override
+    public int getAttribLocation(int program, String name) {
+        record(Category.OTHER, "glGetAttribLocation");
+        if (delegate != null) {
+            return delegate.getAttribLocation(program, name);
+        }
+        return indexOf(getProgram(program).attributes, name);
+    }
+
+    @Override
+    public int getUniformLocation(int program, String name) {
+        record(Category.OTHER, "glGetUniformLocation");
+        if (delegate != null) {
+            return delegate.getUniformLocation(program, name);
+        }
+        return indexOf(getProgram(program).uniforms, name);
+    }
+
+    @Override
+    public void readPixels(int x, int y, int width, int height, int format, int type,
+                           Buffer pixels) {
+        record(Category.OTHER, "glReadPixels");
+        if (delegate != null) {
+            delegate.readPixels(x, y, width, height, format, type, pixels);
+        }
+    }
+
+    @Override
+    public void finish() {
+        record(Category.OTHER, "glFinish");
+        if (delegate != null) {
+            delegate.finish();
+        }
+    }
+
+    @Override
+    public void flush() {
+        record(Category.OTHER, "glFlush");
+        if (delegate != null) {
+            delegate.flush();
+        }
+    }
+
+    @Override
+    public int getError() {
+        record(Category.ERROR_CHECK, "glGetError");
+        return delegate != null ? delegate.getError() : GLES20.GL_NO_ERROR;
+    }
+
+    @Override
+    public String getString(int name) {
+        record(Category.OTHER, "glGetString");
+        if (delegate != null) {
+            return delegate.getString(name);
+        }
+        return name == GLES20.GL_VERSION ? (es3 ? "OpenGL ES 3.0" : "OpenGL ES 2.0") : "";
+    }
+
+    @Override
+    public void getIntegerv(int pname, int[] params, int offset) {
+        record(Category.OTHER, "glGetIntegerv");
+        if (delegate != null) {
+            delegate.getIntegerv(pname, params, offset);
+        } else {
+            params[offset] = 0;
+        }
+    }
+
+    // Not a GL call, not recorded.
+    @Override
+    public boolean isEs3() {
+        return delegate != null ? delegate.isEs3() : es3;
+    }
+
+    @Override
+    public long fenceSync(int condition, int flags) {
+        record(Category.SYNC, "glFenceSync");
+        if (delegate != null) {
+            return delegate.fenceSync(condition, flags);
+        }
+        final long sync = nextId++;
+        if (syncCount == syncs.length) {
+            syncs = Arrays.copyOf(syncs, 2 * syncCount);
+        }
+        syncs[syncCount++] = sync;
+        return sync;
+    }
+
+    @Override
+    public int clientWaitSync(long sync, int flags, long timeout) {
+        record(Category.SYNC, "glClientWaitSync");
+        if (delegate != null) {
+            return delegate.clientWaitSync(sync, flags, timeout);
+        }
+        indexOfSync(sync);
+        return GLES30.GL_ALREADY_SIGNALED;
+    }
+
+    @Override
+    public void waitSync(long sync, int flags, long timeout) {
+        record(Category.SYNC, "glWaitSync");
+        if (delegate != null) {
+            delegate.waitSync(sync, flags, timeout);
+        } else {
+            indexOfSync(sync);
+        }
+    }
+
+    @Override
+    public void deleteSync(long sync) {
+        record(Category.SYNC, "glDeleteSync");
+        if (delegate != null) {
+            delegate.deleteSync(sync);
+        } else {
+            syncs[indexOfSync(sync)] = syncs[--syncCount];
+        }
+    }
+
+    @Override
+    public void genQueries(int n, int[] ids, int offset) {
+        record(Category.OTHER, "glGenQueries");
+        if (delegate != null) {
+            delegate.genQueries(n, ids, offset);
+        } else {
+            generateIds(n, ids, offset);
+        }
+    }
+
+    @Override
+    public void deleteQueries(int n, int[] ids, int offset) {
+        record(Category.OTHER, "glDeleteQueries");
+        if (delegate != null) {
+            delegate.deleteQueries(n, ids, offset);
+        }
+    }
+
+    @Override
+    public void beginQuery(int target, int id) {
+        record(Category.OTHER, "glBeginQuery");
+        if (delegate != null) {
+            delegate.beginQuery(target, id);
+        }
+    }
+
+    @Override
+    public void endQuery(int target) {
+        record(Category.OTHER, "glEndQuery");
+        if (delegate != null) {
+            delegate.endQuery(target);
+        }
+    }
+
+    @Override
+    public void getQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        record(Category.OTHER, "glGetQueryObjectuiv");
+        if (delegate != null) {
+            delegate.getQueryObjectuiv(id, pname, params, offset);
+        } else {
+            params[offset] = pname == GLES30.GL_QUERY_RESULT_AVAILABLE ? 1 : 0;
+        }
+    }
+
+    private void record(Category category, String call) {
+        final int index = category.ordinal();
+        final int count = ++frameCounts[index];
+        totalCounts[index]++;
+        frameCalls.add(call);
+        if (budgets[index] != UNLIMITED && count > budgets[index]) {
+            throw new IllegalStateException(call + " exceeds the frame budget of "
+                    + budgets[index] + " " + category + " calls");
+        }
+    }
+
+    private void generateIds(int n, int[] ids, int offset) {
+        for (int i = 0; i < n; ++i) {
+            ids[offset + i] = nextId++;
+        }
+    }
+
+    // Throws for syncs that were never created or already deleted, like GL_INVALID_VALUE.
+    private int indexOfSync(long sync) {
+        for (int i = 0; i < syncCount; ++i) {
+            if (syncs[i] == sync) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown or deleted sync " + sync);
+    }
+
+    private Program getProgram(int program) {
+        final Program fake = programs.get(program);
+        if (fake == null) {
+            throw new IllegalArgumentException("Unknown program " + program);
+        }
+        return fake;
+    }
+
+    // Declared variables stand in for the active ones; a real linker would drop unused ones.
+    private void link(Program program) {
+        program.attributes.clear();
+        program.uniforms.clear();
+        for (int shader : program.shaders) {
+            for (String line : shaderSources.get(shader).split("\n")) {
+                final Matcher matcher = DECLARATION.matcher(line);
+                if (!matcher.find()) {
+                    continue;
+                }
+                final boolean attribute = matcher.group(1).equals("attribute");
+                final Integer type = TYPES.get(matcher.group(2));
+                final String arraySize = matcher.group(4);
+                // GL reports arrays by their first element.
+                final String name = arraySize == null ? matcher.group(3) : matcher.group(3) + "[0]";
+                final List<Variable> variables = attribute ? program.attributes : program.uniforms;
+                // Uniforms declared by both stages are one variable.
+                if (indexOf(variables, name) < 0) {
+                    variables.add(new Variable(name, type == null ? GLES20.GL_FLOAT : type,
+                            arraySize == null ? 1 : Integer.parseInt(arraySize)));
+                }
+            }
+        }
+    }
+
+    private static void describe(Variable variable, int bufsize, int[] length, int lengthOffset,
+                                 int[] size, int sizeOffset, int[] type, int typeOffset,
+                                 byte[] name, int nameOffset) {
+        final byte[] bytes = variable.name.getBytes();
+        final int count = Math.min(bytes.length, bufsize - 1);
+        System.arraycopy(bytes, 0, name, nameOffset, count);
+        length[lengthOffset] = count;
+        size[sizeOffset] = variable.size;
+        type[typeOffset] = variable.type;
+    }
+
+    // Locations of the fake programs are the indices of the variables.
+    private static int indexOf(List<Variable> variables, String name) {
+        for (int i = 0; i < variables.size(); ++i) {
+            final String variableName = variables.get(i).name;
+            if (variableName.equals(name)
+                    || (variableName.endsWith("[0]") && variableName.regionMatches(0, name, 0,
+                    variableName.length() - 3) && name.length() == variableName.length() - 3)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int maxNameLength(List<Variable> variables) {
+        int length = 0;
+        for (Variable variable : variables) {
+            length = Math.max(length, variable.name.length() + 1);
+        }
+        return length;
+    }
+}
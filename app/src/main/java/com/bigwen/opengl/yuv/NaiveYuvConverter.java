@@ -0,0 +1,102 @@
+package com.bigwen.opengl.yuv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 逐像素的浮点实现，直接照搬GlRectDrawer着色器的公式，作为{@link YuvConverter}的性能基准和正确性参考。
+ * 只在调用线程执行，RGBA按R、G、B、A的字节顺序写入，不依赖缓冲区字节序。
+ */
+public class NaiveYuvConverter {
+
+    private NaiveYuvConverter() {}
+
+    public static void nv21ToRgba(byte[] src, int width, int height, ByteBuffer dst) {
+        final int ySize = width * height;
+        for (int row = 0; row < height; ++row) {
+            for (int col = 0; col < width; ++col) {
+                final int chroma = ySize + (row / 2) * width + (col / 2) * 2;
+                writePixel(dst, (row * width + col) * 4, src[row * width + col] & 0xff,
+                        src[chroma + 1] & 0xff, src[chroma] & 0xff);
+            }
+        }
+    }
+
+    public static void i420ToRgba(byte[] src, int width, int height, ByteBuffer dst) {
+        final int ySize = width * height;
+        for (int row = 0; row < height; ++row) {
+            for (int col = 0; col < width; ++col) {
+                final int chroma = (row / 2) * (width / 2) + col / 2;
+                writePixel(dst, (row * width + col) * 4, src[row * width + col] & 0xff,
+                        src[ySize + chroma] & 0xff, src[ySize + ySize / 4 + chroma] & 0xff);
+            }
+        }
+    }
+
+    // |src|按R、G、B、A的字节顺序
+    public static void rgbaToI420(ByteBuffer src, int width, int height, ByteBuffer dst) {
+        final int ySize = width * height;
+        rgbaToYuv(src, width, height, dst, ySize, ySize + ySize / 4, 1, width / 2);
+    }
+
+    public static void rgbaToNv21(ByteBuffer src, int width, int height, ByteBuffer dst) {
+        final int ySize = width * height;
+        rgbaToYuv(src, width, height, dst, ySize + 1, ySize, 2, width);
+    }
+
+    public static void nv21ToI420(byte[] src, int width, int height, ByteBuffer dst) {
+        final int ySize = width * height;
+        for (int i = 0; i < ySize; ++i) {
+            dst.put(i, src[i]);
+        }
+        for (int i = 0; i < ySize / 4; ++i) {
+            dst.put(ySize + ySize / 4 + i, src[ySize + i * 2]);
+            dst.put(ySize + i, src[ySize + i * 2 + 1]);
+        }
+    }
+
+    private static void writePixel(ByteBuffer dst, int index, int y, int u, int v) {
+        final double fy = y / 255.0 * 1.16438;
+        final double fu = u / 255.0;
+        final double fv = v / 255.0;
+        dst.put(index, toByte(fy + 1.59603 * fv - 0.874202));
+        dst.put(index + 1, toByte(fy - 0.391762 * fu - 0.812968 * fv + 0.531668));
+        dst.put(index + 2, toByte(fy + 2.01723 * fu - 1.08563));
+        dst.put(index + 3, (byte) 0xff);
+    }
+
+    private static void rgbaToYuv(ByteBuffer src, int width, int height, ByteBuffer dst,
+                                  int uOffset, int vOffset, int chromaStep, int chromaStride) {
+        for (int row = 0; row < height; ++row) {
+            for (int col = 0; col < width; ++col) {
+                final int index = (row * width + col) * 4;
+                final int r = src.get(index) & 0xff;
+                final int g = src.get(index + 1) & 0xff;
+                final int b = src.get(index + 2) & 0xff;
+                dst.put(row * width + col,
+                        (byte) Math.round(0.256788 * r + 0.504129 * g + 0.097906 * b + 16));
+            }
+        }
+        for (int row = 0; row < height; row += 2) {
+            for (int col = 0; col < width; col += 2) {
+                double r = 0;
+                double g = 0;
+                double b = 0;
+                for (int i = 0; i < 4; ++i) {
+                    final int index = ((row + i / 2) * width + col + i % 2) * 4;
+                    r += (src.get(index) & 0xff) / 4.0;
+                    g += (src.get(index + 1) & 0xff) / 4.0;
+                    b += (src.get(index + 2) & 0xff) / 4.0;
+                }
+                final int chroma = (row / 2) * chromaStride + (col / 2) * chromaStep;
+                dst.put(uOffset + chroma,
+                        (byte) Math.round(-0.148223 * r - 0.290993 * g + 0.439216 * b + 128));
+                dst.put(vOffset + chroma,
+                        (byte) Math.round(0.439216 * r - 0.367788 * g - 0.071427 * b + 128));
+            }
+        }
+    }
+
+    private static byte toByte(double value) {
+        return (byte) Math.max(0, Math.min(255, Math.round(value * 255)));
+    }
+}
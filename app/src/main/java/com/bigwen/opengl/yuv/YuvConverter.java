@@ -0,0 +1,328 @@
+package com.bigwen.opengl.yuv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CPU上NV21、I420与RGBA之间的转换
+ *
+ * 系数与GlRectDrawer的YUV着色器相同（BT.601，视频范围），用16位定点整数计算。
+ * 图像按行分成若干段，由工作线程和调用线程并行处理，调用返回时转换已完成。
+ * 输出写入调用者提供的缓冲区（通常为direct buffer），不分配像素内存；RGBA按缓冲区的字节序写成R、G、B、A。
+ * 宽高都必须是偶数。线程安全，可以在多个线程同时调用。
+ */
+public class YuvConverter {
+
+    // 每段至少处理的行数，太小时线程调度的开销超过收益
+    private static final int MIN_ROWS_PER_BAND = 32;
+
+    // 定点系数，与YUV_FRAGMENT_SHADER_STRING一致，放大2^16倍
+    private static final int SHIFT = 16;
+    private static final int Y_SCALE = fixed(1.16438);
+    private static final int R_V = fixed(1.59603);
+    private static final int G_U = fixed(0.391762);
+    private static final int G_V = fixed(0.812968);
+    private static final int B_U = fixed(2.01723);
+    // 着色器中的常数项以[0,1]为单位，换算为[0,255]，另加0.5用于四舍五入
+    private static final int R_OFFSET = fixed(-0.874202 * 255 + 0.5);
+    private static final int G_OFFSET = fixed(0.531668 * 255 + 0.5);
+    private static final int B_OFFSET = fixed(-1.08563 * 255 + 0.5);
+
+    // RGB转YUV，BT.601视频范围
+    private static final int Y_R = fixed(0.256788);
+    private static final int Y_G = fixed(0.504129);
+    private static final int Y_B = fixed(0.097906);
+    private static final int U_R = fixed(-0.148223);
+    private static final int U_G = fixed(-0.290993);
+    private static final int U_B = fixed(0.439216);
+    private static final int V_R = fixed(0.439216);
+    private static final int V_G = fixed(-0.367788);
+    private static final int V_B = fixed(-0.071427);
+    private static final int Y_OFFSET = fixed(16.5);
+    private static final int UV_OFFSET = fixed(128.5);
+
+    // 处理[rowStart, rowEnd)行，rowStart和rowEnd都是偶数
+    private interface RowTask {
+        void run(int rowStart, int rowEnd);
+    }
+
+    private final int mParallelism;
+    private final ExecutorService mExecutor;
+
+    // |parallelism|为同时处理的段数，包括调用线程，为1时只在调用线程转换
+    public YuvConverter(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+        }
+        mParallelism = parallelism;
+        if (parallelism == 1) {
+            mExecutor = null;
+            return;
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(parallelism - 1, parallelism - 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "yuv_worker_" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // 使用所有CPU核
+    public YuvConverter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // 结束工作线程，之后只能在调用线程转换
+    public void release() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    // NV21（Y平面之后是交错的VU平面）转RGBA，|dst|至少width * height * 4字节
+    public void nv21ToRgba(final byte[] src, final int width, final int height, final ByteBuffer dst) {
+        checkSize(width, height, src.length, dst.capacity());
+        final boolean bigEndian = dst.order() == ByteOrder.BIG_ENDIAN;
+        run(height, new RowTask() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                yuvToRgbaRows(src, width, width * height + 1, width * height, 2, width, dst,
+                        bigEndian, rowStart, rowEnd);
+            }
+        });
+    }
+
+    // I420（Y、U、V三个平面）转RGBA
+    public void i420ToRgba(final byte[] src, final int width, final int height, final ByteBuffer dst) {
+        checkSize(width, height, src.length, dst.capacity());
+        final boolean bigEndian = dst.order() == ByteOrder.BIG_ENDIAN;
+        final int uOffset = width * height;
+        final int vOffset = uOffset + uOffset / 4;
+        run(height, new RowTask() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                yuvToRgbaRows(src, width, uOffset, vOffset, 1, width / 2, dst, bigEndian,
+                        rowStart, rowEnd);
+            }
+        });
+    }
+
+    // RGBA转I420，色度取2x2像素的平均值
+    public void rgbaToI420(final ByteBuffer src, final int width, final int height, final ByteBuffer dst) {
+        checkSize(width, height, dst.capacity(), src.capacity());
+        final boolean bigEndian = src.order() == ByteOrder.BIG_ENDIAN;
+        final int uOffset = width * height;
+        final int vOffset = uOffset + uOffset / 4;
+        run(height, new RowTask() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                rgbaToYuvRows(src, bigEndian, width, dst, uOffset, vOffset, 1, width / 2, rowStart,
+                        rowEnd);
+            }
+        });
+    }
+
+    // RGBA转NV21
+    public void rgbaToNv21(final ByteBuffer src, final int width, final int height, final ByteBuffer dst) {
+        checkSize(width, height, dst.capacity(), src.capacity());
+        final boolean bigEndian = src.order() == ByteOrder.BIG_ENDIAN;
+        final int vOffset = width * height;
+        run(height, new RowTask() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                rgbaToYuvRows(src, bigEndian, width, dst, vOffset + 1, vOffset, 2, width, rowStart,
+                        rowEnd);
+            }
+        });
+    }
+
+    // NV21转I420，Y平面整体复制，VU平面拆分
+    public void nv21ToI420(final byte[] src, final int width, final int height, final ByteBuffer dst) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        if (src.length < width * height * 3 / 2 || dst.capacity() < width * height * 3 / 2) {
+            throw new IllegalArgumentException("Buffer too small for " + width + "x" + height);
+        }
+        final int ySize = width * height;
+        final int chromaSize = ySize / 4;
+        run(height, new RowTask() {
+            @Override
+            public void run(int rowStart, int rowEnd) {
+                final ByteBuffer out = dst.duplicate();
+                out.position(rowStart * width);
+                out.put(src, rowStart * width, (rowEnd - rowStart) * width);
+                final int chromaWidth = width / 2;
+                for (int row = rowStart / 2; row < rowEnd / 2; ++row) {
+                    int in = ySize + row * width;
+                    int u = ySize + row * chromaWidth;
+                    final int end = u + chromaWidth;
+                    for (; u < end; ++u, in += 2) {
+                        dst.put(u + chromaSize, src[in]);
+                        dst.put(u, src[in + 1]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * YUV转RGBA的内层循环。Y平面在|src|开头，U、V从|uOffset|、|vOffset|开始按|chromaStep|字节间隔存放，
+     * 每行色度|chromaStride|字节：NV21为交错平面（step 2，stride width），I420为独立平面（step 1，stride width / 2）。
+     * 每次处理上下两行共用的一行色度。
+     */
+    private static void yuvToRgbaRows(byte[] src, int width, int uOffset, int vOffset, int chromaStep,
+                                      int chromaStride, ByteBuffer dst, boolean bigEndian,
+                                      int rowStart, int rowEnd) {
+        for (int row = rowStart; row < rowEnd; row += 2) {
+            final int chromaRow = row / 2;
+            int u = uOffset + chromaRow * chromaStride;
+            int v = vOffset + chromaRow * chromaStride;
+            int y0 = row * width;
+            int y1 = y0 + width;
+            int out0 = row * width * 4;
+            int out1 = out0 + width * 4;
+            final int end = y0 + width;
+            for (; y0 < end; y0 += 2, y1 += 2, u += chromaStep, v += chromaStep, out0 += 8, out1 += 8) {
+                final int cu = src[u] & 0xff;
+                final int cv = src[v] & 0xff;
+                final int r = R_V * cv + R_OFFSET;
+                final int g = G_OFFSET - G_U * cu - G_V * cv;
+                final int b = B_U * cu + B_OFFSET;
+                dst.putInt(out0, pixel(Y_SCALE * (src[y0] & 0xff), r, g, b, bigEndian));
+                dst.putInt(out0 + 4, pixel(Y_SCALE * (src[y0 + 1] & 0xff), r, g, b, bigEndian));
+                dst.putInt(out1, pixel(Y_SCALE * (src[y1] & 0xff), r, g, b, bigEndian));
+                dst.putInt(out1 + 4, pixel(Y_SCALE * (src[y1 + 1] & 0xff), r, g, b, bigEndian));
+            }
+        }
+    }
+
+    private static int pixel(int y, int r, int g, int b, boolean bigEndian) {
+        final int red = clamp((y + r) >> SHIFT);
+        final int green = clamp((y + g) >> SHIFT);
+        final int blue = clamp((y + b) >> SHIFT);
+        return bigEndian
+                ? (red << 24) | (green << 16) | (blue << 8) | 0xff
+                : 0xff000000 | (blue << 16) | (green << 8) | red;
+    }
+
+    /**
+     * RGBA转YUV的内层循环。Y写入|dst|开头，U、V从|uOffset|、|vOffset|开始按|chromaStep|间隔写入，
+     * 每行色度|chromaStride|字节。
+     */
+    private static void rgbaToYuvRows(ByteBuffer src, boolean bigEndian, int width, ByteBuffer dst,
+                                      int uOffset, int vOffset, int chromaStep, int chromaStride,
+                                      int rowStart, int rowEnd) {
+        // 小端序时R在最低字节，统一换算成大端序的移位量
+        final int rShift = bigEndian ? 24 : 0;
+        final int gShift = bigEndian ? 16 : 8;
+        final int bShift = bigEndian ? 8 : 16;
+        for (int row = rowStart; row < rowEnd; row += 2) {
+            int in0 = row * width * 4;
+            int in1 = in0 + width * 4;
+            int y0 = row * width;
+            int y1 = y0 + width;
+            int chroma = (row / 2) * chromaStride;
+            final int end = y0 + width;
+            for (; y0 < end; y0 += 2, y1 += 2, in0 += 8, in1 += 8, chroma += chromaStep) {
+                final int p00 = src.getInt(in0);
+                final int p01 = src.getInt(in0 + 4);
+                final int p10 = src.getInt(in1);
+                final int p11 = src.getInt(in1 + 4);
+                final int r00 = (p00 >>> rShift) & 0xff;
+                final int g00 = (p00 >>> gShift) & 0xff;
+                final int b00 = (p00 >>> bShift) & 0xff;
+                final int r01 = (p01 >>> rShift) & 0xff;
+                final int g01 = (p01 >>> gShift) & 0xff;
+                final int b01 = (p01 >>> bShift) & 0xff;
+                final int r10 = (p10 >>> rShift) & 0xff;
+                final int g10 = (p10 >>> gShift) & 0xff;
+                final int b10 = (p10 >>> bShift) & 0xff;
+                final int r11 = (p11 >>> rShift) & 0xff;
+                final int g11 = (p11 >>> gShift) & 0xff;
+                final int b11 = (p11 >>> bShift) & 0xff;
+                dst.put(y0, (byte) ((Y_R * r00 + Y_G * g00 + Y_B * b00 + Y_OFFSET) >> SHIFT));
+                dst.put(y0 + 1, (byte) ((Y_R * r01 + Y_G * g01 + Y_B * b01 + Y_OFFSET) >> SHIFT));
+                dst.put(y1, (byte) ((Y_R * r10 + Y_G * g10 + Y_B * b10 + Y_OFFSET) >> SHIFT));
+                dst.put(y1 + 1, (byte) ((Y_R * r11 + Y_G * g11 + Y_B * b11 + Y_OFFSET) >> SHIFT));
+                // 2x2平均值，乘积和除以4
+                final int r = r00 + r01 + r10 + r11;
+                final int g = g00 + g01 + g10 + g11;
+                final int b = b00 + b01 + b10 + b11;
+                dst.put(uOffset + chroma, (byte) ((((U_R * r + U_G * g + U_B * b) >> 2) + UV_OFFSET) >> SHIFT));
+                dst.put(vOffset + chroma, (byte) ((((V_R * r + V_G * g + V_B * b) >> 2) + UV_OFFSET) >> SHIFT));
+            }
+        }
+    }
+
+    // 把[0, height)行分段并行处理，调用线程处理第一段
+    private void run(int height, final RowTask task) {
+        final int bands = Math.min(mParallelism, height / MIN_ROWS_PER_BAND);
+        if (bands <= 1) {
+            task.run(0, height);
+            return;
+        }
+        // 每段的行数向上取整为偶数，色度行不会被拆开
+        final int rowsPerBand = ((height + bands - 1) / bands + 1) & ~1;
+        final CountDownLatch latch = new CountDownLatch(bands - 1);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        for (int i = 1; i < bands; ++i) {
+            final int rowStart = i * rowsPerBand;
+            final int rowEnd = Math.min(height, rowStart + rowsPerBand);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (rowStart < rowEnd) {
+                            task.run(rowStart, rowEnd);
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        task.run(0, Math.min(height, rowsPerBand));
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while converting", e);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    // |yuvSize|为YUV数据的字节数，|rgbaSize|为RGBA数据的字节数
+    private static void checkSize(int width, int height, int yuvSize, int rgbaSize) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        if (yuvSize < width * height * 3 / 2 || rgbaSize < width * height * 4) {
+            throw new IllegalArgumentException("Buffer too small for " + width + "x" + height);
+        }
+    }
+
+    private static int fixed(double value) {
+        return (int) Math.round(value * (1 << SHIFT));
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,42 @@
+package com.bigwen.opengl.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramePacerTest {
+    private static final long FRAME_30FPS_NS = 1000000000L / 30;
+
+    @Test
+    public void dropsEveryFifthFrameFrom30To24Fps() {
+        final FramePacer pacer = new FramePacer(24);
+        int accepted = 0;
+        for (int i = 1; i <= 300; i++) {
+            if (pacer.accept(i * FRAME_30FPS_NS)) {
+                accepted++;
+            }
+        }
+        assertEquals(240, accepted);
+    }
+
+    // 没有采集时间戳的帧按到达时间节流，和normalize()一致
+    @Test
+    public void pacesFramesWithoutTimestamp() {
+        final FramePacer pacer = new FramePacer(10);
+        assertTrue(pacer.accept(0));
+        assertFalse(pacer.accept(0));
+        assertFalse(pacer.accept(-1));
+    }
+
+    @Test
+    public void normalizeIsStrictlyIncreasing() {
+        final FramePacer pacer = new FramePacer(0);
+        final long first = pacer.normalize(1000);
+        assertEquals(1000, first);
+        assertEquals(1001, pacer.normalize(1000));
+        assertEquals(1002, pacer.normalize(500));
+        assertTrue(pacer.normalize(0) > 1002);
+    }
+}
@@ -0,0 +1,162 @@
+package com.bigwen.opengl.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    // 与LatencyHistogram相同：每个2的幂区间16个桶，最后一个桶从2^40开始
+    private static final int SUB_BUCKETS = 16;
+    private static final int MAX_EXPONENT = 40;
+    private static final int LAST_BUCKET = (MAX_EXPONENT - 4 + 2) * SUB_BUCKETS - 1;
+
+    // 小于16的值每个值一个桶
+    @Test
+    public void smallValuesAreExact() {
+        for (int value = 0; value < 2 * SUB_BUCKETS; ++value) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound(value));
+        }
+    }
+
+    // 2^k是新区间的第一个桶，2^k - 1是上一个区间的最后一个桶
+    @Test
+    public void powersOfTwoStartNewBucket() {
+        for (int k = 4; k <= MAX_EXPONENT; ++k) {
+            long power = 1L << k;
+            int index = LatencyHistogram.bucketIndex(power);
+            assertEquals("2^" + k, index - 1, LatencyHistogram.bucketIndex(power - 1));
+            assertEquals("2^" + k, power - 1, LatencyHistogram.bucketUpperBound(index - 1));
+            // 区间内16个桶等宽
+            long width = power / SUB_BUCKETS;
+            assertEquals("2^" + k, power + width - 1, LatencyHistogram.bucketUpperBound(index));
+            assertEquals("2^" + k, index, LatencyHistogram.bucketIndex(power + width - 1));
+            assertEquals("2^" + k, index + 1, LatencyHistogram.bucketIndex(power + width));
+            assertEquals("2^" + k, index + SUB_BUCKETS - 1,
+                    LatencyHistogram.bucketIndex(2 * power - 1));
+        }
+    }
+
+    // 每个值都落在上界不小于它、相对误差不超过1/16的桶里
+    @Test
+    public void bucketsBoundValuesWithinOneSixteenth() {
+        for (long value = 1; value < (1L << MAX_EXPONENT); value = value * 5 / 4 + 1) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            long lower = index == 0 ? 0 : LatencyHistogram.bucketUpperBound(index - 1) + 1;
+            assertTrue(value + " in [" + lower + ", " + upper + "]", lower <= value && value <= upper);
+            assertTrue(value + " -> " + upper, upper - value < Math.max(1, value / SUB_BUCKETS));
+        }
+    }
+
+    @Test
+    public void firstAndLastBucket() {
+        assertEquals(0, LatencyHistogram.bucketIndex(0));
+        assertEquals(LAST_BUCKET, LatencyHistogram.bucketIndex((1L << (MAX_EXPONENT + 1)) - 1));
+        assertEquals((1L << (MAX_EXPONENT + 1)) - 1, LatencyHistogram.bucketUpperBound(LAST_BUCKET));
+    }
+
+    // 超出范围的值计入最后一个桶，负值计为0
+    @Test
+    public void clampsValuesOutOfRange() {
+        assertEquals(LAST_BUCKET, LatencyHistogram.bucketIndex(1L << (MAX_EXPONENT + 1)));
+        assertEquals(LAST_BUCKET, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(100));
+        assertEquals(0, histogram.getMax());
+
+        long huge = 1L << 50;
+        histogram.record(huge);
+        assertEquals(huge, histogram.getMax());
+        // 百分位只能报告最后一个桶的上界
+        assertEquals(LatencyHistogram.bucketUpperBound(LAST_BUCKET), histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesOfUniformDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        // 1ms到100ms，每毫秒一次
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        assertEquals(50500000L, histogram.getMean());
+
+        // 第50个值50ms和第99个值99ms所在桶的上界；99ms与100ms同一个桶，上界不超过实际最大值
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(50000000L)), p50);
+        assertEquals(LatencyHistogram.bucketIndex(99000000L), LatencyHistogram.bucketIndex(100000000L));
+        assertEquals(100000000L, p99);
+        assertTrue(p50 >= 50000000L && p50 < 50000000L * 17 / 16);
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(95000000L)),
+                histogram.getPercentile(95));
+        assertEquals(100000000L, histogram.getPercentile(100));
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(1000000L)),
+                histogram.getPercentile(0));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    // 长尾分布：99%的帧10ms，1%的帧80ms
+    @Test
+    public void percentilesOfLongTail() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; ++i) {
+            histogram.record(10000000L);
+        }
+        for (int i = 0; i < 10; ++i) {
+            histogram.record(80000000L);
+        }
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(10000000L)),
+                histogram.getPercentile(50));
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(10000000L)),
+                histogram.getPercentile(99));
+        assertEquals(80000000L, histogram.getPercentile(99.9));
+    }
+
+    @Test
+    public void trackerRecordsPerStage() {
+        FrameLatencyTracker tracker = new FrameLatencyTracker();
+        tracker.record(FrameLatencyTracker.Stage.GPU, 5000000L);
+        tracker.record(FrameLatencyTracker.Stage.GPU, 7000000L);
+        tracker.record(FrameLatencyTracker.Stage.SWAP_BUFFERS, 1000000L);
+        assertEquals(2, tracker.getHistogram(FrameLatencyTracker.Stage.GPU).getCount());
+        assertEquals(7000000L, tracker.getHistogram(FrameLatencyTracker.Stage.GPU).getMax());
+        assertEquals(1, tracker.getHistogram(FrameLatencyTracker.Stage.SWAP_BUFFERS).getCount());
+        assertEquals(0, tracker.getHistogram(FrameLatencyTracker.Stage.FILTER).getCount());
+
+        tracker.reset();
+        assertEquals(0, tracker.getHistogram(FrameLatencyTracker.Stage.GPU).getCount());
+    }
+
+    @Test
+    public void trackerIgnoresCaptureTimestampFromOtherClock() {
+        FrameLatencyTracker tracker = new FrameLatencyTracker();
+        long timestampNs = System.nanoTime() - 5000000L;
+        tracker.beginFrame();
+        tracker.setCaptureTimestamp(timestampNs);
+        assertEquals(timestampNs, tracker.getCaptureTimestamp());
+        LatencyHistogram queue = tracker.getHistogram(FrameLatencyTracker.Stage.QUEUE);
+        assertEquals(1, queue.getCount());
+        assertTrue(queue.getMax() >= 5000000L);
+        tracker.recordEndToEnd(tracker.getCaptureTimestamp());
+        assertEquals(1, tracker.getHistogram(FrameLatencyTracker.Stage.END_TO_END).getCount());
+
+        // 超过1秒或在未来的时间戳不是同一个时钟
+        tracker.beginFrame();
+        tracker.setCaptureTimestamp(System.nanoTime() - 2000000000L);
+        tracker.setCaptureTimestamp(System.nanoTime() + 1000000000L);
+        assertEquals(0, tracker.getCaptureTimestamp());
+        assertEquals(1, queue.getCount());
+        tracker.recordEndToEnd(tracker.getCaptureTimestamp());
+        assertEquals(1, tracker.getHistogram(FrameLatencyTracker.Stage.END_TO_END).getCount());
+    }
+}
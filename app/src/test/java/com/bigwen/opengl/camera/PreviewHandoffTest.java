@@ -0,0 +1,198 @@
+package com.bigwen.opengl.camera;
+
+import android.opengl.GLES11Ext;
+
+import com.bigwen.opengl.gl.ve_gl.GlFilterChain;
+import com.bigwen.opengl.gl.ve_gl.GlGpuTimer;
+import com.bigwen.opengl.gl.ve_gl.GlRectDrawer;
+import com.bigwen.opengl.gl.ve_gl.GlRenderTargetPool;
+import com.bigwen.opengl.gl.ve_gl.GlShaderFilter;
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
+import com.bigwen.opengl.gl.ve_gl.RecordingGlApi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 在JVM上按DisplayBridge.renderFrame()和PreviewProxy.present()的顺序执行GL部分：display context经过滤镜链后
+ * 交出帧，预览context显示后交还。两个context属于同一个share group，共用一个RecordingGlApi，各有自己的
+ * GlStateCache；一帧的预算包含两个线程的调用。EGL和线程不在测试范围内。
+ */
+public class PreviewHandoffTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final float[] TEX_MATRIX = {
+            1, 0, 0, 0,
+            0, -1, 0, 0,
+            0, 0, 1, 0,
+            0, 1, 0, 1,
+    };
+
+    private RecordingGlApi gl;
+    private GlStateCache displayState;
+    private GlRenderTargetPool pool;
+    private GlFilterChain chain;
+    private GlGpuTimer gpuTimer;
+    private GlRenderTargetPool.RenderTarget outputTarget;
+
+    private GlStateCache previewState;
+    private GlRectDrawer previewDrawer;
+    private final float[] previewMatrix = new float[16];
+    private final int[] viewport = new int[4];
+
+    private FrameHandoff handoff;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGlApi();
+        displayState = new GlStateCache(gl);
+        pool = new GlRenderTargetPool(displayState, GlRenderTargetPool.DEFAULT_BUDGET_BYTES);
+        chain = new GlFilterChain(new GlRectDrawer(displayState), displayState, pool);
+        chain.add(GlShaderFilter.createCopyFilter());
+        gpuTimer = new GlGpuTimer(gl, GlGpuTimer.DEFAULT_SLOT_COUNT);
+
+        previewState = new GlStateCache(gl);
+        previewDrawer = new GlRectDrawer(previewState);
+
+        handoff = new FrameHandoff(gl, PreviewProxy.FRAME_COUNT);
+    }
+
+    // display线程的一帧，和drawFrame()、renderFrame()一样：上一帧的输出归还给池，滤镜链的GPU耗时用fence测量
+    private boolean renderFrame() {
+        // updateTexImage()会重新绑定OES纹理
+        displayState.invalidateTextures();
+        if (outputTarget != null) {
+            outputTarget.release();
+        }
+        gpuTimer.begin();
+        outputTarget = chain.render(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 1, TEX_MATRIX, WIDTH, HEIGHT);
+        gpuTimer.end();
+        displayState.bindFramebuffer(0);
+        displayState.endFrame();
+        boolean post = handoff.offer(outputTarget, TEX_MATRIX, 0, 0);
+        gpuTimer.poll();
+        return post;
+    }
+
+    // 预览线程的一帧，和present()一样
+    private void present() {
+        FrameHandoff.Frame frame = handoff.take();
+        PreviewProxy.drawFrame(previewState, previewDrawer, frame, VIEW_WIDTH, VIEW_HEIGHT,
+                previewMatrix, viewport);
+        handoff.retire(frame);
+    }
+
+    // 一帧camera画面从滤镜链到显示
+    private void frame() {
+        assertTrue(renderFrame());
+        present();
+        gl.endFrame();
+    }
+
+    private void drainFrames() {
+        handoff.dropPending();
+        handoff.recycleRetiredFrames();
+        outputTarget.release();
+        outputTarget = null;
+    }
+
+    @Test
+    public void steadyStateFrameStaysWithinCallBudget() {
+        // 前几帧编译program，并分配交接中的帧各自持有的渲染目标
+        for (int i = 0; i < 10; i++) {
+            frame();
+        }
+        // 滤镜和预览各一次绘制，预览前清屏一次
+        gl.setFrameBudget(RecordingGlApi.Category.DRAW, 3);
+        // display绑定、解绑帧缓冲区，顶点属性两次，纹理两次；预览只有顶点属性和纹理
+        gl.setFrameBudget(RecordingGlApi.Category.STATE, 10);
+        gl.setFrameBudget(RecordingGlApi.Category.UPLOAD, 0);
+        // 每插入一个fence检查一次
+        gl.setFrameBudget(RecordingGlApi.Category.ERROR_CHECK, 3);
+        // display：GPU耗时的fence删除旧的、插入新的；回收上一帧时等待并删除读取的fence、删除交出的fence；
+        // 插入交出的fence；poll()测试GPU耗时的fence。预览：等待交出的fence，插入读取的fence
+        gl.setFrameBudget(RecordingGlApi.Category.SYNC, 9);
+        // 插入fence后的glFlush()
+        gl.setFrameBudget(RecordingGlApi.Category.OTHER, 3);
+
+        // 超出预算的调用抛出IllegalStateException
+        for (int i = 0; i < 100; i++) {
+            frame();
+        }
+
+        assertEquals(3, gl.getLastFrameCount(RecordingGlApi.Category.DRAW));
+        assertEquals(10, gl.getLastFrameCount(RecordingGlApi.Category.STATE));
+        assertEquals(0, gl.getLastFrameCount(RecordingGlApi.Category.UPLOAD));
+        assertEquals(3, gl.getLastFrameCount(RecordingGlApi.Category.ERROR_CHECK));
+        assertEquals(9, gl.getLastFrameCount(RecordingGlApi.Category.SYNC));
+        assertEquals(3, gl.getLastFrameCount(RecordingGlApi.Category.OTHER));
+        assertEquals(0, handoff.getReplacedFrames());
+    }
+
+    @Test
+    public void unpresentedFrameIsReplaced() {
+        assertTrue(renderFrame());
+        // 预览线程还没取走，新帧替换旧帧，不再投递显示任务
+        assertFalse(renderFrame());
+        assertFalse(renderFrame());
+        assertEquals(2, handoff.getReplacedFrames());
+        present();
+        assertNull(handoff.take());
+
+        frame();
+        assertEquals(2, handoff.getReplacedFrames());
+    }
+
+    @Test
+    public void drainReturnsAllTargetsAndSyncObjects() {
+        for (int i = 0; i < 10; i++) {
+            frame();
+        }
+        // 一帧显示完等待回收，一帧等待显示
+        renderFrame();
+        present();
+        renderFrame();
+
+        drainFrames();
+        gpuTimer.release();
+        assertEquals(PreviewProxy.FRAME_COUNT, handoff.getFreeFrameCount());
+        assertEquals(pool.getTargetCount(), pool.getIdleCount());
+        assertEquals(0, gl.getLiveSyncCount());
+    }
+
+    // 和GlRectDrawerTest.steadyStateFrameDoesNotAllocate()的测量方法相同
+    @Test
+    public void steadyStateFramesDoNotAllocate() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < 1000; i++) {
+            frame();
+        }
+        long minAllocated = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 1000; i++) {
+                frame();
+            }
+            minAllocated = Math.min(minAllocated,
+                    threads.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        assertEquals("bytes allocated by 1000 frames", 0, minAllocated);
+    }
+}
@@ -0,0 +1,308 @@
+package com.bigwen.opengl.gl;
+
+import android.opengl.GLES20;
+
+import com.bigwen.opengl.gl.ve_gl.GlStateCache;
+import com.bigwen.opengl.gl.ve_gl.RecordingGlApi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 通过RecordingGlApi检查QuadBatch的排序和合并：记录每次glDrawElements时绑定的纹理、混合状态和索引范围，
+ * 以及每次上传的顶点数据。每个四边形的x坐标用来识别它是第几个提交的。
+ */
+public class QuadBatchTest {
+
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 1000;
+    private static final int TEXTURE_A = 3;
+    private static final int TEXTURE_B = 7;
+    private static final int MAX_TEXTURE_ID = (1 << 24) - 1;
+    // 与QuadBatch相同
+    private static final int FLOATS_PER_QUAD = 16;
+    private static final int INDICES_PER_QUAD = 6;
+
+    // 与assets中的texture_vertex.glsl、texture_fragment.glsl声明相同的变量
+    private static final ShaderSourceLoader.SourceReader SHADERS = new ShaderSourceLoader.SourceReader() {
+        @Override
+        public String read(String name) throws IOException {
+            if (name.equals("texture_vertex.glsl")) {
+                return "attribute vec4 aPosition;\nattribute vec2 aTexCoordinate;\nvarying vec2 vTexCoord;\n"
+                        + "void main() {\n    vTexCoord = aTexCoordinate;\n    gl_Position = aPosition;\n}";
+            }
+            if (name.equals("texture_fragment.glsl")) {
+                return "precision mediump float;\nuniform sampler2D uTexture;\nvarying vec2 vTexCoord;\n"
+                        + "void main() {\n    gl_FragColor = texture2D(uTexture, vTexCoord);\n}";
+            }
+            throw new IOException("no such file " + name);
+        }
+    };
+
+    // 一次glDrawElements
+    private static final class Draw {
+        final int texture;
+        // 0表示不混合
+        final int srcFactor;
+        final int dstFactor;
+        final int firstQuad;
+        final int quadCount;
+
+        Draw(int texture, int srcFactor, int dstFactor, int firstQuad, int quadCount) {
+            this.texture = texture;
+            this.srcFactor = srcFactor;
+            this.dstFactor = dstFactor;
+            this.firstQuad = firstQuad;
+            this.quadCount = quadCount;
+        }
+    }
+
+    // 在计数的基础上记录绘制参数；GlStateCache会跳过重复的状态设置，所以跟踪当前状态而不是调用本身
+    private static final class DrawRecorder extends RecordingGlApi {
+        final List<Draw> mDraws = new ArrayList<>();
+        // 每次上传的顶点数据
+        final List<float[]> mUploads = new ArrayList<>();
+        int mTexture;
+        boolean mBlend;
+        int mSrcFactor;
+        int mDstFactor;
+
+        @Override
+        public void bindTexture(int target, int texture) {
+            super.bindTexture(target, texture);
+            mTexture = texture;
+        }
+
+        @Override
+        public void enable(int cap) {
+            super.enable(cap);
+            if (cap == GLES20.GL_BLEND) {
+                mBlend = true;
+            }
+        }
+
+        @Override
+        public void disable(int cap) {
+            super.disable(cap);
+            if (cap == GLES20.GL_BLEND) {
+                mBlend = false;
+            }
+        }
+
+        @Override
+        public void blendFunc(int sfactor, int dfactor) {
+            super.blendFunc(sfactor, dfactor);
+            mSrcFactor = sfactor;
+            mDstFactor = dfactor;
+        }
+
+        @Override
+        public void bufferData(int target, int size, Buffer data, int usage) {
+            super.bufferData(target, size, data, usage);
+            if (target == GLES20.GL_ARRAY_BUFFER) {
+                FloatBuffer vertices = ((FloatBuffer) data).duplicate();
+                float[] copy = new float[size / 4];
+                vertices.get(copy);
+                mUploads.add(copy);
+            }
+        }
+
+        @Override
+        public void drawElements(int mode, int count, int type, int offset) {
+            super.drawElements(mode, count, type, offset);
+            mDraws.add(new Draw(mTexture, mBlend ? mSrcFactor : 0, mBlend ? mDstFactor : 0,
+                    offset / 2 / INDICES_PER_QUAD, count / INDICES_PER_QUAD));
+        }
+    }
+
+    private DrawRecorder mGl;
+    private GlStateCache mGlState;
+    private ShaderSourceLoader mLoader;
+
+    @Before
+    public void setUp() {
+        mGl = new DrawRecorder();
+        mGlState = new GlStateCache(mGl);
+        mLoader = new ShaderSourceLoader(SHADERS);
+    }
+
+    // 第|index|个提交的四边形，左上角x = index像素
+    private static void add(QuadBatch batch, int index, int textureId, int blendMode, int layer) {
+        batch.add(textureId, blendMode, layer, index, 0, 10, 10);
+    }
+
+    // 上传的顶点数据中第|quad|个四边形是第几个提交的，见add()
+    private static int submissionIndex(float[] vertices, int quad) {
+        return Math.round((vertices[quad * FLOATS_PER_QUAD] + 1f) * WIDTH / 2f);
+    }
+
+    private static void assertDraw(Draw draw, int texture, int srcFactor, int dstFactor, int firstQuad,
+                                   int quadCount) {
+        assertEquals("texture", texture, draw.texture);
+        assertEquals("src factor", srcFactor, draw.srcFactor);
+        assertEquals("dst factor", dstFactor, draw.dstFactor);
+        assertEquals("first quad", firstQuad, draw.firstQuad);
+        assertEquals("quad count", quadCount, draw.quadCount);
+    }
+
+    private void assertUploadOrder(int upload, int... submissionIndices) {
+        float[] vertices = mGl.mUploads.get(upload);
+        assertEquals(submissionIndices.length * FLOATS_PER_QUAD, vertices.length);
+        for (int quad = 0; quad < submissionIndices.length; ++quad) {
+            assertEquals("quad " + quad, submissionIndices[quad], submissionIndex(vertices, quad));
+        }
+    }
+
+    @Test
+    public void groupsQuadsByTextureKeepingSubmissionOrder() {
+        QuadBatch batch = new QuadBatch(mLoader, mGlState, 64);
+        batch.begin(WIDTH, HEIGHT);
+        add(batch, 0, TEXTURE_B, QuadBatch.BLEND_ALPHA, 0);
+        add(batch, 1, TEXTURE_A, QuadBatch.BLEND_ALPHA, 0);
+        add(batch, 2, TEXTURE_B, QuadBatch.BLEND_ALPHA, 0);
+        add(batch, 3, TEXTURE_A, QuadBatch.BLEND_ALPHA, 0);
+        add(batch, 4, TEXTURE_B, QuadBatch.BLEND_ALPHA, 0);
+        batch.end();
+
+        assertEquals(2, batch.getLastFrameDrawCalls());
+        assertEquals(5, batch.getLastFrameQuads());
+        assertEquals(1, batch.getLastFrameFlushes());
+        assertEquals(2, mGl.mDraws.size());
+        assertDraw(mGl.mDraws.get(0), TEXTURE_A, GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, 0, 2);
+        assertDraw(mGl.mDraws.get(1), TEXTURE_B, GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, 2, 3);
+        assertUploadOrder(0, 1, 3, 0, 2, 4);
+    }
+
+    @Test
+    public void splitsRunsByBlendMode() {
+        QuadBatch batch = new QuadBatch(mLoader, mGlState, 64);
+        batch.begin(WIDTH, HEIGHT);
+        add(batch, 0, TEXTURE_A, QuadBatch.BLEND_ADDITIVE, 0);
+        add(batch, 1, TEXTURE_A, QuadBatch.BLEND_NONE, 0);
+        add(batch, 2, TEXTURE_A, QuadBatch.BLEND_PREMULTIPLIED, 0);
+        add(batch, 3, TEXTURE_A, QuadBatch.BLEND_ALPHA, 0);
+        add(batch, 4, TEXTURE_A, QuadBatch.BLEND_NONE, 0);
+        batch.end();
+
+        assertEquals(4, mGl.mDraws.size());
+        assertDraw(mGl.mDraws.get(0), TEXTURE_A, 0, 0, 0, 2);
+        assertDraw(mGl.mDraws.get(1), TEXTURE_A, GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, 2, 1);
+        assertDraw(mGl.mDraws.get(2), TEXTURE_A, GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA, 3, 1);
+        assertDraw(mGl.mDraws.get(3), TEXTURE_A, GLES20.GL_ONE, GLES20.GL_ONE, 4, 1);
+        assertUploadOrder(0, 1, 4, 3, 2, 0);
+    }
+
+    // layer决定绘制顺序，优先于纹理和混合模式；相邻layer状态相同时合并
+    @Test
+    public void drawsLayersInOrderAndMergesAcrossLayers() {
+        QuadBatch batch = new QuadBatch(mLoader, mGlState, 64);
+        batch.begin(WIDTH, HEIGHT);
+        add(batch, 0, TEXTURE_A, QuadBatch.BLEND_ALPHA, 3);
+        add(batch, 1, TEXTURE_B, QuadBatch.BLEND_ALPHA, 2);
+        add(batch, 2, TEXTURE_A, QuadBatch.BLEND_ALPHA, 0);
+        add(batch, 3, TEXTURE_A, QuadBatch.BLEND_ALPHA, 1);
+        add(batch, 4, TEXTURE_A, QuadBatch.BLEND_ALPHA, 3);
+        batch.end();
+
+        assertEquals(3, mGl.mDraws.size());
+        assertDraw(mGl.mDraws.get(0), TEXTURE_A, GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, 0, 2);
+        assertDraw(mGl.mDraws.get(1), TEXTURE_B, GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, 2, 1);
+        assertDraw(mGl.mDraws.get(2), TEXTURE_A, GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, 3, 2);
+        assertUploadOrder(0, 2, 3, 1, 0, 4);
+    }
+
+    // 排序key的每个字段取最大值，不能溢出到相邻字段或符号位
+    @Test
+    public void packsExtremeKeysWithoutOverlap() {
+        QuadBatch batch = new QuadBatch(mLoader, mGlState, 64);
+        batch.begin(WIDTH, HEIGHT);
+        add(batch, 0, MAX_TEXTURE_ID, QuadBatch.BLEND_ADDITIVE, QuadBatch.MAX_LAYER);
+        add(batch, 1, 1, QuadBatch.BLEND_NONE, QuadBatch.MAX_LAYER);
+        add(batch, 2, MAX_TEXTURE_ID, QuadBatch.BLEND_ADDITIVE, 0);
+        add(batch, 3, 1, QuadBatch.BLEND_NONE, 0);
+        batch.end();
+
+        assertEquals(4, mGl.mDraws.size());
+        assertDraw(mGl.mDraws.get(0), 1, 0, 0, 0, 1);
+        assertDraw(mGl.mDraws.get(1), MAX_TEXTURE_ID, GLES20.GL_ONE, GLES20.GL_ONE, 1, 1);
+        assertDraw(mGl.mDraws.get(2), 1, 0, 0, 2, 1);
+        assertDraw(mGl.mDraws.get(3), MAX_TEXTURE_ID, GLES20.GL_ONE, GLES20.GL_ONE, 3, 1);
+        assertUploadOrder(0, 3, 2, 1, 0);
+    }
+
+    // 超过maxQuads时先画掉已收集的，每批各自排序
+    @Test
+    public void flushesWhenFull() {
+        QuadBatch batch = new QuadBatch(mLoader, mGlState, 4);
+        batch.begin(WIDTH, HEIGHT);
+        for (int i = 0; i < 10; ++i) {
+            add(batch, i, i % 2 == 0 ? TEXTURE_B : TEXTURE_A, QuadBatch.BLEND_ALPHA, 0);
+        }
+        batch.end();
+
+        assertEquals(3, batch.getLastFrameFlushes());
+        assertEquals(10, batch.getLastFrameQuads());
+        // 每批都有两种纹理
+        assertEquals(6, batch.getLastFrameDrawCalls());
+        assertEquals(3, mGl.mUploads.size());
+        assertUploadOrder(0, 1, 3, 0, 2);
+        assertUploadOrder(1, 5, 7, 4, 6);
+        assertUploadOrder(2, 9, 8);
+        assertDraw(mGl.mDraws.get(4), TEXTURE_A, GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, 0, 1);
+        assertDraw(mGl.mDraws.get(5), TEXTURE_B, GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, 1, 1);
+    }
+
+    // 稳定后每帧一次顶点上传，每个状态一次绘制，状态只在变化时设置
+    @Test
+    public void steadyStateFrameStaysWithinCallBudget() {
+        QuadBatch batch = new QuadBatch(mLoader, mGlState, 64);
+        for (int frame = 0; frame < 3; ++frame) {
+            batch.begin(WIDTH, HEIGHT);
+            for (int i = 0; i < 30; ++i) {
+                add(batch, i, i % 3 == 0 ? TEXTURE_A : TEXTURE_B, QuadBatch.BLEND_PREMULTIPLIED, i % 2);
+            }
+            batch.end();
+            mGl.endFrame();
+            if (frame == 0) {
+                // 超出预算的调用抛出IllegalStateException
+                mGl.setFrameBudget(RecordingGlApi.Category.DRAW, 4);
+                mGl.setFrameBudget(RecordingGlApi.Category.UPLOAD, 1);
+            }
+        }
+        // 两层的纹理顺序都是A、B，每层两次绘制
+        assertEquals(4, batch.getLastFrameDrawCalls());
+        assertEquals(4, mGl.getLastFrameCount(RecordingGlApi.Category.DRAW));
+        assertEquals(1, mGl.getLastFrameCount(RecordingGlApi.Category.UPLOAD));
+    }
+
+    @Test
+    public void rejectsKeysThatDoNotFit() {
+        QuadBatch batch = new QuadBatch(mLoader, mGlState, 4);
+        batch.begin(WIDTH, HEIGHT);
+        int[][] invalid = {
+                {0, QuadBatch.BLEND_NONE, 0},
+                {MAX_TEXTURE_ID + 1, QuadBatch.BLEND_NONE, 0},
+                {TEXTURE_A, QuadBatch.BLEND_ADDITIVE + 1, 0},
+                {TEXTURE_A, QuadBatch.BLEND_NONE, QuadBatch.MAX_LAYER + 1},
+                {TEXTURE_A, QuadBatch.BLEND_NONE, -1},
+        };
+        for (int[] args : invalid) {
+            try {
+                add(batch, 0, args[0], args[1], args[2]);
+                fail("accepted texture " + args[0] + " blend " + args[1] + " layer " + args[2]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        batch.end();
+        assertEquals(0, batch.getLastFrameDrawCalls());
+    }
+}
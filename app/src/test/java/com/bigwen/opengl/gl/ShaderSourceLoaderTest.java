@@ -0,0 +1,156 @@
+package com.bigwen.opengl.gl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShaderSourceLoaderTest {
+
+    private static final ShaderSourceLoader.Variant VARIANT = new ShaderSourceLoader.Variant.Builder()
+            .define("USE_OES")
+            .define("TAPS", 5)
+            .build();
+    private static final String DEFINES = "#define USE_OES\n#define TAPS 5\n";
+
+    // 从内存读取源码，记录每个文件的读取次数
+    private static final class MapReader implements ShaderSourceLoader.SourceReader {
+        final Map<String, String> mFiles = new HashMap<>();
+        final Map<String, Integer> mReads = new HashMap<>();
+
+        MapReader put(String name, String source) {
+            mFiles.put(name, source);
+            return this;
+        }
+
+        @Override
+        public String read(String name) throws IOException {
+            String source = mFiles.get(name);
+            if (source == null) {
+                throw new IOException("no such file " + name);
+            }
+            Integer reads = mReads.get(name);
+            mReads.put(name, reads == null ? 1 : reads + 1);
+            return source;
+        }
+    }
+
+    @Test
+    public void expandsNestedIncludesInPlace() throws IOException {
+        MapReader reader = new MapReader()
+                .put("main.glsl", "#version 300 es\n#include \"a.glsl\"\nvoid main() {}\n")
+                .put("a.glsl", "float a;\n  #include \"b.glsl\"\nfloat a2;\n")
+                .put("b.glsl", "float b;");
+        ShaderSourceLoader loader = new ShaderSourceLoader(reader);
+        assertEquals("#version 300 es\nfloat a;\nfloat b;\nfloat a2;\nvoid main() {}\n",
+                loader.preprocess("main.glsl", ShaderSourceLoader.Variant.DEFAULT));
+    }
+
+    // 同一个文件可以被不同分支重复包含，只有形成环时才报错
+    @Test
+    public void includesSameFileTwiceWithoutCycle() throws IOException {
+        MapReader reader = new MapReader()
+                .put("main.glsl", "#include \"a.glsl\"\n#include \"a.glsl\"\n")
+                .put("a.glsl", "float a;\n");
+        ShaderSourceLoader loader = new ShaderSourceLoader(reader);
+        assertEquals("float a;\nfloat a;\n",
+                loader.preprocess("main.glsl", ShaderSourceLoader.Variant.DEFAULT));
+        assertEquals(Integer.valueOf(1), reader.mReads.get("a.glsl"));
+    }
+
+    @Test
+    public void rejectsIncludeCycle() {
+        MapReader reader = new MapReader()
+                .put("main.glsl", "#include \"a.glsl\"\n")
+                .put("a.glsl", "#include \"b.glsl\"\n")
+                .put("b.glsl", "#include \"a.glsl\"\n");
+        ShaderSourceLoader loader = new ShaderSourceLoader(reader);
+        try {
+            loader.preprocess("main.glsl", ShaderSourceLoader.Variant.DEFAULT);
+            fail("cycle not detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("recursive #include a.glsl"));
+        }
+    }
+
+    @Test
+    public void rejectsIncludeWithoutQuotes() {
+        MapReader reader = new MapReader().put("main.glsl", "#include <a.glsl>\n");
+        try {
+            new ShaderSourceLoader(reader).preprocess("main.glsl", ShaderSourceLoader.Variant.DEFAULT);
+            fail("bad #include accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("bad #include in main.glsl"));
+        }
+    }
+
+    @Test
+    public void definesGoAfterVersionAndExtensions() {
+        assertEquals("#version 300 es\n#extension GL_OES_EGL_image_external_essl3 : require\n"
+                        + DEFINES + "precision mediump float;\n",
+                ShaderSourceLoader.injectDefines("#version 300 es\n"
+                        + "#extension GL_OES_EGL_image_external_essl3 : require\n"
+                        + "precision mediump float;\n", VARIANT));
+    }
+
+    // #version之前的空行和注释是合法的，不能让宏定义跑到#version前面
+    @Test
+    public void definesSkipCommentsAndBlankLinesBeforeVersion() {
+        String header = "// beauty filter\n"
+                + "\n"
+                + "/* multi line\n"
+                + "   comment */\n"
+                + "/* one line */\n"
+                + "#version 300 es\n"
+                + "  // between\n"
+                + "#extension GL_EXT_shader_framebuffer_fetch : enable\n";
+        String body = "// body\nprecision mediump float;\n";
+        assertEquals(header + DEFINES + body,
+                ShaderSourceLoader.injectDefines(header + body, VARIANT));
+    }
+
+    @Test
+    public void definesGoFirstWithoutVersion() {
+        assertEquals(DEFINES + "precision mediump float;\n",
+                ShaderSourceLoader.injectDefines("precision mediump float;\n", VARIANT));
+        // 注释之后没有#version，同样放在最前面
+        assertEquals(DEFINES + "// comment\nvoid main() {}\n",
+                ShaderSourceLoader.injectDefines("// comment\nvoid main() {}\n", VARIANT));
+    }
+
+    @Test
+    public void definesGetTheirOwnLineAfterUnterminatedVersion() {
+        assertEquals("#version 300 es\n" + DEFINES,
+                ShaderSourceLoader.injectDefines("#version 300 es", VARIANT));
+    }
+
+    @Test
+    public void defaultVariantLeavesSourceUnchanged() {
+        String source = "// comment\n#version 300 es\nvoid main() {}\n";
+        assertSame(source, ShaderSourceLoader.injectDefines(source, ShaderSourceLoader.Variant.DEFAULT));
+    }
+
+    // 每个文件只读取一次，相同的variant返回同一个结果
+    @Test
+    public void loadCachesRawAndProcessedSources() {
+        MapReader reader = new MapReader()
+                .put("main.glsl", "// header\n#version 300 es\n#include \"common.glsl\"\nvoid main() {}\n")
+                .put("common.glsl", "float common;\n");
+        ShaderSourceLoader loader = new ShaderSourceLoader(reader);
+        String first = loader.load("main.glsl", VARIANT);
+        assertEquals("// header\n#version 300 es\n" + DEFINES + "float common;\nvoid main() {}\n", first);
+        assertSame(first, loader.load("main.glsl", new ShaderSourceLoader.Variant.Builder()
+                .define("USE_OES")
+                .define("TAPS", 5)
+                .build()));
+        assertEquals("// header\n#version 300 es\nfloat common;\nvoid main() {}\n", loader.load("main.glsl"));
+        assertEquals(Integer.valueOf(1), reader.mReads.get("main.glsl"));
+        assertEquals(Integer.valueOf(1), reader.mReads.get("common.glsl"));
+    }
+}
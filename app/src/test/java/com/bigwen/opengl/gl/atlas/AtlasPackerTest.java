@@ -0,0 +1,135 @@
+package com.bigwen.opengl.gl.atlas;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AtlasPackerTest {
+
+    private static final int SIZE = 512;
+    private static final int PADDING = 1;
+
+    @Test
+    public void slotsStayInBoundsAndNeverOverlap() {
+        AtlasPacker packer = new AtlasPacker(SIZE, SIZE, PADDING);
+        List<AtlasPacker.Slot> live = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            if (!live.isEmpty() && random.nextInt(3) == 0) {
+                packer.free(live.remove(random.nextInt(live.size())));
+            } else {
+                AtlasPacker.Slot slot = packer.insert(4 + random.nextInt(60), 4 + random.nextInt(60));
+                if (slot != null) {
+                    live.add(slot);
+                }
+            }
+            assertValid(packer, live);
+        }
+    }
+
+    @Test
+    public void sameOperationsGiveSameSlots() {
+        assertEquals(runSequence(7), runSequence(7));
+    }
+
+    @Test
+    public void freeingEverythingRecoversTheWholePage() {
+        AtlasPacker packer = new AtlasPacker(SIZE, SIZE, PADDING);
+        List<AtlasPacker.Slot> live = new ArrayList<>();
+        Random random = new Random(3);
+        AtlasPacker.Slot slot;
+        while ((slot = packer.insert(8 + random.nextInt(40), 8 + random.nextInt(40))) != null) {
+            live.add(slot);
+        }
+        // 打乱释放顺序，中间不能恢复出比实际更大的空间
+        while (!live.isEmpty()) {
+            packer.free(live.remove(random.nextInt(live.size())));
+            assertValid(packer, live);
+        }
+
+        assertEquals(0, packer.getSlotCount());
+        assertEquals(0, packer.getUsedArea());
+        assertEquals(0f, packer.getFragmentation(), 0f);
+        assertEquals(packer.getFreeArea(), packer.getLargestFreeArea());
+        slot = packer.insert(SIZE - 2 * PADDING, SIZE - 2 * PADDING);
+        assertNotNull(slot);
+        assertEquals(PADDING, slot.x);
+        assertEquals(PADDING, slot.y);
+    }
+
+    @Test
+    public void freeingOneSlotMakesItsSpaceUsableAgain() {
+        AtlasPacker packer = new AtlasPacker(SIZE, SIZE, PADDING);
+        AtlasPacker.Slot left = packer.insert(255, 510);
+        AtlasPacker.Slot right = packer.insert(254, 510);
+        assertNotNull(left);
+        assertNotNull(right);
+        assertEquals(null, packer.insert(1, 1));
+
+        packer.free(left);
+        AtlasPacker.Slot reused = packer.insert(255, 510);
+        assertNotNull(reused);
+        assertEquals(left.x, reused.x);
+        assertEquals(left.y, reused.y);
+    }
+
+    @Test
+    public void freeingUnknownSlotThrows() {
+        AtlasPacker packer = new AtlasPacker(SIZE, SIZE, PADDING);
+        AtlasPacker.Slot slot = packer.insert(10, 10);
+        packer.free(slot);
+        try {
+            packer.free(slot);
+            fail("double free accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static List<String> runSequence(long seed) {
+        AtlasPacker packer = new AtlasPacker(SIZE, SIZE, PADDING);
+        List<AtlasPacker.Slot> live = new ArrayList<>();
+        List<String> result = new ArrayList<>();
+        Random random = new Random(seed);
+        for (int i = 0; i < 500; i++) {
+            if (!live.isEmpty() && random.nextInt(3) == 0) {
+                packer.free(live.remove(random.nextInt(live.size())));
+            } else {
+                AtlasPacker.Slot slot = packer.insert(4 + random.nextInt(60), 4 + random.nextInt(60));
+                if (slot != null) {
+                    live.add(slot);
+                }
+                result.add(String.valueOf(slot));
+            }
+        }
+        result.add(String.valueOf(packer.getFragmentation()));
+        return result;
+    }
+
+    // 每个矩形连同右侧和下方的padding都在页内，且互不重叠
+    private static void assertValid(AtlasPacker packer, List<AtlasPacker.Slot> live) {
+        long used = 0;
+        for (int i = 0; i < live.size(); i++) {
+            AtlasPacker.Slot a = live.get(i);
+            assertTrue(a + " out of bounds", a.x >= PADDING && a.y >= PADDING
+                    && a.x + a.width + PADDING <= SIZE && a.y + a.height + PADDING <= SIZE);
+            used += (long) (a.width + PADDING) * (a.height + PADDING);
+            for (int j = i + 1; j < live.size(); j++) {
+                AtlasPacker.Slot b = live.get(j);
+                assertFalse(a + " overlaps " + b,
+                        a.x < b.x + b.width + PADDING && b.x < a.x + a.width + PADDING
+                                && a.y < b.y + b.height + PADDING && b.y < a.y + a.height + PADDING);
+            }
+        }
+        assertEquals(live.size(), packer.getSlotCount());
+        assertEquals(used, packer.getUsedArea());
+        assertTrue(packer.getLargestFreeArea() <= packer.getFreeArea());
+    }
+}
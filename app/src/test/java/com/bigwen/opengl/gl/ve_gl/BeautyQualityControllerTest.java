@@ -0,0 +1,137 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+// Drives the controller with synthetic frame times at 30 fps, a budget of 33.3 ms.
+public class BeautyQualityControllerTest {
+    private static final float FPS = 30;
+    private static final long OVER_BUDGET_NS = 50000000L;
+    // Between UPGRADE_RATIO of the budget and the budget.
+    private static final long WITHIN_BUDGET_NS = 25000000L;
+    // Below UPGRADE_RATIO of the budget.
+    private static final long UNDER_BUDGET_NS = 10000000L;
+    private static final int COOL_DOWN_FRAMES = 30;
+    private static final int MIN_UPGRADE_FRAMES = 90;
+
+    // Feed |frames| frames of |frameTimeNs| and return the quality after the last one.
+    private static GlBeautyFilter.Quality run(BeautyQualityController controller, int frames,
+                                              long frameTimeNs) {
+        GlBeautyFilter.Quality quality = controller.getQuality();
+        for (int i = 0; i < frames; i++) {
+            quality = controller.onFrame(frameTimeNs);
+        }
+        return quality;
+    }
+
+    @Test
+    public void stepsDownOneLevelPerCoolDownAboveBudget() {
+        final BeautyQualityController controller = new BeautyQualityController(FPS,
+                GlBeautyFilter.Quality.FULL, GlBeautyFilter.Quality.OFF);
+        assertEquals(GlBeautyFilter.Quality.FULL, run(controller, COOL_DOWN_FRAMES - 1, OVER_BUDGET_NS));
+        assertEquals(GlBeautyFilter.Quality.REDUCED_TAPS, run(controller, 1, OVER_BUDGET_NS));
+        assertEquals(GlBeautyFilter.Quality.REDUCED_TAPS,
+                run(controller, COOL_DOWN_FRAMES - 1, OVER_BUDGET_NS));
+        assertEquals(GlBeautyFilter.Quality.LOW_PRECISION, run(controller, 1, OVER_BUDGET_NS));
+        assertEquals(2, controller.getHistory().size());
+        assertEquals(GlBeautyFilter.Quality.FULL, controller.getHistory().get(0).from);
+    }
+
+    @Test
+    public void neverGoesBelowLowestQuality() {
+        final BeautyQualityController controller = new BeautyQualityController(FPS,
+                GlBeautyFilter.Quality.FULL, GlBeautyFilter.Quality.MULTI_PASS);
+        assertEquals(GlBeautyFilter.Quality.MULTI_PASS, run(controller, 1000, OVER_BUDGET_NS));
+        assertEquals(3, controller.getHistory().size());
+    }
+
+    @Test
+    public void holdsLevelWithinBudget() {
+        final BeautyQualityController controller = new BeautyQualityController(FPS,
+                GlBeautyFilter.Quality.LOW_PRECISION, GlBeautyFilter.Quality.OFF);
+        assertEquals(GlBeautyFilter.Quality.LOW_PRECISION, run(controller, 1000, WITHIN_BUDGET_NS));
+        assertEquals(0, controller.getHistory().size());
+    }
+
+    @Test
+    public void stepsUpAfterUpgradeFramesUnderThreshold() {
+        final BeautyQualityController controller = new BeautyQualityController(FPS,
+                GlBeautyFilter.Quality.LOW_PRECISION, GlBeautyFilter.Quality.OFF);
+        // Frames in the cool down do not count towards an upgrade.
+        final int framesToUpgrade = COOL_DOWN_FRAMES - 1 + MIN_UPGRADE_FRAMES;
+        assertEquals(GlBeautyFilter.Quality.LOW_PRECISION,
+                run(controller, framesToUpgrade - 1, UNDER_BUDGET_NS));
+        assertEquals(GlBeautyFilter.Quality.REDUCED_TAPS, run(controller, 1, UNDER_BUDGET_NS));
+        assertEquals(GlBeautyFilter.Quality.FULL, run(controller, framesToUpgrade, UNDER_BUDGET_NS));
+        // Already at the top.
+        assertEquals(GlBeautyFilter.Quality.FULL, run(controller, 1000, UNDER_BUDGET_NS));
+        assertEquals(2, controller.getHistory().size());
+    }
+
+    @Test
+    public void frameWithinBudgetRestartsUpgradeCount() {
+        final BeautyQualityController controller = new BeautyQualityController(FPS,
+                GlBeautyFilter.Quality.REDUCED_TAPS, GlBeautyFilter.Quality.OFF);
+        run(controller, COOL_DOWN_FRAMES - 1 + MIN_UPGRADE_FRAMES / 2, UNDER_BUDGET_NS);
+        // Enough to lift the moving average over UPGRADE_RATIO of the budget.
+        assertEquals(GlBeautyFilter.Quality.REDUCED_TAPS, run(controller, 20, WITHIN_BUDGET_NS));
+        // The average takes a few frames to fall back under the threshold.
+        assertEquals(GlBeautyFilter.Quality.REDUCED_TAPS,
+                run(controller, MIN_UPGRADE_FRAMES - 1, UNDER_BUDGET_NS));
+        assertEquals(GlBeautyFilter.Quality.FULL, run(controller, 10, UNDER_BUDGET_NS));
+    }
+
+    @Test
+    public void downgradeRightAfterUpgradeDoublesUpgradeFrames() {
+        final BeautyQualityController controller = new BeautyQualityController(FPS,
+                GlBeautyFilter.Quality.REDUCED_TAPS, GlBeautyFilter.Quality.OFF);
+        assertEquals(GlBeautyFilter.Quality.FULL,
+                run(controller, COOL_DOWN_FRAMES - 1 + MIN_UPGRADE_FRAMES, UNDER_BUDGET_NS));
+        assertEquals(GlBeautyFilter.Quality.REDUCED_TAPS,
+                run(controller, COOL_DOWN_FRAMES, OVER_BUDGET_NS));
+        assertEquals(2 * MIN_UPGRADE_FRAMES, controller.getUpgradeFrames());
+
+        // The next upgrade waits twice as long.
+        final int framesToUpgrade = COOL_DOWN_FRAMES - 1 + 2 * MIN_UPGRADE_FRAMES;
+        assertEquals(GlBeautyFilter.Quality.REDUCED_TAPS,
+                run(controller, framesToUpgrade - 1, UNDER_BUDGET_NS));
+        assertEquals(GlBeautyFilter.Quality.FULL, run(controller, 1, UNDER_BUDGET_NS));
+    }
+
+    @Test
+    public void downgradeLongAfterUpgradeKeepsUpgradeFrames() {
+        final BeautyQualityController controller = new BeautyQualityController(FPS,
+                GlBeautyFilter.Quality.REDUCED_TAPS, GlBeautyFilter.Quality.OFF);
+        run(controller, COOL_DOWN_FRAMES - 1 + MIN_UPGRADE_FRAMES, UNDER_BUDGET_NS);
+        run(controller, MIN_UPGRADE_FRAMES, WITHIN_BUDGET_NS);
+        assertEquals(GlBeautyFilter.Quality.REDUCED_TAPS, run(controller, COOL_DOWN_FRAMES, OVER_BUDGET_NS));
+        assertEquals(MIN_UPGRADE_FRAMES, controller.getUpgradeFrames());
+    }
+
+    @Test
+    public void upgradeFramesDecayWhileLevelHolds() {
+        final BeautyQualityController controller = new BeautyQualityController(FPS,
+                GlBeautyFilter.Quality.LOW_PRECISION, GlBeautyFilter.Quality.OFF);
+        // Oscillate until upgradeFrames saturates.
+        for (int i = 0; i < 10; i++) {
+            run(controller, COOL_DOWN_FRAMES - 1 + controller.getUpgradeFrames(), UNDER_BUDGET_NS);
+            run(controller, COOL_DOWN_FRAMES, OVER_BUDGET_NS);
+        }
+        assertEquals(GlBeautyFilter.Quality.LOW_PRECISION, controller.getQuality());
+        assertEquals(16 * MIN_UPGRADE_FRAMES, controller.getUpgradeFrames());
+
+        // Holding the level for twice the upgrade time halves it, down to the minimum.
+        int upgradeFrames = controller.getUpgradeFrames();
+        while (upgradeFrames > MIN_UPGRADE_FRAMES) {
+            run(controller, 2 * upgradeFrames - 1, WITHIN_BUDGET_NS);
+            assertEquals(upgradeFrames, controller.getUpgradeFrames());
+            run(controller, 1, WITHIN_BUDGET_NS);
+            upgradeFrames /= 2;
+            assertEquals(upgradeFrames, controller.getUpgradeFrames());
+        }
+        run(controller, 10000, WITHIN_BUDGET_NS);
+        assertEquals(MIN_UPGRADE_FRAMES, controller.getUpgradeFrames());
+        assertEquals(GlBeautyFilter.Quality.LOW_PRECISION, controller.getQuality());
+    }
+}
@@ -0,0 +1,223 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+/**
+ * CPU reference of the beauty filter, used to check that the multi-pass GPU version stays close
+ * to the original single-pass shader. Images are interleaved RGB floats in [0, 1], row major.
+ *
+ * The single-pass shader low-passes the green channel with 24 taps around the center. Its kernel
+ * is a heavy center tap (22/62) plus a wide ring, and the ring is well approximated by a Gaussian.
+ * The multi-pass version computes that Gaussian separably on a downsampled copy of the frame and
+ * mixes the center tap back in at full resolution, see {@link GlBeautyFilter}.
+ */
+public final class BeautyReference {
+    private BeautyReference() {}
+
+    // Error budget of the multi-pass version against the single-pass one. On natural images the
+    // downsample factors 2 and 4 stay around 0.5/255 mean and 7/255 max error.
+    //
+    // The max bound only holds for spatially correlated content. On per-pixel white noise the 24
+    // sparse taps and the dense Gaussian average different pixels, so single pixels differ by up
+    // to about 15/255 even without downsampling; the mean stays within budget. Camera frames are
+    // denoised before they reach the filter, so this is a limit of the Gaussian model rather than
+    // a case the budget has to cover.
+    public static final double TOLERANCE_MEAN_ABS_ERROR = 1.0 / 255.0;
+    public static final double TOLERANCE_MAX_ABS_ERROR = 10.0 / 255.0;
+
+    private static final float[] LUMA = {0.299f, 0.587f, 0.114f};
+    // Columns of the saturate matrix, GLSL mat3 constructors are column major.
+    private static final float[][] SATURATE_COLUMNS = {
+            {1.1102f, -0.0598f, -0.061f},
+            {-0.0774f, 1.0826f, -0.1186f},
+            {-0.0228f, -0.0228f, 1.1772f},
+    };
+
+    // Per-image error of a candidate against a reference, over all channels.
+    public static class ErrorStats {
+        public final double meanAbsError;
+        public final double maxAbsError;
+        public final double psnr;
+
+        ErrorStats(double meanAbsError, double maxAbsError, double psnr) {
+            this.meanAbsError = meanAbsError;
+            this.maxAbsError = maxAbsError;
+            this.psnr = psnr;
+        }
+
+        public boolean isWithin(double maxMeanAbsError, double maxAbsError) {
+            return meanAbsError <= maxMeanAbsError && this.maxAbsError <= maxAbsError;
+        }
+
+        public boolean isWithinTolerance() {
+            return isWithin(TOLERANCE_MEAN_ABS_ERROR, TOLERANCE_MAX_ABS_ERROR);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mean=%.5f max=%.5f psnr=%.2fdB", meanAbsError, maxAbsError, psnr);
+        }
+    }
+
+    /**
+     * Output of the single-pass shader (OES_FRAGMENT_SHADER_STRING_WITH_BEAUTIFUL).
+     */
+    public static float[] renderSinglePass(float[] rgb, int width, int height, float[] params,
+                                           float brightness) {
+        final float[] out = new float[rgb.length];
+        final float[] center = new float[3];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int i = (y * width + x) * 3;
+                center[0] = rgb[i];
+                center[1] = rgb[i + 1];
+                center[2] = rgb[i + 2];
+                float sample = center[1] * GlBeautyFilter.CENTER_TAP_WEIGHT;
+                for (float[] tap : GlBeautyFilter.TAPS) {
+                    final int sx = clamp(x + (int) tap[0] * 2, width);
+                    final int sy = clamp(y + (int) tap[1] * 2, height);
+                    sample += rgb[(sy * width + sx) * 3 + 1] * tap[2];
+                }
+                applyBeauty(center, sample / GlBeautyFilter.TOTAL_TAP_WEIGHT, params, brightness,
+                        out, i);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Output of the multi-pass pipeline of {@link GlBeautyFilter}: bilinear downsample by
+     * |downsample|, separable Gaussian on the green channel, bilinear upsample and recombination
+     * with the center tap at full resolution.
+     */
+    public static float[] renderMultiPass(float[] rgb, int width, int height, float[] params,
+                                          float brightness, int downsample) {
+        final int lowWidth = Math.max(1, width / downsample);
+        final int lowHeight = Math.max(1, height / downsample);
+
+        final float[] green = new float[width * height];
+        for (int i = 0; i < green.length; ++i) {
+            green[i] = rgb[i * 3 + 1];
+        }
+        float[] low = new float[lowWidth * lowHeight];
+        for (int y = 0; y < lowHeight; ++y) {
+            for (int x = 0; x < lowWidth; ++x) {
+                low[y * lowWidth + x] = bilinear(green, width, height,
+                        (x + 0.5f) * width / lowWidth - 0.5f, (y + 0.5f) * height / lowHeight - 0.5f);
+            }
+        }
+
+        final float sigma = GlBeautyFilter.RING_SIGMA_PIXELS * lowWidth / width;
+        final int radius = GlBeautyFilter.kernelRadius(sigma);
+        final float[] kernel = GlBeautyFilter.gaussianKernel(sigma, radius);
+        low = blur(low, lowWidth, lowHeight, kernel, radius, true);
+        low = blur(low, lowWidth, lowHeight, kernel, radius, false);
+
+        final float[] out = new float[rgb.length];
+        final float[] center = new float[3];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int i = (y * width + x) * 3;
+                center[0] = rgb[i];
+                center[1] = rgb[i + 1];
+                center[2] = rgb[i + 2];
+                final float blurred = bilinear(low, lowWidth, lowHeight,
+                        (x + 0.5f) * lowWidth / width - 0.5f, (y + 0.5f) * lowHeight / height - 0.5f);
+                final float sample = blurred + (center[1] - blurred) * GlBeautyFilter.CENTER_WEIGHT;
+                applyBeauty(center, sample, params, brightness, out, i);
+            }
+        }
+        return out;
+    }
+
+    public static ErrorStats compare(float[] reference, float[] candidate) {
+        if (reference.length != candidate.length) {
+            throw new IllegalArgumentException("Image sizes differ");
+        }
+        double sum = 0;
+        double sumSquared = 0;
+        double max = 0;
+        for (int i = 0; i < reference.length; ++i) {
+            final double diff = Math.abs(reference[i] - candidate[i]);
+            sum += diff;
+            sumSquared += diff * diff;
+            max = Math.max(max, diff);
+        }
+        final double mse = sumSquared / reference.length;
+        final double psnr = mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(1.0 / mse);
+        return new ErrorStats(sum / reference.length, max, psnr);
+    }
+
+    // Tone mapping shared by both versions, i.e. everything after the low-pass in the shader.
+    static void applyBeauty(float[] c, float sample, float[] params, float brightness,
+                            float[] out, int offset) {
+        float highPass = c[1] - sample + 0.5f;
+        for (int i = 0; i < 5; ++i) {
+            highPass = highPass <= 0.5f
+                    ? highPass * highPass * 2.0f
+                    : 1.0f - ((1.0f - highPass) * (1.0f - highPass) * 2.0f);
+        }
+        final float luminance = c[0] * LUMA[0] + c[1] * LUMA[1] + c[2] * LUMA[2];
+        final float alpha = (float) Math.pow(luminance, params[0]);
+
+        final float[] color = new float[3];
+        for (int k = 0; k < 3; ++k) {
+            float smooth = c[k] + (c[k] - highPass) * alpha * 0.1f;
+            smooth = clamp01((float) Math.pow(Math.max(smooth, 0.0f), params[1]));
+            final float lvse = 1.0f - (1.0f - smooth) * (1.0f - c[k]);
+            final float bianliang = Math.max(smooth, c[k]);
+            final float rouguang = 2.0f * c[k] * smooth + c[k] * c[k] - 2.0f * c[k] * c[k] * smooth;
+            float value = mix(c[k], lvse, alpha);
+            value = mix(value, bianliang, alpha);
+            color[k] = mix(value, rouguang, params[2]);
+        }
+        for (int k = 0; k < 3; ++k) {
+            final float[] column = SATURATE_COLUMNS[k];
+            final float saturated =
+                    color[0] * column[0] + color[1] * column[1] + color[2] * column[2];
+            out[offset + k] = clamp01(mix(color[k], saturated, params[3]) + brightness);
+        }
+    }
+
+    private static float[] blur(float[] src, int width, int height, float[] kernel, int radius,
+                                boolean horizontal) {
+        final float[] dst = new float[src.length];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                float sum = 0;
+                for (int k = -radius; k <= radius; ++k) {
+                    final int sx = horizontal ? clamp(x + k, width) : x;
+                    final int sy = horizontal ? y : clamp(y + k, height);
+                    sum += src[sy * width + sx] * kernel[k + radius];
+                }
+                dst[y * width + x] = sum;
+            }
+        }
+        return dst;
+    }
+
+    // GL_LINEAR + GL_CLAMP_TO_EDGE sampling at texel coordinates (x, y), texel centers at integers.
+    private static float bilinear(float[] src, int width, int height, float x, float y) {
+        final int x0 = (int) Math.floor(x);
+        final int y0 = (int) Math.floor(y);
+        final float fx = x - x0;
+        final float fy = y - y0;
+        final int xa = clamp(x0, width);
+        final int xb = clamp(x0 + 1, width);
+        final int ya = clamp(y0, height);
+        final int yb = clamp(y0 + 1, height);
+        final float top = mix(src[ya * width + xa], src[ya * width + xb], fx);
+        final float bottom = mix(src[yb * width + xa], src[yb * width + xb], fx);
+        return mix(top, bottom, fy);
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+
+    private static float clamp01(float value) {
+        return value < 0.0f ? 0.0f : (value > 1.0f ? 1.0f : value);
+    }
+
+    private static float mix(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+}
@@ -0,0 +1,122 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Multi-pass beauty against the single-pass shader, on the CPU models of BeautyReference.
+public class BeautyReferenceTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int[] DOWNSAMPLES = {2, GlBeautyFilter.DEFAULT_DOWNSAMPLE};
+
+    // Uniform values of GlRectDrawer's default beauty, tone and bright levels.
+    private static final float[] PARAMS;
+    private static final float BRIGHTNESS;
+    static {
+        final float beauty = 0.42f;
+        final float tone = 0.47f;
+        PARAMS = new float[] {
+                1.0f - 0.6f * beauty, 1.0f - 0.3f * beauty, 0.1f + 0.3f * tone, 0.1f + 0.3f * tone,
+        };
+        BRIGHTNESS = 0.6f * (-0.5f + 0.34f);
+    }
+
+    @Test
+    public void gradientIsWithinTolerance() {
+        final float[] rgb = new float[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                set(rgb, x, y, (float) x / WIDTH, (float) y / HEIGHT, 0.5f);
+            }
+        }
+        assertWithinTolerance("gradient", rgb);
+    }
+
+    // Slowly varying skin tone with a little fine texture, the content the filter is made for.
+    @Test
+    public void skinIsWithinTolerance() {
+        final Random random = new Random(1);
+        final float[] rgb = new float[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                final float base =
+                        0.55f + 0.15f * (float) (Math.sin(x * 0.03) * Math.cos(y * 0.025));
+                final float texture = 0.02f * (random.nextFloat() - 0.5f);
+                set(rgb, x, y, Math.min(1.0f, base + 0.2f + texture), base + texture,
+                        base - 0.1f + texture);
+            }
+        }
+        assertWithinTolerance("skin", rgb);
+    }
+
+    @Test
+    public void hardEdgeIsWithinTolerance() {
+        final float[] rgb = new float[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                final float value = x < WIDTH / 2 ? 0.2f : 0.8f;
+                set(rgb, x, y, value, value, value);
+            }
+        }
+        assertWithinTolerance("edge", rgb);
+    }
+
+    // A pattern with a period of about 12 pixels, close to the tap spacing of the single pass.
+    @Test
+    public void finePatternIsWithinTolerance() {
+        final float[] rgb = new float[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                final float value = 0.5f + 0.25f * (float) (Math.sin(x * 0.5) * Math.sin(y * 0.5));
+                set(rgb, x, y, value, value, value);
+            }
+        }
+        assertWithinTolerance("fine pattern", rgb);
+    }
+
+    // White noise is outside the max bound, see TOLERANCE_MAX_ABS_ERROR. The error comes from the
+    // Gaussian model, not from downsampling: it is the same without downsampling.
+    @Test
+    public void whiteNoiseOnlyMeetsTheMeanBound() {
+        final Random random = new Random(1);
+        final float[] rgb = new float[WIDTH * HEIGHT * 3];
+        for (int i = 0; i < rgb.length; ++i) {
+            rgb[i] = random.nextFloat();
+        }
+        final float[] reference =
+                BeautyReference.renderSinglePass(rgb, WIDTH, HEIGHT, PARAMS, BRIGHTNESS);
+        final BeautyReference.ErrorStats fullResolution = BeautyReference.compare(reference,
+                BeautyReference.renderMultiPass(rgb, WIDTH, HEIGHT, PARAMS, BRIGHTNESS, 1));
+        for (int downsample : DOWNSAMPLES) {
+            final BeautyReference.ErrorStats stats = BeautyReference.compare(reference,
+                    BeautyReference.renderMultiPass(rgb, WIDTH, HEIGHT, PARAMS, BRIGHTNESS,
+                            downsample));
+            assertTrue("noise at " + downsample + ": " + stats,
+                    stats.meanAbsError <= BeautyReference.TOLERANCE_MEAN_ABS_ERROR);
+            assertTrue("noise at " + downsample + ": " + stats, stats.maxAbsError <= 16.0 / 255.0);
+            assertEquals(fullResolution.maxAbsError, stats.maxAbsError, 1.0 / 255.0);
+        }
+    }
+
+    private static void assertWithinTolerance(String name, float[] rgb) {
+        final float[] reference =
+                BeautyReference.renderSinglePass(rgb, WIDTH, HEIGHT, PARAMS, BRIGHTNESS);
+        for (int downsample : DOWNSAMPLES) {
+            final BeautyReference.ErrorStats stats = BeautyReference.compare(reference,
+                    BeautyReference.renderMultiPass(rgb, WIDTH, HEIGHT, PARAMS, BRIGHTNESS,
+                            downsample));
+            assertTrue(name + " at " + downsample + ": " + stats, stats.isWithinTolerance());
+        }
+    }
+
+    private static void set(float[] rgb, int x, int y, float r, float g, float b) {
+        final int i = (y * WIDTH + x) * 3;
+        rgb[i] = r;
+        rgb[i + 1] = g;
+        rgb[i + 2] = b;
+    }
+}
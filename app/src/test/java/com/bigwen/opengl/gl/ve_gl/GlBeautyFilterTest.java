@@ -0,0 +1,105 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GlBeautyFilterTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final float[] IDENTITY_MATRIX = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1,
+    };
+
+    // Also remembers the texture targets bound and the shader sources compiled.
+    private static class TrackingGlApi extends RecordingGlApi {
+        final List<Integer> boundTargets = new ArrayList<Integer>();
+        final List<String> shaderSources = new ArrayList<String>();
+
+        @Override
+        public void bindTexture(int target, int texture) {
+            super.bindTexture(target, texture);
+            boundTargets.add(target);
+        }
+
+        @Override
+        public void shaderSource(int shader, String source) {
+            super.shaderSource(shader, source);
+            shaderSources.add(source);
+        }
+    }
+
+    private TrackingGlApi gl;
+    private GlStateCache glState;
+    private GlRectDrawer drawer;
+    private GlBeautyFilter filter;
+
+    @Before
+    public void setUp() {
+        gl = new TrackingGlApi();
+        glState = new GlStateCache(gl);
+        drawer = new GlRectDrawer(glState);
+        filter = new GlBeautyFilter(
+                drawer, glState, new GlRenderTargetPool(glState, 64L * 1024 * 1024));
+    }
+
+    @Test
+    public void acceptsOesAndTexture2d() {
+        assertTrue(filter.acceptsInput(GLES11Ext.GL_TEXTURE_EXTERNAL_OES));
+        assertTrue(filter.acceptsInput(GLES20.GL_TEXTURE_2D));
+        assertFalse(filter.acceptsInput(GLES20.GL_TEXTURE_CUBE_MAP));
+    }
+
+    // NV21 frames reach the filter as GL_TEXTURE_2D; no level may fall back to an OES shader.
+    @Test
+    public void everyQualityFiltersTexture2dInput() {
+        for (GlBeautyFilter.Quality quality : GlBeautyFilter.Quality.values()) {
+            filter.setQuality(quality);
+            gl.boundTargets.clear();
+            gl.shaderSources.clear();
+            filter.draw(drawer, GLES20.GL_TEXTURE_2D, 7, IDENTITY_MATRIX, WIDTH, HEIGHT, 0, WIDTH,
+                    HEIGHT);
+            gl.endFrame();
+
+            assertEquals(quality.toString(), quality == GlBeautyFilter.Quality.MULTI_PASS ? 4 : 1,
+                    gl.getLastFrameCount(RecordingGlApi.Category.DRAW));
+            assertFalse(quality.toString(),
+                    gl.boundTargets.contains(GLES11Ext.GL_TEXTURE_EXTERNAL_OES));
+            for (String source : gl.shaderSources) {
+                assertFalse(quality + ": " + source, source.contains("samplerExternalOES"));
+            }
+        }
+    }
+
+    @Test
+    public void everyQualityFiltersOesInput() {
+        for (GlBeautyFilter.Quality quality : GlBeautyFilter.Quality.values()) {
+            filter.setQuality(quality);
+            filter.draw(drawer, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 7, IDENTITY_MATRIX, WIDTH,
+                    HEIGHT, 0, WIDTH, HEIGHT);
+            gl.endFrame();
+
+            assertEquals(quality.toString(), quality == GlBeautyFilter.Quality.MULTI_PASS ? 4 : 1,
+                    gl.getLastFrameCount(RecordingGlApi.Category.DRAW));
+        }
+    }
+
+    // The beauty levels live in the construction drawer; another drawer would silently drop them.
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForeignDrawer() {
+        filter.draw(new GlRectDrawer(glState), GLES20.GL_TEXTURE_2D, 7, IDENTITY_MATRIX, WIDTH,
+                HEIGHT, 0, WIDTH, HEIGHT);
+    }
+}
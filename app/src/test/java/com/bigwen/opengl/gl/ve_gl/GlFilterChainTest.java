@@ -0,0 +1,81 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES11Ext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class GlFilterChainTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final float[] TEX_MATRIX = {
+            1, 0, 0, 0,
+            0, -1, 0, 0,
+            0, 0, 1, 0,
+            0, 1, 0, 1,
+    };
+
+    private RecordingGlApi gl;
+    private GlFilterChain chain;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGlApi();
+        final GlStateCache glState = new GlStateCache(gl);
+        final GlRectDrawer drawer = new GlRectDrawer(glState);
+        chain = new GlFilterChain(
+                drawer, glState, new GlRenderTargetPool(glState, 64L * 1024 * 1024));
+    }
+
+    private void renderFrame() {
+        chain.render(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 1, TEX_MATRIX, WIDTH, HEIGHT).release();
+        gl.endFrame();
+    }
+
+    @Test
+    public void appliesQueuedChangesOnNextRender() {
+        final GlShaderFilter first = GlShaderFilter.createCopyFilter();
+        final GlShaderFilter second = GlShaderFilter.createCopyFilter();
+        chain.add(first);
+        chain.add(second);
+        renderFrame();
+        assertEquals(2, gl.getLastFrameCount(RecordingGlApi.Category.DRAW));
+
+        chain.remove(first);
+        renderFrame();
+        assertEquals(1, gl.getLastFrameCount(RecordingGlApi.Category.DRAW));
+    }
+
+    // Same measurement as GlRectDrawerTest.steadyStateFrameDoesNotAllocate().
+    @Test
+    public void steadyStateRenderDoesNotAllocate() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long threadId = Thread.currentThread().getId();
+
+        chain.add(GlShaderFilter.createCopyFilter());
+        chain.add(GlShaderFilter.createCopyFilter());
+        for (int i = 0; i < 1000; i++) {
+            renderFrame();
+        }
+        long minAllocated = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 1000; i++) {
+                renderFrame();
+            }
+            minAllocated = Math.min(minAllocated,
+                    threads.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        assertEquals("bytes allocated by 1000 frames", 0, minAllocated);
+    }
+}
@@ -0,0 +1,96 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+// Drives GlRectDrawer on a plain JVM through RecordingGlApi, see its class comment.
+public class GlRectDrawerTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int WARMUP_FRAMES = 1000;
+    private static final int ROUNDS = 20;
+    private static final int FRAMES_PER_ROUND = 1000;
+
+    private final float[] texMatrix = {
+            1, 0, 0, 0,
+            0, -1, 0, 0,
+            0, 0, 1, 0,
+            0, 1, 0, 1,
+    };
+
+    private RecordingGlApi gl;
+    private GlStateCache glState;
+    private GlRectDrawer drawer;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGlApi();
+        glState = new GlStateCache(gl);
+        drawer = new GlRectDrawer(glState);
+    }
+
+    // A camera frame drawn the way the display thread does: the OES input and an RGB output.
+    private void drawFrame() {
+        drawer.drawOes(1, texMatrix, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        drawer.drawRgb(2, texMatrix, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        glState.endFrame();
+        gl.endFrame();
+    }
+
+    @Test
+    public void steadyStateFrameStaysWithinCallBudget() {
+        // The first frame compiles the programs and uploads the mesh.
+        drawFrame();
+        gl.setFrameBudget(RecordingGlApi.Category.DRAW, 2);
+        gl.setFrameBudget(RecordingGlApi.Category.STATE, 6);
+        gl.setFrameBudget(RecordingGlApi.Category.UPLOAD, 0);
+        gl.setFrameBudget(RecordingGlApi.Category.ERROR_CHECK, 2);
+        gl.setFrameBudget(RecordingGlApi.Category.OTHER, 0);
+
+        // A call over budget throws IllegalStateException at the offending call.
+        for (int i = 0; i < 100; i++) {
+            drawFrame();
+        }
+
+        // Pin the exact counts too, so that a saving shows up here and the budget gets tightened.
+        assertEquals(2, gl.getLastFrameCount(RecordingGlApi.Category.DRAW));
+        assertEquals(6, gl.getLastFrameCount(RecordingGlApi.Category.STATE));
+        assertEquals(0, gl.getLastFrameCount(RecordingGlApi.Category.UPLOAD));
+        assertEquals(2, gl.getLastFrameCount(RecordingGlApi.Category.ERROR_CHECK));
+        assertEquals(0, gl.getLastFrameCount(RecordingGlApi.Category.OTHER));
+    }
+
+    @Test
+    public void steadyStateFrameDoesNotAllocate() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long threadId = Thread.currentThread().getId();
+
+        // Compiles the programs and uploads the mesh.
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            drawFrame();
+        }
+        // While the JIT is still compiling the frame, the runtime occasionally allocates a few
+        // hundred bytes on this thread; with -Xint every round is 0. An allocation in the frame
+        // itself shows up in every round, so the quietest one must be 0.
+        long minAllocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < FRAMES_PER_ROUND; i++) {
+                drawFrame();
+            }
+            minAllocated = Math.min(minAllocated,
+                    threads.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        assertEquals("bytes allocated by " + FRAMES_PER_ROUND + " frames", 0, minAllocated);
+    }
+}
@@ -0,0 +1,99 @@
+package com.bigwen.opengl.gl.ve_gl;
+
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GlRenderTargetPoolTest {
+    // Tracks the live framebuffers and textures, and can fail the completeness check.
+    private static class TrackingGlApi extends RecordingGlApi {
+        final Set<Integer> framebuffers = new HashSet<Integer>();
+        final Set<Integer> textures = new HashSet<Integer>();
+        boolean incomplete;
+
+        @Override
+        public void genFramebuffers(int n, int[] ids, int offset) {
+            super.genFramebuffers(n, ids, offset);
+            for (int i = 0; i < n; i++) {
+                framebuffers.add(ids[offset + i]);
+            }
+        }
+
+        @Override
+        public void deleteFramebuffers(int n, int[] ids, int offset) {
+            super.deleteFramebuffers(n, ids, offset);
+            for (int i = 0; i < n; i++) {
+                framebuffers.remove(ids[offset + i]);
+            }
+        }
+
+        @Override
+        public void genTextures(int n, int[] ids, int offset) {
+            super.genTextures(n, ids, offset);
+            for (int i = 0; i < n; i++) {
+                textures.add(ids[offset + i]);
+            }
+        }
+
+        @Override
+        public void deleteTextures(int n, int[] ids, int offset) {
+            super.deleteTextures(n, ids, offset);
+            for (int i = 0; i < n; i++) {
+                textures.remove(ids[offset + i]);
+            }
+        }
+
+        @Override
+        public int checkFramebufferStatus(int target) {
+            final int status = super.checkFramebufferStatus(target);
+            return incomplete ? GLES20.GL_FRAMEBUFFER_INCOMPLETE_ATTACHMENT : status;
+        }
+    }
+
+    private TrackingGlApi gl;
+    private GlRenderTargetPool pool;
+
+    @Before
+    public void setUp() {
+        gl = new TrackingGlApi();
+        pool = new GlRenderTargetPool(new GlStateCache(gl), 64L * 1024 * 1024);
+    }
+
+    @Test
+    public void releasedTargetIsReused() {
+        final GlRenderTargetPool.RenderTarget first = pool.acquire(640, 480);
+        first.release();
+        assertSame(first, pool.acquire(640, 480));
+        assertNotSame(first, pool.acquire(640, 480));
+        assertEquals(2, gl.framebuffers.size());
+    }
+
+    @Test
+    public void incompleteFramebufferIsNotLeaked() {
+        gl.incomplete = true;
+        try {
+            pool.acquire(640, 480);
+            fail("incomplete framebuffer accepted");
+        } catch (RuntimeException expected) {
+        }
+        assertTrue("leaked framebuffers " + gl.framebuffers, gl.framebuffers.isEmpty());
+        assertTrue("leaked textures " + gl.textures, gl.textures.isEmpty());
+    }
+
+    @Test
+    public void generateFrameBufferDeletesIncompleteFramebuffer() {
+        gl.incomplete = true;
+        assertEquals(-1, GlUtil.generateFrameBuffer(gl, 1));
+        assertTrue("leaked framebuffers " + gl.framebuffers, gl.framebuffers.isEmpty());
+    }
+}
@@ -0,0 +1,203 @@
+package com.bigwen.opengl.yuv;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 定点实现与{@link NaiveYuvConverter}逐字节比较，允许舍入造成的1的差异。
+ * 尺寸覆盖单个2x2块、不分段、段的行数不整除高度的情况，两种字节序的缓冲区都要比较。
+ */
+public class YuvConverterTest {
+
+    // {宽, 高}。MIN_ROWS_PER_BAND为32，高66分2段、130分4段、98分3段，最后一段都比其他段短
+    private static final int[][] SIZES = {
+            {2, 2},
+            {34, 66},
+            {18, 98},
+            {64, 130},
+            {1280, 720},
+    };
+    private static final int[] PARALLELISMS = {1, 3, 4};
+    private static final ByteOrder[] ORDERS = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+    private static final int TOLERANCE = 1;
+
+    private final Random mRandom = new Random(1);
+    private YuvConverter mConverter;
+
+    @After
+    public void tearDown() {
+        if (mConverter != null) {
+            mConverter.release();
+        }
+    }
+
+    // 随机数据，前几个字节固定为0和255，覆盖clamp
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        mRandom.nextBytes(bytes);
+        for (int i = 0; i < Math.min(size, 8); ++i) {
+            bytes[i] = (byte) ((i & 1) == 0 ? 0 : 255);
+        }
+        return bytes;
+    }
+
+    private static ByteBuffer allocate(int size, ByteOrder order) {
+        return ByteBuffer.allocateDirect(size).order(order);
+    }
+
+    private static void assertClose(String message, ByteBuffer expected, ByteBuffer actual, int size) {
+        int maxDiff = 0;
+        int worst = -1;
+        for (int i = 0; i < size; ++i) {
+            int diff = Math.abs((expected.get(i) & 0xff) - (actual.get(i) & 0xff));
+            if (diff > maxDiff) {
+                maxDiff = diff;
+                worst = i;
+            }
+        }
+        assertTrue(message + ": byte " + worst + " differs by " + maxDiff, maxDiff <= TOLERANCE);
+    }
+
+    @Test
+    public void nv21ToRgbaMatchesNaive() {
+        for (int parallelism : PARALLELISMS) {
+            mConverter = new YuvConverter(parallelism);
+            for (int[] size : SIZES) {
+                int width = size[0];
+                int height = size[1];
+                byte[] src = randomBytes(width * height * 3 / 2);
+                ByteBuffer expected = allocate(width * height * 4, ByteOrder.BIG_ENDIAN);
+                NaiveYuvConverter.nv21ToRgba(src, width, height, expected);
+                for (ByteOrder order : ORDERS) {
+                    ByteBuffer actual = allocate(width * height * 4, order);
+                    mConverter.nv21ToRgba(src, width, height, actual);
+                    assertClose("nv21ToRgba " + width + "x" + height + " " + order + " x" + parallelism,
+                            expected, actual, width * height * 4);
+                }
+            }
+            mConverter.release();
+        }
+    }
+
+    @Test
+    public void i420ToRgbaMatchesNaive() {
+        for (int parallelism : PARALLELISMS) {
+            mConverter = new YuvConverter(parallelism);
+            for (int[] size : SIZES) {
+                int width = size[0];
+                int height = size[1];
+                byte[] src = randomBytes(width * height * 3 / 2);
+                ByteBuffer expected = allocate(width * height * 4, ByteOrder.BIG_ENDIAN);
+                NaiveYuvConverter.i420ToRgba(src, width, height, expected);
+                for (ByteOrder order : ORDERS) {
+                    ByteBuffer actual = allocate(width * height * 4, order);
+                    mConverter.i420ToRgba(src, width, height, actual);
+                    assertClose("i420ToRgba " + width + "x" + height + " " + order + " x" + parallelism,
+                            expected, actual, width * height * 4);
+                }
+            }
+            mConverter.release();
+        }
+    }
+
+    @Test
+    public void rgbaToI420MatchesNaive() {
+        for (int parallelism : PARALLELISMS) {
+            mConverter = new YuvConverter(parallelism);
+            for (int[] size : SIZES) {
+                int width = size[0];
+                int height = size[1];
+                byte[] pixels = randomBytes(width * height * 4);
+                int yuvSize = width * height * 3 / 2;
+                ByteBuffer expected = allocate(yuvSize, ByteOrder.BIG_ENDIAN);
+                NaiveYuvConverter.rgbaToI420(ByteBuffer.wrap(pixels), width, height, expected);
+                for (ByteOrder order : ORDERS) {
+                    // 字节内容相同，只是字节序不同
+                    ByteBuffer src = allocate(pixels.length, order);
+                    src.put(pixels).clear();
+                    ByteBuffer actual = allocate(yuvSize, order);
+                    mConverter.rgbaToI420(src, width, height, actual);
+                    assertClose("rgbaToI420 " + width + "x" + height + " " + order + " x" + parallelism,
+                            expected, actual, yuvSize);
+                }
+            }
+            mConverter.release();
+        }
+    }
+
+    @Test
+    public void rgbaToNv21MatchesNaive() {
+        for (int parallelism : PARALLELISMS) {
+            mConverter = new YuvConverter(parallelism);
+            for (int[] size : SIZES) {
+                int width = size[0];
+                int height = size[1];
+                byte[] pixels = randomBytes(width * height * 4);
+                int yuvSize = width * height * 3 / 2;
+                ByteBuffer expected = allocate(yuvSize, ByteOrder.BIG_ENDIAN);
+                NaiveYuvConverter.rgbaToNv21(ByteBuffer.wrap(pixels), width, height, expected);
+                for (ByteOrder order : ORDERS) {
+                    ByteBuffer src = allocate(pixels.length, order);
+                    src.put(pixels).clear();
+                    ByteBuffer actual = allocate(yuvSize, order);
+                    mConverter.rgbaToNv21(src, width, height, actual);
+                    assertClose("rgbaToNv21 " + width + "x" + height + " " + order + " x" + parallelism,
+                            expected, actual, yuvSize);
+                }
+            }
+            mConverter.release();
+        }
+    }
+
+    // 只是搬运字节，必须完全相同
+    @Test
+    public void nv21ToI420MatchesNaiveExactly() {
+        for (int parallelism : PARALLELISMS) {
+            mConverter = new YuvConverter(parallelism);
+            for (int[] size : SIZES) {
+                int width = size[0];
+                int height = size[1];
+                int yuvSize = width * height * 3 / 2;
+                byte[] src = randomBytes(yuvSize);
+                ByteBuffer expected = allocate(yuvSize, ByteOrder.BIG_ENDIAN);
+                NaiveYuvConverter.nv21ToI420(src, width, height, expected);
+                ByteBuffer actual = allocate(yuvSize, ByteOrder.LITTLE_ENDIAN);
+                mConverter.nv21ToI420(src, width, height, actual);
+                for (int i = 0; i < yuvSize; ++i) {
+                    assertEquals("nv21ToI420 " + width + "x" + height + " byte " + i,
+                            expected.get(i), actual.get(i));
+                }
+                // 整体写入不移动调用者的position
+                assertEquals(0, actual.position());
+            }
+            mConverter.release();
+        }
+    }
+
+    // YUV -> RGBA -> YUV大致还原，只检查灰度图，彩色图的色度会被裁剪
+    @Test
+    public void grayRoundTripKeepsLuma() {
+        mConverter = new YuvConverter(4);
+        int width = 64;
+        int height = 130;
+        byte[] src = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; ++i) {
+            src[i] = (byte) (16 + i % 220);
+        }
+        for (int i = width * height; i < src.length; ++i) {
+            src[i] = (byte) 128;
+        }
+        ByteBuffer rgba = allocate(width * height * 4, ByteOrder.nativeOrder());
+        mConverter.nv21ToRgba(src, width, height, rgba);
+        ByteBuffer yuv = allocate(src.length, ByteOrder.nativeOrder());
+        mConverter.rgbaToNv21(rgba, width, height, yuv);
+        assertClose("round trip", ByteBuffer.wrap(src), yuv, src.length);
+    }
+}
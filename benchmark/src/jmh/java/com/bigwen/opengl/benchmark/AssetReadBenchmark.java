@@ -0,0 +1,47 @@
+package com.bigwen.opengl.benchmark;
+
+import com.bigwen.opengl.gl.ShaderSourceLoader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * assets读取的核心部分：GLUtil.readFromAssets()和ShaderSourceLoader都通过readFully()把流读成字符串。
+ * 用内存中的流代替AssetManager，只衡量读取和解码本身。
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AssetReadBenchmark {
+
+    // 一般的shader文件、带大段include的shader
+    @Param({"1024", "32768"})
+    public int size;
+
+    private byte[] mSource;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder(size);
+        int line = 0;
+        while (builder.length() < size) {
+            builder.append("    gl_FragColor = texture2D(s_texture, v_texCoord + vec2(")
+                    .append(line++).append(".0));\n");
+        }
+        builder.setLength(size);
+        mSource = builder.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public String readFully() throws IOException {
+        return ShaderSourceLoader.readFully(new ByteArrayInputStream(mSource));
+    }
+}
@@ -0,0 +1,54 @@
+package com.bigwen.opengl.benchmark;
+
+import com.bigwen.opengl.gl.GLUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GLUtil创建顶点、索引缓冲区的开销，每次调用都分配direct buffer
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BufferBenchmark {
+
+    // 一个矩形、一个1024个顶点的网格
+    @Param({"8", "2048"})
+    public int length;
+
+    private float[] mVertices;
+    private short[] mIndices;
+
+    @Setup
+    public void setup() {
+        mVertices = new float[length];
+        mIndices = new short[length];
+        for (int i = 0; i < length; ++i) {
+            mVertices[i] = i * 0.5f;
+            mIndices[i] = (short) i;
+        }
+    }
+
+    @Benchmark
+    public FloatBuffer createFloatBuffer() {
+        return GLUtil.createBuffer(mVertices);
+    }
+
+    @Benchmark
+    public FloatBuffer array2Buffer() {
+        return GLUtil.array2Buffer(mVertices);
+    }
+
+    @Benchmark
+    public ShortBuffer createShortBuffer() {
+        return GLUtil.createBuffer(mIndices);
+    }
+}
@@ -0,0 +1,47 @@
+package com.bigwen.opengl.benchmark;
+
+import android.opengl.Matrix;
+
+import com.bigwen.opengl.camera.FrameOutput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每帧绘制到预览和输出surface前的宽高适配计算（原PreviewProxy.drawToPreview()中的代码，现为FrameOutput.layout()），
+ * 以及纹理矩阵的变换。
+ *
+ * android.opengl.Matrix.rotateM()依赖native的multiplyMM()，不能在JVM上执行，这里只覆盖纯Java的方法。
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayoutBenchmark {
+
+    @Param({"0", "1", "2"})
+    public int scaleMode;
+
+    private final float[] mMatrix = new float[16];
+    private final int[] mViewport = new int[4];
+
+    @Benchmark
+    public int[] layout() {
+        Matrix.setIdentityM(mMatrix, 0);
+        FrameOutput.layout(1280, 720, 1080, 2160, scaleMode, mMatrix, mViewport);
+        return mViewport;
+    }
+
+    // DisplayBridge中NV21纹理矩阵的翻转部分
+    @Benchmark
+    public float[] flipMatrix() {
+        Matrix.setIdentityM(mMatrix, 0);
+        Matrix.translateM(mMatrix, 0, 0.5f, 0.5f, 0);
+        Matrix.scaleM(mMatrix, 0, 1, -1, 1);
+        Matrix.translateM(mMatrix, 0, -0.5f, -0.5f, 0);
+        return mMatrix;
+    }
+}
@@ -0,0 +1,82 @@
+package com.bigwen.opengl.benchmark;
+
+import com.bigwen.opengl.yuv.NaiveYuvConverter;
+import com.bigwen.opengl.yuv.YuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 720p帧的CPU格式转换，YuvConverter与逐像素浮点实现对比。
+ * parallelism为1时只在调用线程转换，可以单独看内层循环的效果。
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class YuvBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private YuvConverter mConverter;
+    private byte[] mNv21;
+    private ByteBuffer mRgba;
+    private ByteBuffer mYuv;
+
+    @Setup
+    public void setup() {
+        mConverter = new YuvConverter(parallelism);
+        mNv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(1).nextBytes(mNv21);
+        mRgba = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.nativeOrder());
+        mYuv = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 3 / 2);
+        mConverter.nv21ToRgba(mNv21, WIDTH, HEIGHT, mRgba);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mConverter.release();
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToRgba() {
+        mConverter.nv21ToRgba(mNv21, WIDTH, HEIGHT, mRgba);
+        return mRgba;
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToRgbaNaive() {
+        NaiveYuvConverter.nv21ToRgba(mNv21, WIDTH, HEIGHT, mRgba);
+        return mRgba;
+    }
+
+    @Benchmark
+    public ByteBuffer rgbaToNv21() {
+        mConverter.rgbaToNv21(mRgba, WIDTH, HEIGHT, mYuv);
+        return mYuv;
+    }
+
+    @Benchmark
+    public ByteBuffer rgbaToNv21Naive() {
+        NaiveYuvConverter.rgbaToNv21(mRgba, WIDTH, HEIGHT, mYuv);
+        return mYuv;
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToI420() {
+        mConverter.nv21ToI420(mNv21, WIDTH, HEIGHT, mYuv);
+        return mYuv;
+    }
+}